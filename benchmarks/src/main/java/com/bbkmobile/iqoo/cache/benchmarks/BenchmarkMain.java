@@ -0,0 +1,24 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line, all of them by default,
+ * with the GC profiler attached so allocation per operation is reported next
+ * to every score. Any JMH option is accepted, e.g.
+ * {@code java -jar benchmarks.jar CacheBenchmark -p cache=redis}.
+ *
+ * @author lqzhai
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
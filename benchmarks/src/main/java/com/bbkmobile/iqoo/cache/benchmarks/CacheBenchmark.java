@@ -0,0 +1,141 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.ShardedJedisPool;
+
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.ehcache.EhcacheCache;
+import com.bbkmobile.iqoo.cache.offheap.OffHeapCache;
+import com.bbkmobile.iqoo.cache.redis.LocalRedisServer;
+import com.bbkmobile.iqoo.cache.redis.RedisCache;
+import com.bbkmobile.iqoo.cache.redis.RedisShardedCache;
+import com.bbkmobile.iqoo.cache.redis.serializer.JacksonJsonRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.KeySerializers;
+
+/**
+ * {@code get}/{@code put} throughput and latency distribution of the caches.
+ * Redis caches talk to {@link LocalRedisServer} stand-ins over loopback, two
+ * of them for the sharded cache, so the numbers include the client's
+ * pooling, serialization and socket costs but not a real server's; compare
+ * them with each other, not with production latencies.
+ *
+ * @author lqzhai
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CacheBenchmark {
+
+    private static final int KEYS = 1000;
+
+    @Param({ "redis", "sharded", "ehcache", "offheap" })
+    public String cache;
+
+    private final List<LocalRedisServer> servers = new ArrayList<LocalRedisServer>();
+    private JedisPool pool;
+    private ShardedJedisPool shardedPool;
+    private net.sf.ehcache.CacheManager ehcacheManager;
+    private Cache<String, Sample> target;
+    private String[] keys;
+    private Sample[] values;
+
+    @Setup
+    public void setUp() throws IOException {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(16);
+        config.setMaxIdle(16);
+        if ("redis".equals(cache)) {
+            LocalRedisServer server = start();
+            pool = new JedisPool(config, "127.0.0.1", server.getPort());
+            RedisCache<String, Sample> redis = new RedisCache<String, Sample>("bench", pool, String.class, Sample.class);
+            redis.getNativeCache().setKeySerializer(KeySerializers.forType(String.class));
+            target = redis;
+        } else if ("sharded".equals(cache)) {
+            List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+            for (int i = 0; i < 2; i++) {
+                shards.add(new JedisShardInfo("127.0.0.1", start().getPort()));
+            }
+            shardedPool = new ShardedJedisPool(config, shards);
+            RedisShardedCache<String, Sample> sharded = new RedisShardedCache<String, Sample>("bench", shardedPool,
+                    String.class, Sample.class);
+            sharded.setKeySerializer(KeySerializers.forType(String.class));
+            target = sharded;
+        } else if ("ehcache".equals(cache)) {
+            ehcacheManager = new net.sf.ehcache.CacheManager();
+            ehcacheManager.addCache(new net.sf.ehcache.Cache("bench", KEYS * 2, false, true, 0, 0));
+            target = new EhcacheCache<String, Sample>(ehcacheManager.getCache("bench"));
+        } else if ("offheap".equals(cache)) {
+            target = new OffHeapCache<String, Sample>("bench", 16L << 20, KeySerializers.forType(String.class),
+                    new JacksonJsonRedisSerializer<Sample>(Sample.class));
+        } else {
+            throw new IllegalArgumentException(cache);
+        }
+        keys = new String[KEYS];
+        values = new Sample[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "user." + i + ".cellphone";
+            values[i] = Sample.create(i);
+            target.put(keys[i], values[i]);
+        }
+    }
+
+    private LocalRedisServer start() throws IOException {
+        LocalRedisServer server = new LocalRedisServer().start(0);
+        servers.add(server);
+        return server;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.destroy();
+        }
+        if (shardedPool != null) {
+            shardedPool.destroy();
+        }
+        if (ehcacheManager != null) {
+            ehcacheManager.shutdown();
+        }
+        for (LocalRedisServer server : servers) {
+            server.stop();
+        }
+        servers.clear();
+    }
+
+    @Benchmark
+    public Sample get() {
+        return target.get(keys[ThreadLocalRandom.current().nextInt(KEYS)]);
+    }
+
+    @Benchmark
+    public Sample put() {
+        int i = ThreadLocalRandom.current().nextInt(KEYS);
+        return target.put(keys[i], values[i]);
+    }
+}
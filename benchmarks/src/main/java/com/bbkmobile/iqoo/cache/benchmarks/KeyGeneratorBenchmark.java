@@ -0,0 +1,60 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbkmobile.iqoo.cache.CacheKey;
+import com.bbkmobile.iqoo.cache.CacheKeyGenerator;
+import com.bbkmobile.iqoo.cache.CacheKeyTemplate;
+
+/**
+ * Cost of building a cache key from a user id and a client type, with and
+ * without whitespace to strip.
+ *
+ * @author lqzhai
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyGeneratorBenchmark {
+
+    @Param({ "cellphone", "cell phone" })
+    public String clientType;
+
+    private final CacheKeyTemplate template = CacheKeyGenerator.template("user");
+    private Long userId;
+
+    @Setup
+    public void setUp() {
+        userId = 123456L;
+    }
+
+    @Benchmark
+    public String key() {
+        return CacheKeyGenerator.key("user", userId, clientType);
+    }
+
+    @Benchmark
+    public String templateKey() {
+        return template.key(userId, clientType);
+    }
+
+    @Benchmark
+    public CacheKey templateCacheKey() {
+        return template.cacheKey(userId, clientType);
+    }
+}
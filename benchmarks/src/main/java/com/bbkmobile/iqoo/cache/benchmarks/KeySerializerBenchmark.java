@@ -0,0 +1,86 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbkmobile.iqoo.cache.CacheKey;
+import com.bbkmobile.iqoo.cache.redis.serializer.CacheKeyRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.JacksonJsonRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.LongRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.RawKeySerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.RedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+import com.bbkmobile.iqoo.cache.redis.serializer.SimpleSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.StringRedisSerializer;
+
+/**
+ * Encode and decode cost of the key serializers on a key as
+ * {@code CacheKeyGenerator} builds them, or on a numeric id for
+ * {@code long}.
+ *
+ * @author lqzhai
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeySerializerBenchmark {
+
+    @Param({ "simple", "jackson", "string", "raw", "cacheKey", "long" })
+    public String serializer;
+
+    private RedisSerializer<Object> codec;
+    private Object key;
+    private byte[] encoded;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Setup
+    public void setUp() throws SerializationException {
+        String text = "user.123456.cellphone";
+        key = text;
+        if ("simple".equals(serializer)) {
+            codec = new SimpleSerializer<Object>();
+        } else if ("jackson".equals(serializer)) {
+            codec = (RedisSerializer) new JacksonJsonRedisSerializer<String>(String.class);
+        } else if ("string".equals(serializer)) {
+            codec = (RedisSerializer) new StringRedisSerializer();
+        } else if ("raw".equals(serializer)) {
+            codec = new RawKeySerializer<Object>();
+        } else if ("cacheKey".equals(serializer)) {
+            codec = (RedisSerializer) new CacheKeyRedisSerializer();
+            key = new CacheKey(text);
+        } else if ("long".equals(serializer)) {
+            codec = (RedisSerializer) new LongRedisSerializer();
+            key = 123456L;
+        } else {
+            throw new IllegalArgumentException(serializer);
+        }
+        encoded = codec.serialize(key);
+        System.out.println(serializer + ": " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode(PayloadBytes counter) throws SerializationException {
+        byte[] bytes = codec.serialize(key);
+        counter.bytes += bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object decode() throws SerializationException {
+        return codec.deserialize(encoded);
+    }
+}
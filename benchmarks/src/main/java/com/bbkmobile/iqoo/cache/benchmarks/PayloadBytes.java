@@ -0,0 +1,26 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the bytes produced by encoding benchmarks. JMH reports the counter
+ * in the unit of the primary result, so in throughput mode
+ * {@code bytes / ops} is the payload size per operation.
+ *
+ * @author lqzhai
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PayloadBytes {
+
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        bytes = 0;
+    }
+}
@@ -0,0 +1,94 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Value cached by the benchmarks, shaped like a typical user record: a few
+ * numbers, short strings and a small list.
+ *
+ * @author lqzhai
+ */
+public class Sample implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private long created;
+    private int score;
+    private String name;
+    private String email;
+    private boolean active;
+    private List<String> tags;
+
+    public static Sample create(long id) {
+        Sample sample = new Sample();
+        sample.id = id;
+        sample.created = 1400000000000L + id;
+        sample.score = (int) (id % 100);
+        sample.name = "user" + id;
+        sample.email = "user" + id + "@example.com";
+        sample.active = id % 2 == 0;
+        sample.tags = new ArrayList<String>();
+        sample.tags.add("cellphone");
+        sample.tags.add("vip" + id % 5);
+        return sample;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public void setScore(int score) {
+        this.score = score;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+}
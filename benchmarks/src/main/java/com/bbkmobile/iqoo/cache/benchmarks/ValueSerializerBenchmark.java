@@ -0,0 +1,80 @@
+package com.bbkmobile.iqoo.cache.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.bbkmobile.iqoo.cache.redis.serializer.CompactSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.CompressingSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.JacksonJsonRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.RedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+import com.bbkmobile.iqoo.cache.redis.serializer.SimpleSerializer;
+
+/**
+ * Encode and decode cost of the value serializers on a {@link Sample}.
+ *
+ * @author lqzhai
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueSerializerBenchmark {
+
+    @Param({ "simple", "jackson", "compact", "jackson+deflate", "compact+deflate" })
+    public String serializer;
+
+    private RedisSerializer<Sample> codec;
+    private Sample value;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws SerializationException {
+        codec = create(serializer);
+        value = Sample.create(123456L);
+        encoded = codec.serialize(value);
+        System.out.println(serializer + ": " + encoded.length + " bytes");
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static RedisSerializer<Sample> create(String name) {
+        if (name.endsWith("+deflate")) {
+            return new CompressingSerializer<Sample>(create(name.substring(0, name.indexOf('+'))), 64);
+        }
+        if ("simple".equals(name)) {
+            return new SimpleSerializer<Sample>();
+        }
+        if ("jackson".equals(name)) {
+            return new JacksonJsonRedisSerializer<Sample>(Sample.class);
+        }
+        if ("compact".equals(name)) {
+            return (RedisSerializer) new CompactSerializer<Object>().register(Sample.class, 32);
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    @Benchmark
+    public byte[] encode(PayloadBytes counter) throws SerializationException {
+        byte[] bytes = codec.serialize(value);
+        counter.bytes += bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Sample decode() throws SerializationException {
+        return codec.deserialize(encoded);
+    }
+}
@@ -0,0 +1,28 @@
+package com.bbkmobile.iqoo.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variants of the {@link Cache} calls that go to a remote
+ * store. Each runs on an executor of the cache instead of the calling thread,
+ * so independent lookups of a request overlap with each other and with other
+ * I/O.
+ *
+ * <p>Futures fail with a {@link CacheException} where the blocking call
+ * would throw one, including when the executor has no room left for the
+ * call.</p>
+ *
+ * @author lqzhai
+ */
+public interface AsyncCache<K, V> extends Cache<K, V> {
+
+    public CompletableFuture<V> getAsync(K key);
+
+    public CompletableFuture<V> putAsync(K key, V value);
+
+    public CompletableFuture<V> removeAsync(K key);
+
+    public CompletableFuture<Map<K, V>> getAllAsync(Collection<K> keys);
+}
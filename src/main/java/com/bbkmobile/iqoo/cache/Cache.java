@@ -20,6 +20,7 @@ package com.bbkmobile.iqoo.cache;
  */
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -44,6 +45,17 @@ public interface Cache<K, V> {
      */
     public V get(K key) throws CacheException;
 
+    /**
+     * Returns the value of {@code key}, loading and caching it on a miss.
+     * Concurrent misses on one key in a JVM share a single load.
+     *
+     * @param key the key whose value is wanted
+     * @param loader computes the value on a miss
+     * @return the cached or loaded value, {@code null} if the loader had none
+     * @throws CacheException if the cache or the loader failed
+     */
+    public V get(K key, CacheLoader<K, V> loader) throws CacheException;
+
     /**
      * Adds a Cache entry.
      *
@@ -54,6 +66,19 @@ public interface Cache<K, V> {
      */
     public V put(K key, V value) throws CacheException;
 
+    /**
+     * Adds a Cache entry that expires on its own schedule.
+     *
+     * @param key   the key used to identify the object being stored.
+     * @param value the value to be stored in the cache.
+     * @param timeToLiveSeconds seconds after which the entry expires, 0 or less for the cache default
+     * @param timeToIdleSeconds seconds without access after which the entry expires, 0 or less for the cache default
+     * @return the previous value associated with the given {@code key} or {@code null} if there was previous value
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     * @throws UnsupportedOperationException if the underlying cache cannot expire single entries
+     */
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException;
+
     /**
      * Remove the cache entry corresponding to the specified key.
      *
@@ -92,4 +117,30 @@ public interface Cache<K, V> {
     public Collection<V> values();
     
     public void removeAll();
+
+    /**
+     * Returns the cached values stored under the specified {@code keys}, fetched
+     * in as few round trips to the underlying cache system as it allows.
+     *
+     * @param keys the keys that the values were previously added with
+     * @return the entries found, keyed by their key; keys without an entry are absent from the map
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException;
+
+    /**
+     * Adds several Cache entries at once.
+     *
+     * @param entries the keys and values to be stored in the cache.
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    public void putAll(Map<K, V> entries) throws CacheException;
+
+    /**
+     * Removes the cache entries corresponding to the specified keys.
+     *
+     * @param keys the keys of the entries to be removed.
+     * @throws CacheException if there is a problem accessing the underlying cache system
+     */
+    public void removeAll(Collection<K> keys) throws CacheException;
 }
@@ -0,0 +1,88 @@
+package com.bbkmobile.iqoo.cache;
+
+import java.io.Serializable;
+import java.nio.charset.Charset;
+
+/**
+ * Cache key wrapping a key string, as built by {@link CacheKeyTemplate}. It
+ * computes its hash code and its UTF-8 encoding once, so a key held by the
+ * caller and used for several cache calls is neither rehashed nor re-encoded
+ * by the Redis layer, which writes these bytes as they are.
+ *
+ * <p>Two keys are equal when their strings are; a {@code CacheKey} is never
+ * equal to a {@code String}. Redis caches typed with {@code CacheKey} store
+ * the same bytes as caches typed with {@code String}.</p>
+ *
+ * @author lqzhai
+ */
+public final class CacheKey implements Serializable, Comparable<CacheKey> {
+
+    private static final long serialVersionUID = 1L;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String value;
+    private final int hash;
+    private transient volatile byte[] bytes;
+
+    public CacheKey(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null.");
+        }
+        this.value = value;
+        this.hash = value.hashCode();
+    }
+
+    /**
+     * Wraps a key read back from Redis, keeping its bytes.
+     *
+     * @param bytes the UTF-8 encoding of {@code value}, not copied
+     */
+    public CacheKey(String value, byte[] bytes) {
+        this(value);
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the UTF-8 encoding of the key, computed once; callers must not
+     * modify it
+     */
+    public byte[] getBytes() {
+        byte[] b = bytes;
+        if (b == null) {
+            b = value.getBytes(UTF8);
+            bytes = b;
+        }
+        return b;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey other = (CacheKey) o;
+        return hash == other.hash && value.equals(other.value);
+    }
+
+    @Override
+    public int compareTo(CacheKey o) {
+        return value.compareTo(o.value);
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
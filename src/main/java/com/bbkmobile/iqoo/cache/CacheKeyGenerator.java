@@ -1,6 +1,5 @@
 package com.bbkmobile.iqoo.cache;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 /**
  * 按条件生成key
@@ -9,32 +8,60 @@ import java.util.regex.Pattern;
  */
 public class CacheKeyGenerator {
 
+	private static final Pattern BLANK = Pattern.compile("\\s*|\t|\r|\n");
+
 	public static String key(String cacheName,Object ...param){
 		if(param != null && param.length >0){
+			StringBuilder sb = new StringBuilder(cacheName.length() + 16 * param.length);
+			sb.append(cacheName);
+			appendParams(sb, param);
+			return sb.toString();
+		}
+		return cacheName;
+	}
+
+	/**
+	 * 同 {@link #key(String, Object...)}，返回缓存了hash和编码的 {@link CacheKey}
+	 */
+	public static CacheKey cacheKey(String cacheName,Object ...param){
+		return new CacheKey(key(cacheName, param));
+	}
+
+	/**
+	 * 预先计算cacheName前缀的key模板，可复用
+	 */
+	public static CacheKeyTemplate template(String cacheName){
+		return new CacheKeyTemplate(cacheName);
+	}
 
-			StringBuffer sb = new StringBuffer();
-			sb.append(cacheName).append(".");
-			
-			for(int i=0; i<param.length; i++){
-				if(param[i] != null )
-				{
-					String paramStr = replaceBlank( String.valueOf(param[i]));
-					sb.append(paramStr).append(".");
-				}
+	static void appendParams(StringBuilder sb, Object[] param){
+		for(int i=0; i<param.length; i++){
+			if(param[i] != null){
+				sb.append('.').append(replaceBlank(String.valueOf(param[i])));
 			}
-			return sb.toString().endsWith(".") ? sb.substring(0,sb.length()-1) : sb.toString();
 		}
-		return cacheName;
 	}
+
 	public static String replaceBlank(String str) {
-		String dest = "";
-		if (str!=null) {
-			Pattern p = Pattern.compile("\\s*|\t|\r|\n");
-			Matcher m = p.matcher(str);
-			dest = m.replaceAll("");
+		if (str == null) {
+			return "";
+		}
+		// 无空白字符时不走正则
+		for (int i = 0; i < str.length(); i++) {
+			if (isBlank(str.charAt(i))) {
+				return BLANK.matcher(str).replaceAll("");
+			}
 		}
-		return dest;
+		return str;
 	}
+
+	/**
+	 * 与正则 \s 相同的字符集
+	 */
+	private static boolean isBlank(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
 	public static String csTStr(String cs){
 		return "0".equals(cs)?"cellphone":"pc";
 	}
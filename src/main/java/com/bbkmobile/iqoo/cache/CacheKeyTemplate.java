@@ -0,0 +1,56 @@
+package com.bbkmobile.iqoo.cache;
+
+/**
+ * Reusable key builder for one cache name, producing the same keys as
+ * {@link CacheKeyGenerator#key(String, Object...)}. The cache name is copied
+ * once into every key instead of being appended parameter by parameter, and
+ * parameters without whitespace skip the regular expression.
+ *
+ * <p>Instances are immutable and meant to be kept in a static field:</p>
+ *
+ * <pre>
+ * private static final CacheKeyTemplate USER = CacheKeyGenerator.template("user");
+ * ...
+ * cache.get(USER.cacheKey(userId, cs));
+ * </pre>
+ *
+ * @author lqzhai
+ */
+public final class CacheKeyTemplate {
+
+    private final String cacheName;
+
+    CacheKeyTemplate(String cacheName) {
+        if (cacheName == null) {
+            throw new IllegalArgumentException("cacheName cannot be null.");
+        }
+        this.cacheName = cacheName;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * @return {@code cacheName.param1.param2...}, null parameters skipped
+     */
+    public String key(Object... params) {
+        if (params == null || params.length == 0) {
+            return cacheName;
+        }
+        if (params.length == 1 && params[0] != null) {
+            return cacheName.concat(".").concat(CacheKeyGenerator.replaceBlank(String.valueOf(params[0])));
+        }
+        StringBuilder sb = new StringBuilder(cacheName.length() + 16 * params.length);
+        sb.append(cacheName);
+        CacheKeyGenerator.appendParams(sb, params);
+        return sb.toString();
+    }
+
+    /**
+     * @return the {@link #key(Object...) key} as a {@link CacheKey}
+     */
+    public CacheKey cacheKey(Object... params) {
+        return new CacheKey(key(params));
+    }
+}
@@ -0,0 +1,19 @@
+package com.bbkmobile.iqoo.cache;
+
+/**
+ * Computes the value of a key missing from a cache, see
+ * {@link Cache#get(Object, CacheLoader)}.
+ *
+ * @author lqzhai
+ */
+public interface CacheLoader<K, V> {
+
+    /**
+     * @return the value to cache, {@code null} if there is none, in which
+     * case the Redis caches store a negative entry and the others cache
+     * nothing
+     * @throws Exception passed to the callers waiting on the load, wrapped in
+     * a {@link CacheException} if checked
+     */
+    public V load(K key) throws Exception;
+}
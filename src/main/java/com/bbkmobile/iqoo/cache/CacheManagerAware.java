@@ -41,7 +41,8 @@ public interface CacheManagerAware {
      */
     void preLoad();
     /**
-     * refresh
+     * refresh; called periodically by a {@link CacheRefreshScheduler} if one
+     * is set on the {@link CachePostProcessor}
      */
     void refresh();
 }
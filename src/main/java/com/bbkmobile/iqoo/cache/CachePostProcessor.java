@@ -1,20 +1,90 @@
 package com.bbkmobile.iqoo.cache;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 /**
  * 缓存预加载 beanPostProcessor
+ * 设置了 refreshScheduler 时，预加载后按间隔定时调用 refresh()
+ * preloadThreads 大于 0 时预加载在线程池里并行执行，bean 创建不再等待预加载；
+ * preloadDependencies 声明的依赖先完成预加载，{@link CachePreloadBarrier} 等待预加载完成；
+ * 依赖不能成环，容器里不会创建为 CacheManagerAware 单例的依赖直接忽略
+ * {@link Snapshottable} 的缓存管理器初始化后先从快照恢复缓存
  * @author time
  *
  */
-public class CachePostProcessor implements BeanPostProcessor{
+public class CachePostProcessor implements BeanPostProcessor, BeanFactoryAware{
+
+	private static final Logger log = LoggerFactory.getLogger(CachePostProcessor.class);
+
+	private CacheRefreshScheduler refreshScheduler;
+	/**
+	 * 并行预加载的线程数，0 表示在创建 bean 的线程里依次预加载
+	 */
+	private int preloadThreads = 0;
+	/**
+	 * bean 名 -> 需要先完成预加载的 bean 名
+	 */
+	private Map<String, Collection<String>> preloadDependencies = new HashMap<String, Collection<String>>();
+	/**
+	 * awaitPreloads 等待的 bean 名，null 表示全部
+	 */
+	private Set<String> requiredPreloads;
+	private long preloadTimeoutSeconds = 600L;
+
+	private final ConcurrentMap<String, CompletableFuture<Void>> preloads = new ConcurrentHashMap<String, CompletableFuture<Void>>();
+	private final Set<String> submitted = ConcurrentHashMap.newKeySet();
+	private final Map<String, Long> preloadMillis = new ConcurrentHashMap<String, Long>();
+	private ThreadPoolExecutor preloadExecutor;
+	private BeanFactory beanFactory;
+
+	@Override
+	public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
+		this.beanFactory = beanFactory;
+	}
 
 	@Override
 	public Object postProcessAfterInitialization(Object bean, String beanName)
 			throws BeansException {
+		if(bean instanceof Snapshottable){
+			long start = System.nanoTime();
+			int restored = ((Snapshottable) bean).restore();
+			log.info("Restored {} cache entries of [{}] in {} ms", restored, beanName,
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
 		if(bean != null && bean instanceof CacheManagerAware){
 			CacheManagerAware cache = (CacheManagerAware) bean;
-			cache.preLoad();
+			if(preloadThreads > 0){
+				submit(beanName, cache);
+			}else{
+				preload(beanName, cache);
+			}
 		}
 		return bean;
 	}
@@ -25,4 +95,255 @@ public class CachePostProcessor implements BeanPostProcessor{
 		return bean;
 	}
 
+	/**
+	 * 等待预加载完成：requiredPreloads 中的 bean（未设置时为全部）全部预加载成功才返回。
+	 * 依赖了不存在的 bean 名时忽略该依赖。
+	 *
+	 * @throws CacheException 预加载失败或超过 preloadTimeoutSeconds
+	 */
+	public void awaitPreloads() throws CacheException {
+		for (Map.Entry<String, CompletableFuture<Void>> entry : preloads.entrySet()) {
+			// 所有 bean 都已创建，没出现的依赖不会再预加载
+			if (!submitted.contains(entry.getKey())) {
+				ignore(entry.getKey());
+			}
+		}
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.SECONDS.toNanos(preloadTimeoutSeconds);
+		for (Map.Entry<String, CompletableFuture<Void>> entry : preloads.entrySet()) {
+			String name = entry.getKey();
+			if (requiredPreloads != null && !requiredPreloads.contains(name)) {
+				continue;
+			}
+			try {
+				entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				throw new CacheException("Timed out waiting for the preload of [" + name + "], still pending: "
+						+ describePending());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new CacheException("Interrupted waiting for the preload of [" + name + "]", e);
+			} catch (ExecutionException e) {
+				throw new CacheException("Preload of [" + name + "] failed", e.getCause());
+			}
+		}
+		log.info("Caches preloaded, waited {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	/**
+	 * @return 还未完成预加载的 bean 名
+	 */
+	public Set<String> getPendingPreloads() {
+		Set<String> pending = new HashSet<String>();
+		for (Map.Entry<String, CompletableFuture<Void>> entry : preloads.entrySet()) {
+			if (!entry.getValue().isDone()) {
+				pending.add(entry.getKey());
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * @return 未完成的预加载及其未完成的依赖，如 a <- [b]
+	 */
+	private String describePending() {
+		StringBuilder pending = new StringBuilder();
+		for (String name : getPendingPreloads()) {
+			List<String> waiting = new ArrayList<String>();
+			Collection<String> dependencies = preloadDependencies.get(name);
+			if (dependencies != null) {
+				for (String dependency : dependencies) {
+					CompletableFuture<Void> future = preloads.get(dependency);
+					if (future != null && !future.isDone()) {
+						waiting.add(dependency);
+					}
+				}
+			}
+			if (pending.length() > 0) {
+				pending.append(", ");
+			}
+			pending.append(name);
+			if (!waiting.isEmpty()) {
+				pending.append(" <- ").append(waiting);
+			} else if (!submitted.contains(name)) {
+				pending.append(" (not created yet)");
+			}
+		}
+		return pending.toString();
+	}
+
+	/**
+	 * @return 每个 bean 预加载所用的毫秒数
+	 */
+	public Map<String, Long> getPreloadMillis() {
+		return Collections.unmodifiableMap(preloadMillis);
+	}
+
+	private void preload(String beanName, CacheManagerAware cache) {
+		long start = System.nanoTime();
+		cache.preLoad();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		preloadMillis.put(beanName, millis);
+		log.info("Preloaded the caches of [{}] in {} ms", beanName, millis);
+		if(refreshScheduler != null){
+			refreshScheduler.register(beanName, cache);
+		}
+	}
+
+	private void submit(final String beanName, final CacheManagerAware cache) {
+		submitted.add(beanName);
+		final CompletableFuture<Void> done = future(beanName);
+		Collection<String> dependencies = preloadDependencies.get(beanName);
+		List<CompletableFuture<Void>> waits = new ArrayList<CompletableFuture<Void>>();
+		if (dependencies != null) {
+			for (String dependency : dependencies) {
+				CompletableFuture<Void> wait = future(dependency);
+				if (!willPreload(dependency)) {
+					ignore(dependency);
+				}
+				waits.add(wait);
+			}
+		}
+		CompletableFuture.allOf(waits.toArray(new CompletableFuture<?>[waits.size()])).thenRunAsync(new Runnable() {
+			@Override
+			public void run() {
+				preload(beanName, cache);
+			}
+		}, executor()).whenComplete(new BiConsumer<Void, Throwable>() {
+			@Override
+			public void accept(Void ignored, Throwable failure) {
+				if (failure == null) {
+					done.complete(null);
+				} else {
+					log.error("Failed to preload the caches of [" + beanName + "]", failure);
+					done.completeExceptionally(failure);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return 依赖是否已提交预加载，或将作为 CacheManagerAware 单例创建；
+	 * 不知道容器时按会创建处理
+	 */
+	private boolean willPreload(String beanName) {
+		if (submitted.contains(beanName) || !(beanFactory instanceof ConfigurableListableBeanFactory)) {
+			return true;
+		}
+		ConfigurableListableBeanFactory factory = (ConfigurableListableBeanFactory) beanFactory;
+		if (!factory.containsBeanDefinition(beanName)) {
+			return false;
+		}
+		BeanDefinition definition = factory.getBeanDefinition(beanName);
+		return definition.isSingleton() && !definition.isAbstract() && !definition.isLazyInit()
+				&& factory.isTypeMatch(beanName, CacheManagerAware.class);
+	}
+
+	/**
+	 * 不会预加载的依赖视为已完成，依赖它的预加载照常进行
+	 */
+	private void ignore(String beanName) {
+		if (future(beanName).complete(null)) {
+			log.warn("Preload dependency [{}] is not a CacheManagerAware bean, ignored", beanName);
+		}
+	}
+
+	private CompletableFuture<Void> future(String beanName) {
+		CompletableFuture<Void> future = new CompletableFuture<Void>();
+		CompletableFuture<Void> existing = preloads.putIfAbsent(beanName, future);
+		return existing != null ? existing : future;
+	}
+
+	private synchronized ThreadPoolExecutor executor() {
+		if (preloadExecutor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			preloadExecutor = new ThreadPoolExecutor(preloadThreads, preloadThreads, 30L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "cache-preload-" + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			// 预加载完后线程退出
+			preloadExecutor.allowCoreThreadTimeOut(true);
+		}
+		return preloadExecutor;
+	}
+
+	public CacheRefreshScheduler getRefreshScheduler() {
+		return refreshScheduler;
+	}
+
+	public void setRefreshScheduler(CacheRefreshScheduler refreshScheduler) {
+		this.refreshScheduler = refreshScheduler;
+	}
+
+	public int getPreloadThreads() {
+		return preloadThreads;
+	}
+
+	public void setPreloadThreads(int preloadThreads) {
+		this.preloadThreads = preloadThreads;
+	}
+
+	public Map<String, Collection<String>> getPreloadDependencies() {
+		return preloadDependencies;
+	}
+
+	/**
+	 * @throws IllegalArgumentException 依赖成环时，环上的预加载会永远等待
+	 */
+	public void setPreloadDependencies(Map<String, Collection<String>> preloadDependencies) {
+		Map<String, Collection<String>> dependencies = preloadDependencies == null
+				? new HashMap<String, Collection<String>>()
+				: new LinkedHashMap<String, Collection<String>>(preloadDependencies);
+		Set<String> checked = new HashSet<String>();
+		for (String name : dependencies.keySet()) {
+			checkCycle(name, dependencies, new ArrayList<String>(), checked);
+		}
+		this.preloadDependencies = dependencies;
+	}
+
+	private static void checkCycle(String name, Map<String, Collection<String>> dependencies, List<String> path,
+			Set<String> checked) {
+		int at = path.indexOf(name);
+		if (at >= 0) {
+			StringBuilder cycle = new StringBuilder();
+			for (String step : path.subList(at, path.size())) {
+				cycle.append(step).append(" -> ");
+			}
+			throw new IllegalArgumentException("Cyclic preload dependencies: " + cycle.append(name));
+		}
+		if (checked.contains(name)) {
+			return;
+		}
+		Collection<String> next = dependencies.get(name);
+		if (next != null) {
+			path.add(name);
+			for (String dependency : next) {
+				checkCycle(dependency, dependencies, path, checked);
+			}
+			path.remove(path.size() - 1);
+		}
+		checked.add(name);
+	}
+
+	public Set<String> getRequiredPreloads() {
+		return requiredPreloads;
+	}
+
+	public void setRequiredPreloads(Set<String> requiredPreloads) {
+		this.requiredPreloads = requiredPreloads;
+	}
+
+	public long getPreloadTimeoutSeconds() {
+		return preloadTimeoutSeconds;
+	}
+
+	public void setPreloadTimeoutSeconds(long preloadTimeoutSeconds) {
+		this.preloadTimeoutSeconds = preloadTimeoutSeconds;
+	}
+
 }
@@ -0,0 +1,33 @@
+package com.bbkmobile.iqoo.cache;
+
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * 预加载屏障：初始化时等待 {@link CachePostProcessor} 的并行预加载完成，
+ * 预加载失败或超时则抛出异常，使容器启动失败。
+ * 声明在所有 CacheManagerAware bean 之后（或用 depends-on 指向它们），
+ * 需要缓存就绪的 bean 再 depends-on 本 bean。
+ * @author lqzhai
+ *
+ */
+public class CachePreloadBarrier implements InitializingBean {
+
+	private CachePostProcessor cachePostProcessor;
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (cachePostProcessor == null) {
+			throw new IllegalArgumentException("cachePostProcessor cannot be null.");
+		}
+		cachePostProcessor.awaitPreloads();
+	}
+
+	public CachePostProcessor getCachePostProcessor() {
+		return cachePostProcessor;
+	}
+
+	public void setCachePostProcessor(CachePostProcessor cachePostProcessor) {
+		this.cachePostProcessor = cachePostProcessor;
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.bbkmobile.iqoo.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls {@link CacheManagerAware#refresh()} of registered components at a
+ * fixed interval, each run shifted by a random jitter so that components
+ * registered together, or on several JVMs, do not all rebuild their caches at
+ * the same moment. A run is scheduled only once the previous one of the same
+ * component finished, so runs never overlap; a failing run is logged and the
+ * next one still happens.
+ *
+ * <p>It also runs the reloads of the {@link RefreshAheadCache refresh-ahead}
+ * caches it creates. Set it on the {@link CachePostProcessor} to register
+ * every {@link CacheManagerAware} bean once preloaded.</p>
+ *
+ * @author lqzhai
+ */
+public class CacheRefreshScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheRefreshScheduler.class);
+
+    private int threads = 2;
+    /**
+     * Refresh interval of the components not given their own, 0 or less to
+     * not refresh them.
+     */
+    private long defaultIntervalSeconds = 600L;
+    /**
+     * Refresh interval per component name, 0 or less to not refresh it.
+     */
+    private Map<String, Long> intervals = new HashMap<String, Long>();
+    /**
+     * Fraction of the interval by which each run is moved earlier or later.
+     */
+    private double jitter = 0.1;
+    private volatile ScheduledExecutorService executor;
+    private volatile boolean destroyed;
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Schedules the refreshes of {@code component} at its interval; the first
+     * one comes after a full, jittered, interval since the component is
+     * expected to have just been preloaded.
+     *
+     * @return whether the component is refreshed, i.e. has a positive interval
+     */
+    public boolean register(String name, CacheManagerAware component) {
+        Long seconds = intervals.get(name);
+        long interval = TimeUnit.SECONDS.toMillis(seconds != null ? seconds : defaultIntervalSeconds);
+        if (interval <= 0) {
+            return false;
+        }
+        schedule(new RefreshTask(name, component, interval));
+        return true;
+    }
+
+    /**
+     * Creates a cache that reloads entries read in their last
+     * {@code refreshAheadSeconds} in the background, on the threads of this
+     * scheduler.
+     *
+     * @param timeToLiveSeconds the time to live {@code cache} applies to its
+     * entries
+     */
+    public <K, V> RefreshAheadCache<K, V> refreshAhead(Cache<K, V> cache, CacheLoader<K, V> loader,
+            int timeToLiveSeconds, int refreshAheadSeconds) {
+        return new RefreshAheadCache<K, V>(cache, loader, timeToLiveSeconds, refreshAheadSeconds, getExecutor());
+    }
+
+    /**
+     * @return the executor running the refreshes, created on first use
+     */
+    public ScheduledExecutorService getExecutor() {
+        ScheduledExecutorService executor = this.executor;
+        if (executor == null) {
+            synchronized (this) {
+                if (destroyed) {
+                    throw new CacheException("The refresh scheduler was destroyed.");
+                }
+                executor = this.executor;
+                if (executor == null) {
+                    final AtomicInteger count = new AtomicInteger();
+                    executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "cache-refresh-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    this.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Stops scheduling; a running refresh is interrupted.
+     */
+    public void destroy() {
+        synchronized (this) {
+            destroyed = true;
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    private void schedule(RefreshTask task) {
+        if (destroyed) {
+            return;
+        }
+        long spread = (long) (task.interval * jitter);
+        long delay = task.interval + (spread > 0 ? ThreadLocalRandom.current().nextLong(-spread, spread + 1) : 0);
+        try {
+            getExecutor().schedule(task, Math.max(1, delay), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // destroyed meanwhile
+        } catch (CacheException e) {
+            // destroyed meanwhile
+        }
+    }
+
+    private class RefreshTask implements Runnable {
+
+        final String name;
+        final CacheManagerAware component;
+        final long interval;
+
+        RefreshTask(String name, CacheManagerAware component, long interval) {
+            this.name = name;
+            this.component = component;
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            try {
+                component.refresh();
+                refreshes.incrementAndGet();
+            } catch (Throwable t) {
+                failures.incrementAndGet();
+                log.warn("Failed to refresh the caches of [" + name + "]", t);
+            } finally {
+                schedule(this);
+            }
+        }
+    }
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public long getDefaultIntervalSeconds() {
+		return defaultIntervalSeconds;
+	}
+
+	public void setDefaultIntervalSeconds(long defaultIntervalSeconds) {
+		this.defaultIntervalSeconds = defaultIntervalSeconds;
+	}
+
+	public Map<String, Long> getIntervals() {
+		return intervals;
+	}
+
+	public void setIntervals(Map<String, Long> intervals) {
+		this.intervals = intervals == null ? new HashMap<String, Long>() : new HashMap<String, Long>(intervals);
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	public void setJitter(double jitter) {
+		if (jitter < 0 || jitter >= 1) {
+			throw new IllegalArgumentException("jitter must be in [0, 1).");
+		}
+		this.jitter = jitter;
+	}
+}
@@ -0,0 +1,263 @@
+package com.bbkmobile.iqoo.cache;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Cache} decorator reloading entries read shortly before they expire,
+ * in the background, so that hot keys are replaced before readers can miss
+ * them. A miss is loaded in the calling thread, once per key in the JVM.
+ *
+ * <p>Expiry is tracked locally for the most recently used keys: a key written
+ * through this cache expires {@code timeToLiveSeconds} after the write, the
+ * time to live the delegate is expected to apply. A key first seen as a hit,
+ * e.g. written by another JVM, is assumed just written, so it may expire
+ * without a refresh once and is then reloaded like any miss.</p>
+ *
+ * @author lqzhai
+ */
+public class RefreshAheadCache<K, V> implements Cache<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(RefreshAheadCache.class);
+
+    private final Cache<K, V> delegate;
+    private final CacheLoader<K, V> loader;
+    private final long timeToLiveMillis;
+    private final long refreshAheadMillis;
+    private final Executor executor;
+    private final Map<K, Long> expiries;
+    private final Set<K> refreshing = ConcurrentHashMap.newKeySet();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public RefreshAheadCache(Cache<K, V> delegate, CacheLoader<K, V> loader, int timeToLiveSeconds,
+            int refreshAheadSeconds, Executor executor) {
+        this(delegate, loader, timeToLiveSeconds, refreshAheadSeconds, executor, 10000);
+    }
+
+    /**
+     * @param delegate the cache holding the entries
+     * @param loader loads missing and expiring entries
+     * @param timeToLiveSeconds the time to live the delegate applies
+     * @param refreshAheadSeconds how long before expiry a read triggers a
+     * reload; less than the time to live
+     * @param executor runs the reloads
+     * @param maxTracked the most keys whose expiry is tracked
+     */
+    public RefreshAheadCache(Cache<K, V> delegate, CacheLoader<K, V> loader, int timeToLiveSeconds,
+            int refreshAheadSeconds, Executor executor, final int maxTracked) {
+        if (delegate == null || loader == null || executor == null) {
+            throw new IllegalArgumentException("delegate, loader and executor cannot be null.");
+        }
+        if (refreshAheadSeconds <= 0 || refreshAheadSeconds >= timeToLiveSeconds) {
+            throw new IllegalArgumentException("refreshAheadSeconds must be positive and less than timeToLiveSeconds.");
+        }
+        this.delegate = delegate;
+        this.loader = loader;
+        this.timeToLiveMillis = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+        this.refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+        this.executor = executor;
+        this.expiries = new LinkedHashMap<K, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+                return size() > maxTracked;
+            }
+        };
+    }
+
+    /**
+     * Loads a missing entry with the loader of this cache.
+     */
+    @Override
+    public V get(K key) throws CacheException {
+        return get(key, loader);
+    }
+
+    @Override
+    public V get(K key, final CacheLoader<K, V> loader) throws CacheException {
+        final boolean[] loaded = new boolean[1];
+        V value = delegate.get(key, new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                loaded[0] = true;
+                V value = loader.load(key);
+                written(key, value);
+                return value;
+            }
+        });
+        if (value != null && !loaded[0]) {
+            read(key);
+        }
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        V previous = delegate.put(key, value);
+        written(key, value);
+        return previous;
+    }
+
+    /**
+     * The entry is tracked as expiring after {@code timeToLiveSeconds} if
+     * given, else after the time to live of this cache.
+     */
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        V previous = delegate.put(key, value, timeToLiveSeconds, timeToIdleSeconds);
+        if (timeToLiveSeconds > 0) {
+            track(key, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeToLiveSeconds));
+        } else {
+            written(key, value);
+        }
+        return previous;
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        untrack(key);
+        return delegate.remove(key);
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        synchronized (expiries) {
+            expiries.clear();
+        }
+        delegate.clear();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public Set<K> keys() {
+        return delegate.keys();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return delegate.values();
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    /**
+     * Refreshes the expiring entries found; missing ones are left out, not
+     * loaded.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> found = delegate.getAll(keys);
+        for (K key : found.keySet()) {
+            read(key);
+        }
+        return found;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        delegate.putAll(entries);
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            written(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        for (K key : keys) {
+            untrack(key);
+        }
+        delegate.removeAll(keys);
+    }
+
+    public Cache<K, V> getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return the background reloads done
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getRefreshFailureCount() {
+        return failures.get();
+    }
+
+    private void read(final K key) {
+        long now = System.currentTimeMillis();
+        Long expiresAt;
+        synchronized (expiries) {
+            expiresAt = expiries.get(key);
+            if (expiresAt == null) {
+                expiries.put(key, now + timeToLiveMillis);
+                return;
+            }
+        }
+        if (expiresAt - now > refreshAheadMillis || !refreshing.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refresh(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+        }
+    }
+
+    private void refresh(K key) {
+        try {
+            V value = loader.load(key);
+            if (value != null) {
+                put(key, value);
+            }
+            refreshes.incrementAndGet();
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("Failed to refresh key [" + key + "]", e);
+        } finally {
+            refreshing.remove(key);
+        }
+    }
+
+    private void written(K key, V value) {
+        if (value != null) {
+            track(key, System.currentTimeMillis() + timeToLiveMillis);
+        }
+    }
+
+    private void track(K key, long expiresAt) {
+        synchronized (expiries) {
+            expiries.put(key, expiresAt);
+        }
+    }
+
+    private void untrack(K key) {
+        synchronized (expiries) {
+            expiries.remove(key);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.bbkmobile.iqoo.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs at most one load per key at a time: callers asking for a key that is
+ * already being loaded wait for that load and share its result or failure,
+ * instead of all hitting the database when a hot entry expires.
+ *
+ * @author lqzhai
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inflight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+
+    /**
+     * Runs {@code load} unless a load of {@code key} is in flight, in which
+     * case its result is returned.
+     */
+    public V load(K key, Callable<V> load) throws CacheException {
+        CompletableFuture<V> own = new CompletableFuture<V>();
+        CompletableFuture<V> running = inflight.putIfAbsent(key, own);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            V value = load.call();
+            own.complete(value);
+            return value;
+        } catch (Exception e) {
+            own.completeExceptionally(e);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new CacheException(e);
+        } catch (Error e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, own);
+        }
+    }
+
+    /**
+     * @return the keys being loaded
+     */
+    public int getInflightCount() {
+        return inflight.size();
+    }
+
+    private static <V> V await(CompletableFuture<V> running) {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheException("Interrupted while waiting for a load", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CacheException(cause);
+        }
+    }
+}
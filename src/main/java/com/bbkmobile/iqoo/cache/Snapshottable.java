@@ -0,0 +1,26 @@
+package com.bbkmobile.iqoo.cache;
+
+/**
+ * Implemented by cache managers able to save their local caches and restore
+ * them after a restart. {@link CachePostProcessor} calls {@link #restore()}
+ * on such a manager bean once it is initialized, before the components using
+ * it are preloaded.
+ *
+ * @author lqzhai
+ */
+public interface Snapshottable {
+
+    /**
+     * Saves the caches.
+     *
+     * @return the entries saved
+     */
+    int snapshot() throws CacheException;
+
+    /**
+     * Puts the saved entries still valid back into the caches.
+     *
+     * @return the entries restored
+     */
+    int restore() throws CacheException;
+}
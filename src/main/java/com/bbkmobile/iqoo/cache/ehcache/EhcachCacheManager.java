@@ -1,13 +1,47 @@
 package com.bbkmobile.iqoo.cache.ehcache;
 
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.sf.ehcache.Ehcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.bbkmobile.iqoo.cache.Cache;
 import com.bbkmobile.iqoo.cache.CacheException;
 import com.bbkmobile.iqoo.cache.CacheManager;
+import com.bbkmobile.iqoo.cache.Snapshottable;
+import com.bbkmobile.iqoo.cache.metrics.CacheStatsRegistry;
+import com.bbkmobile.iqoo.cache.metrics.CacheStatsSnapshot;
 
-public class EhcachCacheManager implements CacheManager {
+public class EhcachCacheManager implements CacheManager, Snapshottable {
 
+	private static final Logger log = LoggerFactory.getLogger(EhcachCacheManager.class);
 
 	private net.sf.ehcache.CacheManager manager;
+	/**
+	 * 为true时返回的Cache包装为InstrumentedCache
+	 */
+	private boolean instrumented = false;
+	private final CacheStatsRegistry stats = new CacheStatsRegistry();
+	/**
+	 * 快照目录，每个缓存一个 &lt;缓存名&gt;.snapshot 文件；为空时不做快照
+	 */
+	private String snapshotDirectory;
+	/**
+	 * 快照版本，与文件中的不同时不恢复，缓存值的类结构变化时修改
+	 */
+	private String snapshotVersion = "";
+	/**
+	 * 定时快照的间隔，0 表示只在 destory() 时快照
+	 */
+	private long snapshotIntervalSeconds = 0L;
+	private ScheduledExecutorService snapshotScheduler;
 	
 	public EhcachCacheManager(String path){
 		 manager = net.sf.ehcache.CacheManager.create(path);
@@ -16,15 +50,152 @@ public class EhcachCacheManager implements CacheManager {
 	@Override
 	public <K, V> Cache<K, V> getCache(String name) throws CacheException {
 		net.sf.ehcache.Cache cache = manager.getCache(name);
-		return new EhcacheCache(cache);
+		Cache<K, V> ehcache = new EhcacheCache(cache);
+		return instrumented ? stats.instrument(name, ehcache) : ehcache;
+	}
+
+	public boolean isInstrumented() {
+		return instrumented;
+	}
+
+	public void setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+	}
+
+	/**
+	 * @return 各缓存的命中率、延迟统计，按名称
+	 */
+	public Map<String, CacheStatsSnapshot> getStats() {
+		return stats.snapshot();
+	}
+
+	public CacheStatsSnapshot getStats(String name) {
+		return stats.snapshot(name);
 	}
 
 	public  net.sf.ehcache.CacheManager getInstance(){
 		return manager;
 	}
 	
+	/**
+	 * 把所有缓存写入快照目录
+	 */
+	@Override
+	public int snapshot() throws CacheException {
+		if (snapshotDirectory == null) {
+			return 0;
+		}
+		int count = 0;
+		for (String name : manager.getCacheNames()) {
+			Ehcache cache = manager.getEhcache(name);
+			if (cache == null) {
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				int written = EhcacheSnapshot.write(cache, snapshotFile(name), snapshotVersion);
+				count += written;
+				log.info("Saved {} entries of cache [{}] in {} ms", written, name,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			} catch (CacheException e) {
+				log.warn("Failed to save the snapshot of cache [" + name + "]", e);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 启动时调用：从快照目录恢复所有缓存，并开始定时快照
+	 */
+	@Override
+	public int restore() throws CacheException {
+		if (snapshotDirectory == null) {
+			return 0;
+		}
+		int count = 0;
+		for (String name : manager.getCacheNames()) {
+			Ehcache cache = manager.getEhcache(name);
+			if (cache == null) {
+				continue;
+			}
+			long start = System.nanoTime();
+			try {
+				int restored = EhcacheSnapshot.read(cache, snapshotFile(name), snapshotVersion);
+				count += restored;
+				log.info("Restored {} entries of cache [{}] in {} ms", restored, name,
+						TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			} catch (CacheException e) {
+				log.warn("Failed to restore the snapshot of cache [" + name + "]", e);
+			}
+		}
+		startSnapshots();
+		return count;
+	}
+
+	private synchronized void startSnapshots() {
+		if (snapshotIntervalSeconds <= 0 || snapshotScheduler != null) {
+			return;
+		}
+		snapshotScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ehcache-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		snapshotScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					snapshot();
+				} catch (RuntimeException e) {
+					log.warn("Failed to save the cache snapshots", e);
+				}
+			}
+		}, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+	}
+
+	private File snapshotFile(String name) {
+		return new File(snapshotDirectory, name + ".snapshot");
+	}
+
+	public String getSnapshotDirectory() {
+		return snapshotDirectory;
+	}
+
+	public void setSnapshotDirectory(String snapshotDirectory) {
+		this.snapshotDirectory = snapshotDirectory;
+	}
+
+	public String getSnapshotVersion() {
+		return snapshotVersion;
+	}
+
+	public void setSnapshotVersion(String snapshotVersion) {
+		this.snapshotVersion = snapshotVersion == null ? "" : snapshotVersion;
+	}
+
+	public long getSnapshotIntervalSeconds() {
+		return snapshotIntervalSeconds;
+	}
+
+	public void setSnapshotIntervalSeconds(long snapshotIntervalSeconds) {
+		this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+	}
+
+	/**
+	 * 停机前先写快照
+	 */
 	public void destory(){
+		synchronized (this) {
+			if (snapshotScheduler != null) {
+				snapshotScheduler.shutdownNow();
+				snapshotScheduler = null;
+			}
+		}
 		if(this.manager != null){
+			snapshot();
 			this.manager.getInstance().shutdown();
 		}
 	}
@@ -2,18 +2,24 @@ package com.bbkmobile.iqoo.cache.ehcache;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import net.sf.ehcache.Element;
 
 import com.bbkmobile.iqoo.cache.Cache;
 import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.SingleFlight;
 
 public class EhcacheCache<String, Object> implements Cache<String, Object> {
 
 	public net.sf.ehcache.Cache cache;
+	private final SingleFlight<String, Object> loads = new SingleFlight<String, Object>();
 
 	public EhcacheCache(net.sf.ehcache.Cache cache) {
 		this.cache = cache;
@@ -25,6 +31,27 @@ public class EhcacheCache<String, Object> implements Cache<String, Object> {
 		return (Object) (element == null ? null : element.getObjectValue());
 	}
 
+	@Override
+	public Object get(final String key, final CacheLoader<String, Object> loader) throws CacheException {
+		Object value = get(key);
+		if (value != null || key == null) {
+			return value;
+		}
+		return loads.load(key, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				Object value = get(key);
+				if (value == null) {
+					value = loader.load(key);
+					if (value != null) {
+						put(key, value);
+					}
+				}
+				return value;
+			}
+		});
+	}
+
 	@Override
 	public Object put(String key, Object value) throws CacheException {
 		Element element = new Element(key, value);
@@ -32,6 +59,19 @@ public class EhcacheCache<String, Object> implements Cache<String, Object> {
 		return value;
 	}
 
+	@Override
+	public Object put(String key, Object value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+		Element element = new Element(key, value);
+		if (timeToLiveSeconds > 0) {
+			element.setTimeToLive(timeToLiveSeconds);
+		}
+		if (timeToIdleSeconds > 0) {
+			element.setTimeToIdle(timeToIdleSeconds);
+		}
+		cache.put(element);
+		return value;
+	}
+
 	@Override
 	public Object remove(String key) throws CacheException {
 		Object obj = (Object) cache.get(key).getObjectValue();
@@ -60,6 +100,7 @@ public class EhcacheCache<String, Object> implements Cache<String, Object> {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked") // Ehcache hands values back as java.lang.Object
 	public Collection<Object> values() {
 		List<String> keys = cache.getKeys();
 		List<Object> values = new ArrayList<Object>(keys.size());
@@ -76,4 +117,31 @@ public class EhcacheCache<String, Object> implements Cache<String, Object> {
 		}
 	}
 
+	@Override
+	@SuppressWarnings("unchecked") // Ehcache hands keys and values back as java.lang.Object
+	public Map<String, Object> getAll(Collection<String> keys) throws CacheException {
+		Map<java.lang.Object, Element> elements = cache.getAll(keys);
+		Map<String, Object> values = new HashMap<String, Object>(elements.size());
+		for (Map.Entry<java.lang.Object, Element> entry : elements.entrySet()) {
+			if (entry.getValue() != null) {
+				values.put((String) entry.getKey(), (Object) entry.getValue().getObjectValue());
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public void putAll(Map<String, Object> entries) throws CacheException {
+		List<Element> elements = new ArrayList<Element>(entries.size());
+		for (Map.Entry<String, Object> entry : entries.entrySet()) {
+			elements.add(new Element(entry.getKey(), entry.getValue()));
+		}
+		cache.putAll(elements);
+	}
+
+	@Override
+	public void removeAll(Collection<String> keys) throws CacheException {
+		cache.removeAll(keys);
+	}
+
 }
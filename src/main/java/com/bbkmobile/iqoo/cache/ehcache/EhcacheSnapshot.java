@@ -0,0 +1,272 @@
+package com.bbkmobile.iqoo.cache.ehcache;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * 本地缓存快照：停机时把 Ehcache 的条目写入二进制文件，启动时内存映射该文件把条目放回缓存。
+ *
+ * <p>文件格式：魔数、格式版本、快照版本（应用自定义，不一致时整个文件跳过，
+ * 例如值的类结构变化后）、写入时间，随后每个条目为 Java 序列化的 key 和 value、
+ * Element 版本、过期时间（0 表示永不过期）和 timeToIdle，最后是条目数。
+ * 恢复时跳过已过期的条目，以及缓存中已有同版本或更新版本的条目；
+ * 文件截断时保留已读出的条目。</p>
+ *
+ * @author lqzhai
+ */
+public class EhcacheSnapshot {
+
+	private static final Logger log = LoggerFactory.getLogger(EhcacheSnapshot.class);
+
+	private static final int MAGIC = 0x45484353;
+	private static final short FORMAT = 1;
+
+	private EhcacheSnapshot() {
+	}
+
+	/**
+	 * 把缓存写入 file，先写临时文件再改名，写到一半停机不会留下损坏的快照。
+	 *
+	 * @param version 快照版本
+	 * @return 写入的条目数，key 或 value 不能序列化的条目被跳过
+	 */
+	@SuppressWarnings("unchecked")
+	public static int write(Ehcache cache, File file, String version) throws CacheException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new CacheException("Cannot create snapshot directory " + parent);
+		}
+		File tmp = new File(file.getPath() + ".tmp");
+		int count = 0;
+		int skipped = 0;
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024));
+			try {
+				out.writeInt(MAGIC);
+				out.writeShort(FORMAT);
+				out.writeUTF(version == null ? "" : version);
+				out.writeLong(System.currentTimeMillis());
+				ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+				for (Object key : (List<Object>) cache.getKeys()) {
+					Element element = cache.getQuiet(key);
+					if (element == null || element.isExpired() || !(key instanceof Serializable)
+							|| !(element.getObjectValue() instanceof Serializable)) {
+						skipped += element == null || element.isExpired() ? 0 : 1;
+						continue;
+					}
+					byte[] k;
+					byte[] v;
+					try {
+						k = serialize(key, buffer);
+						v = serialize(element.getObjectValue(), buffer);
+					} catch (IOException e) {
+						// 对象图里有不能序列化的成员
+						skipped++;
+						continue;
+					}
+					long expiresAt = element.getExpirationTime();
+					out.writeByte(1);
+					out.writeInt(k.length);
+					out.write(k);
+					out.writeInt(v.length);
+					out.write(v);
+					out.writeLong(element.getVersion());
+					out.writeLong(expiresAt == Long.MAX_VALUE ? 0L : expiresAt);
+					out.writeInt(element.getTimeToIdle());
+					count++;
+				}
+				out.writeByte(0);
+				out.writeInt(count);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			tmp.delete();
+			throw new CacheException("Failed to write the snapshot of cache " + cache.getName() + " to " + file, e);
+		}
+		if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+			tmp.delete();
+			throw new CacheException("Failed to replace snapshot " + file);
+		}
+		if (skipped > 0) {
+			log.warn("{} entries of cache [{}] are not serializable, left out of the snapshot", skipped, cache.getName());
+		}
+		return count;
+	}
+
+	/**
+	 * 内存映射 file，把未过期的条目放回缓存。
+	 *
+	 * @param version 快照版本，与写入时不同则不恢复
+	 * @return 恢复的条目数，文件不存在时为 0
+	 */
+	public static int read(Ehcache cache, File file, String version) throws CacheException {
+		if (!file.isFile()) {
+			return 0;
+		}
+		MappedByteBuffer buffer;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new CacheException("Failed to map snapshot " + file, e);
+		}
+		int restored = 0;
+		int stale = 0;
+		try {
+			if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT) {
+				log.warn("{} is not a cache snapshot, ignored", file);
+				return 0;
+			}
+			String written = readUTF(buffer);
+			if (!written.equals(version == null ? "" : version)) {
+				log.info("Snapshot {} has version [{}] instead of [{}], ignored", file, written, version);
+				return 0;
+			}
+			buffer.getLong();
+			long now = System.currentTimeMillis();
+			while (buffer.get() == 1) {
+				ByteBuffer key = slice(buffer);
+				ByteBuffer value = slice(buffer);
+				long elementVersion = buffer.getLong();
+				long expiresAt = buffer.getLong();
+				int timeToIdle = buffer.getInt();
+				if (expiresAt != 0 && expiresAt <= now) {
+					stale++;
+					continue;
+				}
+				Object k = deserialize(key);
+				Element existing = cache.getQuiet(k);
+				if (existing != null && existing.getVersion() >= elementVersion) {
+					stale++;
+					continue;
+				}
+				Element element = new Element(k, deserialize(value), elementVersion);
+				if (expiresAt != 0) {
+					element.setTimeToLive((int) Math.max(1, (expiresAt - now + 999) / 1000));
+					element.setTimeToIdle(timeToIdle);
+				} else {
+					element.setEternal(true);
+				}
+				cache.put(element);
+				restored++;
+			}
+		} catch (BufferUnderflowException e) {
+			log.warn("Snapshot {} is truncated, restored the {} entries before the end", file, restored);
+		} catch (IOException e) {
+			throw new CacheException("Failed to read snapshot " + file, e);
+		} catch (ClassNotFoundException e) {
+			throw new CacheException("Failed to read snapshot " + file, e);
+		}
+		if (stale > 0) {
+			log.info("Skipped {} expired or outdated entries of snapshot {}", stale, file);
+		}
+		return restored;
+	}
+
+	private static byte[] serialize(Object o, ByteArrayOutputStream buffer) throws IOException {
+		buffer.reset();
+		ObjectOutputStream out = new ObjectOutputStream(buffer);
+		out.writeObject(o);
+		out.close();
+		return buffer.toByteArray();
+	}
+
+	private static Object deserialize(ByteBuffer bytes) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteBufferInputStream(bytes)) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+				ClassLoader loader = Thread.currentThread().getContextClassLoader();
+				if (loader != null) {
+					try {
+						return Class.forName(desc.getName(), false, loader);
+					} catch (ClassNotFoundException e) {
+						// 退回默认的类加载器
+					}
+				}
+				return super.resolveClass(desc);
+			}
+		};
+		try {
+			return in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		buffer.position(buffer.position() + length);
+		return slice;
+	}
+
+	private static String readUTF(ByteBuffer buffer) throws IOException {
+		ByteBuffer utf = buffer.duplicate();
+		String s = new DataInputStream(new ByteBufferInputStream(utf)).readUTF();
+		buffer.position(utf.position());
+		return s;
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.bbkmobile.iqoo.cache.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of one cache, updated by {@link InstrumentedCache}. All
+ * counters are {@link LongAdder}s, striped per thread under contention.
+ *
+ * <p>Latency is kept as four histograms: the whole call, the time spent
+ * borrowing a pooled connection, the time spent (de)serializing and the
+ * remainder, which for a Redis cache is the network round trips and the
+ * server. A local cache only fills the first one.</p>
+ *
+ * @author lqzhai
+ */
+public class CacheStats {
+
+    private final String name;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removals = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram borrow = new LatencyHistogram();
+    private final LatencyHistogram network = new LatencyHistogram();
+    private final LatencyHistogram serde = new LatencyHistogram();
+
+    public CacheStats(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordHits(int count) {
+        hits.add(count);
+    }
+
+    public void recordMisses(int count) {
+        misses.add(count);
+    }
+
+    public void recordPuts(int count) {
+        puts.add(count);
+    }
+
+    public void recordRemovals(int count) {
+        removals.add(count);
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    /**
+     * Records a finished call and the breakdown collected in {@code op}.
+     */
+    void record(long nanos, Operation op) {
+        total.record(nanos);
+        if (op.borrowNanos > 0 || op.serdeNanos > 0 || op.bytesIn > 0 || op.bytesOut > 0) {
+            borrow.record(op.borrowNanos);
+            serde.record(op.serdeNanos);
+            network.record(nanos - op.borrowNanos - op.serdeNanos);
+            bytesIn.add(op.bytesIn);
+            bytesOut.add(op.bytesOut);
+        }
+    }
+
+    public CacheStatsSnapshot snapshot() {
+        return new CacheStatsSnapshot(name, hits.sum(), misses.sum(), puts.sum(), removals.sum(), errors.sum(),
+                bytesIn.sum(), bytesOut.sum(), total.snapshot(), borrow.snapshot(), network.snapshot(),
+                serde.snapshot());
+    }
+}
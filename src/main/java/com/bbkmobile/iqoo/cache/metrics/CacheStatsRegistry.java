@@ -0,0 +1,59 @@
+package com.bbkmobile.iqoo.cache.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.bbkmobile.iqoo.cache.Cache;
+
+/**
+ * The {@link CacheStats} of a cache manager, one per cache name, so every
+ * instance handed out for a name adds to the same counters.
+ *
+ * @author lqzhai
+ */
+public class CacheStatsRegistry {
+
+    private final ConcurrentMap<String, CacheStats> stats = new ConcurrentHashMap<String, CacheStats>();
+
+    public CacheStats get(String name) {
+        CacheStats existing = stats.get(name);
+        if (existing == null) {
+            CacheStats created = new CacheStats(name);
+            existing = stats.putIfAbsent(name, created);
+            if (existing == null) {
+                existing = created;
+            }
+        }
+        return existing;
+    }
+
+    /**
+     * @return a snapshot of the named cache, {@code null} if it was never
+     * instrumented
+     */
+    public CacheStatsSnapshot snapshot(String name) {
+        CacheStats cache = stats.get(name);
+        return cache == null ? null : cache.snapshot();
+    }
+
+    /**
+     * @return a snapshot of every instrumented cache, by name
+     */
+    public Map<String, CacheStatsSnapshot> snapshot() {
+        Map<String, CacheStatsSnapshot> snapshots = new TreeMap<String, CacheStatsSnapshot>();
+        for (CacheStats cache : stats.values()) {
+            snapshots.put(cache.getName(), cache.snapshot());
+        }
+        return snapshots;
+    }
+
+    /**
+     * Wraps {@code cache} so that it records into the counters of
+     * {@code name}.
+     */
+    public <K, V> InstrumentedCache<K, V> instrument(String name, Cache<K, V> cache) {
+        return new InstrumentedCache<K, V>(cache, get(name));
+    }
+}
@@ -0,0 +1,118 @@
+package com.bbkmobile.iqoo.cache.metrics;
+
+/**
+ * Immutable copy of the {@link CacheStats} of one cache, for export.
+ *
+ * @author lqzhai
+ */
+public class CacheStatsSnapshot {
+
+    private final String name;
+    private final long hits;
+    private final long misses;
+    private final long puts;
+    private final long removals;
+    private final long errors;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final LatencyHistogram.Snapshot latency;
+    private final LatencyHistogram.Snapshot borrowLatency;
+    private final LatencyHistogram.Snapshot networkLatency;
+    private final LatencyHistogram.Snapshot serdeLatency;
+
+    CacheStatsSnapshot(String name, long hits, long misses, long puts, long removals, long errors, long bytesIn,
+            long bytesOut, LatencyHistogram.Snapshot latency, LatencyHistogram.Snapshot borrowLatency,
+            LatencyHistogram.Snapshot networkLatency, LatencyHistogram.Snapshot serdeLatency) {
+        this.name = name;
+        this.hits = hits;
+        this.misses = misses;
+        this.puts = puts;
+        this.removals = removals;
+        this.errors = errors;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.latency = latency;
+        this.borrowLatency = borrowLatency;
+        this.networkLatency = networkLatency;
+        this.serdeLatency = serdeLatency;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return hits over lookups, 0 if there was no lookup
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public long getPuts() {
+        return puts;
+    }
+
+    public long getRemovals() {
+        return removals;
+    }
+
+    /**
+     * @return calls that ended with an exception
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return serialized bytes read from the store
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * @return serialized bytes written to the store
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return latency of whole calls
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram.Snapshot getBorrowLatency() {
+        return borrowLatency;
+    }
+
+    /**
+     * @return latency of calls minus borrow and (de)serialization time
+     */
+    public LatencyHistogram.Snapshot getNetworkLatency() {
+        return networkLatency;
+    }
+
+    public LatencyHistogram.Snapshot getSerdeLatency() {
+        return serdeLatency;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[hits=" + hits + ", misses=" + misses + ", puts=" + puts + ", removals=" + removals
+                + ", errors=" + errors + ", bytesIn=" + bytesIn + ", bytesOut=" + bytesOut + ", latency={"
+                + latency + "}, borrow={" + borrowLatency + "}, network={" + networkLatency + "}, serde={"
+                + serdeLatency + "}]";
+    }
+}
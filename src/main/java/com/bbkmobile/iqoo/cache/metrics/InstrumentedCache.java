@@ -0,0 +1,356 @@
+package com.bbkmobile.iqoo.cache.metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import com.bbkmobile.iqoo.cache.AsyncCache;
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+
+/**
+ * {@link Cache} decorator recording hits, misses, latency and payload sizes
+ * of another cache into its {@link CacheStats}. The overhead is two
+ * {@code System.nanoTime()} calls, a thread local lookup and a few striped
+ * counter increments per call.
+ *
+ * <p>Asynchronous calls are passed on when the delegate is an
+ * {@link AsyncCache} and run in the calling thread otherwise; they record
+ * their whole latency, up to completion, but no breakdown since they run on
+ * another thread.</p>
+ *
+ * @author lqzhai
+ */
+public class InstrumentedCache<K, V> implements AsyncCache<K, V> {
+
+    private final Cache<K, V> delegate;
+    private final CacheStats stats;
+
+    public InstrumentedCache(Cache<K, V> delegate, CacheStats stats) {
+        if (delegate == null || stats == null) {
+            throw new IllegalArgumentException("delegate and stats cannot be null.");
+        }
+        this.delegate = delegate;
+        this.stats = stats;
+    }
+
+    public Cache<K, V> getDelegate() {
+        return delegate;
+    }
+
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            V value = delegate.get(key);
+            if (value == null) {
+                stats.recordMisses(1);
+            } else {
+                stats.recordHits(1);
+            }
+            failed = false;
+            return value;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    /**
+     * Records a miss when this call ran the loader, a hit otherwise, including
+     * when it waited for another caller's load.
+     */
+    @Override
+    public V get(K key, final CacheLoader<K, V> loader) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        final boolean[] loaded = new boolean[1];
+        try {
+            V value = delegate.get(key, new CacheLoader<K, V>() {
+                @Override
+                public V load(K key) throws Exception {
+                    loaded[0] = true;
+                    return loader.load(key);
+                }
+            });
+            if (loaded[0]) {
+                stats.recordMisses(1);
+            } else {
+                stats.recordHits(1);
+            }
+            failed = false;
+            return value;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            V previous = delegate.put(key, value);
+            stats.recordPuts(1);
+            failed = false;
+            return previous;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            V previous = delegate.put(key, value, timeToLiveSeconds, timeToIdleSeconds);
+            stats.recordPuts(1);
+            failed = false;
+            return previous;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            V previous = delegate.remove(key);
+            stats.recordRemovals(1);
+            failed = false;
+            return previous;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.clear();
+            failed = false;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    /**
+     * Not instrumented, the returned views run their own calls lazily.
+     */
+    @Override
+    public Set<K> keys() {
+        return delegate.keys();
+    }
+
+    /**
+     * Not instrumented, the returned views run their own calls lazily.
+     */
+    @Override
+    public Collection<V> values() {
+        return delegate.values();
+    }
+
+    @Override
+    public void removeAll() {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.removeAll();
+            failed = false;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Map<K, V> values = delegate.getAll(keys);
+            stats.recordHits(values.size());
+            stats.recordMisses(Math.max(0, keys.size() - values.size()));
+            failed = false;
+            return values;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.putAll(entries);
+            stats.recordPuts(entries.size());
+            failed = false;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        Operation op = Operation.begin();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.removeAll(keys);
+            stats.recordRemovals(keys.size());
+            failed = false;
+        } finally {
+            end(op, start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(final K key) {
+        if (!(delegate instanceof AsyncCache)) {
+            return complete(new Call<V>() {
+                @Override
+                public V call() {
+                    return get(key);
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        return ((AsyncCache<K, V>) delegate).getAsync(key).whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V value, Throwable error) {
+                if (error == null) {
+                    if (value == null) {
+                        stats.recordMisses(1);
+                    } else {
+                        stats.recordHits(1);
+                    }
+                }
+                completed(start, error);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<V> putAsync(final K key, final V value) {
+        if (!(delegate instanceof AsyncCache)) {
+            return complete(new Call<V>() {
+                @Override
+                public V call() {
+                    return put(key, value);
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        return ((AsyncCache<K, V>) delegate).putAsync(key, value).whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V previous, Throwable error) {
+                if (error == null) {
+                    stats.recordPuts(1);
+                }
+                completed(start, error);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<V> removeAsync(final K key) {
+        if (!(delegate instanceof AsyncCache)) {
+            return complete(new Call<V>() {
+                @Override
+                public V call() {
+                    return remove(key);
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        return ((AsyncCache<K, V>) delegate).removeAsync(key).whenComplete(new BiConsumer<V, Throwable>() {
+            @Override
+            public void accept(V previous, Throwable error) {
+                if (error == null) {
+                    stats.recordRemovals(1);
+                }
+                completed(start, error);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAllAsync(final Collection<K> keys) {
+        if (!(delegate instanceof AsyncCache)) {
+            return complete(new Call<Map<K, V>>() {
+                @Override
+                public Map<K, V> call() {
+                    return getAll(keys);
+                }
+            });
+        }
+        final long start = System.nanoTime();
+        return ((AsyncCache<K, V>) delegate).getAllAsync(keys).whenComplete(new BiConsumer<Map<K, V>, Throwable>() {
+            @Override
+            public void accept(Map<K, V> values, Throwable error) {
+                if (error == null) {
+                    stats.recordHits(values.size());
+                    stats.recordMisses(Math.max(0, keys.size() - values.size()));
+                }
+                completed(start, error);
+            }
+        });
+    }
+
+    private interface Call<T> {
+        T call();
+    }
+
+    private static <T> CompletableFuture<T> complete(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            future.complete(call.call());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void completed(long start, Throwable error) {
+        if (error != null) {
+            stats.recordError();
+        }
+        stats.record(System.nanoTime() - start, Operation.NONE);
+    }
+
+    private void end(Operation op, long start, boolean failed) {
+        long nanos = System.nanoTime() - start;
+        if (op.end()) {
+            if (failed) {
+                stats.recordError();
+            }
+            stats.record(nanos, op);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.bbkmobile.iqoo.cache.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two buckets: bucket {@code i}
+ * counts durations in {@code [2^(i-1), 2^i)} nanoseconds. Recording is two
+ * {@link LongAdder} increments, so threads do not contend; percentiles are
+ * accurate to a factor of two, which is enough to follow tails over time.
+ *
+ * @author lqzhai
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets[BUCKETS - Long.numberOfLeadingZeros(nanos)].increment();
+        totalNanos.add(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, totalNanos.sum());
+    }
+
+    /**
+     * Point in time copy of a histogram. Buckets are read one by one while
+     * recording goes on, so the copy is consistent to within the operations
+     * in flight.
+     */
+    public static class Snapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long totalNanos;
+
+        Snapshot(long[] buckets, long count, long totalNanos) {
+            this.buckets = buckets;
+            this.count = count;
+            this.totalNanos = totalNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0.0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99
+         * @return the upper bound of the bucket holding the quantile, 0 if
+         * nothing was recorded
+         */
+        public long getPercentileNanos(double quantile) {
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && buckets[i] > 0) {
+                    return i == 0 ? 0L : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * @return the count of each bucket, bucket {@code i} holding
+         * durations below {@code 2^i} nanoseconds
+         */
+        public long[] getBuckets() {
+            return buckets.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + (long) getMeanNanos() + "ns, p50<=" + getPercentileNanos(0.5)
+                    + "ns, p99<=" + getPercentileNanos(0.99) + "ns";
+        }
+    }
+}
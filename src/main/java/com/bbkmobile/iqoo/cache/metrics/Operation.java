@@ -0,0 +1,86 @@
+package com.bbkmobile.iqoo.cache.metrics;
+
+/**
+ * Timings of the cache operation running on the current thread, filled in
+ * by the layers below an {@link InstrumentedCache}: the Redis executors add
+ * the time spent borrowing a connection and {@code MeteredSerializer} the
+ * time and bytes of (de)serialization. Outside an instrumented operation
+ * the record calls do nothing.
+ *
+ * <p>One instance is reused per thread; nested instrumented calls, e.g. a
+ * near cache over an instrumented remote cache, are folded into the
+ * outermost one.</p>
+ *
+ * @author lqzhai
+ */
+public final class Operation {
+
+    private static final ThreadLocal<Operation> CURRENT = new ThreadLocal<Operation>() {
+        @Override
+        protected Operation initialValue() {
+            return new Operation();
+        }
+    };
+
+    /**
+     * An operation with nothing recorded, for calls timed on another thread.
+     */
+    static final Operation NONE = new Operation();
+
+    private int depth;
+    long borrowNanos;
+    long serdeNanos;
+    long bytesIn;
+    long bytesOut;
+
+    private Operation() {
+    }
+
+    /**
+     * @return the operation of the current thread, inactive if no
+     * instrumented call is running
+     */
+    public static Operation current() {
+        return CURRENT.get();
+    }
+
+    static Operation begin() {
+        Operation op = CURRENT.get();
+        if (op.depth++ == 0) {
+            op.borrowNanos = 0;
+            op.serdeNanos = 0;
+            op.bytesIn = 0;
+            op.bytesOut = 0;
+        }
+        return op;
+    }
+
+    /**
+     * @return whether this call closed the outermost operation
+     */
+    boolean end() {
+        return --depth == 0;
+    }
+
+    public boolean isActive() {
+        return depth > 0;
+    }
+
+    public void recordBorrow(long nanos) {
+        if (depth > 0) {
+            borrowNanos += nanos;
+        }
+    }
+
+    /**
+     * @param bytesIn bytes read from the store and deserialized
+     * @param bytesOut bytes serialized to be written to the store
+     */
+    public void recordSerde(long nanos, long bytesIn, long bytesOut) {
+        if (depth > 0) {
+            serdeNanos += nanos;
+            this.bytesIn += bytesIn;
+            this.bytesOut += bytesOut;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.bbkmobile.iqoo.cache.offheap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.SingleFlight;
+import com.bbkmobile.iqoo.cache.redis.serializer.RedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * Local {@link Cache} keeping its entries serialized in direct buffers, out
+ * of the Java heap, so that a large cache adds neither to the heap size nor
+ * to the garbage collection work. Keys and values go through the same
+ * {@link RedisSerializer} codecs as the Redis caches; every read deserializes
+ * a new copy of the value.
+ *
+ * <p>The memory is split into segments, each guarded by its own read-write
+ * lock and holding a share of the capacity. Once a segment is full its oldest
+ * writes are evicted first, see {@link Segment}. The capacity is allocated
+ * up front and released when the cache is garbage collected.</p>
+ *
+ * @author lqzhai
+ */
+public class OffHeapCache<K, V> implements Cache<K, V> {
+
+    private final String name;
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final RedisSerializer<K> keySerializer;
+    private final RedisSerializer<V> valueSerializer;
+    private final SingleFlight<K, V> loads = new SingleFlight<K, V>();
+    private volatile int timeToLiveSeconds;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Uses 16 segments.
+     */
+    public OffHeapCache(String name, long capacityBytes, RedisSerializer<K> keySerializer,
+            RedisSerializer<V> valueSerializer) {
+        this(name, capacityBytes, 16, keySerializer, valueSerializer);
+    }
+
+    /**
+     * @param capacityBytes the memory allocated for the entries; each entry
+     * takes 24 bytes on top of its key and value, plus 8 to 16 bytes of index
+     * @param segmentCount the number of lock stripes, rounded up to a power of
+     * two; each must hold less than 2 GB
+     */
+    public OffHeapCache(String name, long capacityBytes, int segmentCount, RedisSerializer<K> keySerializer,
+            RedisSerializer<V> valueSerializer) {
+        if (keySerializer == null || valueSerializer == null) {
+            throw new IllegalArgumentException("Serializers cannot be null.");
+        }
+        if (capacityBytes <= 0 || segmentCount <= 0) {
+            throw new IllegalArgumentException("capacityBytes and segmentCount must be positive.");
+        }
+        int count = Integer.highestOneBit(segmentCount - 1) << 1;
+        count = Math.max(1, Math.min(count, 1 << 16));
+        long segmentCapacity = capacityBytes / count;
+        if (segmentCapacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Segments cannot exceed 2 GB, use more than " + count + ".");
+        }
+        if (segmentCapacity < Segment.HEADER) {
+            throw new IllegalArgumentException("capacityBytes is too small for " + count + " segments.");
+        }
+        this.name = name;
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment((int) segmentCapacity);
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(count);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        byte[] k = serializeKey(key);
+        int hash = hash(k);
+        Segment segment = segment(hash);
+        long now = System.currentTimeMillis();
+        byte[] raw = null;
+        boolean expired = false;
+        Lock read = segment.lock.readLock();
+        read.lock();
+        try {
+            int offset = segment.find(hash, k);
+            if (offset >= 0) {
+                expired = segment.isExpired(offset, now);
+                raw = expired ? null : segment.value(offset);
+            }
+        } finally {
+            read.unlock();
+        }
+        if (expired) {
+            Lock write = segment.lock.writeLock();
+            write.lock();
+            try {
+                int offset = segment.find(hash, k);
+                if (offset >= 0 && segment.isExpired(offset, now)) {
+                    segment.remove(hash, k);
+                }
+            } finally {
+                write.unlock();
+            }
+        }
+        if (raw == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return deserializeValue(raw);
+    }
+
+    @Override
+    public V get(final K key, final CacheLoader<K, V> loader) throws CacheException {
+        V value = get(key);
+        if (value != null || key == null) {
+            return value;
+        }
+        return loads.load(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                V value = get(key);
+                if (value == null) {
+                    value = loader.load(key);
+                    if (value != null) {
+                        put(key, value);
+                    }
+                }
+                return value;
+            }
+        });
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        return put(key, value, 0, 0);
+    }
+
+    /**
+     * @param timeToIdleSeconds not supported, must be 0 or less
+     */
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        if (timeToIdleSeconds > 0) {
+            throw new UnsupportedOperationException("Off-heap cache [" + name + "] cannot expire idle entries.");
+        }
+        if (key == null) {
+            return value;
+        }
+        if (value == null) {
+            remove(key);
+            return null;
+        }
+        int ttl = timeToLiveSeconds > 0 ? timeToLiveSeconds : this.timeToLiveSeconds;
+        long expiresAt = ttl > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl) : 0L;
+        byte[] k = serializeKey(key);
+        byte[] v;
+        try {
+            v = valueSerializer.serialize(value);
+        } catch (SerializationException e) {
+            throw new CacheException(e);
+        }
+        int hash = hash(k);
+        Segment segment = segment(hash);
+        boolean stored;
+        Lock write = segment.lock.writeLock();
+        write.lock();
+        try {
+            stored = segment.put(hash, k, v, expiresAt);
+        } finally {
+            write.unlock();
+        }
+        if (!stored) {
+            rejected.incrementAndGet();
+        }
+        return value;
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        byte[] k = serializeKey(key);
+        int hash = hash(k);
+        Segment segment = segment(hash);
+        byte[] previous = null;
+        Lock write = segment.lock.writeLock();
+        write.lock();
+        try {
+            int offset = segment.remove(hash, k);
+            if (offset >= 0 && !segment.isExpired(offset, System.currentTimeMillis())) {
+                previous = segment.value(offset);
+            }
+        } finally {
+            write.unlock();
+        }
+        return previous == null ? null : deserializeValue(previous);
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        for (Segment segment : segments) {
+            Lock write = segment.lock.writeLock();
+            write.lock();
+            try {
+                segment.clear();
+            } finally {
+                write.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the entries stored, including expired ones not yet removed
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            Lock read = segment.lock.readLock();
+            read.lock();
+            try {
+                size += segment.count();
+            } finally {
+                read.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<K> keys() {
+        Set<K> keys = new HashSet<K>();
+        for (byte[] raw : collect(true)) {
+            try {
+                keys.add(keySerializer.deserialize(raw));
+            } catch (SerializationException e) {
+                throw new CacheException(e);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public Collection<V> values() {
+        List<byte[]> raw = collect(false);
+        List<V> values = new ArrayList<V>(raw.size());
+        for (byte[] bytes : raw) {
+            values.add(deserializeValue(bytes));
+        }
+        return values;
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> values = new LinkedHashMap<K, V>();
+        for (K key : keys) {
+            V value = get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        for (K key : keys) {
+            remove(key);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    /**
+     * Sets the time to live of the entries put without one; 0 or less, the
+     * default, keeps them until evicted.
+     */
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the entries evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            Lock read = segment.lock.readLock();
+            read.lock();
+            try {
+                evictions += segment.evictions();
+            } finally {
+                read.unlock();
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * @return the entries not stored, being larger than a segment
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the bytes of the segments in use, including dead entries not
+     * reclaimed yet
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Segment segment : segments) {
+            Lock read = segment.lock.readLock();
+            read.lock();
+            try {
+                used += segment.used();
+            } finally {
+                read.unlock();
+            }
+        }
+        return used;
+    }
+
+    public long getCapacityBytes() {
+        return (long) segments[0].capacity() * segments.length;
+    }
+
+    private List<byte[]> collect(boolean keys) {
+        List<byte[]> raw = new ArrayList<byte[]>();
+        long now = System.currentTimeMillis();
+        for (Segment segment : segments) {
+            Lock read = segment.lock.readLock();
+            read.lock();
+            try {
+                segment.collect(raw, keys, now);
+            } finally {
+                read.unlock();
+            }
+        }
+        return raw;
+    }
+
+    private Segment segment(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    private byte[] serializeKey(K key) {
+        try {
+            return keySerializer.serialize(key);
+        } catch (SerializationException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    private V deserializeValue(byte[] raw) {
+        try {
+            return valueSerializer.deserialize(raw);
+        } catch (SerializationException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    /**
+     * Murmur3 finalizer over the array hash: segments use the high bits, the
+     * segment index the low ones.
+     */
+    private static int hash(byte[] key) {
+        int h = 1;
+        for (byte b : key) {
+            h = 31 * h + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
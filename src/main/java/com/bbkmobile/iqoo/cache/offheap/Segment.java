@@ -0,0 +1,301 @@
+package com.bbkmobile.iqoo.cache.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One lock stripe of an {@link OffHeapCache}: a direct buffer used as a ring
+ * log of serialized entries, and an open addressing index of the live ones,
+ * also off the heap.
+ *
+ * <p>Entries are appended at the head; when the ring is full the oldest
+ * entries are evicted from the tail, first in first out. A removed or
+ * replaced entry is only flagged dead and its space reclaimed once the tail
+ * passes it. An entry is laid out as its length, key hash, key length (ones'
+ * complement once dead), value length and expiry time, followed by the key
+ * and value bytes. Entries never wrap around the end of the ring: the end is
+ * skipped, marked by a negative length when there is room for one.</p>
+ *
+ * <p>An index slot holds the key hash and the entry offset plus one, 0 for
+ * an empty slot; deletion shifts the following slots back, so there are no
+ * tombstones.</p>
+ *
+ * @author lqzhai
+ */
+class Segment {
+
+    static final int HEADER = 24;
+    private static final int SLOT = 8;
+
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ByteBuffer data;
+    private final int capacity;
+    private ByteBuffer index;
+    private int slots;
+    private int head;
+    private int tail;
+    private int used;
+    private int count;
+    private long evictions;
+
+    Segment(int capacity) {
+        this.capacity = capacity;
+        this.data = ByteBuffer.allocateDirect(capacity);
+        this.slots = 64;
+        this.index = ByteBuffer.allocateDirect(slots * SLOT);
+    }
+
+    /**
+     * @return the offset of the live entry of {@code key}, -1 if none
+     */
+    int find(int hash, byte[] key) {
+        int mask = slots - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int stored = index.getInt(slot * SLOT + 4);
+            if (stored == 0) {
+                return -1;
+            }
+            int offset = stored - 1;
+            if (index.getInt(slot * SLOT) == hash && keyEquals(offset, key)) {
+                return offset;
+            }
+        }
+    }
+
+    boolean isExpired(int offset, long now) {
+        long expiresAt = data.getLong(offset + 16);
+        return expiresAt != 0 && expiresAt <= now;
+    }
+
+    byte[] value(int offset) {
+        return bytes(offset + HEADER + keyLength(offset), data.getInt(offset + 12));
+    }
+
+    byte[] key(int offset) {
+        return bytes(offset + HEADER, keyLength(offset));
+    }
+
+    private int keyLength(int offset) {
+        int keyLength = data.getInt(offset + 8);
+        return keyLength < 0 ? ~keyLength : keyLength;
+    }
+
+    /**
+     * Stores an entry, replacing the one of the same key and evicting the
+     * oldest ones as needed. Requires the write lock.
+     *
+     * @return whether it fit into the segment
+     */
+    boolean put(int hash, byte[] key, byte[] value, long expiresAt) {
+        int length = HEADER + key.length + value.length;
+        if (length > capacity) {
+            return false;
+        }
+        remove(hash, key);
+        int offset = allocate(length);
+        data.putInt(offset, length);
+        data.putInt(offset + 4, hash);
+        data.putInt(offset + 8, key.length);
+        data.putInt(offset + 12, value.length);
+        data.putLong(offset + 16, expiresAt);
+        data.position(offset + HEADER);
+        data.put(key);
+        data.put(value);
+        if (count + 1 > slots * 3 / 4) {
+            resize(slots * 2);
+        }
+        insert(hash, offset);
+        count++;
+        return true;
+    }
+
+    /**
+     * Requires the write lock.
+     *
+     * @return the offset of the removed entry, -1 if none; its bytes stay
+     * readable until the next write
+     */
+    int remove(int hash, byte[] key) {
+        int offset = find(hash, key);
+        if (offset >= 0) {
+            kill(hash, offset);
+        }
+        return offset;
+    }
+
+    /**
+     * Collects the keys, or the values, of the live entries not expired.
+     * Requires the read lock.
+     */
+    void collect(List<byte[]> into, boolean keys, long now) {
+        int offset = tail;
+        int remaining = used;
+        while (remaining > 0) {
+            if (capacity - offset < HEADER || data.getInt(offset) < 0) {
+                remaining -= capacity - offset;
+                offset = 0;
+                continue;
+            }
+            int length = data.getInt(offset);
+            if (data.getInt(offset + 8) >= 0 && !isExpired(offset, now)) {
+                into.add(keys ? key(offset) : value(offset));
+            }
+            remaining -= length;
+            offset = offset + length == capacity ? 0 : offset + length;
+        }
+    }
+
+    /**
+     * Requires the write lock.
+     */
+    void clear() {
+        for (int i = 0; i < slots * SLOT; i += 4) {
+            index.putInt(i, 0);
+        }
+        head = 0;
+        tail = 0;
+        used = 0;
+        count = 0;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int used() {
+        return used;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    private int allocate(int length) {
+        while (true) {
+            if (used == 0) {
+                head = 0;
+                tail = 0;
+            }
+            int pad = capacity - head < length ? capacity - head : 0;
+            if (capacity - used >= pad + length) {
+                if (pad > 0) {
+                    if (pad >= HEADER) {
+                        data.putInt(head, -pad);
+                    }
+                    used += pad;
+                    head = 0;
+                }
+                int offset = head;
+                head = head + length == capacity ? 0 : head + length;
+                used += length;
+                return offset;
+            }
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        if (capacity - tail < HEADER || data.getInt(tail) < 0) {
+            used -= capacity - tail;
+            tail = 0;
+            return;
+        }
+        int length = data.getInt(tail);
+        if (data.getInt(tail + 8) >= 0) {
+            kill(data.getInt(tail + 4), tail);
+            evictions++;
+        }
+        used -= length;
+        tail = tail + length == capacity ? 0 : tail + length;
+    }
+
+    private void kill(int hash, int offset) {
+        data.putInt(offset + 8, ~data.getInt(offset + 8));
+        int mask = slots - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int stored = index.getInt(slot * SLOT + 4);
+            if (stored == 0) {
+                throw new IllegalStateException("Entry missing from the index");
+            }
+            if (stored == offset + 1) {
+                delete(slot);
+                count--;
+                return;
+            }
+        }
+    }
+
+    private void insert(int hash, int offset) {
+        int mask = slots - 1;
+        int slot = hash & mask;
+        while (index.getInt(slot * SLOT + 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index.putInt(slot * SLOT, hash);
+        index.putInt(slot * SLOT + 4, offset + 1);
+    }
+
+    /**
+     * Empties a slot, moving back the following slots of the probe run that
+     * would otherwise become unreachable.
+     */
+    private void delete(int slot) {
+        int mask = slots - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask;; next = (next + 1) & mask) {
+            int stored = index.getInt(next * SLOT + 4);
+            if (stored == 0) {
+                break;
+            }
+            int home = index.getInt(next * SLOT) & mask;
+            // moves back unless its home lies cyclically in (hole, next]
+            boolean reachable = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!reachable) {
+                index.putInt(hole * SLOT, index.getInt(next * SLOT));
+                index.putInt(hole * SLOT + 4, stored);
+                hole = next;
+            }
+        }
+        index.putInt(hole * SLOT, 0);
+        index.putInt(hole * SLOT + 4, 0);
+    }
+
+    private void resize(int newSlots) {
+        ByteBuffer old = index;
+        int oldSlots = slots;
+        index = ByteBuffer.allocateDirect(newSlots * SLOT);
+        slots = newSlots;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            int stored = old.getInt(slot * SLOT + 4);
+            if (stored != 0) {
+                insert(old.getInt(slot * SLOT), stored - 1);
+            }
+        }
+    }
+
+    private boolean keyEquals(int offset, byte[] key) {
+        if (data.getInt(offset + 8) != key.length) {
+            return false;
+        }
+        int start = offset + HEADER;
+        for (int i = 0; i < key.length; i++) {
+            if (data.get(start + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] bytes(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return bytes;
+    }
+}
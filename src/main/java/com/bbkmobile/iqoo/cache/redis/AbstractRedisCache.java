@@ -1,74 +1,1474 @@
-/*
- * To change this template, choose Tools | Templates
- * and open the template in the editor.
- */
-package com.bbkmobile.iqoo.cache.redis;
-import java.util.Collection;
-import java.util.Set;
-
-import com.bbkmobile.iqoo.cache.CacheException;
-
-
-
-/**
- *
- * @author lqzhai
- */
-public abstract class AbstractRedisCache<K, V>{
-    /**
-     * Returns the Cached value stored under the specified {@code key} or
-     * {@code null} if there is no Cache entry for that {@code key}.
-     *
-     * @param key the key that the value was previous added with
-     * @return the cached object or {@code null} if there is no entry for the specified {@code key}
-     * @throws CacheException if there is a problem accessing the underlying cache system
-     */
-    public abstract V get(K key) throws CacheException;
-
-    /**
-     * Adds a Cache entry.
-     *
-     * @param key   the key used to identify the object being stored.
-     * @param value the value to be stored in the cache.
-     * @return the previous value associated with the given {@code key} or {@code null} if there was previous value
-     * @throws CacheException if there is a problem accessing the underlying cache system
-     */
-    public abstract V put(K key, V value) throws CacheException;
-
-    /**
-     * Remove the cache entry corresponding to the specified key.
-     *
-     * @param key the key of the entry to be removed.
-     * @return the previous value associated with the given {@code key} or {@code null} if there was previous value
-     * @throws CacheException if there is a problem accessing the underlying cache system
-     */
-    public abstract V remove(K key) throws CacheException;
-
-    /**
-     * Clear all entries from the cache.
-     *
-     * @throws CacheException if there is a problem accessing the underlying cache system
-     */
-    public abstract void clear() throws CacheException;
-
-    /**
-     * Returns the number of entries in the cache.
-     *
-     * @return the number of entries in the cache.
-     */
-    public abstract int size();
-
-    /**
-     * Returns a view of all the keys for entries contained in this cache.
-     *
-     * @return a view of all the keys for entries contained in this cache.
-     */
-    public abstract Set<K> keys();
-
-    /**
-     * Returns a view of all of the values contained in this cache.
-     *
-     * @return a view of all of the values contained in this cache.
-     */
-    public abstract Collection<V> values();    
-}
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.bbkmobile.iqoo.cache.redis;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import redis.clients.jedis.Jedis;
+
+import com.bbkmobile.iqoo.cache.AsyncCache;
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.SingleFlight;
+import com.bbkmobile.iqoo.cache.redis.serializer.RedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+
+
+/**
+ * Base class of the Redis backed caches. How entries are laid out in Redis is
+ * chosen with {@link #setLayout(RedisLayout)}; by default a cache is stored as
+ * one Redis hash named after the cache, one field per entry.
+ *
+ * <p>Subclasses only decide where connections come from by supplying a
+ * {@link RedisExecutor}; all commands are routed through
+ * {@link RedisConnection#getNode(byte[])} so the plain and sharded pools share
+ * the same code.</p>
+ *
+ * <p>When {@link #setVersioned(boolean) versioned}, every write also stores a
+ * random 8 byte stamp for the entry on the same node. Near caches use the
+ * stamp to revalidate a local copy without transferring the value again.</p>
+ *
+ * <p>{@link #get(Object, CacheLoader)} runs one load per key per JVM. With a
+ * {@link #setLoadLeaseMillis(long) load lease} it also takes a short Redis
+ * lease per key so that one JVM of the cluster loads while the others wait
+ * for its value, or serve a stale copy they still hold.</p>
+ *
+ * <p>With a {@link #enableMembershipFilter(long, double, long, int, int)
+ * membership filter} lookups of keys never put are answered locally.</p>
+ *
+ * <p>The compound operations such as {@link #putIfAbsent(Object, Object)} and
+ * {@link #replace(Object, Object, Object)} run as a Lua script on the node
+ * holding the entry, so they need Redis 2.6 or later and a connection that
+ * passes {@code EVALSHA} through.</p>
+ *
+ * @author lqzhai
+ */
+public abstract class AbstractRedisCache<K, V> implements AsyncCache<K, V> {
+
+    /**
+     * The negative entry of earlier versions, still read as one.
+     */
+    protected static final byte[] NULL = "nil".getBytes();
+    /**
+     * Starts the values only this class writes: a negative entry is the mark
+     * and {@link #ABSENT}, followed by its expiry time on layouts that cannot
+     * expire single entries, and a value that would read as a negative entry
+     * is stored behind the mark and {@link #ESCAPED}. No serialized value is
+     * stored as it is if it starts with the mark, so the two cannot be
+     * confused. Scripts test for the same bytes.
+     */
+    private static final byte[] MARK = { 0, 'n', 'i', 'l' };
+    private static final byte ABSENT = '-';
+    private static final byte ESCAPED = '=';
+    private static final byte[] ABSENT_VALUE = { 0, 'n', 'i', 'l', ABSENT };
+    private static final byte[] LEASE = ":lease:".getBytes();
+    private static final byte[] NX = "NX".getBytes();
+    private static final byte[] PX = "PX".getBytes();
+
+    protected final String name;
+    protected final byte[] cacheName;
+    protected final RedisExecutor executor;
+    protected volatile RedisSerializer<K> keySerializer;
+    private volatile RedisSerializer<K> legacyKeySerializer;
+    private volatile Executor asyncExecutor;
+    protected volatile RedisSerializer<V> valueSerializer;
+    private volatile RedisLayout layout = RedisLayout.HASH;
+    private volatile RedisStorage storage;
+    private volatile int timeToLiveSeconds = -1;
+    private volatile int timeToIdleSeconds = -1;
+    private volatile int bucketCount = 16;
+    private volatile int scanCount = 100;
+    private volatile long loadLeaseMillis;
+    private volatile int negativeTimeToLiveSeconds = 60;
+    private volatile RedisMembershipFilter membershipFilter;
+    private volatile boolean atomicWrites;
+    private final SingleFlight<K, V> loads = new SingleFlight<K, V>();
+
+    protected AbstractRedisCache(String cacheName, RedisExecutor executor,
+            RedisSerializer<K> keySerializer, RedisSerializer<V> valueSerializer) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Cache argument cannot be null.");
+        }
+        this.name = cacheName;
+        this.cacheName = cacheName.getBytes();
+        this.executor = executor;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.storage = createStorage(layout);
+    }
+
+    /**
+     * Gets a value of an element which matches the given key.
+     *
+     * @param key the key of the element to return.
+     * @return The value placed into the cache with an earlier put, or null if
+     * not found or expired
+     */
+    @Override
+    public V get(final K key) throws CacheException {
+        return lookup(key).getValue();
+    }
+
+    /**
+     * A negative entry, see {@link #putAbsent(Object)}, is returned as
+     * {@code null} without calling the loader; a {@code null} from the loader
+     * is stored as a negative entry.
+     */
+    @Override
+    public V get(K key, CacheLoader<K, V> loader) throws CacheException {
+        VersionedValue<V> found = lookup(key);
+        return found.getValue() != null || found.isAbsent() ? found.getValue() : load(key, loader, null, this);
+    }
+
+    /**
+     * Reads a value, telling a negative entry from a missing one; the version
+     * is not read.
+     */
+    VersionedValue<V> lookup(final K key) throws CacheException {
+        if (key == null) {
+            return new VersionedValue<V>(null, 0L);
+        }
+        final RedisStorage storage = this.storage;
+        return executor.execute(new RedisCallback<VersionedValue<V>>() {
+            @Override
+            public VersionedValue<V> doInRedis(RedisConnection connection) throws SerializationException {
+                byte[] field = keySerializer.serialize(key);
+                if (!mightContain(key, field)) {
+                    return new VersionedValue<V>(null, 0L);
+                }
+                byte[] raw = storage.get(connection, field);
+                if (raw == null && legacyKeySerializer != null) {
+                    raw = migrate(connection, storage, key, field).getValue();
+                }
+                return new VersionedValue<V>(deserializeValue(raw), 0L, isAbsent(raw));
+            }
+        });
+    }
+
+    /**
+     * Caches the absence of a value for {@code key}, for
+     * {@link #setNegativeTimeToLiveSeconds(int) negativeTimeToLiveSeconds}:
+     * {@link #get(Object)} returns {@code null} and
+     * {@link #get(Object, CacheLoader)} does not load it meanwhile. Same as
+     * putting {@code null}.
+     */
+    public void putAbsent(K key) throws CacheException {
+        putVersioned(key, null, 0, 0);
+    }
+
+    /**
+     * Loads a missing entry, once per key in this JVM and, with a load lease,
+     * once per key in the cluster.
+     *
+     * @param stale a previous value to return while another JVM holds the
+     * lease instead of waiting, or {@code null}
+     * @param target the cache the loaded value is put into, this one or one
+     * in front of it
+     */
+    V load(final K key, final CacheLoader<K, V> loader, final V stale, final Cache<K, V> target)
+            throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        if (loader == null) {
+            throw new IllegalArgumentException("loader cannot be null.");
+        }
+        return loads.load(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                // a load that just finished may have stored the value
+                VersionedValue<V> found = lookup(key);
+                if (found.getValue() != null || found.isAbsent()) {
+                    return found.getValue();
+                }
+                long lease = loadLeaseMillis;
+                return lease > 0 ? loadLeased(key, loader, stale, lease, target) : loadAndPut(key, loader, target);
+            }
+        });
+    }
+
+    private V loadLeased(K key, CacheLoader<K, V> loader, V stale, long lease, Cache<K, V> target)
+            throws Exception {
+        final byte[] leaseKey = RedisStorage.concat(cacheName, RedisStorage.concat(LEASE, keySerializer.serialize(key)));
+        final byte[] token = RedisStorage.encodeStamp(ThreadLocalRandom.current().nextLong());
+        long pause = Math.max(1, Math.min(50, lease / 10));
+        while (true) {
+            if (acquireLease(leaseKey, token, lease)) {
+                try {
+                    return loadAndPut(key, loader, target);
+                } finally {
+                    releaseLease(leaseKey, token);
+                }
+            }
+            if (stale != null) {
+                return stale;
+            }
+            // the holder stores the value, or its lease runs out and we take over
+            Thread.sleep(pause);
+            VersionedValue<V> found = lookup(key);
+            if (found.getValue() != null || found.isAbsent()) {
+                return found.getValue();
+            }
+        }
+    }
+
+    private V loadAndPut(K key, CacheLoader<K, V> loader, Cache<K, V> target) throws Exception {
+        V value = loader.load(key);
+        target.put(key, value);
+        return value;
+    }
+
+    private boolean acquireLease(final byte[] leaseKey, final byte[] token, final long lease) {
+        return executor.execute(new RedisCallback<Boolean>() {
+            @Override
+            public Boolean doInRedis(RedisConnection connection) {
+                return connection.getNode(leaseKey).set(leaseKey, token, NX, PX, lease) != null;
+            }
+        });
+    }
+
+    private void releaseLease(final byte[] leaseKey, final byte[] token) {
+        executor.execute(new RedisCallback<Void>() {
+            @Override
+            public Void doInRedis(RedisConnection connection) {
+                Jedis node = connection.getNode(leaseKey);
+                // not atomic: a lease that ran out meanwhile may be deleted
+                // while held by another JVM, costing at most one extra load
+                if (Arrays.equals(token, node.get(leaseKey))) {
+                    node.del(leaseKey);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Puts an object into the cache.
+     *
+     * @param key the key.
+     * @param value the value.
+     */
+    @Override
+    public V put(K key, V value) throws CacheException {
+        putVersioned(key, value, 0, 0);
+        return value;
+    }
+
+    /**
+     * Puts an object into the cache with its own expiry. Only the
+     * {@link RedisLayout#ENTRY_KEY} layout can expire single entries.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @param timeToLiveSeconds 0 or less for the cache default
+     * @param timeToIdleSeconds 0 or less for the cache default
+     */
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        putVersioned(key, value, timeToLiveSeconds, timeToIdleSeconds);
+        return value;
+    }
+
+    /**
+     * Removes the element which matches the key.
+     *
+     * <p>If no element matches, nothing is removed and no Exception is
+     * thrown.</p>
+     *
+     * @param key the key of the element to remove
+     */
+    @Override
+    public V remove(final K key) throws CacheException {
+        if (atomicWrites) {
+            return getAndRemove(key);
+        }
+        final RedisStorage storage = this.storage;
+        return executor.execute(new RedisCallback<V>() {
+            @Override
+            public V doInRedis(RedisConnection connection) throws SerializationException {
+                byte[] previous = storage.remove(connection, keySerializer.serialize(key));
+                byte[] legacyField = legacyField(key);
+                if (legacyField != null) {
+                    byte[] legacyPrevious = storage.remove(connection, legacyField);
+                    previous = previous == null ? legacyPrevious : previous;
+                }
+                return deserializeValue(previous);
+            }
+        });
+    }
+
+    /**
+     * Removes all elements in the cache, but leaves the cache in a useable
+     * state.
+     */
+    @Override
+    public void clear() throws CacheException {
+        final RedisStorage storage = this.storage;
+        executor.execute(new RedisCallback<Void>() {
+            @Override
+            public Void doInRedis(RedisConnection connection) {
+                storage.clear(connection);
+                return null;
+            }
+        });
+        RedisMembershipFilter filter = membershipFilter;
+        if (filter != null) {
+            filter.reset();
+        }
+    }
+
+    @Override
+    public int size() {
+        final RedisStorage storage = this.storage;
+        return executor.execute(new RedisCallback<Integer>() {
+            @Override
+            public Integer doInRedis(RedisConnection connection) {
+                return storage.size(connection);
+            }
+        });
+    }
+
+    /**
+     * Returns a lazy view of the keys. Iterating it walks the cache with
+     * {@code HSCAN} (or {@code SCAN} for {@link RedisLayout#ENTRY_KEY}), one
+     * page of {@link #setScanCount(int) scanCount} entries per round trip, so
+     * neither Redis nor the heap ever holds more than a page. As with any
+     * Redis scan, keys written during the walk may be missed and keys may be
+     * returned twice if Redis resizes the hash meanwhile.
+     */
+    @Override
+    public Set<K> keys() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new ScanIterator<K>(false) {
+                    @Override
+                    protected void collect(List<K> page, byte[] field, byte[] value) throws SerializationException {
+                        page.add(keySerializer.deserialize(field));
+                    }
+                };
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                return o != null && get((K) o) != null;
+            }
+
+            @Override
+            public int size() {
+                return AbstractRedisCache.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns a lazy view of the values, walked page by page like
+     * {@link #keys()}.
+     */
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ScanIterator<V>(true) {
+                    @Override
+                    protected void collect(List<V> page, byte[] field, byte[] value) throws SerializationException {
+                        V v = deserializeValue(value);
+                        if (v != null) {
+                            page.add(v);
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return AbstractRedisCache.this.size();
+            }
+        };
+    }
+
+    /**
+     * Walks every entry of the cache in bounded memory, fetching and
+     * deserializing one page of {@link #setScanCount(int) scanCount} entries
+     * at a time.
+     *
+     * @param visitor receives the entries until it returns {@code false}
+     */
+    public void forEach(EntryVisitor<K, V> visitor) throws CacheException {
+        ScanIterator<Map.Entry<K, V>> entries = new ScanIterator<Map.Entry<K, V>>(true) {
+            @Override
+            protected void collect(List<Map.Entry<K, V>> page, byte[] field, byte[] value) throws SerializationException {
+                V v = deserializeValue(value);
+                if (v != null) {
+                    page.add(new AbstractMap.SimpleImmutableEntry<K, V>(keySerializer.deserialize(field), v));
+                }
+            }
+        };
+        while (entries.hasNext()) {
+            Map.Entry<K, V> entry = entries.next();
+            if (!visitor.visit(entry.getKey(), entry.getValue())) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    /**
+     * Gets the values of several elements in one round trip per node.
+     *
+     * @param keys the keys of the elements to return.
+     * @return the elements found; missing or expired keys are left out
+     */
+    @Override
+    public Map<K, V> getAll(final Collection<K> keys) throws CacheException {
+        if (keys == null || keys.isEmpty()) {
+            return new HashMap<K, V>();
+        }
+        final RedisStorage storage = this.storage;
+        return executor.execute(new RedisCallback<Map<K, V>>() {
+            @Override
+            public Map<K, V> doInRedis(RedisConnection connection) throws SerializationException {
+                List<K> ordered = nonNullKeys(keys);
+                Map<K, V> result = new LinkedHashMap<K, V>(ordered.size() * 2);
+                if (ordered.isEmpty()) {
+                    return result;
+                }
+                List<byte[]> fields = serializeKeys(ordered);
+                if (filterAbsent(ordered, fields)) {
+                    return result;
+                }
+                List<byte[]> values = storage.getAll(connection, fields);
+                for (int i = 0; i < ordered.size(); i++) {
+                    byte[] raw = values.get(i);
+                    if (raw == null && legacyKeySerializer != null) {
+                        raw = migrate(connection, storage, ordered.get(i), fields.get(i)).getValue();
+                    }
+                    V value = deserializeValue(raw);
+                    if (value != null) {
+                        result.put(ordered.get(i), value);
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Puts several objects into the cache in one round trip per node.
+     *
+     * @param entries the keys and values to store.
+     */
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        putAllVersioned(entries);
+    }
+
+    /**
+     * Removes several elements in one round trip per node.
+     *
+     * @param keys the keys of the elements to remove
+     */
+    @Override
+    public void removeAll(final Collection<K> keys) throws CacheException {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        final RedisStorage storage = this.storage;
+        executor.execute(new RedisCallback<Void>() {
+            @Override
+            public Void doInRedis(RedisConnection connection) throws SerializationException {
+                List<K> ordered = nonNullKeys(keys);
+                if (!ordered.isEmpty()) {
+                    List<byte[]> fields = serializeKeys(ordered);
+                    fields.addAll(legacyFields(ordered));
+                    storage.removeAll(connection, fields);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Puts an object into the cache and returns the version stamp written
+     * along with it.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return the new version stamp, or 0 if this cache is not versioned
+     */
+    public long putVersioned(K key, V value) throws CacheException {
+        return putVersioned(key, value, 0, 0);
+    }
+
+    /**
+     * Puts an object into the cache with its own expiry and returns the
+     * version stamp written along with it. The value, the stamp and the
+     * expiry are sent in a single pipeline.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @param timeToLiveSeconds 0 or less for the cache default
+     * @param timeToIdleSeconds 0 or less for the cache default
+     * @return the new version stamp, or 0 if this cache is not versioned
+     * @throws UnsupportedOperationException if an expiry is given and the
+     * layout cannot expire single entries
+     */
+    public long putVersioned(final K key, final V value, int timeToLiveSeconds, int timeToIdleSeconds)
+            throws CacheException {
+        final RedisStorage storage = this.storage;
+        final int ttl;
+        final int tti;
+        if (value == null) {
+            // a negative entry ignores the expiry asked for
+            ttl = storage.supportsEntryExpiry() ? negativeTimeToLiveSeconds : timeToLive(storage, 0, 0);
+            tti = 0;
+        } else {
+            ttl = timeToLive(storage, timeToLiveSeconds, timeToIdleSeconds);
+            tti = timeToIdle(storage, timeToIdleSeconds);
+        }
+        if (atomicWrites) {
+            return update(storage, RedisStorage.Update.PUT, key, value, null, ttl, tti).stamp;
+        }
+        return executor.execute(new RedisCallback<Long>() {
+            @Override
+            public Long doInRedis(RedisConnection connection) throws SerializationException {
+                long stamp = storage.isVersioned() ? newStamp() : 0L;
+                byte[] raw = value == null ? absentValue(storage) : serializeValue(value);
+                byte[] field = keySerializer.serialize(key);
+                storage.put(connection, field, raw, stamp, ttl, tti, legacyFields(Collections.singletonList(key)));
+                RedisMembershipFilter filter = membershipFilter;
+                if (filter != null) {
+                    filter.add(field);
+                }
+                return stamp;
+            }
+        });
+    }
+
+    /**
+     * Removes an entry and returns its value, in one atomic step: of two
+     * concurrent calls only one gets the value.
+     *
+     * @return the removed value, or {@code null} if there was none
+     */
+    public V getAndRemove(K key) throws CacheException {
+        return compound(RedisStorage.Update.REMOVE, key, null, null).value;
+    }
+
+    /**
+     * Puts an entry and returns the value it replaced, in one atomic step.
+     *
+     * @return the previous value, or {@code null} if there was none
+     */
+    public V getAndPut(K key, V value) throws CacheException {
+        return compound(RedisStorage.Update.PUT, key, value, null).value;
+    }
+
+    /**
+     * Puts an entry unless a value is already there; a negative entry does
+     * not count as one.
+     *
+     * @return the value already there, or {@code null} if {@code value} was
+     * put
+     */
+    public V putIfAbsent(K key, V value) throws CacheException {
+        Result<V> result = compound(RedisStorage.Update.PUT_IF_ABSENT, key, value, null);
+        return result.written ? null : result.value;
+    }
+
+    /**
+     * Puts an entry only if its value is still {@code expected}, compared in
+     * serialized form.
+     *
+     * @return whether {@code value} was put
+     */
+    public boolean replace(K key, V expected, V value) throws CacheException {
+        if (expected == null) {
+            throw new IllegalArgumentException("expected cannot be null.");
+        }
+        return compound(RedisStorage.Update.REPLACE, key, value, expected).written;
+    }
+
+    private Result<V> compound(RedisStorage.Update update, K key, V value, V expected) throws CacheException {
+        if (key == null) {
+            return new Result<V>(null, false, 0L);
+        }
+        if (value == null && update != RedisStorage.Update.REMOVE) {
+            throw new IllegalArgumentException("value cannot be null.");
+        }
+        RedisStorage storage = this.storage;
+        Result<byte[]> result = update == RedisStorage.Update.REMOVE
+                ? update(storage, update, key, null, null, 0, 0)
+                : update(storage, update, key, value, expected, timeToLive(storage, 0, 0), timeToIdle(storage, 0));
+        try {
+            return new Result<V>(deserializeValue(result.value), result.written, result.stamp);
+        } catch (SerializationException e) {
+            throw new CacheException(e);
+        }
+    }
+
+    /**
+     * Runs {@link RedisStorage#update} for {@code key} and drops its legacy
+     * entry.
+     *
+     * @return the previous raw value, whether written, and the stamp written
+     */
+    private Result<byte[]> update(final RedisStorage storage, final RedisStorage.Update update, final K key,
+            final V value, final V expected, final int ttl, final int tti) throws CacheException {
+        return executor.execute(new RedisCallback<Result<byte[]>>() {
+            @Override
+            public Result<byte[]> doInRedis(RedisConnection connection) throws SerializationException {
+                byte[] field = keySerializer.serialize(key);
+                long stamp = storage.isVersioned() && update != RedisStorage.Update.REMOVE ? newStamp() : 0L;
+                byte[] raw = null;
+                if (update != RedisStorage.Update.REMOVE) {
+                    raw = value == null ? absentValue(storage) : serializeValue(value);
+                }
+                RedisStorage.UpdateResult result = storage.update(connection, update, field, raw,
+                        expected == null ? null : serializeValue(expected), stamp, ttl, tti,
+                        legacyField(key));
+                RedisMembershipFilter filter = membershipFilter;
+                if (filter != null && result.written && update != RedisStorage.Update.REMOVE) {
+                    filter.add(field);
+                }
+                return new Result<byte[]>(result.previous, result.written, result.written ? stamp : 0L);
+            }
+        });
+    }
+
+    private static final class Result<T> {
+
+        final T value;
+        final boolean written;
+        final long stamp;
+
+        Result(T value, boolean written, long stamp) {
+            this.value = value;
+            this.written = written;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * Reads a value together with its version stamp in one round trip.
+     *
+     * @param key the key of the element to return.
+     * @return the value and its stamp; the value is {@code null} if not found
+     */
+    public VersionedValue<V> getVersioned(final K key) throws CacheException {
+        final RedisStorage storage = this.storage;
+        return executor.execute(new RedisCallback<VersionedValue<V>>() {
+            @Override
+            public VersionedValue<V> doInRedis(RedisConnection connection) throws SerializationException {
+                byte[] field = keySerializer.serialize(key);
+                if (!mightContain(key, field)) {
+                    return new VersionedValue<V>(null, 0L);
+                }
+                VersionedValue<byte[]> raw = storage.getVersioned(connection, field);
+                if (raw.getValue() == null && legacyKeySerializer != null) {
+                    raw = migrate(connection, storage, key, field);
+                }
+                return new VersionedValue<V>(deserializeValue(raw.getValue()), raw.getVersion(),
+                        isAbsent(raw.getValue()));
+            }
+        });
+    }
+
+    /**
+     * Puts several objects into the cache in one round trip per node and
+     * returns the version stamps written along with them.
+     *
+     * @param entries the keys and values to store.
+     * @return the new stamp of every key, all 0 if this cache is not versioned
+     */
+    public Map<K, Long> putAllVersioned(final Map<K, V> entries) throws CacheException {
+        if (entries == null || entries.isEmpty()) {
+            return new HashMap<K, Long>();
+        }
+        final RedisStorage storage = this.storage;
+        final int ttl = timeToLive(storage, 0, 0);
+        final int tti = timeToIdle(storage, 0);
+        return executor.execute(new RedisCallback<Map<K, Long>>() {
+            @Override
+            public Map<K, Long> doInRedis(RedisConnection connection) throws SerializationException {
+                boolean versioned = storage.isVersioned();
+                List<byte[]> fields = new ArrayList<byte[]>(entries.size());
+                List<byte[]> values = new ArrayList<byte[]>(entries.size());
+                long[] stamps = new long[entries.size()];
+                Map<K, Long> result = new LinkedHashMap<K, Long>(entries.size() * 2);
+                for (Map.Entry<K, V> entry : entries.entrySet()) {
+                    long stamp = versioned ? newStamp() : 0L;
+                    stamps[fields.size()] = stamp;
+                    fields.add(keySerializer.serialize(entry.getKey()));
+                    // negative entries keep their own expiry inside, the ttl being shared
+                    values.add(entry.getValue() == null ? expiringAbsentValue()
+                            : serializeValue(entry.getValue()));
+                    result.put(entry.getKey(), stamp);
+                }
+                storage.putAll(connection, fields, values, stamps, ttl, tti,
+                        legacyFields(new ArrayList<K>(entries.keySet())));
+                RedisMembershipFilter filter = membershipFilter;
+                if (filter != null) {
+                    for (byte[] field : fields) {
+                        filter.add(field);
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Reads several values together with their version stamps in one round
+     * trip per node.
+     *
+     * @param keys the keys of the elements to return.
+     * @return the value and stamp of every key found; missing keys are left
+     * out
+     */
+    public Map<K, VersionedValue<V>> getAllVersioned(final Collection<K> keys) throws CacheException {
+        if (keys == null || keys.isEmpty()) {
+            return new HashMap<K, VersionedValue<V>>();
+        }
+        final RedisStorage storage = this.storage;
+        return executor.execute(new RedisCallback<Map<K, VersionedValue<V>>>() {
+            @Override
+            public Map<K, VersionedValue<V>> doInRedis(RedisConnection connection) throws SerializationException {
+                List<K> ordered = nonNullKeys(keys);
+                Map<K, VersionedValue<V>> result = new LinkedHashMap<K, VersionedValue<V>>(ordered.size() * 2);
+                if (ordered.isEmpty()) {
+                    return result;
+                }
+                List<byte[]> fields = serializeKeys(ordered);
+                if (filterAbsent(ordered, fields)) {
+                    return result;
+                }
+                List<VersionedValue<byte[]>> raw = storage.getAllVersioned(connection, fields);
+                for (int i = 0; i < ordered.size(); i++) {
+                    VersionedValue<byte[]> entry = raw.get(i);
+                    if (entry.getValue() == null && legacyKeySerializer != null) {
+                        entry = migrate(connection, storage, ordered.get(i), fields.get(i));
+                    }
+                    V value = deserializeValue(entry.getValue());
+                    if (value != null) {
+                        result.put(ordered.get(i), new VersionedValue<V>(value, entry.getVersion()));
+                    }
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Returns the current version stamps of several entries without reading
+     * their values.
+     *
+     * @param keys the keys of the entries
+     * @return the stamp of every key, 0 for missing entries
+     */
+    public Map<K, Long> getVersions(final Collection<K> keys) throws CacheException {
+        final RedisStorage storage = this.storage;
+        Map<K, Long> none = new HashMap<K, Long>();
+        if (keys == null || keys.isEmpty()) {
+            return none;
+        }
+        if (!storage.isVersioned()) {
+            for (K key : keys) {
+                none.put(key, 0L);
+            }
+            return none;
+        }
+        return executor.execute(new RedisCallback<Map<K, Long>>() {
+            @Override
+            public Map<K, Long> doInRedis(RedisConnection connection) throws SerializationException {
+                List<K> ordered = nonNullKeys(keys);
+                Map<K, Long> result = new LinkedHashMap<K, Long>(ordered.size() * 2);
+                if (ordered.isEmpty()) {
+                    return result;
+                }
+                List<Long> stamps = storage.getVersions(connection, serializeKeys(ordered));
+                for (int i = 0; i < ordered.size(); i++) {
+                    result.put(ordered.get(i), stamps.get(i));
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Returns the current version stamp of an entry without reading its
+     * value.
+     *
+     * @param key the key of the entry
+     * @return the stamp, or 0 if the entry does not exist or the cache is not
+     * versioned
+     */
+    public long getVersion(final K key) throws CacheException {
+        final RedisStorage storage = this.storage;
+        if (!storage.isVersioned()) {
+            return 0L;
+        }
+        return executor.execute(new RedisCallback<Long>() {
+            @Override
+            public Long doInRedis(RedisConnection connection) throws SerializationException {
+                return storage.getVersion(connection, keySerializer.serialize(key));
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public RedisExecutor getExecutor() {
+        return executor;
+    }
+
+    public boolean isVersioned() {
+        return storage.isVersioned();
+    }
+
+    /**
+     * Enables or disables writing version stamps on {@code put}.
+     */
+    public void setVersioned(boolean versioned) {
+        storage.setVersioned(versioned);
+    }
+
+    public RedisSerializer<K> getKeySerializer() {
+        return keySerializer;
+    }
+
+    /**
+     * Switches to another key encoding. Entries stored with the previous one
+     * become invisible unless it is kept as the
+     * {@link #setLegacyKeySerializer(RedisSerializer) legacy} encoding.
+     */
+    public void setKeySerializer(RedisSerializer<K> keySerializer) {
+        if (keySerializer == null) {
+            throw new IllegalArgumentException("keySerializer cannot be null.");
+        }
+        this.keySerializer = keySerializer;
+    }
+
+    public RedisSerializer<K> getLegacyKeySerializer() {
+        return legacyKeySerializer;
+    }
+
+    /**
+     * Sets the key encoding entries may still be stored under after a switch
+     * of {@link #setKeySerializer(RedisSerializer) key serializer}. While set,
+     * a miss is retried with the legacy encoding and a hit is moved to the
+     * current one, and writes and removals also drop the legacy field in the
+     * pipeline, or script, of the write; {@link #migrateKeys()} moves the rest
+     * in bulk. Clear it once no legacy entries are left: every miss still
+     * costs a second read until then.
+     *
+     * <p>Both encodings share one namespace, so a key whose legacy and current
+     * encodings produce the same bytes for different keys (JSON {@code 1000}
+     * and the 4 byte integer 825241648, for instance) would be confused; a
+     * cache at risk of that is better cleared than migrated.</p>
+     *
+     * @param legacyKeySerializer the previous key serializer, {@code null} once
+     * migrated
+     */
+    public void setLegacyKeySerializer(RedisSerializer<K> legacyKeySerializer) {
+        this.legacyKeySerializer = legacyKeySerializer;
+    }
+
+    /**
+     * Moves every entry still stored under the
+     * {@link #setLegacyKeySerializer(RedisSerializer) legacy} key encoding to
+     * the current one, walking the cache page by page.
+     *
+     * @return the number of entries moved
+     */
+    public int migrateKeys() throws CacheException {
+        final RedisSerializer<K> legacy = legacyKeySerializer;
+        if (legacy == null) {
+            return 0;
+        }
+        final RedisStorage storage = this.storage;
+        final int count = scanCount;
+        int moved = 0;
+        RedisStorage.ScanPosition position = null;
+        do {
+            final RedisStorage.ScanPosition from = position;
+            RedisStorage.ScanPage page = executor.execute(new RedisCallback<RedisStorage.ScanPage>() {
+                @Override
+                public RedisStorage.ScanPage doInRedis(RedisConnection connection) {
+                    return storage.scan(connection, from, count, false);
+                }
+            });
+            final List<byte[]> fields = page.fields;
+            moved += executor.execute(new RedisCallback<Integer>() {
+                @Override
+                public Integer doInRedis(RedisConnection connection) throws SerializationException {
+                    int n = 0;
+                    for (byte[] field : fields) {
+                        K key;
+                        try {
+                            key = legacy.deserialize(field);
+                        } catch (SerializationException e) {
+                            continue;
+                        }
+                        if (key == null || !Arrays.equals(field, legacy.serialize(key))) {
+                            continue;
+                        }
+                        byte[] current = keySerializer.serialize(key);
+                        if (!Arrays.equals(field, current) && migrate(connection, storage, key, current).getValue() != null) {
+                            n++;
+                        }
+                    }
+                    return n;
+                }
+            });
+            position = page.next;
+        } while (position != null);
+        return moved;
+    }
+
+    public RedisSerializer<V> getValueSerializer() {
+        return valueSerializer;
+    }
+
+    /**
+     * Replaces the value serializer, e.g. to wrap it in a
+     * {@link com.bbkmobile.iqoo.cache.redis.serializer.CompressingSerializer};
+     * the new one must still read the values already stored.
+     */
+    public void setValueSerializer(RedisSerializer<V> valueSerializer) {
+        if (valueSerializer == null) {
+            throw new IllegalArgumentException("valueSerializer cannot be null.");
+        }
+        this.valueSerializer = valueSerializer;
+    }
+
+    public RedisLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Sets how entries are laid out in Redis. Entries written with another
+     * layout are not migrated and stay invisible to this cache, so the layout
+     * is meant to be chosen before the cache is first used.
+     */
+    public synchronized void setLayout(RedisLayout layout) {
+        if (layout == null) {
+            throw new IllegalArgumentException("layout cannot be null.");
+        }
+        RedisStorage created = createStorage(layout);
+        created.setVersioned(storage.isVersioned());
+        this.layout = layout;
+        this.storage = created;
+    }
+
+    public int getBucketCount() {
+        return bucketCount;
+    }
+
+    /**
+     * Sets the number of hashes a {@link RedisLayout#BUCKETED} cache is split
+     * into. Changing it moves most entries to another bucket, so like the
+     * layout it is meant to be chosen before the cache is first used.
+     */
+    public synchronized void setBucketCount(int bucketCount) {
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("bucketCount must be positive.");
+        }
+        this.bucketCount = bucketCount;
+        if (layout == RedisLayout.BUCKETED) {
+            setLayout(layout);
+        }
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    /**
+     * Sets the time to live applied on every put that does not give its own.
+     * With the hash based layouts it applies to the whole hash written to and
+     * is renewed by every put; 0 or less disables it.
+     */
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public int getTimeToIdleSeconds() {
+        return timeToIdleSeconds;
+    }
+
+    /**
+     * Sets the time to idle applied on every put that does not give its own;
+     * 0 or less disables it. Ignored by layouts that cannot expire single
+     * entries.
+     */
+    public void setTimeToIdleSeconds(int timeToIdleSeconds) {
+        this.timeToIdleSeconds = timeToIdleSeconds;
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(final K key) {
+        return RedisAsyncExecutor.supply(new Supplier<V>() {
+            @Override
+            public V get() {
+                return AbstractRedisCache.this.get(key);
+            }
+        }, getAsyncExecutor());
+    }
+
+    @Override
+    public CompletableFuture<V> putAsync(final K key, final V value) {
+        return RedisAsyncExecutor.supply(new Supplier<V>() {
+            @Override
+            public V get() {
+                return put(key, value);
+            }
+        }, getAsyncExecutor());
+    }
+
+    @Override
+    public CompletableFuture<V> removeAsync(final K key) {
+        return RedisAsyncExecutor.supply(new Supplier<V>() {
+            @Override
+            public V get() {
+                return remove(key);
+            }
+        }, getAsyncExecutor());
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAllAsync(final Collection<K> keys) {
+        return RedisAsyncExecutor.supply(new Supplier<Map<K, V>>() {
+            @Override
+            public Map<K, V> get() {
+                return getAll(keys);
+            }
+        }, getAsyncExecutor());
+    }
+
+    /**
+     * @return the executor of the asynchronous calls, a shared
+     * {@link RedisAsyncExecutor} of 8 threads unless set
+     */
+    public Executor getAsyncExecutor() {
+        Executor executor = asyncExecutor;
+        return executor == null ? RedisAsyncExecutor.getDefault() : executor;
+    }
+
+    /**
+     * @param asyncExecutor runs the asynchronous calls; it should bound its
+     * concurrency to the connections the cache may use
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public int getScanCount() {
+        return scanCount;
+    }
+
+    /**
+     * Sets the {@code COUNT} hint of the scans behind {@link #keys()},
+     * {@link #values()} and {@link #forEach(EntryVisitor)}: larger pages mean
+     * fewer round trips but longer Redis calls and more memory per page.
+     */
+    public void setScanCount(int scanCount) {
+        if (scanCount <= 0) {
+            throw new IllegalArgumentException("scanCount must be positive.");
+        }
+        this.scanCount = scanCount;
+    }
+
+    public int getNegativeTimeToLiveSeconds() {
+        return negativeTimeToLiveSeconds;
+    }
+
+    /**
+     * Sets how long negative entries live. With the hash based layouts
+     * they stay in the hash past it, read as missing, until replaced or the
+     * hash expires.
+     */
+    public void setNegativeTimeToLiveSeconds(int negativeTimeToLiveSeconds) {
+        if (negativeTimeToLiveSeconds <= 0) {
+            throw new IllegalArgumentException("negativeTimeToLiveSeconds must be positive.");
+        }
+        this.negativeTimeToLiveSeconds = negativeTimeToLiveSeconds;
+    }
+
+    public long getLoadLeaseMillis() {
+        return loadLeaseMillis;
+    }
+
+    /**
+     * Sets how long a JVM loading a missing entry through
+     * {@link #get(Object, CacheLoader)} keeps the other JVMs from loading it
+     * too. It should exceed the usual load time: once it runs out another JVM
+     * loads as well. 0, the default, only coalesces loads within the JVM.
+     */
+    public void setLoadLeaseMillis(long loadLeaseMillis) {
+        this.loadLeaseMillis = loadLeaseMillis;
+    }
+
+    /**
+     * @return the keys being loaded in this JVM
+     */
+    public int getLoadingCount() {
+        return loads.getInflightCount();
+    }
+
+    /**
+     * Keeps a Bloom filter of the keys of this cache, shared with the other
+     * JVMs through Redis, so that reads of keys never put skip Redis. Keys
+     * are tracked from their puts through this class and from the rebuilds,
+     * which scan the stored fields; while a legacy key serializer is set a key
+     * is looked up in the filter under both encodings.
+     *
+     * @param expectedEntries the cache size the false positive rate holds for
+     * @param falsePositiveRate the wanted share of absent keys still read from
+     * Redis
+     * @param maxBytes the most memory the filter may take
+     * @param syncSeconds how often the filters of the JVMs are merged
+     * @param rebuildSeconds how often the filter is rebuilt from the cache to
+     * forget removed keys
+     * @return the filter, for its statistics
+     * @see RedisMembershipFilter
+     */
+    public synchronized RedisMembershipFilter enableMembershipFilter(long expectedEntries, double falsePositiveRate,
+            long maxBytes, int syncSeconds, int rebuildSeconds) {
+        disableMembershipFilter();
+        membershipFilter = new RedisMembershipFilter(this, expectedEntries, falsePositiveRate, maxBytes,
+                syncSeconds, rebuildSeconds);
+        return membershipFilter;
+    }
+
+    public synchronized void disableMembershipFilter() {
+        RedisMembershipFilter filter = membershipFilter;
+        membershipFilter = null;
+        if (filter != null) {
+            filter.close();
+        }
+    }
+
+    public boolean isAtomicWrites() {
+        return atomicWrites;
+    }
+
+    /**
+     * Runs {@link #remove(Object)} and the puts of single entries as Lua
+     * scripts, see {@link #getAndRemove(Object)}, instead of pipelines: the
+     * value and its stamp are then written atomically. Needs Redis 2.6 or
+     * later, hence off by default.
+     */
+    public void setAtomicWrites(boolean atomicWrites) {
+        this.atomicWrites = atomicWrites;
+    }
+
+    public RedisMembershipFilter getMembershipFilter() {
+        return membershipFilter;
+    }
+
+    /**
+     * While a {@link #setLegacyKeySerializer(RedisSerializer) legacy} key
+     * encoding is set the entry may still be stored under it, and the filter,
+     * built from a scan of the stored fields, knows it by that one.
+     */
+    private boolean mightContain(K key, byte[] field) throws SerializationException {
+        RedisMembershipFilter filter = membershipFilter;
+        return filter == null || filter.mightContain(field, legacyField(key));
+    }
+
+    /**
+     * Drops the keys the membership filter knows to be absent.
+     *
+     * @return whether none is left to read
+     */
+    private boolean filterAbsent(List<K> ordered, List<byte[]> fields) throws SerializationException {
+        if (membershipFilter == null) {
+            return false;
+        }
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            if (!mightContain(ordered.get(i), fields.get(i))) {
+                ordered.remove(i);
+                fields.remove(i);
+            }
+        }
+        return fields.isEmpty();
+    }
+
+    RedisStorage getStorage() {
+        return storage;
+    }
+
+    protected RedisStorage createStorage(RedisLayout layout) {
+        switch (layout) {
+            case ENTRY_KEY:
+                return new KeyStorage(cacheName);
+            case BUCKETED:
+                return new BucketStorage(cacheName, bucketCount);
+            default:
+                return new HashStorage(cacheName);
+        }
+    }
+
+    private int timeToLive(RedisStorage storage, int timeToLive, int timeToIdle) {
+        if ((timeToLive > 0 || timeToIdle > 0) && !storage.supportsEntryExpiry()) {
+            throw new UnsupportedOperationException("The " + layout + " layout of cache [" + name
+                    + "] cannot expire single entries.");
+        }
+        return timeToLive > 0 ? timeToLive : Math.max(0, timeToLiveSeconds);
+    }
+
+    private int timeToIdle(RedisStorage storage, int timeToIdle) {
+        if (!storage.supportsEntryExpiry()) {
+            return 0;
+        }
+        return timeToIdle > 0 ? timeToIdle : Math.max(0, timeToIdleSeconds);
+    }
+
+    /**
+     * Iterates over a cache scan, fetching the next page through the executor
+     * only once the current one is used up, so no connection is held between
+     * pages.
+     */
+    private abstract class ScanIterator<T> implements Iterator<T> {
+
+        private final RedisStorage storage = AbstractRedisCache.this.storage;
+        private final boolean withValues;
+        private RedisStorage.ScanPosition position;
+        private boolean started;
+        private List<T> page = Collections.emptyList();
+        private int next;
+
+        ScanIterator(boolean withValues) {
+            this.withValues = withValues;
+        }
+
+        /**
+         * Deserializes one scanned entry into {@code page}, or skips it.
+         */
+        protected abstract void collect(List<T> page, byte[] field, byte[] value) throws SerializationException;
+
+        @Override
+        public boolean hasNext() {
+            while (next >= page.size()) {
+                if (started && position == null) {
+                    return false;
+                }
+                fetch();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(next++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void fetch() {
+            final RedisStorage.ScanPosition from = position;
+            final int count = scanCount;
+            RedisStorage.ScanPage scanned = executor.execute(new RedisCallback<RedisStorage.ScanPage>() {
+                @Override
+                public RedisStorage.ScanPage doInRedis(RedisConnection connection) {
+                    return storage.scan(connection, from, count, withValues);
+                }
+            });
+            List<T> fetched = new ArrayList<T>(scanned.fields.size());
+            try {
+                for (int i = 0; i < scanned.fields.size(); i++) {
+                    collect(fetched, scanned.fields.get(i), scanned.values == null ? null : scanned.values.get(i));
+                }
+            } catch (SerializationException e) {
+                throw new CacheException(e);
+            }
+            position = scanned.next;
+            started = true;
+            page = fetched;
+            next = 0;
+        }
+    }
+
+    /**
+     * Moves the entry stored under the legacy encoding of {@code key}, if
+     * any, to {@code field}.
+     *
+     * @return the moved raw value and its new stamp, a {@code null} value if
+     * there was none
+     */
+    private VersionedValue<byte[]> migrate(RedisConnection connection, RedisStorage storage, K key, byte[] field)
+            throws SerializationException {
+        byte[] legacyField = legacyField(key);
+        byte[] raw = legacyField == null ? null : storage.remove(connection, legacyField);
+        if (raw == null) {
+            return new VersionedValue<byte[]>(null, 0L);
+        }
+        long stamp = storage.isVersioned() ? newStamp() : 0L;
+        storage.put(connection, field, raw, stamp, timeToLive(storage, 0, 0), timeToIdle(storage, 0),
+                Collections.<byte[]> emptyList());
+        return new VersionedValue<byte[]>(raw, stamp);
+    }
+
+    /**
+     * @return the legacy encoding of {@code key}, or {@code null} if there is
+     * no legacy encoding or it equals the current one
+     */
+    private byte[] legacyField(K key) throws SerializationException {
+        RedisSerializer<K> legacy = legacyKeySerializer;
+        if (legacy == null) {
+            return null;
+        }
+        byte[] field = legacy.serialize(key);
+        return Arrays.equals(field, keySerializer.serialize(key)) ? null : field;
+    }
+
+    /**
+     * @return the legacy encodings of {@code keys} that differ from the
+     * current ones, for the writes to drop along with theirs
+     */
+    private List<byte[]> legacyFields(List<K> keys) throws SerializationException {
+        if (legacyKeySerializer == null) {
+            return Collections.emptyList();
+        }
+        List<byte[]> fields = new ArrayList<byte[]>(keys.size());
+        for (K key : keys) {
+            byte[] field = legacyField(key);
+            if (field != null) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Serializes a value, escaping it if it would read as a negative entry.
+     */
+    protected byte[] serializeValue(V value) throws SerializationException {
+        byte[] raw = valueSerializer.serialize(value);
+        if (raw != null && (startsWithMark(raw) || Arrays.equals(NULL, raw))) {
+            byte[] escaped = new byte[MARK.length + 1 + raw.length];
+            System.arraycopy(MARK, 0, escaped, 0, MARK.length);
+            escaped[MARK.length] = ESCAPED;
+            System.arraycopy(raw, 0, escaped, MARK.length + 1, raw.length);
+            return escaped;
+        }
+        return raw;
+    }
+
+    protected V deserializeValue(byte[] val) throws SerializationException {
+        if (null == val || isNull(val)) {
+            return null;
+        }
+        if (startsWithMark(val) && val.length > MARK.length && val[MARK.length] == ESCAPED) {
+            return valueSerializer.deserialize(Arrays.copyOfRange(val, MARK.length + 1, val.length));
+        }
+        return valueSerializer.deserialize(val);
+    }
+
+    /**
+     * Layouts able to expire single entries store negative entries as the
+     * mark alone; the others append the expiry time, past which the entry
+     * reads as missing.
+     */
+    private byte[] absentValue(RedisStorage storage) {
+        return storage.supportsEntryExpiry() ? ABSENT_VALUE : expiringAbsentValue();
+    }
+
+    private byte[] expiringAbsentValue() {
+        return RedisStorage.concat(ABSENT_VALUE, RedisStorage.encodeStamp(System.currentTimeMillis()
+                + negativeTimeToLiveSeconds * 1000L));
+    }
+
+    private static boolean startsWithMark(byte[] raw) {
+        if (raw.length < MARK.length) {
+            return false;
+        }
+        for (int i = 0; i < MARK.length; i++) {
+            if (raw[i] != MARK[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether {@code raw} is a negative entry, expired or not
+     */
+    private static boolean isNull(byte[] raw) {
+        if (raw.length == NULL.length) {
+            return Arrays.equals(NULL, raw);
+        }
+        return (raw.length == ABSENT_VALUE.length || raw.length == ABSENT_VALUE.length + 8) && startsWithMark(raw)
+                && raw[MARK.length] == ABSENT;
+    }
+
+    static boolean isAbsent(byte[] raw) {
+        if (raw == null || !isNull(raw)) {
+            return false;
+        }
+        return raw.length != ABSENT_VALUE.length + 8 || RedisStorage.decodeStamp(Arrays.copyOfRange(raw,
+                ABSENT_VALUE.length, raw.length)) > System.currentTimeMillis();
+    }
+
+    protected List<byte[]> serializeKeys(List<K> keys) throws SerializationException {
+        List<byte[]> fields = new ArrayList<byte[]>(keys.size());
+        for (K key : keys) {
+            fields.add(keySerializer.serialize(key));
+        }
+        return fields;
+    }
+
+    private static <K> List<K> nonNullKeys(Collection<K> keys) {
+        List<K> ordered = new ArrayList<K>(keys.size());
+        for (K key : keys) {
+            if (key != null) {
+                ordered.add(key);
+            }
+        }
+        return ordered;
+    }
+
+    private static long newStamp() {
+        long stamp;
+        do {
+            stamp = ThreadLocalRandom.current().nextLong();
+        } while (stamp == 0L);
+        return stamp;
+    }
+}
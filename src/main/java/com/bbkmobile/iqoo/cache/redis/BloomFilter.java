@@ -0,0 +1,164 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of byte arrays, safe for concurrent adds and lookups. A
+ * lookup answering {@code false} guarantees the array was never added; one
+ * answering {@code true} is wrong with the configured probability.
+ *
+ * <p>Bit {@code i} is stored most significant bit first, as Redis numbers
+ * the bits of a string, so {@link #toBytes()} can be sent with {@code SET}
+ * and maintained with {@code SETBIT}.</p>
+ *
+ * @author lqzhai
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    /**
+     * @param expectedEntries the entries the false positive rate is sized for
+     * @param falsePositiveRate the wanted rate, e.g. 0.01
+     * @param maxBytes the most memory the bits may take; a smaller size than
+     * the rate asks for raises the rate
+     */
+    public BloomFilter(long expectedEntries, double falsePositiveRate, long maxBytes) {
+        if (expectedEntries <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 || maxBytes < 8) {
+            throw new IllegalArgumentException("Invalid Bloom filter size.");
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveRate) / (ln2 * ln2));
+        // a Java array of longs, and a Redis string, cap the size
+        bits = Math.min(bits, Math.min(maxBytes, 512L << 20) * 8);
+        bits = Math.max(64, (bits + 63) / 64 * 64);
+        this.bitCount = bits;
+        this.hashCount = (int) Math.max(1, Math.min(30, Math.round((double) bits / expectedEntries * ln2)));
+        this.words = new AtomicLongArray((int) (bits / 64));
+    }
+
+    private BloomFilter(long bitCount, int hashCount) {
+        this.bitCount = bitCount;
+        this.hashCount = hashCount;
+        this.words = new AtomicLongArray((int) (bitCount / 64));
+    }
+
+    /**
+     * @return an empty filter of the same size
+     */
+    public BloomFilter emptyCopy() {
+        return new BloomFilter(bitCount, hashCount);
+    }
+
+    /**
+     * @return the bits set for {@code bytes}
+     */
+    public long[] positions(byte[] bytes) {
+        long h = 0xCBF29CE484222325L;
+        for (byte b : bytes) {
+            h ^= b & 0xFF;
+            h *= 0x100000001B3L;
+        }
+        long h1 = mix(h);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        long[] positions = new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            positions[i] = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+        }
+        return positions;
+    }
+
+    /**
+     * @return the bits set, to be replayed elsewhere with {@link #set(long[])}
+     */
+    public long[] add(byte[] bytes) {
+        long[] positions = positions(bytes);
+        set(positions);
+        return positions;
+    }
+
+    public void set(long[] positions) {
+        for (long position : positions) {
+            int word = (int) (position >>> 6);
+            long mask = Long.MIN_VALUE >>> (position & 63);
+            long current;
+            do {
+                current = words.get(word);
+            } while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    public boolean mightContain(byte[] bytes) {
+        for (long position : positions(bytes)) {
+            if ((words.get((int) (position >>> 6)) & (Long.MIN_VALUE >>> (position & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the bits, most significant bit first, as Redis stores them
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[(int) (bitCount / 8)];
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            for (int j = 0; j < 8; j++) {
+                bytes[i * 8 + j] = (byte) (word >>> (56 - j * 8));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Sets the bits of a {@link #toBytes()} image, e.g. read from Redis, on
+     * top of the ones set; a shorter image leaves the remaining bits alone.
+     */
+    public void merge(byte[] bytes) {
+        int length = (int) Math.min(bytes.length, bitCount / 8);
+        for (int i = 0; i < length; i += 8) {
+            long word = 0;
+            for (int j = 0; j < 8; j++) {
+                word = (word << 8) | (i + j < length ? bytes[i + j] & 0xFF : 0);
+            }
+            if (word != 0) {
+                long current;
+                do {
+                    current = words.get(i / 8);
+                } while ((current | word) != current && !words.compareAndSet(i / 8, current, current | word));
+            }
+        }
+    }
+
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return the share of bits set, from which the current false positive
+     * rate is about this to the power of the hash count
+     */
+    public double getFillRatio() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return (double) set / bitCount;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
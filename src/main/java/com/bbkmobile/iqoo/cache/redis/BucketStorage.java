@@ -0,0 +1,370 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * {@link RedisLayout#BUCKETED} storage: the cache is split into a fixed number
+ * of hashes {@code <cacheName>:<bucket>}, the bucket of an entry being the
+ * CRC32 of its serialized key modulo the bucket count. Version stamps of a
+ * bucket live in {@code <cacheName>:<bucket>:version}, sent to the node of the
+ * bucket. With hash tags they are {@code {<cacheName>:<bucket>}} and
+ * {@code {<cacheName>:<bucket>}:version}: a bucket and its stamps share a
+ * slot while the buckets spread over the cluster.
+ *
+ * <p>Single entry operations stay one command (or one pipeline) on one node;
+ * operations over the whole cache pipeline the commands of all buckets owned
+ * by a node into one round trip per node, the nodes being called at once
+ * on a cluster.</p>
+ *
+ * @author lqzhai
+ */
+class BucketStorage extends RedisStorage {
+
+    private static final byte[] VERSION_SUFFIX = ":version".getBytes();
+
+    private final byte[][] buckets;
+    private final byte[][] versionNames;
+
+    BucketStorage(byte[] cacheName, int bucketCount) {
+        this(cacheName, bucketCount, false);
+    }
+
+    BucketStorage(byte[] cacheName, int bucketCount, boolean hashTags) {
+        super(cacheName, hashTags);
+        if (bucketCount <= 0) {
+            throw new IllegalArgumentException("bucketCount must be positive.");
+        }
+        this.buckets = new byte[bucketCount][];
+        this.versionNames = new byte[bucketCount][];
+        byte[] prefix = concat(cacheName, ":".getBytes());
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = concat(prefix, String.valueOf(i).getBytes());
+            if (hashTags) {
+                buckets[i] = hashTag(buckets[i]);
+            }
+            versionNames[i] = concat(buckets[i], VERSION_SUFFIX);
+        }
+    }
+
+    /**
+     * Returns the bucket of a serialized key. CRC32 is used because it is
+     * cheap and gives the same result in every JVM, so all clients agree.
+     */
+    int bucketOf(byte[] field) {
+        CRC32 crc = new CRC32();
+        crc.update(field, 0, field.length);
+        return (int) (crc.getValue() % buckets.length);
+    }
+
+    @Override
+    byte[] get(RedisConnection connection, byte[] field) {
+        byte[] bucket = buckets[bucketOf(field)];
+        return connection.getNode(bucket).hget(bucket, field);
+    }
+
+    @Override
+    VersionedValue<byte[]> getVersioned(RedisConnection connection, byte[] field) {
+        if (!isVersioned()) {
+            return new VersionedValue<byte[]>(get(connection, field), 0L);
+        }
+        int b = bucketOf(field);
+        Pipeline pipeline = connection.getNode(buckets[b]).pipelined();
+        Response<byte[]> value = pipeline.hget(buckets[b], field);
+        Response<byte[]> stamp = pipeline.hget(versionNames[b], field);
+        pipeline.sync();
+        return new VersionedValue<byte[]>(value.get(), decodeStamp(stamp.get()));
+    }
+
+    @Override
+    long getVersion(RedisConnection connection, byte[] field) {
+        int b = bucketOf(field);
+        return decodeStamp(connection.getNode(buckets[b]).hget(versionNames[b], field));
+    }
+
+    @Override
+    List<byte[]> getAll(RedisConnection connection, List<byte[]> fields) {
+        List<VersionedValue<byte[]>> entries = getAllVersioned(connection, fields, false);
+        List<byte[]> values = new ArrayList<byte[]>(entries.size());
+        for (VersionedValue<byte[]> entry : entries) {
+            values.add(entry.getValue());
+        }
+        return values;
+    }
+
+    @Override
+    List<VersionedValue<byte[]>> getAllVersioned(RedisConnection connection, List<byte[]> fields) {
+        return getAllVersioned(connection, fields, isVersioned());
+    }
+
+    private List<VersionedValue<byte[]>> getAllVersioned(RedisConnection connection, final List<byte[]> fields,
+            final boolean withStamps) {
+        final List<VersionedValue<byte[]>> result = new ArrayList<VersionedValue<byte[]>>(
+                Collections.<VersionedValue<byte[]>> nCopies(fields.size(), null));
+        final Map<Integer, List<Integer>> byBucket = groupByBucket(fields);
+        forEachNode(connection, groupBucketsByNode(connection, byBucket), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> nodeBuckets) {
+                List<Response<List<byte[]>>> values = new ArrayList<Response<List<byte[]>>>();
+                List<Response<List<byte[]>>> stamps = new ArrayList<Response<List<byte[]>>>();
+                Pipeline pipeline = node.pipelined();
+                for (Integer b : nodeBuckets) {
+                    byte[][] raw = select(fields, byBucket.get(b));
+                    values.add(pipeline.hmget(buckets[b], raw));
+                    if (withStamps) {
+                        stamps.add(pipeline.hmget(versionNames[b], raw));
+                    }
+                }
+                pipeline.sync();
+                for (int j = 0; j < nodeBuckets.size(); j++) {
+                    List<Integer> indexes = byBucket.get(nodeBuckets.get(j));
+                    for (int k = 0; k < indexes.size(); k++) {
+                        long stamp = withStamps ? decodeStamp(stamps.get(j).get().get(k)) : 0L;
+                        result.set(indexes.get(k), new VersionedValue<byte[]>(values.get(j).get().get(k), stamp));
+                    }
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    List<Long> getVersions(RedisConnection connection, final List<byte[]> fields) {
+        final Long[] result = new Long[fields.size()];
+        final Map<Integer, List<Integer>> byBucket = groupByBucket(fields);
+        forEachNode(connection, groupBucketsByNode(connection, byBucket), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> nodeBuckets) {
+                List<Response<List<byte[]>>> stamps = new ArrayList<Response<List<byte[]>>>();
+                Pipeline pipeline = node.pipelined();
+                for (Integer b : nodeBuckets) {
+                    stamps.add(pipeline.hmget(versionNames[b], select(fields, byBucket.get(b))));
+                }
+                pipeline.sync();
+                for (int j = 0; j < nodeBuckets.size(); j++) {
+                    List<Integer> indexes = byBucket.get(nodeBuckets.get(j));
+                    for (int k = 0; k < indexes.size(); k++) {
+                        result[indexes.get(k)] = decodeStamp(stamps.get(j).get().get(k));
+                    }
+                }
+            }
+        });
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Stores the entry; the time to live is applied to the entry's bucket,
+     * the time to idle is not supported by this layout.
+     */
+    @Override
+    void put(RedisConnection connection, byte[] field, byte[] value, long stamp, int timeToLive, int timeToIdle,
+            List<byte[]> obsolete) {
+        int b = bucketOf(field);
+        boolean versioned = isVersioned();
+        Map<Jedis, List<byte[]>> stale = groupObsolete(connection, obsolete);
+        Jedis node = connection.getNode(buckets[b]);
+        Pipeline pipeline = node.pipelined();
+        pipeline.hset(buckets[b], field, value);
+        if (versioned) {
+            pipeline.hset(versionNames[b], field, encodeStamp(stamp));
+        }
+        expire(pipeline, b, timeToLive, versioned);
+        removeObsolete(stale, node, pipeline);
+        pipeline.sync();
+        removeObsolete(connection, stale);
+    }
+
+    @Override
+    void putAll(RedisConnection connection, final List<byte[]> fields, final List<byte[]> values,
+            final long[] stamps, final int timeToLive, int timeToIdle, List<byte[]> obsolete) {
+        final boolean versioned = isVersioned();
+        final Map<Integer, List<Integer>> byBucket = groupByBucket(fields);
+        final Map<Jedis, List<byte[]>> stale = groupObsolete(connection, obsolete);
+        forEachNode(connection, groupBucketsByNode(connection, byBucket), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> nodeBuckets) {
+                Pipeline pipeline = node.pipelined();
+                for (Integer b : nodeBuckets) {
+                    List<Integer> indexes = byBucket.get(b);
+                    Map<byte[], byte[]> hash = new LinkedHashMap<byte[], byte[]>(indexes.size() * 2);
+                    Map<byte[], byte[]> versions = new LinkedHashMap<byte[], byte[]>(indexes.size() * 2);
+                    for (Integer i : indexes) {
+                        hash.put(fields.get(i), values.get(i));
+                        if (versioned) {
+                            versions.put(fields.get(i), encodeStamp(stamps[i]));
+                        }
+                    }
+                    pipeline.hmset(buckets[b], hash);
+                    if (versioned) {
+                        pipeline.hmset(versionNames[b], versions);
+                    }
+                    expire(pipeline, b, timeToLive, versioned);
+                }
+                removeObsolete(stale, node, pipeline);
+                pipeline.sync();
+            }
+        });
+        removeObsolete(connection, stale);
+    }
+
+    private void expire(Pipeline pipeline, int b, int timeToLive, boolean versioned) {
+        if (timeToLive > 0) {
+            pipeline.expire(buckets[b], timeToLive);
+            if (versioned) {
+                pipeline.expire(versionNames[b], timeToLive);
+            }
+        }
+    }
+
+    @Override
+    byte[] remove(RedisConnection connection, byte[] field) {
+        int b = bucketOf(field);
+        Pipeline pipeline = connection.getNode(buckets[b]).pipelined();
+        Response<byte[]> previous = pipeline.hget(buckets[b], field);
+        pipeline.hdel(buckets[b], field);
+        if (isVersioned()) {
+            pipeline.hdel(versionNames[b], field);
+        }
+        pipeline.sync();
+        return previous.get();
+    }
+
+    @Override
+    UpdateResult update(RedisConnection connection, Update update, byte[] field, byte[] value, byte[] expected,
+            long stamp, int timeToLive, int timeToIdle, byte[] obsolete) {
+        int b = bucketOf(field);
+        int o = obsolete == null ? b : bucketOf(obsolete);
+        return updateHash(connection, buckets[b], versionNames[b], update, field, value, expected, stamp,
+                timeToLive, buckets[o], versionNames[o], obsolete);
+    }
+
+    @Override
+    byte[] keyOf(byte[] field) {
+        return buckets[bucketOf(field)];
+    }
+
+    @Override
+    void remove(Pipeline pipeline, byte[] field) {
+        int b = bucketOf(field);
+        pipeline.hdel(buckets[b], field);
+        if (isVersioned()) {
+            pipeline.hdel(versionNames[b], field);
+        }
+    }
+
+    @Override
+    void removeAll(RedisConnection connection, final List<byte[]> fields) {
+        final boolean versioned = isVersioned();
+        final Map<Integer, List<Integer>> byBucket = groupByBucket(fields);
+        forEachNode(connection, groupBucketsByNode(connection, byBucket), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> nodeBuckets) {
+                Pipeline pipeline = node.pipelined();
+                for (Integer b : nodeBuckets) {
+                    byte[][] raw = select(fields, byBucket.get(b));
+                    pipeline.hdel(buckets[b], raw);
+                    if (versioned) {
+                        pipeline.hdel(versionNames[b], raw);
+                    }
+                }
+                pipeline.sync();
+            }
+        });
+    }
+
+    @Override
+    void clear(RedisConnection connection) {
+        final boolean versioned = isVersioned();
+        forEachNode(connection, groupByNode(connection, Arrays.asList(buckets)), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> nodeBuckets) {
+                Pipeline pipeline = node.pipelined();
+                for (Integer b : nodeBuckets) {
+                    if (versioned) {
+                        pipeline.del(buckets[b], versionNames[b]);
+                    } else {
+                        pipeline.del(buckets[b]);
+                    }
+                }
+                pipeline.sync();
+            }
+        });
+    }
+
+    @Override
+    int size(RedisConnection connection) {
+        final AtomicInteger size = new AtomicInteger();
+        forEachNode(connection, groupByNode(connection, Arrays.asList(buckets)), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> nodeBuckets) {
+                List<Response<Long>> lengths = new ArrayList<Response<Long>>(nodeBuckets.size());
+                Pipeline pipeline = node.pipelined();
+                for (Integer b : nodeBuckets) {
+                    lengths.add(pipeline.hlen(buckets[b]));
+                }
+                pipeline.sync();
+                for (Response<Long> length : lengths) {
+                    size.addAndGet(length.get().intValue());
+                }
+            }
+        });
+        return size.get();
+    }
+
+    @Override
+    ScanPage scan(RedisConnection connection, ScanPosition position, int count, boolean withValues) {
+        return scanHashes(connection, buckets, position, count);
+    }
+
+    /**
+     * Groups the indexes of {@code fields} by bucket.
+     */
+    private Map<Integer, List<Integer>> groupByBucket(List<byte[]> fields) {
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<Integer, List<Integer>>();
+        for (int i = 0; i < fields.size(); i++) {
+            Integer b = bucketOf(fields.get(i));
+            List<Integer> group = groups.get(b);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(b, group);
+            }
+            group.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * Groups the used buckets by the node owning them.
+     */
+    private Map<Jedis, List<Integer>> groupBucketsByNode(RedisConnection connection, Map<Integer, List<Integer>> byBucket) {
+        Map<Jedis, List<Integer>> groups = new LinkedHashMap<Jedis, List<Integer>>();
+        for (Integer b : byBucket.keySet()) {
+            Jedis node = connection.getNode(buckets[b]);
+            List<Integer> group = groups.get(node);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(node, group);
+            }
+            group.add(b);
+        }
+        return groups;
+    }
+
+    private static byte[][] select(List<byte[]> fields, List<Integer> indexes) {
+        byte[][] selected = new byte[indexes.size()][];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = fields.get(indexes.get(i));
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,270 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker of a Redis pool, shared by the {@link RedisExecutor}s of
+ * every cache on the pool.
+ *
+ * <p>Closed, calls go through and their outcome is counted per window of
+ * {@code windowMillis}. Once a window holds {@code minimumCalls} calls and
+ * the share of connection failures reaches {@code failureRateThreshold}, or
+ * the share of calls slower than {@code slowCallMillis} reaches
+ * {@code slowCallRateThreshold}, the breaker opens: calls fail at once with a
+ * {@link CircuitOpenException} for {@code openMillis}. It then lets
+ * {@code halfOpenProbes} calls through; if they all succeed in time it
+ * closes, otherwise it opens again.</p>
+ *
+ * <p>A stalled server is only noticed once calls time out, so the read
+ * timeout of the pool bounds how fast the breaker reacts.</p>
+ *
+ * <p>Closed, calls are counted without locking; only the changes of state,
+ * and the calls while open or probing, synchronize on the breaker.</p>
+ *
+ * @author lqzhai
+ */
+public class CircuitBreaker {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private volatile long windowMillis = 10000L;
+    private volatile int minimumCalls = 20;
+    private volatile double failureRateThreshold = 0.5;
+    private volatile long slowCallMillis = 1000L;
+    private volatile double slowCallRateThreshold = 0.8;
+    private volatile long openMillis = 5000L;
+    private volatile int halfOpenProbes = 3;
+
+    private volatile State state = State.CLOSED;
+    private final AtomicReference<Window> window = new AtomicReference<Window>(
+            new Window(System.currentTimeMillis()));
+    private long openedAt;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param name the pool guarded, for the logs
+     */
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return whether a call may go to Redis; if so its outcome must be
+     * {@link #record(boolean, long) recorded}
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                transition(State.HALF_OPEN);
+                probesInFlight = 0;
+                probeSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probesInFlight >= halfOpenProbes) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                probesInFlight++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Records the outcome of a call let through by {@link #tryAcquire()}.
+     *
+     * @param failed whether Redis could not be reached
+     * @param nanos how long the call took
+     */
+    public void record(boolean failed, long nanos) {
+        boolean slow = nanos >= slowCallMillis * 1000000L;
+        long now = System.currentTimeMillis();
+        if (state != State.CLOSED) {
+            recordProbe(failed || slow, now);
+            return;
+        }
+        Window current = window.get();
+        if (now - current.start >= windowMillis) {
+            Window fresh = new Window(now);
+            current = window.compareAndSet(current, fresh) ? fresh : window.get();
+        }
+        long calls = current.calls.incrementAndGet();
+        if (failed) {
+            current.failures.increment();
+        }
+        if (slow) {
+            current.slowCalls.increment();
+        }
+        // the rates only rise on a failed or slow call, or once enough calls are in
+        if ((failed || slow || calls == minimumCalls) && calls >= minimumCalls && current.tripped(calls)) {
+            synchronized (this) {
+                if (state == State.CLOSED && window.get() == current) {
+                    open(now);
+                }
+            }
+        }
+    }
+
+    private synchronized void recordProbe(boolean failed, long now) {
+        if (state != State.HALF_OPEN) {
+            return;
+        }
+        if (probesInFlight > 0) {
+            probesInFlight--;
+        }
+        if (failed) {
+            open(now);
+        } else if (++probeSuccesses >= halfOpenProbes) {
+            transition(State.CLOSED);
+            window.set(new Window(now));
+        }
+    }
+
+    /**
+     * Closes the breaker, e.g. after the pool was replaced.
+     */
+    public synchronized void reset() {
+        transition(State.CLOSED);
+        window.set(new Window(System.currentTimeMillis()));
+    }
+
+    private void open(long now) {
+        transition(State.OPEN);
+        openedAt = now;
+        opened.incrementAndGet();
+    }
+
+    private void transition(State to) {
+        if (state != to) {
+            if (to == State.OPEN && state == State.HALF_OPEN) {
+                log.warn("Circuit breaker of Redis pool [" + name + "] opened again, a probe failed");
+            } else if (to == State.OPEN) {
+                Window current = window.get();
+                log.warn("Circuit breaker of Redis pool [" + name + "] opened after " + current.failures.sum()
+                        + " failed and " + current.slowCalls.sum() + " slow calls out of " + current.calls.get());
+            } else {
+                log.info("Circuit breaker of Redis pool [" + name + "] is now " + to);
+            }
+            state = to;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return calls failed at once while open or probing
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return how many times the breaker opened
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public void setWindowMillis(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = Math.max(1, minimumCalls);
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public long getSlowCallMillis() {
+        return slowCallMillis;
+    }
+
+    public void setSlowCallMillis(long slowCallMillis) {
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(double slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    public void setOpenMillis(long openMillis) {
+        this.openMillis = openMillis;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    /**
+     * Outcomes counted since {@code start}; replaced, never cleared, when a
+     * new window begins.
+     */
+    private final class Window {
+
+        final long start;
+        final AtomicLong calls = new AtomicLong();
+        final LongAdder failures = new LongAdder();
+        final LongAdder slowCalls = new LongAdder();
+
+        Window(long start) {
+            this.start = start;
+        }
+
+        boolean tripped(long calls) {
+            return failures.sum() >= calls * failureRateThreshold || slowCalls.sum() >= calls * slowCallRateThreshold;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Thrown instead of calling Redis while the {@link CircuitBreaker} of the
+ * pool is open.
+ *
+ * @author lqzhai
+ */
+public class CircuitOpenException extends CacheException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String pool) {
+        super("Circuit breaker of Redis pool [" + pool + "] is open");
+    }
+}
@@ -0,0 +1,18 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+/**
+ * Callback receiving the entries of a cache one at a time, see
+ * {@link AbstractRedisCache#forEach(EntryVisitor)}.
+ *
+ * @author lqzhai
+ */
+public interface EntryVisitor<K, V> {
+
+    /**
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @return {@code true} to go on with the next entry, {@code false} to
+     * stop the walk
+     */
+    boolean visit(K key, V value);
+}
@@ -0,0 +1,208 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * {@link RedisLayout#HASH} storage: the whole cache is one hash named after
+ * the cache, version stamps live in the companion hash
+ * {@code <cacheName>:version}. With hash tags the two hashes are
+ * {@code {<cacheName>}} and {@code {<cacheName>}:version}, one slot holding
+ * the whole cache.
+ *
+ * @author lqzhai
+ */
+class HashStorage extends RedisStorage {
+
+    private static final byte[] VERSION_SUFFIX = ":version".getBytes();
+
+    private final byte[] hashName;
+    private final byte[] versionName;
+
+    HashStorage(byte[] cacheName) {
+        this(cacheName, false);
+    }
+
+    HashStorage(byte[] cacheName, boolean hashTags) {
+        super(cacheName, hashTags);
+        this.hashName = hashTags ? hashTag(cacheName) : cacheName;
+        this.versionName = concat(hashName, VERSION_SUFFIX);
+    }
+
+    @Override
+    byte[] get(RedisConnection connection, byte[] field) {
+        return connection.getNode(hashName).hget(hashName, field);
+    }
+
+    @Override
+    VersionedValue<byte[]> getVersioned(RedisConnection connection, byte[] field) {
+        if (!isVersioned()) {
+            return new VersionedValue<byte[]>(get(connection, field), 0L);
+        }
+        Pipeline pipeline = connection.getNode(hashName).pipelined();
+        Response<byte[]> value = pipeline.hget(hashName, field);
+        Response<byte[]> stamp = pipeline.hget(versionName, field);
+        pipeline.sync();
+        return new VersionedValue<byte[]>(value.get(), decodeStamp(stamp.get()));
+    }
+
+    @Override
+    long getVersion(RedisConnection connection, byte[] field) {
+        return decodeStamp(connection.getNode(hashName).hget(versionName, field));
+    }
+
+    @Override
+    List<byte[]> getAll(RedisConnection connection, List<byte[]> fields) {
+        return connection.getNode(hashName).hmget(hashName, fields.toArray(new byte[fields.size()][]));
+    }
+
+    @Override
+    List<VersionedValue<byte[]>> getAllVersioned(RedisConnection connection, List<byte[]> fields) {
+        byte[][] raw = fields.toArray(new byte[fields.size()][]);
+        boolean versioned = isVersioned();
+        Pipeline pipeline = connection.getNode(hashName).pipelined();
+        Response<List<byte[]>> values = pipeline.hmget(hashName, raw);
+        Response<List<byte[]>> stamps = versioned ? pipeline.hmget(versionName, raw) : null;
+        pipeline.sync();
+        List<VersionedValue<byte[]>> result = new ArrayList<VersionedValue<byte[]>>(raw.length);
+        for (int i = 0; i < raw.length; i++) {
+            long stamp = versioned ? decodeStamp(stamps.get().get(i)) : 0L;
+            result.add(new VersionedValue<byte[]>(values.get().get(i), stamp));
+        }
+        return result;
+    }
+
+    @Override
+    List<Long> getVersions(RedisConnection connection, List<byte[]> fields) {
+        List<byte[]> stamps = connection.getNode(hashName).hmget(versionName, fields.toArray(new byte[fields.size()][]));
+        List<Long> result = new ArrayList<Long>(stamps.size());
+        for (byte[] stamp : stamps) {
+            result.add(decodeStamp(stamp));
+        }
+        return result;
+    }
+
+    /**
+     * Stores the entry; the time to live is applied to the whole hash, the
+     * time to idle is not supported by this layout.
+     */
+    @Override
+    void put(RedisConnection connection, byte[] field, byte[] value, long stamp, int timeToLive, int timeToIdle,
+            List<byte[]> obsolete) {
+        boolean versioned = isVersioned();
+        Pipeline pipeline = connection.getNode(hashName).pipelined();
+        pipeline.hset(hashName, field, value);
+        if (versioned) {
+            pipeline.hset(versionName, field, encodeStamp(stamp));
+        }
+        expire(pipeline, timeToLive, versioned);
+        for (byte[] old : obsolete) {
+            remove(pipeline, old);
+        }
+        pipeline.sync();
+    }
+
+    @Override
+    void putAll(RedisConnection connection, List<byte[]> fields, List<byte[]> values, long[] stamps,
+            int timeToLive, int timeToIdle, List<byte[]> obsolete) {
+        boolean versioned = isVersioned();
+        Map<byte[], byte[]> hash = new LinkedHashMap<byte[], byte[]>(fields.size() * 2);
+        Map<byte[], byte[]> versions = new LinkedHashMap<byte[], byte[]>(fields.size() * 2);
+        for (int i = 0; i < fields.size(); i++) {
+            hash.put(fields.get(i), values.get(i));
+            if (versioned) {
+                versions.put(fields.get(i), encodeStamp(stamps[i]));
+            }
+        }
+        Pipeline pipeline = connection.getNode(hashName).pipelined();
+        pipeline.hmset(hashName, hash);
+        if (versioned) {
+            pipeline.hmset(versionName, versions);
+        }
+        expire(pipeline, timeToLive, versioned);
+        for (byte[] old : obsolete) {
+            remove(pipeline, old);
+        }
+        pipeline.sync();
+    }
+
+    private void expire(Pipeline pipeline, int timeToLive, boolean versioned) {
+        if (timeToLive > 0) {
+            pipeline.expire(hashName, timeToLive);
+            if (versioned) {
+                pipeline.expire(versionName, timeToLive);
+            }
+        }
+    }
+
+    @Override
+    byte[] remove(RedisConnection connection, byte[] field) {
+        Pipeline pipeline = connection.getNode(hashName).pipelined();
+        Response<byte[]> previous = pipeline.hget(hashName, field);
+        pipeline.hdel(hashName, field);
+        if (isVersioned()) {
+            pipeline.hdel(versionName, field);
+        }
+        pipeline.sync();
+        return previous.get();
+    }
+
+    @Override
+    UpdateResult update(RedisConnection connection, Update update, byte[] field, byte[] value, byte[] expected,
+            long stamp, int timeToLive, int timeToIdle, byte[] obsolete) {
+        return updateHash(connection, hashName, versionName, update, field, value, expected, stamp, timeToLive,
+                hashName, versionName, obsolete);
+    }
+
+    @Override
+    void removeAll(RedisConnection connection, List<byte[]> fields) {
+        byte[][] raw = fields.toArray(new byte[fields.size()][]);
+        if (!isVersioned()) {
+            connection.getNode(hashName).hdel(hashName, raw);
+            return;
+        }
+        Pipeline pipeline = connection.getNode(hashName).pipelined();
+        pipeline.hdel(hashName, raw);
+        pipeline.hdel(versionName, raw);
+        pipeline.sync();
+    }
+
+    @Override
+    byte[] keyOf(byte[] field) {
+        return hashName;
+    }
+
+    @Override
+    void remove(Pipeline pipeline, byte[] field) {
+        pipeline.hdel(hashName, field);
+        if (isVersioned()) {
+            pipeline.hdel(versionName, field);
+        }
+    }
+
+    @Override
+    void clear(RedisConnection connection) {
+        Jedis node = connection.getNode(hashName);
+        if (isVersioned()) {
+            node.del(hashName, versionName);
+        } else {
+            node.del(hashName);
+        }
+    }
+
+    @Override
+    int size(RedisConnection connection) {
+        return connection.getNode(hashName).hlen(hashName).intValue();
+    }
+
+    @Override
+    ScanPage scan(RedisConnection connection, ScanPosition position, int count, boolean withValues) {
+        return scanHashes(connection, new byte[][] { hashName }, position, count);
+    }
+}
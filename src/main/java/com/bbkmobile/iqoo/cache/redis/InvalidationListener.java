@@ -0,0 +1,23 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+/**
+ * Receives invalidations published by other JVMs through a
+ * {@link RedisInvalidationBus}.
+ *
+ * @author lqzhai
+ */
+public interface InvalidationListener {
+
+    /**
+     * Drops the local copy of one entry.
+     *
+     * @param key the serialized key of the entry
+     */
+    void invalidate(byte[] key);
+
+    /**
+     * Drops every local copy, either because the cache was cleared or because
+     * messages may have been missed while the subscription was down.
+     */
+    void invalidateAll();
+}
@@ -0,0 +1,676 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.Pool;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.metrics.Operation;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * {@link RedisExecutor} on top of a Redis Cluster. Every key is sent to the
+ * master owning its slot, the CRC16 of the key, or of its {@code {hash tag}},
+ * modulo 16384, as read with {@code CLUSTER NODES}; each master has a
+ * connection pool of its own.
+ *
+ * <p>A {@code MOVED} reply updates the slot and has the whole table read
+ * again; an {@code ASK} reply, the slot being migrated,
+ * sends the commands on that slot to the importing node after
+ * {@code ASKING} for the rest of the call. Either way the callback runs again, at most
+ * {@code maxRedirections} times, so it must be safe to repeat, as the puts
+ * and removes of the caches are. Errors hidden in pipelines are checked for
+ * redirects too, so a write is not lost to a stale table.</p>
+ *
+ * <p>Multi-key operations call their nodes at once on up to
+ * {@code parallelism} threads, the calling thread taking one node. Replicas
+ * are not read from.</p>
+ *
+ * @author lqzhai
+ */
+public class JedisClusterExecutor extends RedisExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(JedisClusterExecutor.class);
+
+    public static final int SLOTS = 16384;
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xffff;
+        }
+    }
+
+    private final List<HostAndPort> seeds;
+    private final GenericObjectPoolConfig poolConfig;
+    private final int timeout;
+    private final String password;
+    private final ConcurrentMap<String, Pool<Jedis>> pools = new ConcurrentHashMap<String, Pool<Jedis>>();
+    private volatile String[] slots = new String[SLOTS];
+    private volatile boolean stale = true;
+    private long refreshedAt;
+    private volatile int maxRedirections = 5;
+    private final ThreadPoolExecutor fanOut;
+    private final AtomicLong redirections = new AtomicLong();
+
+    public JedisClusterExecutor(Collection<HostAndPort> seeds) {
+        this(seeds, new GenericObjectPoolConfig(), 2000, null, 8);
+    }
+
+    /**
+     * Reads the slot table from the first seed node answering; if none does
+     * the table is read again on the first call.
+     *
+     * @param seeds some nodes of the cluster, the others are found from them
+     * @param poolConfig the settings of the pool of every master
+     * @param timeout the connect and read timeout in milliseconds
+     * @param password {@code null} for none
+     * @param parallelism the most threads calling nodes at once for the
+     * multi-key operations
+     */
+    public JedisClusterExecutor(Collection<HostAndPort> seeds, GenericObjectPoolConfig poolConfig, int timeout,
+            String password, int parallelism) {
+        if (seeds == null || seeds.isEmpty()) {
+            throw new IllegalArgumentException("seeds cannot be empty.");
+        }
+        this.seeds = new ArrayList<HostAndPort>(seeds);
+        this.poolConfig = poolConfig;
+        this.timeout = timeout;
+        this.password = password == null || password.length() == 0 ? null : password;
+        this.fanOut = new ThreadPoolExecutor(0, Math.max(1, parallelism), 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "redis-cluster-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            refresh();
+        } catch (CacheException e) {
+            log.warn("Could not read the slots of the Redis cluster, retrying on first use", e);
+        }
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action) throws CacheException {
+        CircuitBreaker breaker = acquireCircuit();
+        long started = breaker == null ? 0L : System.nanoTime();
+        boolean failed = false;
+        Map<Integer, HostAndPort> asks = new HashMap<Integer, HostAndPort>();
+        try {
+            if (stale) {
+                refreshIfDue();
+            }
+            for (int attempt = 0;; attempt++) {
+                ClusterConnection connection = new ClusterConnection(asks);
+                boolean broken = false;
+                try {
+                    return action.doInRedis(connection);
+                } catch (JedisConnectionException t) {
+                    failed = true;
+                    broken = true;
+                    // the node may have failed over to a replica
+                    stale = true;
+                    throw new CacheException(t);
+                } catch (SerializationException ex) {
+                    throw new CacheException(ex);
+                } catch (JedisDataException e) {
+                    JedisRedirectionException redirect = redirection(e);
+                    if (redirect == null) {
+                        throw e;
+                    }
+                    if (attempt >= maxRedirections) {
+                        throw new CacheException("Too many redirects of the Redis cluster, last "
+                                + redirect.getMessage(), e);
+                    }
+                    redirections.incrementAndGet();
+                    if (redirect instanceof JedisAskDataException) {
+                        asks.put(redirect.getSlot(), redirect.getTargetNode());
+                    } else {
+                        asks.remove(redirect.getSlot());
+                        moved(redirect.getSlot(), redirect.getTargetNode());
+                        // slots rarely move alone, a multi-key call would
+                        // otherwise spend a redirect on each
+                        refreshIfDue();
+                    }
+                } finally {
+                    connection.release(broken);
+                }
+            }
+        } finally {
+            if (breaker != null) {
+                breaker.record(failed, System.nanoTime() - started);
+            }
+        }
+    }
+
+    /**
+     * Reads the slot table from a known node or, failing that, from a seed.
+     *
+     * @throws CacheException if no node answers
+     */
+    public synchronized void refresh() throws CacheException {
+        List<HostAndPort> candidates = new ArrayList<HostAndPort>();
+        for (String node : new TreeSet<String>(pools.keySet())) {
+            candidates.add(hostAndPort(node));
+        }
+        candidates.addAll(seeds);
+        JedisException last = null;
+        for (HostAndPort candidate : candidates) {
+            Jedis jedis = new Jedis(candidate.getHost(), candidate.getPort(), timeout);
+            try {
+                if (password != null) {
+                    jedis.auth(password);
+                }
+                String[] table = parseNodes(jedis.clusterNodes(), candidate.getHost());
+                for (String node : table) {
+                    if (node != null) {
+                        pool(node);
+                    }
+                }
+                slots = table;
+                stale = false;
+                refreshedAt = System.currentTimeMillis();
+                return;
+            } catch (JedisException e) {
+                last = e;
+            } finally {
+                try {
+                    jedis.disconnect();
+                } catch (JedisException e) {
+                    // already closed
+                }
+            }
+        }
+        refreshedAt = System.currentTimeMillis();
+        throw new CacheException("Could not read the slots of the Redis cluster from " + candidates, last);
+    }
+
+    /**
+     * Reads the table again unless it was read in the last 100 ms, so a
+     * burst of redirects reads it once.
+     */
+    private synchronized void refreshIfDue() {
+        if (!stale || System.currentTimeMillis() - refreshedAt < 100L) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (CacheException e) {
+            log.warn("Could not read the slots of the Redis cluster", e);
+        }
+    }
+
+    private synchronized void moved(int slot, HostAndPort target) {
+        String node = name(target);
+        pool(node);
+        String[] table = slots.clone();
+        table[slot] = node;
+        slots = table;
+        stale = true;
+    }
+
+    /**
+     * Parses the reply of {@code CLUSTER NODES} into the master of every
+     * slot; failed masters and slots being migrated are left out.
+     *
+     * @param queried the host asked, standing for a node that does not know
+     * its own address
+     */
+    static String[] parseNodes(String reply, String queried) {
+        String[] table = new String[SLOTS];
+        for (String line : reply.split("\n")) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length < 8) {
+                continue;
+            }
+            String flags = parts[2];
+            if (!flags.contains("master") || flags.contains("fail") && !flags.contains("fail?")
+                    || flags.contains("handshake") || flags.contains("noaddr")) {
+                continue;
+            }
+            String address = parts[1];
+            int cut = address.indexOf('@');
+            if (cut >= 0) {
+                address = address.substring(0, cut);
+            }
+            int colon = address.lastIndexOf(':');
+            String host = colon > 0 ? address.substring(0, colon) : queried;
+            String node = host + ":" + address.substring(colon + 1);
+            for (int i = 8; i < parts.length; i++) {
+                if (parts[i].startsWith("[")) {
+                    continue;
+                }
+                int dash = parts[i].indexOf('-');
+                int from = Integer.parseInt(dash < 0 ? parts[i] : parts[i].substring(0, dash));
+                int to = dash < 0 ? from : Integer.parseInt(parts[i].substring(dash + 1));
+                for (int slot = from; slot <= to; slot++) {
+                    table[slot] = node;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return the pool of {@code node}, created on first use; pools of nodes
+     * leaving the cluster are kept until {@link #close()}
+     */
+    private Pool<Jedis> pool(String node) {
+        Pool<Jedis> pool = pools.get(node);
+        if (pool == null) {
+            HostAndPort address = hostAndPort(node);
+            pool = new NodePool(poolConfig, new NodeFactory(address.getHost(), address.getPort()));
+            Pool<Jedis> raced = pools.putIfAbsent(node, pool);
+            if (raced != null) {
+                pool.destroy();
+                pool = raced;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * @return the slot of a Redis key, hashing only its hash tag if it has a
+     * non-empty one
+     */
+    public static int slotOf(byte[] key) {
+        int start = indexOf(key, (byte) '{', 0);
+        if (start >= 0) {
+            int end = indexOf(key, (byte) '}', start + 1);
+            if (end > start + 1) {
+                return crc16(key, start + 1, end) & (SLOTS - 1);
+            }
+        }
+        return crc16(key, 0, key.length) & (SLOTS - 1);
+    }
+
+    /**
+     * @return the CRC16 (XMODEM) of {@code bytes}, the hash of Redis Cluster
+     */
+    static int crc16(byte[] bytes) {
+        return crc16(bytes, 0, bytes.length);
+    }
+
+    private static int crc16(byte[] bytes, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ bytes[i]) & 0xff]) & 0xffff;
+        }
+        return crc;
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the redirect {@code e} is or wraps, pipelines wrapping the
+     * errors they read, or {@code null}
+     */
+    static JedisRedirectionException redirection(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof JedisRedirectionException) {
+                return (JedisRedirectionException) cause;
+            }
+        }
+        return null;
+    }
+
+    private static String name(HostAndPort address) {
+        return address.getHost() + ":" + address.getPort();
+    }
+
+    private static HostAndPort hostAndPort(String node) {
+        int colon = node.lastIndexOf(':');
+        return new HostAndPort(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1)));
+    }
+
+    /**
+     * @return the pool of every master, by {@code host:port}
+     */
+    public Map<String, Pool<Jedis>> getPools() {
+        return Collections.unmodifiableMap(new TreeMap<String, Pool<Jedis>>(pools));
+    }
+
+    /**
+     * @return the master owning {@code key}, as {@code host:port}, or
+     * {@code null} if its slot is not served
+     */
+    public String getNodeOf(byte[] key) {
+        return slots[slotOf(key)];
+    }
+
+    public int getMaxRedirections() {
+        return maxRedirections;
+    }
+
+    public void setMaxRedirections(int maxRedirections) {
+        this.maxRedirections = Math.max(0, maxRedirections);
+    }
+
+    /**
+     * @return calls run again after a {@code MOVED} or {@code ASK}
+     */
+    public long getRedirectionCount() {
+        return redirections.get();
+    }
+
+    /**
+     * Closes the pools and stops the threads of the multi-key operations.
+     */
+    public void close() {
+        fanOut.shutdown();
+        for (Pool<Jedis> pool : pools.values()) {
+            pool.destroy();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Connections of one call, borrowed from the pool of each node on first
+     * use. The slot table is read once, so a call routes consistently.
+     */
+    private class ClusterConnection implements RedisStorage.ParallelConnection {
+
+        private final String[] table = slots;
+        private final Map<Integer, HostAndPort> asks;
+        private final Map<String, Jedis> borrowed = new LinkedHashMap<String, Jedis>();
+
+        ClusterConnection(Map<Integer, HostAndPort> asks) {
+            this.asks = asks;
+        }
+
+        @Override
+        public synchronized Jedis getNode(byte[] key) {
+            int slot = slotOf(key);
+            HostAndPort importing = asks.get(slot);
+            if (importing != null) {
+                ClusterNode node = (ClusterNode) borrow(name(importing));
+                node.asking();
+                node.asking = true;
+                return node;
+            }
+            String node = table[slot];
+            if (node == null) {
+                stale = true;
+                throw new CacheException("Slot " + slot + " of the Redis cluster is not served");
+            }
+            return borrow(node);
+        }
+
+        /**
+         * @return the masters, in the same order on every call so that a
+         * walk over the nodes can go on with another connection
+         */
+        @Override
+        public synchronized Collection<Jedis> getNodes() {
+            TreeSet<String> masters = new TreeSet<String>();
+            for (String node : table) {
+                if (node != null) {
+                    masters.add(node);
+                }
+            }
+            if (masters.isEmpty()) {
+                stale = true;
+                throw new CacheException("No slot of the Redis cluster is served");
+            }
+            List<Jedis> nodes = new ArrayList<Jedis>(masters.size());
+            for (String node : masters) {
+                nodes.add(borrow(node));
+            }
+            return nodes;
+        }
+
+        private Jedis borrow(String node) {
+            Jedis jedis = borrowed.get(node);
+            if (jedis == null) {
+                Operation op = Operation.current();
+                if (op.isActive()) {
+                    long start = System.nanoTime();
+                    jedis = pool(node).getResource();
+                    op.recordBorrow(System.nanoTime() - start);
+                } else {
+                    jedis = pool(node).getResource();
+                }
+                borrowed.put(node, jedis);
+            }
+            return jedis;
+        }
+
+        /**
+         * Runs the first node on the calling thread and waits for all of
+         * them, even once one failed, so no connection is still in use when
+         * returned.
+         */
+        @Override
+        public void forEachNode(Map<Jedis, List<Integer>> groups, final RedisStorage.NodeTask task) {
+            List<Future<?>> futures = new ArrayList<Future<?>>(groups.size());
+            Map.Entry<Jedis, List<Integer>> first = null;
+            for (final Map.Entry<Jedis, List<Integer>> group : groups.entrySet()) {
+                if (first == null) {
+                    first = group;
+                    continue;
+                }
+                futures.add(fanOut.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run(group.getKey(), group.getValue());
+                    }
+                }));
+            }
+            RuntimeException failure = null;
+            try {
+                task.run(first.getKey(), first.getValue());
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            boolean interrupted = false;
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) {
+                            throw (Error) cause;
+                        }
+                        if (failure == null) {
+                            failure = cause instanceof RuntimeException ? (RuntimeException) cause
+                                    : new CacheException(cause);
+                        }
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        synchronized void release(boolean broken) {
+            for (Map.Entry<String, Jedis> node : borrowed.entrySet()) {
+                ((ClusterNode) node.getValue()).asking = false;
+                if (broken) {
+                    pool(node.getKey()).returnBrokenResource(node.getValue());
+                } else {
+                    pool(node.getKey()).returnResource(node.getValue());
+                }
+            }
+            borrowed.clear();
+        }
+    }
+
+    /**
+     * Connection to a master whose pipelines report redirects, and send
+     * {@code ASKING} before every command while asked to.
+     */
+    static class ClusterNode extends Jedis {
+
+        volatile boolean asking;
+
+        ClusterNode(String host, int port, int timeout) {
+            super(host, port, timeout);
+        }
+
+        @Override
+        public Pipeline pipelined() {
+            ClusterPipeline pipeline = new ClusterPipeline(asking);
+            pipeline.setClient(getClient());
+            return pipeline;
+        }
+    }
+
+    static class ClusterPipeline extends Pipeline {
+
+        private final boolean asking;
+
+        ClusterPipeline(boolean asking) {
+            this.asking = asking;
+        }
+
+        /**
+         * With {@code ASKING} the flag holds for one command, so it is sent
+         * again after each; the first command follows the one sent by
+         * {@link ClusterConnection#getNode(byte[])}.
+         */
+        @Override
+        protected <T> Response<T> getResponse(Builder<T> builder) {
+            Response<T> response = super.getResponse(builder);
+            if (asking) {
+                getClient((byte[]) null).asking();
+                super.getResponse(BuilderFactory.STRING);
+            }
+            return response;
+        }
+
+        /**
+         * Throws the first redirect answered, which a plain pipeline would
+         * drop unless its response is read.
+         */
+        @Override
+        public void sync() {
+            for (Object reply : syncAndReturnAll()) {
+                if (reply instanceof JedisDataException) {
+                    JedisRedirectionException redirect = redirection((JedisDataException) reply);
+                    if (redirect != null) {
+                        throw redirect;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class NodePool extends Pool<Jedis> {
+
+        NodePool(GenericObjectPoolConfig config, PooledObjectFactory<Jedis> factory) {
+            super(config, factory);
+        }
+    }
+
+    private class NodeFactory implements PooledObjectFactory<Jedis> {
+
+        private final String host;
+        private final int port;
+
+        NodeFactory(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public PooledObject<Jedis> makeObject() throws Exception {
+            ClusterNode jedis = new ClusterNode(host, port, timeout);
+            jedis.connect();
+            if (password != null) {
+                jedis.auth(password);
+            }
+            return new DefaultPooledObject<Jedis>(jedis);
+        }
+
+        @Override
+        public void destroyObject(PooledObject<Jedis> p) throws Exception {
+            Jedis jedis = p.getObject();
+            if (jedis.isConnected()) {
+                try {
+                    jedis.quit();
+                } catch (Exception e) {
+                    // closing anyway
+                }
+                jedis.disconnect();
+            }
+        }
+
+        @Override
+        public boolean validateObject(PooledObject<Jedis> p) {
+            try {
+                return p.getObject().isConnected() && "PONG".equals(p.getObject().ping());
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void activateObject(PooledObject<Jedis> p) throws Exception {
+        }
+
+        @Override
+        public void passivateObject(PooledObject<Jedis> p) throws Exception {
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.metrics.Operation;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * {@link RedisExecutor} on top of a single-node {@link JedisPool}.
+ *
+ * @author lqzhai
+ */
+public class JedisPoolExecutor extends RedisExecutor {
+
+    private final JedisPool pool;
+
+    public JedisPoolExecutor(JedisPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool argument cannot be null.");
+        }
+        this.pool = pool;
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action) throws CacheException {
+        CircuitBreaker breaker = acquireCircuit();
+        long started = breaker == null ? 0L : System.nanoTime();
+        boolean failed = false;
+        Jedis cache = null;
+        boolean isGetResource = true;
+        try {
+            Operation op = Operation.current();
+            if (op.isActive()) {
+                long start = System.nanoTime();
+                cache = pool.getResource();
+                op.recordBorrow(System.nanoTime() - start);
+            } else {
+                cache = pool.getResource();
+            }
+            return action.doInRedis(new SingleNodeConnection(cache));
+        } catch (JedisConnectionException t) {
+            failed = true;
+            isGetResource = false;
+            if (null != cache) {
+                pool.returnBrokenResource(cache);
+            }
+            throw new CacheException(t);
+        } catch (SerializationException ex) {
+            throw new CacheException(ex);
+        } finally {
+            if (null != cache && isGetResource) {
+                this.pool.returnResource(cache);
+                cache = null;
+            }
+            if (breaker != null) {
+                breaker.record(failed, System.nanoTime() - started);
+            }
+        }
+    }
+
+    public JedisPool getPool() {
+        return pool;
+    }
+
+    private static class SingleNodeConnection implements RedisConnection {
+
+        private final Jedis jedis;
+
+        SingleNodeConnection(Jedis jedis) {
+            this.jedis = jedis;
+        }
+
+        @Override
+        public Jedis getNode(byte[] key) {
+            return jedis;
+        }
+
+        @Override
+        public Collection<Jedis> getNodes() {
+            return Collections.singletonList(jedis);
+        }
+    }
+}
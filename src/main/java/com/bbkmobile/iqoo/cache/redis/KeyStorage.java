@@ -0,0 +1,557 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * {@link RedisLayout#ENTRY_KEY} storage: every entry is its own string key
+ * {@code <cacheName>:e:<field>} with its own expiry, and its version stamp is
+ * the key {@code <cacheName>:v:<field>} with the same expiry.
+ *
+ * <p>Stored values carry a small header: one flag byte, then the time to
+ * idle in seconds (4 bytes) if the entry has one, then the absolute time to
+ * live deadline in epoch milliseconds (8 bytes) if it also has a time to live
+ * longer than its time to idle. Reads fetch the remaining {@code TTL} in the
+ * same round trip and push the expiry back only once a tenth of the idle time
+ * has passed, so reading an idle-expiring entry costs an extra {@code EXPIRE}
+ * at most a few times per idle period.</p>
+ *
+ * <p>With hash tags the keys are {@code <cacheName>:e:{<tag>}<field>} and
+ * {@code <cacheName>:v:{<tag>}<field>}, the tag being the CRC16 of the field
+ * in 4 hex digits: an entry and its stamp share a slot while the entries
+ * spread over the cluster. Keys of several entries are then never sent in one
+ * command.</p>
+ *
+ * @author lqzhai
+ */
+class KeyStorage extends RedisStorage {
+
+    private static final byte[] ENTRY_INFIX = ":e:".getBytes();
+    private static final byte[] VERSION_INFIX = ":v:".getBytes();
+    private static final byte FLAG_IDLE = 1;
+    private static final byte FLAG_DEADLINE = 2;
+    private static final int TAG_LENGTH = 6;
+
+    /**
+     * KEYS: the entry key, its version key, the entry and version keys of the
+     * obsolete field. ARGV: as {@link RedisStorage#HASH_UPDATE}, the value
+     * with its header and the expiry of the key. Values are compared without
+     * their header.
+     */
+    private static final RedisScript ENTRY_UPDATE = new RedisScript(
+            "local prev = redis.call('GET', KEYS[1])\n"
+            + "local current = prev\n"
+            + "if prev then\n"
+            + "  local flags = string.byte(prev, 1)\n"
+            + "  local header = 1\n"
+            + "  if flags % 2 == 1 then header = header + 4 end\n"
+            + "  if flags >= 2 then header = header + 8 end\n"
+            + "  current = string.sub(prev, header + 1)\n"
+            + "end\n"
+            + "local absent = not current or current == 'nil'\n"
+            + "  or ((#current == 5 or #current == 13) and string.sub(current, 1, 5) == '\\0nil-')\n"
+            + "if (ARGV[2] == 'put_if_absent' and not absent) or (ARGV[2] == 'replace' and current ~= ARGV[4]) then\n"
+            + "  return {0, prev}\n"
+            + "end\n"
+            + "if ARGV[7] ~= '' then\n"
+            + "  redis.call('DEL', KEYS[3])\n"
+            + "  if ARGV[5] ~= '' then redis.call('DEL', KEYS[4]) end\n"
+            + "end\n"
+            + "if ARGV[2] == 'remove' then\n"
+            + "  redis.call('DEL', KEYS[1])\n"
+            + "  if ARGV[5] ~= '' then redis.call('DEL', KEYS[2]) end\n"
+            + "  return {1, prev}\n"
+            + "end\n"
+            + "local ttl = tonumber(ARGV[6])\n"
+            + "if ttl > 0 then\n"
+            + "  redis.call('SET', KEYS[1], ARGV[3], 'EX', ttl)\n"
+            + "  if ARGV[5] ~= '' then redis.call('SET', KEYS[2], ARGV[5], 'EX', ttl) end\n"
+            + "else\n"
+            + "  redis.call('SET', KEYS[1], ARGV[3])\n"
+            + "  if ARGV[5] ~= '' then redis.call('SET', KEYS[2], ARGV[5]) end\n"
+            + "end\n"
+            + "return {1, prev}\n");
+
+    private final byte[] entryPrefix;
+    private final byte[] versionPrefix;
+
+    KeyStorage(byte[] cacheName) {
+        this(cacheName, false);
+    }
+
+    KeyStorage(byte[] cacheName, boolean hashTags) {
+        super(cacheName, hashTags);
+        this.entryPrefix = concat(cacheName, ENTRY_INFIX);
+        this.versionPrefix = concat(cacheName, VERSION_INFIX);
+    }
+
+    @Override
+    boolean supportsEntryExpiry() {
+        return true;
+    }
+
+    @Override
+    byte[] get(RedisConnection connection, byte[] field) {
+        return getVersioned(connection, field, false).getValue();
+    }
+
+    @Override
+    VersionedValue<byte[]> getVersioned(RedisConnection connection, byte[] field) {
+        return getVersioned(connection, field, isVersioned());
+    }
+
+    private VersionedValue<byte[]> getVersioned(RedisConnection connection, byte[] field, boolean withStamp) {
+        byte[] key = entryKey(field);
+        Jedis node = connection.getNode(key);
+        Pipeline pipeline = node.pipelined();
+        Response<byte[]> raw = pipeline.get(key);
+        Response<Long> ttl = pipeline.ttl(key);
+        Response<byte[]> stamp = withStamp ? pipeline.get(versionKey(field)) : null;
+        pipeline.sync();
+        Entry entry = decode(raw.get());
+        if (entry == null) {
+            return new VersionedValue<byte[]>(null, 0L);
+        }
+        int touch = touchSeconds(entry, ttl.get());
+        if (touch > 0) {
+            Pipeline touches = node.pipelined();
+            expire(touches, key, field, touch);
+            touches.sync();
+        }
+        return new VersionedValue<byte[]>(entry.value, withStamp ? decodeStamp(stamp.get()) : 0L);
+    }
+
+    @Override
+    long getVersion(RedisConnection connection, byte[] field) {
+        return decodeStamp(connection.getNode(entryKey(field)).get(versionKey(field)));
+    }
+
+    @Override
+    List<byte[]> getAll(RedisConnection connection, List<byte[]> fields) {
+        List<VersionedValue<byte[]>> entries = getAllVersioned(connection, fields, false);
+        List<byte[]> values = new ArrayList<byte[]>(entries.size());
+        for (VersionedValue<byte[]> entry : entries) {
+            values.add(entry.getValue());
+        }
+        return values;
+    }
+
+    @Override
+    List<VersionedValue<byte[]>> getAllVersioned(RedisConnection connection, List<byte[]> fields) {
+        return getAllVersioned(connection, fields, isVersioned());
+    }
+
+    private List<VersionedValue<byte[]>> getAllVersioned(RedisConnection connection, final List<byte[]> fields,
+            final boolean withStamps) {
+        final List<byte[]> keys = entryKeys(fields);
+        final List<VersionedValue<byte[]>> result = new ArrayList<VersionedValue<byte[]>>(
+                Collections.<VersionedValue<byte[]>> nCopies(fields.size(), null));
+        forEachNode(connection, groupByNode(connection, keys), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> indexes) {
+                List<Response<byte[]>> raws = new ArrayList<Response<byte[]>>(indexes.size());
+                List<Response<Long>> ttls = new ArrayList<Response<Long>>(indexes.size());
+                List<Response<byte[]>> stamps = new ArrayList<Response<byte[]>>(indexes.size());
+                Pipeline pipeline = node.pipelined();
+                for (Integer i : indexes) {
+                    raws.add(pipeline.get(keys.get(i)));
+                    ttls.add(pipeline.ttl(keys.get(i)));
+                    if (withStamps) {
+                        stamps.add(pipeline.get(versionKey(fields.get(i))));
+                    }
+                }
+                pipeline.sync();
+                Pipeline touches = null;
+                for (int j = 0; j < indexes.size(); j++) {
+                    int i = indexes.get(j);
+                    Entry entry = decode(raws.get(j).get());
+                    if (entry == null) {
+                        result.set(i, new VersionedValue<byte[]>(null, 0L));
+                        continue;
+                    }
+                    int touch = touchSeconds(entry, ttls.get(j).get());
+                    if (touch > 0) {
+                        if (touches == null) {
+                            touches = node.pipelined();
+                        }
+                        expire(touches, keys.get(i), fields.get(i), touch);
+                    }
+                    result.set(i, new VersionedValue<byte[]>(entry.value,
+                            withStamps ? decodeStamp(stamps.get(j).get()) : 0L));
+                }
+                if (touches != null) {
+                    touches.sync();
+                }
+            }
+        });
+        return result;
+    }
+
+    @Override
+    List<Long> getVersions(RedisConnection connection, final List<byte[]> fields) {
+        List<byte[]> keys = entryKeys(fields);
+        final Long[] result = new Long[fields.size()];
+        forEachNode(connection, groupByNode(connection, keys), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> indexes) {
+                List<byte[]> versionKeys = new ArrayList<byte[]>(indexes.size());
+                for (Integer i : indexes) {
+                    versionKeys.add(versionKey(fields.get(i)));
+                }
+                List<byte[]> stamps = mget(node, versionKeys);
+                for (int j = 0; j < indexes.size(); j++) {
+                    result[indexes.get(j)] = decodeStamp(stamps.get(j));
+                }
+            }
+        });
+        return Arrays.asList(result);
+    }
+
+    @Override
+    void put(RedisConnection connection, byte[] field, byte[] value, long stamp, int timeToLive, int timeToIdle,
+            List<byte[]> obsolete) {
+        byte[] key = entryKey(field);
+        Map<Jedis, List<byte[]>> stale = groupObsolete(connection, obsolete);
+        Jedis node = connection.getNode(key);
+        Pipeline pipeline = node.pipelined();
+        write(pipeline, key, field, value, stamp, timeToLive, timeToIdle, System.currentTimeMillis());
+        removeObsolete(stale, node, pipeline);
+        pipeline.sync();
+        removeObsolete(connection, stale);
+    }
+
+    @Override
+    void putAll(RedisConnection connection, final List<byte[]> fields, final List<byte[]> values,
+            final long[] stamps, final int timeToLive, final int timeToIdle, List<byte[]> obsolete) {
+        final List<byte[]> keys = entryKeys(fields);
+        final long now = System.currentTimeMillis();
+        final Map<Jedis, List<byte[]>> stale = groupObsolete(connection, obsolete);
+        forEachNode(connection, groupByNode(connection, keys), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> indexes) {
+                Pipeline pipeline = node.pipelined();
+                for (Integer i : indexes) {
+                    write(pipeline, keys.get(i), fields.get(i), values.get(i), stamps[i], timeToLive, timeToIdle,
+                            now);
+                }
+                removeObsolete(stale, node, pipeline);
+                pipeline.sync();
+            }
+        });
+        removeObsolete(connection, stale);
+    }
+
+    private void write(Pipeline pipeline, byte[] key, byte[] field, byte[] value, long stamp,
+            int timeToLive, int timeToIdle, long now) {
+        int expiry = expiry(timeToLive, timeToIdle);
+        byte[] raw = encode(value, timeToIdle, deadline(timeToLive, timeToIdle, now));
+        if (expiry > 0) {
+            pipeline.setex(key, expiry, raw);
+        } else {
+            pipeline.set(key, raw);
+        }
+        if (isVersioned()) {
+            if (expiry > 0) {
+                pipeline.setex(versionKey(field), expiry, encodeStamp(stamp));
+            } else {
+                pipeline.set(versionKey(field), encodeStamp(stamp));
+            }
+        }
+    }
+
+    @Override
+    UpdateResult update(RedisConnection connection, Update update, byte[] field, byte[] value, byte[] expected,
+            long stamp, int timeToLive, int timeToIdle, byte[] obsolete) {
+        byte[] key = entryKey(field);
+        int expiry = expiry(timeToLive, timeToIdle);
+        long deadline = deadline(timeToLive, timeToIdle, System.currentTimeMillis());
+        Jedis node = connection.getNode(key);
+        // with hash tags the obsolete keys are in another slot
+        boolean inScript = obsolete != null && !hashTags && connection.getNode(entryKey(obsolete)) == node;
+        List<byte[]> keys = inScript
+                ? Arrays.asList(key, versionKey(field), entryKey(obsolete), versionKey(obsolete))
+                : Arrays.asList(key, versionKey(field), key, versionKey(field));
+        List<byte[]> args = Arrays.asList(field, update.arg,
+                value == null ? EMPTY : encode(value, timeToIdle, deadline),
+                expected == null ? EMPTY : expected, isVersioned() ? encodeStamp(stamp) : EMPTY,
+                String.valueOf(expiry).getBytes(), inScript ? obsolete : EMPTY);
+        UpdateResult result = UpdateResult.of(ENTRY_UPDATE.execute(node, keys, args));
+        if (obsolete != null && !inScript && result.written) {
+            removeAll(connection, Collections.singletonList(obsolete));
+        }
+        Entry previous = decode(result.previous);
+        return new UpdateResult(previous == null ? null : previous.value, result.written);
+    }
+
+    @Override
+    byte[] keyOf(byte[] field) {
+        return entryKey(field);
+    }
+
+    @Override
+    void remove(Pipeline pipeline, byte[] field) {
+        pipeline.del(entryKey(field));
+        if (isVersioned()) {
+            pipeline.del(versionKey(field));
+        }
+    }
+
+    private void expire(Pipeline pipeline, byte[] key, byte[] field, int seconds) {
+        pipeline.expire(key, seconds);
+        if (isVersioned()) {
+            pipeline.expire(versionKey(field), seconds);
+        }
+    }
+
+    @Override
+    byte[] remove(RedisConnection connection, byte[] field) {
+        byte[] key = entryKey(field);
+        Pipeline pipeline = connection.getNode(key).pipelined();
+        Response<byte[]> previous = pipeline.get(key);
+        pipeline.del(key);
+        if (isVersioned()) {
+            pipeline.del(versionKey(field));
+        }
+        pipeline.sync();
+        Entry entry = decode(previous.get());
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    void removeAll(RedisConnection connection, final List<byte[]> fields) {
+        final List<byte[]> keys = entryKeys(fields);
+        final boolean versioned = isVersioned();
+        forEachNode(connection, groupByNode(connection, keys), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> indexes) {
+                Pipeline pipeline = node.pipelined();
+                for (Integer i : indexes) {
+                    pipeline.del(keys.get(i));
+                    if (versioned) {
+                        pipeline.del(versionKey(fields.get(i)));
+                    }
+                }
+                pipeline.sync();
+            }
+        });
+    }
+
+    @Override
+    void clear(RedisConnection connection) {
+        forEachNode(connection, allNodes(connection), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> indexes) {
+                delete(node, scanKeys(node, globPrefix(entryPrefix)));
+                delete(node, scanKeys(node, globPrefix(versionPrefix)));
+            }
+        });
+    }
+
+    private void delete(Jedis node, List<byte[]> keys) {
+        for (int from = 0; from < keys.size(); from += SCAN_COUNT) {
+            List<byte[]> page = keys.subList(from, Math.min(keys.size(), from + SCAN_COUNT));
+            if (hashTags) {
+                Pipeline pipeline = node.pipelined();
+                for (byte[] key : page) {
+                    pipeline.del(key);
+                }
+                pipeline.sync();
+            } else {
+                node.del(page.toArray(new byte[page.size()][]));
+            }
+        }
+    }
+
+    /**
+     * {@code MGET}, or with hash tags one {@code GET} per key in a pipeline,
+     * the keys lying in different slots.
+     */
+    private List<byte[]> mget(Jedis node, List<byte[]> keys) {
+        if (!hashTags) {
+            return node.mget(keys.toArray(new byte[keys.size()][]));
+        }
+        List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>(keys.size());
+        Pipeline pipeline = node.pipelined();
+        for (byte[] key : keys) {
+            responses.add(pipeline.get(key));
+        }
+        pipeline.sync();
+        List<byte[]> values = new ArrayList<byte[]>(keys.size());
+        for (Response<byte[]> response : responses) {
+            values.add(response.get());
+        }
+        return values;
+    }
+
+    @Override
+    int size(RedisConnection connection) {
+        final AtomicInteger size = new AtomicInteger();
+        forEachNode(connection, allNodes(connection), new NodeTask() {
+            @Override
+            public void run(Jedis node, List<Integer> indexes) {
+                size.addAndGet(scanKeys(node, globPrefix(entryPrefix)).size());
+            }
+        });
+        return size.get();
+    }
+
+    /**
+     * Walks the entry keys node by node with {@code SCAN}; values are read
+     * with one {@code MGET} per page when requested. Entries expiring between
+     * the two commands are left out of the page.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    ScanPage scan(RedisConnection connection, ScanPosition position, int count, boolean withValues) {
+        List<Jedis> nodes = new ArrayList<Jedis>(connection.getNodes());
+        int index = position == null ? 0 : position.index;
+        Jedis node = nodes.get(index);
+        ScanParams params = new ScanParams();
+        params.match(globPrefix(entryPrefix));
+        params.count(count);
+        node.getClient().scan(position == null ? SCAN_START : position.cursor, params);
+        List<Object> reply = node.getClient().getObjectMultiBulkReply();
+        List<byte[]> keys = (List<byte[]>) reply.get(1);
+        ScanPosition next = nextPosition(index, (byte[]) reply.get(0), nodes.size());
+        List<byte[]> fields = new ArrayList<byte[]>(keys.size());
+        if (!withValues) {
+            for (byte[] key : keys) {
+                fields.add(fieldOf(key));
+            }
+            return new ScanPage(fields, null, next);
+        }
+        List<byte[]> values = new ArrayList<byte[]>(keys.size());
+        if (!keys.isEmpty()) {
+            List<byte[]> raws = mget(node, keys);
+            for (int i = 0; i < keys.size(); i++) {
+                Entry entry = decode(raws.get(i));
+                if (entry != null) {
+                    fields.add(fieldOf(keys.get(i)));
+                    values.add(entry.value);
+                }
+            }
+        }
+        return new ScanPage(fields, values, next);
+    }
+
+    private byte[] entryKey(byte[] field) {
+        return key(entryPrefix, field);
+    }
+
+    private byte[] versionKey(byte[] field) {
+        return key(versionPrefix, field);
+    }
+
+    private byte[] key(byte[] prefix, byte[] field) {
+        if (!hashTags) {
+            return concat(prefix, field);
+        }
+        String tag = Integer.toHexString(0x10000 | JedisClusterExecutor.crc16(field)).substring(1);
+        return concat(concat(prefix, ("{" + tag + "}").getBytes()), field);
+    }
+
+    private byte[] fieldOf(byte[] key) {
+        return Arrays.copyOfRange(key, entryPrefix.length + (hashTags ? TAG_LENGTH : 0), key.length);
+    }
+
+    private List<byte[]> entryKeys(List<byte[]> fields) {
+        List<byte[]> keys = new ArrayList<byte[]>(fields.size());
+        for (byte[] field : fields) {
+            keys.add(entryKey(field));
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the expiry of a written key: the time to idle, pushed back on
+     * reads, unless the time to live is shorter.
+     */
+    private static int expiry(int timeToLive, int timeToIdle) {
+        return timeToIdle > 0 && (timeToLive <= 0 || timeToIdle < timeToLive) ? timeToIdle : timeToLive;
+    }
+
+    /**
+     * Returns the time to live deadline to store with an idle-expiring entry,
+     * 0 if the key expiry alone is enough.
+     */
+    private static long deadline(int timeToLive, int timeToIdle, long now) {
+        return timeToIdle > 0 && timeToLive > timeToIdle ? now + timeToLive * 1000L : 0L;
+    }
+
+    /**
+     * Returns the expiry to set on a read entry, or 0 if it needs no touch.
+     */
+    private static int touchSeconds(Entry entry, Long remaining) {
+        if (entry.timeToIdle <= 0 || remaining == null || remaining.longValue() < 0) {
+            return 0;
+        }
+        long target = entry.timeToIdle;
+        if (entry.deadline > 0) {
+            target = Math.min(target, (entry.deadline - System.currentTimeMillis()) / 1000L);
+        }
+        long slack = Math.max(1, entry.timeToIdle / 10);
+        return target > 0 && remaining.longValue() <= target - slack ? (int) target : 0;
+    }
+
+    private static byte[] encode(byte[] value, int timeToIdle, long deadline) {
+        int header = 1 + (timeToIdle > 0 ? 4 : 0) + (deadline > 0 ? 8 : 0);
+        byte[] raw = new byte[header + value.length];
+        int pos = 1;
+        if (timeToIdle > 0) {
+            raw[0] |= FLAG_IDLE;
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                raw[pos++] = (byte) (timeToIdle >>> shift);
+            }
+        }
+        if (deadline > 0) {
+            raw[0] |= FLAG_DEADLINE;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                raw[pos++] = (byte) (deadline >>> shift);
+            }
+        }
+        System.arraycopy(value, 0, raw, header, value.length);
+        return raw;
+    }
+
+    private static Entry decode(byte[] raw) {
+        if (raw == null || raw.length == 0) {
+            return null;
+        }
+        int pos = 1;
+        int timeToIdle = 0;
+        long deadline = 0L;
+        if ((raw[0] & FLAG_IDLE) != 0) {
+            for (int i = 0; i < 4; i++) {
+                timeToIdle = (timeToIdle << 8) | (raw[pos++] & 0xff);
+            }
+        }
+        if ((raw[0] & FLAG_DEADLINE) != 0) {
+            for (int i = 0; i < 8; i++) {
+                deadline = (deadline << 8) | (raw[pos++] & 0xff);
+            }
+        }
+        return new Entry(Arrays.copyOfRange(raw, pos, raw.length), timeToIdle, deadline);
+    }
+
+    private static class Entry {
+
+        final byte[] value;
+        final int timeToIdle;
+        final long deadline;
+
+        Entry(byte[] value, int timeToIdle, long deadline) {
+            this.value = value;
+            this.timeToIdle = timeToIdle;
+            this.deadline = deadline;
+        }
+    }
+}
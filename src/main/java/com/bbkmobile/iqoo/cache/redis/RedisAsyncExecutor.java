@@ -0,0 +1,93 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Bounded executor running the asynchronous calls of Redis caches: at most
+ * {@code threads} calls run at once, which should not exceed the size of the
+ * connection pool, and at most {@code queueSize} wait. A call finding the
+ * queue full fails at once rather than blocking the caller.
+ *
+ * @author lqzhai
+ */
+public class RedisAsyncExecutor implements Executor {
+
+    /**
+     * Used by caches given no executor of their own; sized for the default
+     * Jedis pool of 8 connections.
+     */
+    private static volatile RedisAsyncExecutor defaultExecutor;
+
+    private final ThreadPoolExecutor executor;
+
+    public RedisAsyncExecutor(final String name, int threads, int queueSize) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    static RedisAsyncExecutor getDefault() {
+        RedisAsyncExecutor executor = defaultExecutor;
+        if (executor == null) {
+            synchronized (RedisAsyncExecutor.class) {
+                executor = defaultExecutor;
+                if (executor == null) {
+                    executor = new RedisAsyncExecutor("redis-cache-async", 8, 1024);
+                    defaultExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Runs {@code call} on {@code executor}.
+     *
+     * @return a future failed with a {@link CacheException} if the executor
+     * refused the call
+     */
+    static <T> CompletableFuture<T> supply(Supplier<T> call, Executor executor) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(new CacheException("Too many pending asynchronous cache calls", e));
+            return failed;
+        }
+    }
+
+    /**
+     * @return calls running or waiting
+     */
+    public int getPending() {
+        return executor.getActiveCount() + executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
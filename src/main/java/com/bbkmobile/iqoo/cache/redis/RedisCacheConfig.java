@@ -0,0 +1,419 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Per-cache settings of a {@link RedisCacheManager}, read from its
+ * {@code cacheManagerConfigFile}, a properties file:
+ *
+ * <pre>
+ * # applies to every cache
+ * default.timeToLiveSeconds=600
+ *
+ * cache.user.timeToLiveSeconds=300
+ * cache.user.layout=ENTRY_KEY
+ * cache.user.serializer=compact
+ * cache.user.nearCacheMaxSize=5000
+ * cache.user.pool=session
+ *
+ * pool.session.hosts=10.0.0.2:6379
+ * pool.session.maxTotal=64
+ * </pre>
+ *
+ * <p>Cache settings are {@code timeToLiveSeconds}, {@code timeToIdleSeconds},
+ * {@code layout} (a {@link RedisLayout} name), {@code bucketCount},
+ * {@code compressionThreshold}, {@code serializer} ({@code java},
+ * {@code json}, {@code compact} or the class name of a
+ * {@code RedisSerializer} with a no argument constructor),
+ * {@code nearCacheMaxSize} (a positive size serves the cache through a
+ * {@link RedisNearCache} of that many entries), {@code writeBehind}
+ * ({@code true} to serve it through a {@link RedisWriteBehindCache}),
+ * {@code loadLeaseMillis} (see {@link AbstractRedisCache#setLoadLeaseMillis(long)}),
+ * {@code negativeTimeToLiveSeconds} (see
+ * {@link AbstractRedisCache#setNegativeTimeToLiveSeconds(int)}),
+ * {@code bloomExpectedEntries} (a positive count keeps a
+ * {@link RedisMembershipFilter} sized for that many keys),
+ * {@code bloomFalsePositiveRate}, {@code bloomMaxBytes}, {@code fallback}
+ * ({@code true} to serve it through a {@link RedisFailoverCache}),
+ * {@code atomicWrites} (see {@link AbstractRedisCache#setAtomicWrites(boolean)})
+ * and {@code pool}. Pool
+ * settings are {@code hosts} ({@code host:port}, several separated by
+ * {@code ;} for a sharded pool), {@code password}, {@code timeout},
+ * {@code maxTotal}, {@code maxIdle}, {@code minIdle}, {@code maxWaitMillis},
+ * {@code idleValidationMillis}, defaulting to the properties of the
+ * {@link RedisCacheManager}, {@code cluster} ({@code true} when the hosts are
+ * seed nodes of a Redis Cluster, each master then getting a pool with these
+ * settings, see {@link RedisClusterCache}) and {@code parallelism} (the most
+ * masters a multi-key operation calls at once, 8 by default). Cache and pool names may contain
+ * dots, the setting name being the part after the last one.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisCacheConfig {
+
+    private static final String DEFAULT = "default";
+    private static final String CACHE_PREFIX = "cache.";
+    private static final String POOL_PREFIX = "pool.";
+
+    private final CacheSettings defaults = new CacheSettings();
+    private final Map<String, CacheSettings> caches = new HashMap<String, CacheSettings>();
+    private final Map<String, PoolSettings> pools = new LinkedHashMap<String, PoolSettings>();
+
+    /**
+     * Reads a config file from the class path, or from the file system if no
+     * such resource exists.
+     *
+     * @param location the resource path, optionally prefixed with
+     * {@code classpath:}
+     */
+    public static RedisCacheConfig load(String location) throws CacheException {
+        String path = location.startsWith("classpath:") ? location.substring("classpath:".length()) : location;
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader == null) {
+                loader = RedisCacheConfig.class.getClassLoader();
+            }
+            in = loader.getResourceAsStream(path.startsWith("/") ? path.substring(1) : path);
+            if (in == null) {
+                File file = new File(path);
+                if (!file.isFile()) {
+                    throw new CacheException("Cache config file " + location + " not found.");
+                }
+                in = new FileInputStream(file);
+            }
+            properties.load(in);
+        } catch (IOException e) {
+            throw new CacheException("Could not read cache config file " + location, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return parse(properties);
+    }
+
+    public static RedisCacheConfig parse(Properties properties) throws CacheException {
+        RedisCacheConfig config = new RedisCacheConfig();
+        for (String name : properties.stringPropertyNames()) {
+            String value = properties.getProperty(name).trim();
+            int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                throw new CacheException("Unknown cache config entry " + name);
+            }
+            String owner = name.substring(0, dot);
+            String setting = name.substring(dot + 1);
+            if (DEFAULT.equals(owner)) {
+                config.defaults.set(name, setting, value);
+            } else if (owner.startsWith(CACHE_PREFIX)) {
+                config.cache(owner.substring(CACHE_PREFIX.length())).set(name, setting, value);
+            } else if (owner.startsWith(POOL_PREFIX)) {
+                config.pool(owner.substring(POOL_PREFIX.length())).set(name, setting, value);
+            } else {
+                throw new CacheException("Unknown cache config entry " + name);
+            }
+        }
+        for (Map.Entry<String, PoolSettings> pool : config.pools.entrySet()) {
+            if (pool.getValue().hosts == null) {
+                throw new CacheException("Pool " + pool.getKey() + " has no hosts.");
+            }
+        }
+        return config;
+    }
+
+    private CacheSettings cache(String name) {
+        CacheSettings settings = caches.get(name);
+        if (settings == null) {
+            settings = new CacheSettings();
+            caches.put(name, settings);
+        }
+        return settings;
+    }
+
+    private PoolSettings pool(String name) {
+        PoolSettings settings = pools.get(name);
+        if (settings == null) {
+            settings = new PoolSettings();
+            pools.put(name, settings);
+        }
+        return settings;
+    }
+
+    /**
+     * @return the settings of {@code cacheName} over the defaults of the
+     * file; a setting left {@code null} falls back to the manager
+     */
+    public CacheSettings getSettings(String cacheName) {
+        CacheSettings settings = caches.get(cacheName);
+        return settings == null ? defaults : settings.over(defaults);
+    }
+
+    public Map<String, PoolSettings> getPools() {
+        return pools;
+    }
+
+    /**
+     * Settings of one cache, {@code null} when not set.
+     */
+    public static class CacheSettings {
+
+        Integer timeToLiveSeconds;
+        Integer timeToIdleSeconds;
+        RedisLayout layout;
+        Integer bucketCount;
+        Integer compressionThreshold;
+        String serializer;
+        Integer nearCacheMaxSize;
+        String pool;
+        Boolean writeBehind;
+        Long loadLeaseMillis;
+        Integer negativeTimeToLiveSeconds;
+        Long bloomExpectedEntries;
+        Double bloomFalsePositiveRate;
+        Long bloomMaxBytes;
+        Boolean fallback;
+        Boolean atomicWrites;
+
+        void set(String entry, String setting, String value) throws CacheException {
+            try {
+                if ("timeToLiveSeconds".equals(setting)) {
+                    timeToLiveSeconds = Integer.valueOf(value);
+                } else if ("timeToIdleSeconds".equals(setting)) {
+                    timeToIdleSeconds = Integer.valueOf(value);
+                } else if ("layout".equals(setting)) {
+                    layout = RedisLayout.valueOf(value.toUpperCase());
+                } else if ("bucketCount".equals(setting)) {
+                    bucketCount = Integer.valueOf(value);
+                } else if ("compressionThreshold".equals(setting)) {
+                    compressionThreshold = Integer.valueOf(value);
+                } else if ("serializer".equals(setting)) {
+                    serializer = value;
+                } else if ("nearCacheMaxSize".equals(setting)) {
+                    nearCacheMaxSize = Integer.valueOf(value);
+                } else if ("pool".equals(setting)) {
+                    pool = value;
+                } else if ("writeBehind".equals(setting)) {
+                    writeBehind = Boolean.valueOf(value);
+                } else if ("loadLeaseMillis".equals(setting)) {
+                    loadLeaseMillis = Long.valueOf(value);
+                } else if ("negativeTimeToLiveSeconds".equals(setting)) {
+                    negativeTimeToLiveSeconds = Integer.valueOf(value);
+                } else if ("bloomExpectedEntries".equals(setting)) {
+                    bloomExpectedEntries = Long.valueOf(value);
+                } else if ("bloomFalsePositiveRate".equals(setting)) {
+                    bloomFalsePositiveRate = Double.valueOf(value);
+                } else if ("bloomMaxBytes".equals(setting)) {
+                    bloomMaxBytes = Long.valueOf(value);
+                } else if ("fallback".equals(setting)) {
+                    fallback = Boolean.valueOf(value);
+                } else if ("atomicWrites".equals(setting)) {
+                    atomicWrites = Boolean.valueOf(value);
+                } else {
+                    throw new CacheException("Unknown cache config entry " + entry);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new CacheException("Invalid value " + value + " for " + entry, e);
+            }
+        }
+
+        CacheSettings over(CacheSettings defaults) {
+            CacheSettings merged = new CacheSettings();
+            merged.timeToLiveSeconds = timeToLiveSeconds != null ? timeToLiveSeconds : defaults.timeToLiveSeconds;
+            merged.timeToIdleSeconds = timeToIdleSeconds != null ? timeToIdleSeconds : defaults.timeToIdleSeconds;
+            merged.layout = layout != null ? layout : defaults.layout;
+            merged.bucketCount = bucketCount != null ? bucketCount : defaults.bucketCount;
+            merged.compressionThreshold = compressionThreshold != null ? compressionThreshold
+                    : defaults.compressionThreshold;
+            merged.serializer = serializer != null ? serializer : defaults.serializer;
+            merged.nearCacheMaxSize = nearCacheMaxSize != null ? nearCacheMaxSize : defaults.nearCacheMaxSize;
+            merged.pool = pool != null ? pool : defaults.pool;
+            merged.writeBehind = writeBehind != null ? writeBehind : defaults.writeBehind;
+            merged.loadLeaseMillis = loadLeaseMillis != null ? loadLeaseMillis : defaults.loadLeaseMillis;
+            merged.negativeTimeToLiveSeconds = negativeTimeToLiveSeconds != null ? negativeTimeToLiveSeconds
+                    : defaults.negativeTimeToLiveSeconds;
+            merged.bloomExpectedEntries = bloomExpectedEntries != null ? bloomExpectedEntries
+                    : defaults.bloomExpectedEntries;
+            merged.bloomFalsePositiveRate = bloomFalsePositiveRate != null ? bloomFalsePositiveRate
+                    : defaults.bloomFalsePositiveRate;
+            merged.bloomMaxBytes = bloomMaxBytes != null ? bloomMaxBytes : defaults.bloomMaxBytes;
+            merged.fallback = fallback != null ? fallback : defaults.fallback;
+            merged.atomicWrites = atomicWrites != null ? atomicWrites : defaults.atomicWrites;
+            return merged;
+        }
+
+        public Integer getTimeToLiveSeconds() {
+            return timeToLiveSeconds;
+        }
+
+        public Integer getTimeToIdleSeconds() {
+            return timeToIdleSeconds;
+        }
+
+        public RedisLayout getLayout() {
+            return layout;
+        }
+
+        public Integer getBucketCount() {
+            return bucketCount;
+        }
+
+        public Integer getCompressionThreshold() {
+            return compressionThreshold;
+        }
+
+        public String getSerializer() {
+            return serializer;
+        }
+
+        public Integer getNearCacheMaxSize() {
+            return nearCacheMaxSize;
+        }
+
+        public String getPool() {
+            return pool;
+        }
+
+        public Boolean getWriteBehind() {
+            return writeBehind;
+        }
+
+        public Long getLoadLeaseMillis() {
+            return loadLeaseMillis;
+        }
+
+        public Integer getNegativeTimeToLiveSeconds() {
+            return negativeTimeToLiveSeconds;
+        }
+
+        public Long getBloomExpectedEntries() {
+            return bloomExpectedEntries;
+        }
+
+        public Double getBloomFalsePositiveRate() {
+            return bloomFalsePositiveRate;
+        }
+
+        public Long getBloomMaxBytes() {
+            return bloomMaxBytes;
+        }
+
+        public Boolean getFallback() {
+            return fallback;
+        }
+
+        public Boolean getAtomicWrites() {
+            return atomicWrites;
+        }
+    }
+
+    /**
+     * Settings of one named connection pool.
+     */
+    public static class PoolSettings {
+
+        String hosts;
+        String password;
+        Integer timeout;
+        Integer maxTotal;
+        Integer maxIdle;
+        Integer minIdle;
+        Long maxWaitMillis;
+        Long idleValidationMillis;
+        boolean cluster;
+        Integer parallelism;
+
+        void set(String entry, String setting, String value) throws CacheException {
+            try {
+                if ("hosts".equals(setting)) {
+                    hosts = value;
+                } else if ("password".equals(setting)) {
+                    password = value.length() == 0 ? null : value;
+                } else if ("timeout".equals(setting)) {
+                    timeout = Integer.valueOf(value);
+                } else if ("maxTotal".equals(setting)) {
+                    maxTotal = Integer.valueOf(value);
+                } else if ("maxIdle".equals(setting)) {
+                    maxIdle = Integer.valueOf(value);
+                } else if ("minIdle".equals(setting)) {
+                    minIdle = Integer.valueOf(value);
+                } else if ("maxWaitMillis".equals(setting)) {
+                    maxWaitMillis = Long.valueOf(value);
+                } else if ("idleValidationMillis".equals(setting)) {
+                    idleValidationMillis = Long.valueOf(value);
+                } else if ("cluster".equals(setting)) {
+                    cluster = Boolean.parseBoolean(value);
+                } else if ("parallelism".equals(setting)) {
+                    parallelism = Integer.valueOf(value);
+                } else {
+                    throw new CacheException("Unknown cache config entry " + entry);
+                }
+            } catch (NumberFormatException e) {
+                throw new CacheException("Invalid value " + value + " for " + entry, e);
+            }
+        }
+
+        public String getHosts() {
+            return hosts;
+        }
+
+        public boolean isSharded() {
+            return !cluster && hosts.indexOf(';') >= 0;
+        }
+
+        /**
+         * @return whether {@code hosts} are seed nodes of a Redis Cluster
+         */
+        public boolean isCluster() {
+            return cluster;
+        }
+
+        /**
+         * @return the most masters of a cluster called at once by a multi-key
+         * operation
+         */
+        public Integer getParallelism() {
+            return parallelism;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public Integer getTimeout() {
+            return timeout;
+        }
+
+        public Integer getMaxTotal() {
+            return maxTotal;
+        }
+
+        public Integer getMaxIdle() {
+            return maxIdle;
+        }
+
+        public Integer getMinIdle() {
+            return minIdle;
+        }
+
+        public Long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        public Long getIdleValidationMillis() {
+            return idleValidationMillis;
+        }
+    }
+}
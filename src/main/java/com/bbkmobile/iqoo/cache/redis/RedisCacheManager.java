@@ -1,265 +1,1211 @@
-/*
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
-package com.bbkmobile.iqoo.cache.redis;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.JedisShardInfo;
-import redis.clients.jedis.Protocol;
-import redis.clients.jedis.ShardedJedisPool;
-
-import com.bbkmobile.iqoo.cache.Cache;
-import com.bbkmobile.iqoo.cache.CacheException;
-import com.bbkmobile.iqoo.cache.CacheManager;
-
-/**
- * Shiro {@code CacheManager} implementation utilizing the Ehcache framework for
- * all cache functionality.
- * <p/>
- * This class can {@link #setCacheManager(net.sf.ehcache.CacheManager) accept} a
- * manually configured
- * {@link net.sf.ehcache.CacheManager net.sf.ehcache.CacheManager} instance, or
- * an {@code ehcache.xml} path location can be specified instead and one will be
- * constructed. If neither are specified, Shiro's failsafe
- * <code><a href="./ehcache.xml">ehcache.xml</a>} file will be used by default.
- * <p/>
- * This implementation requires EhCache 1.2 and above. Make sure EhCache 1.1 or
- * earlier is not in the classpath or it will not work.
- * <p/>
- * Please see the <a href="http://ehcache.sf.net" target="_top">Ehcache
- * website</a> for their documentation.
- *
- * @see <a href="http://ehcache.sf.net" target="_top">The Ehcache website</a>
- * @since 0.2
- */
-public class RedisCacheManager implements CacheManager{
-
-    /**
-     * This class's private log instance.
-     */
-    private static final Logger log = LoggerFactory.getLogger(RedisCacheManager.class);
-    /**
-     * Indicates if the CacheManager instance was implicitly/automatically
-     * created by this instance, indicating that it should be automatically
-     * cleaned up as well on shutdown.
-     */
-    private boolean cacheManagerImplicitlyCreated = false;
-    /**
-     * file location of the ehcache CacheManager config file.
-     */
-    private String cacheManagerConfigFile;
-    private boolean sharded = false;
-    private JedisPool jedisPool;
-    private ShardedJedisPool shardedJedisPool;
-    
-    private String host;
-    private String password;
-    /**
-     * Default no argument constructor
-     */
-    public RedisCacheManager() {
-    }
-
-    /**
-     * Returns the resource location of the config file used to initialize a new
-     * EhCache CacheManager instance. The string can be any resource path
-     * supported by the
-     * {@link org.apache.shiro.io.ResourceUtils#getInputStreamForPath(String)}
-     * call.
-     * <p/>
-     * This property is ignored if the CacheManager instance is injected
-     * directly - that is, it is only used to lazily create a CacheManager if
-     * one is not already provided.
-     *
-     * @return the resource location of the config file used to initialize the
-     * wrapped EhCache CacheManager instance.
-     */
-    public String getCacheManagerConfigFile() {
-        return this.cacheManagerConfigFile;
-    }
-
-    /**
-     * Sets the resource location of the config file used to initialize the
-     * wrapped EhCache CacheManager instance. The string can be any resource
-     * path supported by the
-     * {@link org.apache.shiro.io.ResourceUtils#getInputStreamForPath(String)}
-     * call.
-     * <p/>
-     * This property is ignored if the CacheManager instance is injected
-     * directly - that is, it is only used to lazily create a CacheManager if
-     * one is not already provided.
-     *
-     * @param classpathLocation resource location of the config file used to
-     * create the wrapped EhCache CacheManager instance.
-     */
-    public void setCacheManagerConfigFile(String classpathLocation) {
-        this.cacheManagerConfigFile = classpathLocation;
-    }
-
-    /**
-     * Loads an existing EhCache from the cache manager, or starts a new cache
-     * if one is not found.
-     *
-     * @param name the name of the cache to load/create.
-     */
-    @Override
-    public final <K, V> Cache<K, V> getCache(String name) throws CacheException {
-
-        if (log.isTraceEnabled()) {
-            log.trace("Acquiring EhCache instance named [" + name + "]");
-        }
-
-
-        try {
-            if (this.isSharded() && null != shardedJedisPool) {
-                return new RedisShardedCache<K, V>(name, shardedJedisPool);
-            } else {
-                return new RedisCache<K, V>(name, jedisPool);
-            }
-
-        } catch (Exception e) {
-            throw new CacheException(e);
-        }
-    }
-
-    public final <K, V> Cache<K, V> getCache(String name, Class<K> keyType, Class<V> valueType) throws CacheException {
-
-        if (log.isTraceEnabled()) {
-            log.trace("Acquiring EhCache instance named [" + name + "]");
-        }
-
-
-        try {
-            if (this.isSharded() && null != shardedJedisPool) {
-                return new RedisShardedCache<K, V>(name, shardedJedisPool);
-            } else {
-                return new RedisCache<K, V>(name, jedisPool, keyType, valueType);
-            }
-        } catch (Exception e) {
-            throw new CacheException(e);
-        }
-    }
-
-    /**
-     * Initializes this instance.
-     * <p/>
-     * If a {@link #setCacheManager CacheManager} has been explicitly set (e.g.
-     * via Dependency Injection or programatically) prior to calling this
-     * method, this method does nothing.
-     * <p/>
-     * However, if no {@code CacheManager} has been set, the default Ehcache
-     * singleton will be initialized, where Ehcache will look for an
-     * {@code ehcache.xml} file at the root of the classpath. If one is not
-     * found, Ehcache will use its own failsafe configuration file.
-     * <p/>
-     * Because Shiro cannot use the failsafe defaults (fail-safe expunges cached
-     * objects after 2 minutes, something not desirable for Shiro sessions),
-     * this class manages an internal default configuration for this case.
-     *
-     * @throws org.apache.shiro.cache.CacheException if there are any
-     * CacheExceptions thrown by EhCache.
-     * @see net.sf.ehcache.CacheManager#create
-     */
-    public final void init() throws CacheException {
-        JedisPoolConfig config = new JedisPoolConfig();
-        config.setMaxIdle(200);
-        config.setTestOnBorrow(true);
-        if(host == null || host.trim().length() == 0){
-        	host = "127.0.0.1";//TODO
-        }
-        password = null;//TODO
-        int timeout = -1;
-        if (isSharded()) {
-            String[] hosts = host.split(";");
-            List<JedisShardInfo> jedisShardInfos = new ArrayList<JedisShardInfo>();
-            JedisShardInfo jsi = null;
-            for(String h:hosts){
-                String[] tmp = h.split(":");
-                String ip = tmp[0];
-                int port = Integer.parseInt(tmp[1]);
-                jsi = new JedisShardInfo(ip, port);
-                jedisShardInfos.add(jsi);
-            }
-            shardedJedisPool = new ShardedJedisPool(config, jedisShardInfos);
-        } else {
-            //String host = "172.16.10.160";
-            String port = null;
-            if (null != password && !"".equals(password)) {
-                jedisPool = new JedisPool(config, host, Protocol.DEFAULT_PORT, 100000, password);
-            }
-            jedisPool = new JedisPool(config, host, Protocol.DEFAULT_PORT, 100000);
-
-        }
-    }
-
-    /**
-     * Shuts-down the wrapped Ehcache CacheManager <b>only if implicitly
-     * created</b>.
-     * <p/>
-     * If another component injected a non-null CacheManager into this instace
-     * before calling {@link #init() init}, this instance expects that same
-     * component to also destroy the CacheManager instance, and it will not
-     * attempt to do so.
-     */
-    public void destroy() {
-        if (null != this.jedisPool) {
-            this.jedisPool.destroy();
-        }
-
-        if (null != this.shardedJedisPool) {
-            this.shardedJedisPool.destroy();
-        }
-    }
-
-    /**
-     * @return the sharded
-     */
-    public boolean isSharded() {
-        return sharded;
-    }
-
-    /**
-     * @param sharded the sharded to set
-     */
-    public void setSharded(boolean sharded) {
-        this.sharded = sharded;
-    }
-
-	public String getHost() {
-		return host;
-	}
-
-	public void setHost(String host) {
-		this.host = host;
-	}
-
-	public String getPassword() {
-		return password;
-	}
-
-	public void setPassword(String password) {
-		this.password = password;
-	}
-}
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisShardInfo;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.util.Pool;
+
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheManager;
+import com.bbkmobile.iqoo.cache.metrics.CacheStatsRegistry;
+import com.bbkmobile.iqoo.cache.metrics.InstrumentedCache;
+import com.bbkmobile.iqoo.cache.metrics.CacheStatsSnapshot;
+import com.bbkmobile.iqoo.cache.redis.serializer.CompactSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.CompressingSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.JacksonJsonRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.KeySerializers;
+import com.bbkmobile.iqoo.cache.redis.serializer.MeteredSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.RedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.SimpleSerializer;
+
+/**
+ * Shiro {@code CacheManager} implementation utilizing the Ehcache framework for
+ * all cache functionality.
+ * <p/>
+ * This class can {@link #setCacheManager(net.sf.ehcache.CacheManager) accept} a
+ * manually configured
+ * {@link net.sf.ehcache.CacheManager net.sf.ehcache.CacheManager} instance, or
+ * an {@code ehcache.xml} path location can be specified instead and one will be
+ * constructed. If neither are specified, Shiro's failsafe
+ * <code><a href="./ehcache.xml">ehcache.xml</a>} file will be used by default.
+ * <p/>
+ * This implementation requires EhCache 1.2 and above. Make sure EhCache 1.1 or
+ * earlier is not in the classpath or it will not work.
+ * <p/>
+ * Please see the <a href="http://ehcache.sf.net" target="_top">Ehcache
+ * website</a> for their documentation.
+ *
+ * @see <a href="http://ehcache.sf.net" target="_top">The Ehcache website</a>
+ * @since 0.2
+ */
+public class RedisCacheManager implements CacheManager{
+
+    /**
+     * This class's private log instance.
+     */
+    private static final Logger log = LoggerFactory.getLogger(RedisCacheManager.class);
+    /**
+     * Indicates if the CacheManager instance was implicitly/automatically
+     * created by this instance, indicating that it should be automatically
+     * cleaned up as well on shutdown.
+     */
+    private boolean cacheManagerImplicitlyCreated = false;
+    /**
+     * file location of the ehcache CacheManager config file.
+     */
+    private String cacheManagerConfigFile;
+    private boolean sharded = false;
+    private JedisPool jedisPool;
+    private ShardedJedisPool shardedJedisPool;
+    
+    private String host;
+    private String password;
+    /**
+     * Settings of the default pool, and defaults of the pools of the config
+     * file. The timeout applies to connecting and to every read.
+     */
+    private int timeout = 2000;
+    private int maxTotal = 8;
+    private int maxIdle = 8;
+    private int minIdle = 0;
+    private long maxWaitMillis = -1L;
+    private boolean testOnBorrow = false;
+    private long idleValidationMillis = 30000L;
+    private boolean warmUp = true;
+    /**
+     * Names of the caches served through a {@link RedisNearCache}.
+     */
+    private Set<String> nearCaches = new HashSet<String>();
+    private int nearCacheMaxSize = 10000;
+    private long nearCacheRevalidateMillis = 1000L;
+    /**
+     * Layout and default expiry applied to every cache created; {@code null}
+     * keeps the cache's own default.
+     */
+    private RedisLayout layout;
+    private Integer timeToLiveSeconds;
+    private Integer timeToIdleSeconds;
+    private Integer bucketCount;
+    private Integer scanCount;
+    /**
+     * Value size from which caches compress, {@code null} for no compression.
+     */
+    private Integer compressionThreshold;
+    /**
+     * Whether keys are encoded by {@link KeySerializers#forType(Class) type}
+     * rather than Java serialized or JSON encoded; off so that upgrading
+     * keeps reaching the entries already in Redis.
+     */
+    private boolean rawKeys = false;
+    /**
+     * Whether caches with raw keys still find, and move, entries stored under
+     * the previous key encoding; on only while switching to raw keys.
+     */
+    private boolean legacyKeyFallback = false;
+    /**
+     * Whether caches are wrapped in an {@link InstrumentedCache}.
+     */
+    private boolean instrumented = false;
+    private final CacheStatsRegistry stats = new CacheStatsRegistry();
+    /**
+     * Threads and queue of the executor running the asynchronous calls of
+     * every cache of this manager.
+     */
+    private int asyncThreads = 8;
+    private int asyncQueueSize = 1024;
+    private RedisAsyncExecutor asyncExecutor;
+    /**
+     * Names of the caches served through a {@link RedisWriteBehindCache}.
+     */
+    private Set<String> writeBehindCaches = new HashSet<String>();
+    private long writeBehindFlushMillis = 100L;
+    private int writeBehindMaxPending = 10000;
+    /**
+     * Load lease of every cache, see {@link AbstractRedisCache#setLoadLeaseMillis(long)}.
+     */
+    private long loadLeaseMillis = 0L;
+    /**
+     * Time to live of the negative entries of every cache, see
+     * {@link AbstractRedisCache#putAbsent(Object)}; 60 seconds if not set.
+     */
+    private Integer negativeTimeToLiveSeconds;
+    /**
+     * Writes single entries with Lua scripts, see
+     * {@link AbstractRedisCache#setAtomicWrites(boolean)}.
+     */
+    private boolean atomicWrites = false;
+    private final List<RedisWriteBehindCache<?, ?>> writeBehindInstances = new ArrayList<RedisWriteBehindCache<?, ?>>();
+    /**
+     * How often the membership filters of the caches configured with
+     * {@code bloomExpectedEntries} are synced with Redis and rebuilt, see
+     * {@link RedisMembershipFilter}.
+     */
+    private int bloomSyncSeconds = 30;
+    private int bloomRebuildSeconds = 3600;
+    private final List<RedisMembershipFilter> membershipFilters = new ArrayList<RedisMembershipFilter>();
+    /**
+     * Whether every pool gets a {@link CircuitBreaker}, with these
+     * thresholds.
+     */
+    private boolean circuitBreakerEnabled = false;
+    private double circuitBreakerFailureRate = 0.5;
+    private long circuitBreakerSlowCallMillis = 1000L;
+    private long circuitBreakerOpenMillis = 5000L;
+    private final Map<String, CircuitBreaker> circuitBreakers = new TreeMap<String, CircuitBreaker>();
+    /**
+     * Local caches serving the caches named in {@link #fallbackCaches}, or
+     * configured with {@code fallback}, while Redis is unavailable, see
+     * {@link RedisFailoverCache}.
+     */
+    private CacheManager fallbackCacheManager;
+    private Set<String> fallbackCaches = new HashSet<String>();
+    private int fallbackMaxBufferedWrites = 0;
+    private RedisInvalidationBus invalidationBus;
+    /**
+     * Caches are built once per name and shared by every caller, near caches
+     * in particular must share their local entries.
+     */
+    private final ConcurrentMap<String, Cache<?, ?>> cacheInstances = new ConcurrentHashMap<String, Cache<?, ?>>();
+    /**
+     * Settings read from {@link #cacheManagerConfigFile} by {@link #init()}.
+     */
+    private RedisCacheConfig cacheConfig;
+    private final Map<String, JedisPool> namedPools = new HashMap<String, JedisPool>();
+    private final Map<String, ShardedJedisPool> namedShardedPools = new HashMap<String, ShardedJedisPool>();
+    private final Map<String, JedisClusterExecutor> namedClusters = new HashMap<String, JedisClusterExecutor>();
+    /**
+     * Default no argument constructor
+     */
+    public RedisCacheManager() {
+    }
+
+    /**
+     * Returns the resource location of the config file used to initialize a new
+     * EhCache CacheManager instance. The string can be any resource path
+     * supported by the
+     * {@link org.apache.shiro.io.ResourceUtils#getInputStreamForPath(String)}
+     * call.
+     * <p/>
+     * This property is ignored if the CacheManager instance is injected
+     * directly - that is, it is only used to lazily create a CacheManager if
+     * one is not already provided.
+     *
+     * @return the resource location of the config file used to initialize the
+     * wrapped EhCache CacheManager instance.
+     * @see RedisCacheConfig
+     */
+    public String getCacheManagerConfigFile() {
+        return this.cacheManagerConfigFile;
+    }
+
+    /**
+     * Sets the resource location of the config file used to initialize the
+     * wrapped EhCache CacheManager instance. The string can be any resource
+     * path supported by the
+     * {@link org.apache.shiro.io.ResourceUtils#getInputStreamForPath(String)}
+     * call.
+     * <p/>
+     * This property is ignored if the CacheManager instance is injected
+     * directly - that is, it is only used to lazily create a CacheManager if
+     * one is not already provided.
+     *
+     * @param classpathLocation resource location of the config file used to
+     * create the wrapped EhCache CacheManager instance; for this manager the
+     * per-cache settings described in {@link RedisCacheConfig}, read by
+     * {@link #init()}.
+     */
+    public void setCacheManagerConfigFile(String classpathLocation) {
+        this.cacheManagerConfigFile = classpathLocation;
+    }
+
+    /**
+     * Loads an existing EhCache from the cache manager, or starts a new cache
+     * if one is not found.
+     *
+     * @param name the name of the cache to load/create.
+     */
+    @Override
+    public final <K, V> Cache<K, V> getCache(String name) throws CacheException {
+        return getCache(name, null, null);
+    }
+
+    /**
+     * Returns the cache named {@code name}, building it on first use from the
+     * properties of this manager and the settings of the
+     * {@link #setCacheManagerConfigFile(String) config file}. Later calls get
+     * the same instance, whatever types they ask for.
+     *
+     * @param keyType the key type, {@code null} for Java serialized keys
+     * @param valueType the value type, {@code null} for Java serialized values
+     */
+    @SuppressWarnings("unchecked")
+    public final <K, V> Cache<K, V> getCache(String name, Class<K> keyType, Class<V> valueType) throws CacheException {
+        Cache<?, ?> cache = cacheInstances.get(name);
+        if (cache != null) {
+            return (Cache<K, V>) cache;
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Acquiring RedisCache instance named [" + name + "]");
+        }
+        synchronized (cacheInstances) {
+            cache = cacheInstances.get(name);
+            if (cache == null) {
+                try {
+                    cache = createCache(name, keyType, valueType);
+                } catch (CacheException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CacheException(e);
+                }
+                cacheInstances.put(name, cache);
+            }
+        }
+        return (Cache<K, V>) cache;
+    }
+
+    private <K, V> Cache<K, V> createCache(String name, Class<K> keyType, Class<V> valueType) throws Exception {
+        RedisCacheConfig.CacheSettings settings = cacheConfig == null ? new RedisCacheConfig.CacheSettings()
+                : cacheConfig.getSettings(name);
+        String pool = settings.getPool();
+        if (pool != null && !namedPools.containsKey(pool) && !namedShardedPools.containsKey(pool)
+                && !namedClusters.containsKey(pool)) {
+            throw new CacheException("Cache " + name + " uses the undefined pool " + pool);
+        }
+        AbstractRedisCache<K, V> remote;
+        ShardedJedisPool sharded = pool == null ? (isSharded() ? shardedJedisPool : null) : namedShardedPools.get(pool);
+        JedisClusterExecutor cluster = pool == null ? null : namedClusters.get(pool);
+        if (cluster != null) {
+            remote = keyType == null ? new RedisClusterCache<K, V>(name, cluster)
+                    : new RedisClusterCache<K, V>(name, cluster, keyType, valueType);
+        } else if (sharded != null) {
+            // sharded caches have always been Java serialized, typed or not
+            remote = new RedisShardedCache<K, V>(name, sharded);
+        } else {
+            JedisPool single = pool == null ? jedisPool : namedPools.get(pool);
+            remote = keyType == null ? new RedisNativeCache<K, V>(name, single)
+                    : new RedisNativeCache<K, V>(name, single, keyType, valueType);
+        }
+        configure(remote, keyType, valueType, settings);
+        if (circuitBreakerEnabled) {
+            remote.getExecutor().setCircuitBreaker(getCircuitBreaker(pool == null ? "default" : pool));
+        }
+        int nearSize = settings.getNearCacheMaxSize() != null ? settings.getNearCacheMaxSize()
+                : nearCaches.contains(name) ? nearCacheMaxSize : 0;
+        boolean writeBehind = settings.getWriteBehind() != null ? settings.getWriteBehind()
+                : writeBehindCaches.contains(name);
+        Cache<K, V> cache;
+        if (writeBehind) {
+            if (nearSize > 0) {
+                throw new CacheException("Cache " + name + " cannot be both a near and a write-behind cache.");
+            }
+            RedisWriteBehindCache<K, V> behind = new RedisWriteBehindCache<K, V>(remote, writeBehindFlushMillis,
+                    writeBehindMaxPending);
+            synchronized (writeBehindInstances) {
+                writeBehindInstances.add(behind);
+            }
+            cache = behind;
+        } else if (nearSize > 0) {
+            RedisNearCache<K, V> near = new RedisNearCache<K, V>(remote, getInvalidationBus(), nearSize);
+            near.setRevalidateMillis(nearCacheRevalidateMillis);
+            cache = near;
+        } else if (remote instanceof RedisNativeCache) {
+            cache = new RedisCache<K, V>((RedisNativeCache<K, V>) remote);
+        } else {
+            cache = remote;
+        }
+        boolean failover = settings.getFallback() != null ? settings.getFallback() : fallbackCaches.contains(name);
+        if (failover) {
+            if (fallbackCacheManager == null) {
+                throw new CacheException("Cache " + name + " needs a fallbackCacheManager.");
+            }
+            Cache<K, V> local = fallbackCacheManager.getCache(name);
+            cache = new RedisFailoverCache<K, V>(cache, local, fallbackMaxBufferedWrites);
+        }
+        return instrument(name, cache);
+    }
+
+    /**
+     * Applies the settings of the cache, or else those of this manager.
+     *
+     * @param keyType the key type the cache was asked for, {@code null} if
+     * untyped
+     */
+    private <K, V> AbstractRedisCache<K, V> configure(AbstractRedisCache<K, V> cache, Class<K> keyType,
+            Class<V> valueType, RedisCacheConfig.CacheSettings settings) throws Exception {
+        if (rawKeys) {
+            RedisSerializer<K> legacy = cache.getKeySerializer();
+            cache.setKeySerializer(KeySerializers.forType(keyType));
+            cache.setLegacyKeySerializer(legacyKeyFallback ? legacy : null);
+        }
+        if (settings.getSerializer() != null) {
+            cache.setValueSerializer(RedisCacheManager.<V>valueSerializer(cache.getName(), settings.getSerializer(),
+                    valueType));
+        }
+        Integer buckets = settings.getBucketCount() != null ? settings.getBucketCount() : bucketCount;
+        if (buckets != null) {
+            cache.setBucketCount(buckets);
+        }
+        if (scanCount != null) {
+            cache.setScanCount(scanCount);
+        }
+        Integer threshold = settings.getCompressionThreshold() != null ? settings.getCompressionThreshold()
+                : compressionThreshold;
+        if (threshold != null) {
+            cache.setValueSerializer(new CompressingSerializer<V>(cache.getValueSerializer(), threshold));
+        }
+        RedisLayout cacheLayout = settings.getLayout() != null ? settings.getLayout() : layout;
+        if (cacheLayout != null) {
+            cache.setLayout(cacheLayout);
+        }
+        Integer ttl = settings.getTimeToLiveSeconds() != null ? settings.getTimeToLiveSeconds() : timeToLiveSeconds;
+        if (ttl != null) {
+            cache.setTimeToLiveSeconds(ttl);
+        }
+        Integer tti = settings.getTimeToIdleSeconds() != null ? settings.getTimeToIdleSeconds() : timeToIdleSeconds;
+        if (tti != null) {
+            cache.setTimeToIdleSeconds(tti);
+        }
+        cache.setLoadLeaseMillis(settings.getLoadLeaseMillis() != null ? settings.getLoadLeaseMillis()
+                : loadLeaseMillis);
+        Integer negativeTtl = settings.getNegativeTimeToLiveSeconds() != null ? settings.getNegativeTimeToLiveSeconds()
+                : negativeTimeToLiveSeconds;
+        if (negativeTtl != null) {
+            cache.setNegativeTimeToLiveSeconds(negativeTtl);
+        }
+        cache.setAtomicWrites(settings.getAtomicWrites() != null ? settings.getAtomicWrites() : atomicWrites);
+        if (settings.getBloomExpectedEntries() != null && settings.getBloomExpectedEntries() > 0) {
+            RedisMembershipFilter filter = cache.enableMembershipFilter(settings.getBloomExpectedEntries(),
+                    settings.getBloomFalsePositiveRate() != null ? settings.getBloomFalsePositiveRate() : 0.01,
+                    settings.getBloomMaxBytes() != null ? settings.getBloomMaxBytes() : 4L << 20,
+                    bloomSyncSeconds, bloomRebuildSeconds);
+            synchronized (membershipFilters) {
+                membershipFilters.add(filter);
+            }
+        }
+        cache.setAsyncExecutor(getAsyncExecutor());
+        if (instrumented) {
+            cache.setKeySerializer(new MeteredSerializer<K>(cache.getKeySerializer()));
+            cache.setValueSerializer(new MeteredSerializer<V>(cache.getValueSerializer()));
+        }
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> RedisSerializer<V> valueSerializer(String cacheName, String name, Class<V> valueType)
+            throws CacheException {
+        if ("java".equals(name)) {
+            return new SimpleSerializer<V>();
+        }
+        if ("json".equals(name)) {
+            if (valueType == null) {
+                throw new CacheException("The json serializer of cache " + cacheName + " needs its value type.");
+            }
+            return new JacksonJsonRedisSerializer<V>(valueType);
+        }
+        if ("compact".equals(name)) {
+            return new CompactSerializer<V>();
+        }
+        try {
+            return (RedisSerializer<V>) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new CacheException("Cannot create the serializer " + name + " of cache " + cacheName, e);
+        }
+    }
+
+    private <K, V> Cache<K, V> instrument(String name, Cache<K, V> cache) {
+        return instrumented ? stats.instrument(name, cache) : cache;
+    }
+
+    /**
+     * @return hit, latency and size statistics of every instrumented cache,
+     * by name
+     */
+    public Map<String, CacheStatsSnapshot> getStats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * @return the statistics of one cache, {@code null} if it is not
+     * instrumented
+     */
+    public CacheStatsSnapshot getStats(String name) {
+        return stats.snapshot(name);
+    }
+
+    /**
+     * @return the number of writes waiting in each write-behind cache, by
+     * name
+     */
+    public Map<String, Integer> getWriteBehindPending() {
+        Map<String, Integer> pending = new TreeMap<String, Integer>();
+        synchronized (writeBehindInstances) {
+            for (RedisWriteBehindCache<?, ?> cache : writeBehindInstances) {
+                pending.put(cache.getCache().getName(), cache.getPendingCount());
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the circuit breaker of a pool, creating it on first use.
+     *
+     * @param pool the pool name, {@code default} for the pool of this
+     * manager
+     */
+    public CircuitBreaker getCircuitBreaker(String pool) {
+        synchronized (circuitBreakers) {
+            CircuitBreaker breaker = circuitBreakers.get(pool);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(pool);
+                breaker.setFailureRateThreshold(circuitBreakerFailureRate);
+                breaker.setSlowCallMillis(circuitBreakerSlowCallMillis);
+                breaker.setOpenMillis(circuitBreakerOpenMillis);
+                circuitBreakers.put(pool, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * @return the state of the breaker of every pool used so far, by pool
+     * name
+     */
+    public Map<String, CircuitBreaker.State> getCircuitBreakerStates() {
+        Map<String, CircuitBreaker.State> states = new TreeMap<String, CircuitBreaker.State>();
+        synchronized (circuitBreakers) {
+            for (CircuitBreaker breaker : circuitBreakers.values()) {
+                states.put(breaker.getName(), breaker.getState());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Returns the executor of the asynchronous cache calls, starting it on
+     * first use.
+     */
+    public synchronized RedisAsyncExecutor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = new RedisAsyncExecutor("redis-cache-async", asyncThreads, asyncQueueSize);
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Returns the bus near caches use to exchange invalidations, starting it
+     * on first use.
+     */
+    public synchronized RedisInvalidationBus getInvalidationBus() {
+        if (invalidationBus == null) {
+            RedisExecutor executor = this.isSharded() && null != shardedJedisPool
+                    ? new ShardedJedisPoolExecutor(shardedJedisPool) : new JedisPoolExecutor(jedisPool);
+            invalidationBus = new RedisInvalidationBus(executor);
+            invalidationBus.start();
+        }
+        return invalidationBus;
+    }
+
+    /**
+     * Initializes this instance.
+     * <p/>
+     * If a {@link #setCacheManager CacheManager} has been explicitly set (e.g.
+     * via Dependency Injection or programatically) prior to calling this
+     * method, this method does nothing.
+     * <p/>
+     * However, if no {@code CacheManager} has been set, the default Ehcache
+     * singleton will be initialized, where Ehcache will look for an
+     * {@code ehcache.xml} file at the root of the classpath. If one is not
+     * found, Ehcache will use its own failsafe configuration file.
+     * <p/>
+     * Because Shiro cannot use the failsafe defaults (fail-safe expunges cached
+     * objects after 2 minutes, something not desirable for Shiro sessions),
+     * this class manages an internal default configuration for this case.
+     *
+     * @throws org.apache.shiro.cache.CacheException if there are any
+     * CacheExceptions thrown by EhCache.
+     * @see net.sf.ehcache.CacheManager#create
+     */
+    public final void init() throws CacheException {
+        if(host == null || host.trim().length() == 0){
+        	host = "127.0.0.1";//TODO
+        }
+        RedisCacheConfig.PoolSettings defaults = new RedisCacheConfig.PoolSettings();
+        defaults.hosts = host;
+        defaults.password = password;
+        if (isSharded()) {
+            shardedJedisPool = new ShardedJedisPool(poolConfig("default", defaults), shards(defaults));
+            warmUp("default", shardedJedisPool, minIdle);
+        } else {
+            JedisShardInfo shard = shards(defaults).get(0);
+            jedisPool = new JedisPool(poolConfig("default", defaults), shard.getHost(), shard.getPort(),
+                    shard.getTimeout(), shard.getPassword());
+            warmUp("default", jedisPool, minIdle);
+        }
+        if (cacheManagerConfigFile != null) {
+            cacheConfig = RedisCacheConfig.load(cacheManagerConfigFile);
+            for (Map.Entry<String, RedisCacheConfig.PoolSettings> pool : cacheConfig.getPools().entrySet()) {
+                createPool(pool.getKey(), pool.getValue());
+            }
+        }
+    }
+
+    /**
+     * Creates a pool declared in the config file, sharded when it lists
+     * several hosts, or one pool per master of a cluster.
+     */
+    private void createPool(String name, RedisCacheConfig.PoolSettings settings) {
+        JedisPoolConfig config = poolConfig(name, settings);
+        List<JedisShardInfo> shards = shards(settings);
+        if (settings.isCluster()) {
+            List<HostAndPort> seeds = new ArrayList<HostAndPort>();
+            for (JedisShardInfo shard : shards) {
+                seeds.add(new HostAndPort(shard.getHost(), shard.getPort()));
+            }
+            JedisClusterExecutor cluster = new JedisClusterExecutor(seeds, config, shards.get(0).getTimeout(),
+                    shards.get(0).getPassword(), settings.getParallelism() != null ? settings.getParallelism() : 8);
+            namedClusters.put(name, cluster);
+            for (Map.Entry<String, Pool<Jedis>> node : cluster.getPools().entrySet()) {
+                warmUp(name + "@" + node.getKey(), node.getValue(), config.getMinIdle());
+            }
+        } else if (settings.isSharded()) {
+            ShardedJedisPool pool = new ShardedJedisPool(config, shards);
+            namedShardedPools.put(name, pool);
+            warmUp(name, pool, config.getMinIdle());
+        } else {
+            JedisShardInfo shard = shards.get(0);
+            JedisPool pool = new JedisPool(config, shard.getHost(), shard.getPort(), shard.getTimeout(),
+                    shard.getPassword());
+            namedPools.put(name, pool);
+            warmUp(name, pool, config.getMinIdle());
+        }
+    }
+
+    /**
+     * Connections are checked by the pool's evictor while idle rather than
+     * with a {@code PING} on every borrow, which would double the round trips
+     * of every cache call.
+     */
+    private JedisPoolConfig poolConfig(String name, RedisCacheConfig.PoolSettings settings) {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(settings.getMaxTotal() != null ? settings.getMaxTotal() : maxTotal);
+        config.setMaxIdle(settings.getMaxIdle() != null ? settings.getMaxIdle()
+                : settings.getMaxTotal() != null ? settings.getMaxTotal() : maxIdle);
+        config.setMinIdle(Math.min(settings.getMinIdle() != null ? settings.getMinIdle() : minIdle,
+                config.getMaxIdle()));
+        config.setMaxWaitMillis(settings.getMaxWaitMillis() != null ? settings.getMaxWaitMillis() : maxWaitMillis);
+        config.setTestOnBorrow(testOnBorrow);
+        long validation = settings.getIdleValidationMillis() != null ? settings.getIdleValidationMillis()
+                : idleValidationMillis;
+        config.setTestWhileIdle(validation > 0);
+        config.setTimeBetweenEvictionRunsMillis(validation > 0 ? validation : -1L);
+        config.setNumTestsPerEvictionRun(-1);
+        config.setJmxNamePrefix("redis-pool-" + name.replaceAll("[^A-Za-z0-9._-]", "_"));
+        return config;
+    }
+
+    private List<JedisShardInfo> shards(RedisCacheConfig.PoolSettings settings) {
+        int shardTimeout = settings.getTimeout() != null ? settings.getTimeout() : timeout;
+        List<JedisShardInfo> shards = new ArrayList<JedisShardInfo>();
+        for (String h : settings.getHosts().split(";")) {
+            String[] tmp = h.trim().split(":");
+            int port = tmp.length > 1 ? Integer.parseInt(tmp[1]) : Protocol.DEFAULT_PORT;
+            JedisShardInfo shard = new JedisShardInfo(tmp[0], port, shardTimeout);
+            if (settings.getPassword() != null && settings.getPassword().length() > 0) {
+                shard.setPassword(settings.getPassword());
+            }
+            shards.add(shard);
+        }
+        return shards;
+    }
+
+    /**
+     * Opens {@code count} connections up front so the first requests do not
+     * pay for connecting; an unreachable server only logs a warning. A
+     * sharded connection connects to its shards lazily, so each of them is
+     * pinged.
+     */
+    private <T> void warmUp(String name, Pool<T> pool, int count) {
+        if (!warmUp || count <= 0) {
+            return;
+        }
+        List<T> borrowed = new ArrayList<T>(count);
+        int expected = count;
+        int opened = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                T connection = pool.getResource();
+                borrowed.add(connection);
+                if (connection instanceof ShardedJedis) {
+                    Collection<Jedis> shards = ((ShardedJedis) connection).getAllShards();
+                    expected = count * shards.size();
+                    for (Jedis shard : shards) {
+                        shard.ping();
+                        opened++;
+                    }
+                } else {
+                    opened++;
+                }
+            }
+            log.info("Warmed up Redis pool [" + name + "], opened " + opened + " connections");
+        } catch (RuntimeException e) {
+            log.warn("Could not warm up Redis pool [" + name + "], opened " + opened + " of " + expected
+                    + " connections", e);
+            if (!borrowed.isEmpty()) {
+                // a sharded connection may be left half connected
+                pool.returnBrokenResource(borrowed.remove(borrowed.size() - 1));
+            }
+        } finally {
+            for (T connection : borrowed) {
+                pool.returnResource(connection);
+            }
+        }
+    }
+
+    /**
+     * @return the current figures of every pool, by name; the pool of this
+     * manager is {@code default}, a master of a cluster pool
+     * {@code <pool>@<host>:<port>}
+     */
+    public Map<String, RedisPoolStats> getPoolStats() {
+        Map<String, RedisPoolStats> stats = new TreeMap<String, RedisPoolStats>();
+        Pool<?> pool = isSharded() ? shardedJedisPool : jedisPool;
+        if (pool != null) {
+            stats.put("default", RedisPoolStats.of("default", pool));
+        }
+        for (Map.Entry<String, JedisPool> named : namedPools.entrySet()) {
+            stats.put(named.getKey(), RedisPoolStats.of(named.getKey(), named.getValue()));
+        }
+        for (Map.Entry<String, ShardedJedisPool> named : namedShardedPools.entrySet()) {
+            stats.put(named.getKey(), RedisPoolStats.of(named.getKey(), named.getValue()));
+        }
+        for (Map.Entry<String, JedisClusterExecutor> named : namedClusters.entrySet()) {
+            for (Map.Entry<String, Pool<Jedis>> node : named.getValue().getPools().entrySet()) {
+                String nodeName = named.getKey() + "@" + node.getKey();
+                stats.put(nodeName, RedisPoolStats.of(nodeName, node.getValue()));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Shuts-down the wrapped Ehcache CacheManager <b>only if implicitly
+     * created</b>.
+     * <p/>
+     * If another component injected a non-null CacheManager into this instace
+     * before calling {@link #init() init}, this instance expects that same
+     * component to also destroy the CacheManager instance, and it will not
+     * attempt to do so.
+     */
+    public void destroy() {
+        synchronized (writeBehindInstances) {
+            for (RedisWriteBehindCache<?, ?> cache : writeBehindInstances) {
+                cache.close();
+            }
+            writeBehindInstances.clear();
+        }
+        synchronized (membershipFilters) {
+            for (RedisMembershipFilter filter : membershipFilters) {
+                filter.close();
+            }
+            membershipFilters.clear();
+        }
+        synchronized (this) {
+            if (null != this.invalidationBus) {
+                this.invalidationBus.shutdown();
+                this.invalidationBus = null;
+            }
+            if (null != this.asyncExecutor) {
+                this.asyncExecutor.shutdown();
+                this.asyncExecutor = null;
+            }
+        }
+        cacheInstances.clear();
+        for (JedisPool pool : namedPools.values()) {
+            pool.destroy();
+        }
+        namedPools.clear();
+        for (ShardedJedisPool pool : namedShardedPools.values()) {
+            pool.destroy();
+        }
+        namedShardedPools.clear();
+        for (JedisClusterExecutor cluster : namedClusters.values()) {
+            cluster.close();
+        }
+        namedClusters.clear();
+        if (null != this.jedisPool) {
+            this.jedisPool.destroy();
+        }
+
+        if (null != this.shardedJedisPool) {
+            this.shardedJedisPool.destroy();
+        }
+    }
+
+    /**
+     * @return the sharded
+     */
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * @param sharded the sharded to set
+     */
+    public void setSharded(boolean sharded) {
+        this.sharded = sharded;
+    }
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout the connect and read timeout in milliseconds
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	public int getMaxTotal() {
+		return maxTotal;
+	}
+
+	public void setMaxTotal(int maxTotal) {
+		this.maxTotal = maxTotal;
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * @param minIdle the idle connections kept open, and opened by the
+	 * {@link #setWarmUp(boolean) warm-up}
+	 */
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public long getMaxWaitMillis() {
+		return maxWaitMillis;
+	}
+
+	/**
+	 * @param maxWaitMillis how long a call waits for a connection of an
+	 * exhausted pool before failing; negative to wait for ever
+	 */
+	public void setMaxWaitMillis(long maxWaitMillis) {
+		this.maxWaitMillis = maxWaitMillis;
+	}
+
+	public boolean isTestOnBorrow() {
+		return testOnBorrow;
+	}
+
+	/**
+	 * @param testOnBorrow whether every borrow is preceded by a {@code PING};
+	 * off by default, idle connections being validated in the background
+	 */
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		this.testOnBorrow = testOnBorrow;
+	}
+
+	public long getIdleValidationMillis() {
+		return idleValidationMillis;
+	}
+
+	/**
+	 * @param idleValidationMillis how often idle connections are checked,
+	 * and dropped when broken or idle for over a minute; 0 or less never
+	 */
+	public void setIdleValidationMillis(long idleValidationMillis) {
+		this.idleValidationMillis = idleValidationMillis;
+	}
+
+	public boolean isWarmUp() {
+		return warmUp;
+	}
+
+	/**
+	 * @param warmUp whether {@link #init()} opens the {@code minIdle}
+	 * connections of every pool
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	public Set<String> getNearCaches() {
+		return nearCaches;
+	}
+
+	/**
+	 * @param nearCaches names of the caches to serve through a
+	 * {@link RedisNearCache}
+	 */
+	public void setNearCaches(Set<String> nearCaches) {
+		this.nearCaches = nearCaches == null ? new HashSet<String>() : new HashSet<String>(nearCaches);
+	}
+
+	public int getNearCacheMaxSize() {
+		return nearCacheMaxSize;
+	}
+
+	public void setNearCacheMaxSize(int nearCacheMaxSize) {
+		this.nearCacheMaxSize = nearCacheMaxSize;
+	}
+
+	public long getNearCacheRevalidateMillis() {
+		return nearCacheRevalidateMillis;
+	}
+
+	public void setNearCacheRevalidateMillis(long nearCacheRevalidateMillis) {
+		this.nearCacheRevalidateMillis = nearCacheRevalidateMillis;
+	}
+
+	public RedisLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * @param layout how the caches created from now on lay out their entries
+	 * in Redis
+	 */
+	public void setLayout(RedisLayout layout) {
+		this.layout = layout;
+	}
+
+	public Integer getTimeToLiveSeconds() {
+		return timeToLiveSeconds;
+	}
+
+	/**
+	 * @param timeToLiveSeconds default time to live of the caches created from
+	 * now on, 0 for none
+	 */
+	public void setTimeToLiveSeconds(Integer timeToLiveSeconds) {
+		this.timeToLiveSeconds = timeToLiveSeconds;
+	}
+
+	public Integer getTimeToIdleSeconds() {
+		return timeToIdleSeconds;
+	}
+
+	/**
+	 * @param timeToIdleSeconds default time to idle of the caches created from
+	 * now on, 0 for none; needs the {@link RedisLayout#ENTRY_KEY} layout
+	 */
+	public void setTimeToIdleSeconds(Integer timeToIdleSeconds) {
+		this.timeToIdleSeconds = timeToIdleSeconds;
+	}
+
+	public Integer getBucketCount() {
+		return bucketCount;
+	}
+
+	/**
+	 * @param bucketCount number of hashes each cache is split into with the
+	 * {@link RedisLayout#BUCKETED} layout
+	 */
+	public void setBucketCount(Integer bucketCount) {
+		this.bucketCount = bucketCount;
+	}
+
+	public Integer getScanCount() {
+		return scanCount;
+	}
+
+	/**
+	 * @param scanCount entries fetched per round trip when iterating over
+	 * the keys or values of a cache
+	 */
+	public void setScanCount(Integer scanCount) {
+		this.scanCount = scanCount;
+	}
+
+	public Integer getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * @param compressionThreshold serialized value size, in bytes, from which
+	 * the caches created from now on deflate their values; the counters are
+	 * on each cache's {@link CompressingSerializer}
+	 */
+	public void setCompressionThreshold(Integer compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public boolean isRawKeys() {
+		return rawKeys;
+	}
+
+	/**
+	 * Switching an existing deployment over changes the key bytes of every
+	 * String and numeric key, so it goes in this order:
+	 * <ol>
+	 * <li>deploy every JVM with raw keys and the
+	 * {@link #setLegacyKeyFallback(boolean) legacy key fallback} on; until no
+	 * JVM of the former version is left, a remove made by one of them misses
+	 * the entries moved to raw keys, so caches that must not serve a stale
+	 * value are {@link AbstractRedisCache#clear() cleared} once it is
+	 * gone;</li>
+	 * <li>run {@link AbstractRedisCache#migrateKeys()} on every cache;</li>
+	 * <li>deploy again with the fallback off.</li>
+	 * </ol>
+	 *
+	 * @param rawKeys whether the caches created from now on encode keys as
+	 * raw UTF-8 or fixed width numbers, see {@link KeySerializers};
+	 * {@code false} by default
+	 */
+	public void setRawKeys(boolean rawKeys) {
+		this.rawKeys = rawKeys;
+	}
+
+	public boolean isLegacyKeyFallback() {
+		return legacyKeyFallback;
+	}
+
+	/**
+	 * @param legacyKeyFallback whether caches with raw keys retry a miss with
+	 * the former key encoding and move what they find, {@code false} by
+	 * default; turn it on with {@link #setRawKeys(boolean) raw keys}, for the
+	 * switch-over only
+	 */
+	public void setLegacyKeyFallback(boolean legacyKeyFallback) {
+		this.legacyKeyFallback = legacyKeyFallback;
+	}
+
+	public boolean isInstrumented() {
+		return instrumented;
+	}
+
+	/**
+	 * @param instrumented whether the caches created from now on are returned
+	 * wrapped in an {@link InstrumentedCache}, their statistics being read
+	 * with {@link #getStats()}
+	 */
+	public void setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+	}
+
+	public int getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	/**
+	 * @param asyncThreads how many asynchronous cache calls run at once; keep
+	 * it at or below the connections of the pool
+	 */
+	public void setAsyncThreads(int asyncThreads) {
+		this.asyncThreads = asyncThreads;
+	}
+
+	public int getAsyncQueueSize() {
+		return asyncQueueSize;
+	}
+
+	/**
+	 * @param asyncQueueSize how many asynchronous cache calls may wait for a
+	 * thread before new ones fail
+	 */
+	public void setAsyncQueueSize(int asyncQueueSize) {
+		this.asyncQueueSize = asyncQueueSize;
+	}
+
+	public Set<String> getWriteBehindCaches() {
+		return writeBehindCaches;
+	}
+
+	/**
+	 * @param writeBehindCaches names of the caches whose writes are queued
+	 * and flushed in the background, see {@link RedisWriteBehindCache}
+	 */
+	public void setWriteBehindCaches(Set<String> writeBehindCaches) {
+		this.writeBehindCaches = writeBehindCaches == null ? new HashSet<String>()
+				: new HashSet<String>(writeBehindCaches);
+	}
+
+	public long getWriteBehindFlushMillis() {
+		return writeBehindFlushMillis;
+	}
+
+	public void setWriteBehindFlushMillis(long writeBehindFlushMillis) {
+		this.writeBehindFlushMillis = writeBehindFlushMillis;
+	}
+
+	public int getWriteBehindMaxPending() {
+		return writeBehindMaxPending;
+	}
+
+	public void setWriteBehindMaxPending(int writeBehindMaxPending) {
+		this.writeBehindMaxPending = writeBehindMaxPending;
+	}
+
+	public long getLoadLeaseMillis() {
+		return loadLeaseMillis;
+	}
+
+	public void setLoadLeaseMillis(long loadLeaseMillis) {
+		this.loadLeaseMillis = loadLeaseMillis;
+	}
+
+	public Integer getNegativeTimeToLiveSeconds() {
+		return negativeTimeToLiveSeconds;
+	}
+
+	public void setNegativeTimeToLiveSeconds(Integer negativeTimeToLiveSeconds) {
+		this.negativeTimeToLiveSeconds = negativeTimeToLiveSeconds;
+	}
+
+	public boolean isAtomicWrites() {
+		return atomicWrites;
+	}
+
+	public void setAtomicWrites(boolean atomicWrites) {
+		this.atomicWrites = atomicWrites;
+	}
+
+	public boolean isCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+		this.circuitBreakerEnabled = circuitBreakerEnabled;
+	}
+
+	public double getCircuitBreakerFailureRate() {
+		return circuitBreakerFailureRate;
+	}
+
+	public void setCircuitBreakerFailureRate(double circuitBreakerFailureRate) {
+		this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+	}
+
+	public long getCircuitBreakerSlowCallMillis() {
+		return circuitBreakerSlowCallMillis;
+	}
+
+	public void setCircuitBreakerSlowCallMillis(long circuitBreakerSlowCallMillis) {
+		this.circuitBreakerSlowCallMillis = circuitBreakerSlowCallMillis;
+	}
+
+	public long getCircuitBreakerOpenMillis() {
+		return circuitBreakerOpenMillis;
+	}
+
+	public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+		this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+	}
+
+	public CacheManager getFallbackCacheManager() {
+		return fallbackCacheManager;
+	}
+
+	/**
+	 * @param fallbackCacheManager provides the local cache of the same name,
+	 * e.g. an {@code EhcachCacheManager}
+	 */
+	public void setFallbackCacheManager(CacheManager fallbackCacheManager) {
+		this.fallbackCacheManager = fallbackCacheManager;
+	}
+
+	public Set<String> getFallbackCaches() {
+		return fallbackCaches;
+	}
+
+	public void setFallbackCaches(Set<String> fallbackCaches) {
+		this.fallbackCaches = fallbackCaches == null ? new HashSet<String>()
+				: new HashSet<String>(fallbackCaches);
+	}
+
+	public int getFallbackMaxBufferedWrites() {
+		return fallbackMaxBufferedWrites;
+	}
+
+	/**
+	 * @param fallbackMaxBufferedWrites the most keys whose puts during an
+	 * outage are replayed to Redis; 0, the default, skips them. Removes are
+	 * always replayed
+	 */
+	public void setFallbackMaxBufferedWrites(int fallbackMaxBufferedWrites) {
+		this.fallbackMaxBufferedWrites = fallbackMaxBufferedWrites;
+	}
+
+	public int getBloomSyncSeconds() {
+		return bloomSyncSeconds;
+	}
+
+	public void setBloomSyncSeconds(int bloomSyncSeconds) {
+		this.bloomSyncSeconds = bloomSyncSeconds;
+	}
+
+	public int getBloomRebuildSeconds() {
+		return bloomRebuildSeconds;
+	}
+
+	public void setBloomRebuildSeconds(int bloomRebuildSeconds) {
+		this.bloomRebuildSeconds = bloomRebuildSeconds;
+	}
+}
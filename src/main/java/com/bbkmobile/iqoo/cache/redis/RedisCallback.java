@@ -0,0 +1,22 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * Callback interface for code that operates on a borrowed
+ * {@link RedisConnection}. The {@link RedisExecutor} takes care of borrowing
+ * and returning the underlying pooled resource.
+ *
+ * @author lqzhai
+ */
+public interface RedisCallback<T> {
+
+    /**
+     * Gets called by {@link RedisExecutor#execute} with an active connection.
+     *
+     * @param connection the borrowed connection, only valid during the call
+     * @return a result object, or {@code null} if none
+     * @throws SerializationException if a key or value cannot be (de)serialized
+     */
+    T doInRedis(RedisConnection connection) throws SerializationException;
+}
@@ -0,0 +1,53 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import com.bbkmobile.iqoo.cache.redis.serializer.JacksonJsonRedisSerializer;
+import com.bbkmobile.iqoo.cache.redis.serializer.SimpleSerializer;
+
+/**
+ * Cache on a Redis Cluster. The Redis keys carry hash tags so that the keys a
+ * command or script touches together share a slot: one tag per hash or
+ * bucket, and for {@link RedisLayout#ENTRY_KEY} one per field, spreading the
+ * entries over the masters.
+ *
+ * <p>A single hash lives on one master, so the cache is
+ * {@link RedisLayout#BUCKETED} unless told otherwise; use as many buckets as
+ * masters or more.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisClusterCache<K, V> extends AbstractRedisCache<K, V> {
+
+    public RedisClusterCache(String cacheName, JedisClusterExecutor executor) {
+        super(checkName(cacheName), executor, new SimpleSerializer<K>(), new SimpleSerializer<V>());
+        setLayout(RedisLayout.BUCKETED);
+    }
+
+    public RedisClusterCache(String cacheName, JedisClusterExecutor executor, Class<K> keyType,
+            Class<V> valueType) {
+        super(checkName(cacheName), executor, new JacksonJsonRedisSerializer<K>(keyType),
+                new JacksonJsonRedisSerializer<V>(valueType));
+        setLayout(RedisLayout.BUCKETED);
+    }
+
+    @Override
+    protected RedisStorage createStorage(RedisLayout layout) {
+        switch (layout) {
+            case ENTRY_KEY:
+                return new KeyStorage(cacheName, true);
+            case BUCKETED:
+                return new BucketStorage(cacheName, getBucketCount(), true);
+            default:
+                return new HashStorage(cacheName, true);
+        }
+    }
+
+    /**
+     * A brace in the name would end the hash tag early.
+     */
+    private static String checkName(String cacheName) {
+        if (cacheName != null && (cacheName.indexOf('{') >= 0 || cacheName.indexOf('}') >= 0)) {
+            throw new IllegalArgumentException("Cluster cache name cannot contain braces: " + cacheName);
+        }
+        return cacheName;
+    }
+}
@@ -0,0 +1,32 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Collection;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * A borrowed connection to one or more Redis nodes.
+ *
+ * <p>A plain pool exposes a single node, a sharded pool exposes one node per
+ * shard. Callers route every command through {@link #getNode(byte[])} so the
+ * same code works on both.</p>
+ *
+ * @author lqzhai
+ */
+public interface RedisConnection {
+
+    /**
+     * Returns the node that owns the given Redis key.
+     *
+     * @param key the raw Redis key
+     * @return the connection to the owning node
+     */
+    Jedis getNode(byte[] key);
+
+    /**
+     * Returns a connection to every node behind this connection.
+     *
+     * @return all nodes, never empty
+     */
+    Collection<Jedis> getNodes();
+}
@@ -0,0 +1,55 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Borrows a connection from a pool, runs a {@link RedisCallback} on it and
+ * returns the connection, translating connection and serialization failures
+ * into {@link CacheException}s.
+ *
+ * <p>With a {@link #setCircuitBreaker(CircuitBreaker) circuit breaker} calls
+ * fail at once with a {@link CircuitOpenException} while it is open.</p>
+ *
+ * @author lqzhai
+ */
+public abstract class RedisExecutor {
+
+    private volatile CircuitBreaker circuitBreaker;
+
+    /**
+     * Executes the given action on a borrowed connection.
+     *
+     * @param action the callback to run
+     * @return the callback's result
+     * @throws CacheException if the connection fails or a value cannot be
+     * (de)serialized
+     */
+    public abstract <T> T execute(RedisCallback<T> action) throws CacheException;
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * @param circuitBreaker the breaker of the pool, shared by every executor
+     * of the pool; {@code null} for none
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * To be called before borrowing a connection.
+     *
+     * @return the breaker whose {@link CircuitBreaker#record(boolean, long)}
+     * the call must end with, or {@code null}
+     * @throws CircuitOpenException if the breaker is open
+     */
+    protected CircuitBreaker acquireCircuit() throws CircuitOpenException {
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker != null && !breaker.tryAcquire()) {
+            throw new CircuitOpenException(breaker.getName());
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,438 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+
+/**
+ * Serves a Redis cache from a local fallback cache, e.g. an Ehcache region,
+ * while Redis cannot be reached or its {@link CircuitBreaker} is open.
+ *
+ * <p>Values written to Redis, and those found there, are copied to the
+ * fallback, so during an outage reads get the last value this JVM saw, which
+ * may be stale; a miss leaves the fallback alone, so an entry removed by
+ * another JVM may still be served from it. Writes made meanwhile go to the
+ * fallback only; the latest put of up to {@code maxBufferedWrites} keys is
+ * replayed to Redis after the next call that reaches it, other puts are
+ * skipped and other JVMs never see them. Removes are always replayed, so no
+ * value removed during an outage comes back. A write of this JVM that
+ * reaches Redis supersedes the buffered one of its key, which is then not
+ * replayed over it.</p>
+ *
+ * <p>Only unavailability falls back: serialization and Redis errors are
+ * thrown as usual.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisFailoverCache<K, V> implements Cache<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisFailoverCache.class);
+
+    private final Cache<K, V> cache;
+    private final Cache<K, V> fallback;
+    private final int maxBufferedWrites;
+    /**
+     * Writes to replay by key, {@code null} meaning a remove.
+     */
+    private final LinkedHashMap<K, V> buffered = new LinkedHashMap<K, V>();
+    /**
+     * Keys of the replay in progress not written again since, guarded by
+     * {@link #buffered}.
+     */
+    private final Set<K> replaying = new HashSet<K>();
+    private volatile boolean replayNeeded;
+    private final ReentrantLock replayLock = new ReentrantLock();
+
+    private final AtomicLong fallbackReads = new AtomicLong();
+    private final AtomicLong skippedWrites = new AtomicLong();
+    private final AtomicLong replayedWrites = new AtomicLong();
+
+    /**
+     * @param cache the Redis cache
+     * @param fallback the local cache serving reads during an outage
+     * @param maxBufferedWrites the most keys whose puts are replayed after an
+     * outage; 0 to skip them, removes being replayed anyway
+     */
+    public RedisFailoverCache(Cache<K, V> cache, Cache<K, V> fallback, int maxBufferedWrites) {
+        if (cache == null || fallback == null) {
+            throw new IllegalArgumentException("cache and fallback cannot be null.");
+        }
+        this.cache = cache;
+        this.fallback = fallback;
+        this.maxBufferedWrites = Math.max(0, maxBufferedWrites);
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        V value;
+        try {
+            value = cache.get(key);
+        } catch (CacheException e) {
+            failOver(e);
+            fallbackReads.incrementAndGet();
+            return fallback.get(key);
+        }
+        copy(key, value);
+        replay();
+        return value;
+    }
+
+    /**
+     * During an outage a value missing from the fallback is loaded and kept
+     * in the fallback only.
+     */
+    @Override
+    public V get(K key, CacheLoader<K, V> loader) throws CacheException {
+        V value;
+        try {
+            value = cache.get(key, loader);
+        } catch (CacheException e) {
+            failOver(e);
+            fallbackReads.incrementAndGet();
+            value = fallback.get(key);
+            if (value == null && key != null) {
+                try {
+                    value = loader.load(key);
+                } catch (CacheException ex) {
+                    throw ex;
+                } catch (Exception ex) {
+                    throw new CacheException(ex);
+                }
+                if (value != null) {
+                    fallback.put(key, value);
+                }
+            }
+            return value;
+        }
+        copy(key, value);
+        replay();
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        fallback.put(key, value);
+        writing(Collections.singleton(key));
+        try {
+            cache.put(key, value);
+        } catch (CacheException e) {
+            failOver(e);
+            buffer(key, value);
+            return value;
+        }
+        written(Collections.singleton(key));
+        replay();
+        return value;
+    }
+
+    /**
+     * A write buffered during an outage is replayed with the default expiry.
+     */
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        fallback.put(key, value, timeToLiveSeconds, timeToIdleSeconds);
+        writing(Collections.singleton(key));
+        try {
+            cache.put(key, value, timeToLiveSeconds, timeToIdleSeconds);
+        } catch (CacheException e) {
+            failOver(e);
+            buffer(key, value);
+            return value;
+        }
+        written(Collections.singleton(key));
+        replay();
+        return value;
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        V local = fallback.remove(key);
+        V previous;
+        writing(Collections.singleton(key));
+        try {
+            previous = cache.remove(key);
+        } catch (CacheException e) {
+            failOver(e);
+            buffer(key, null);
+            return local;
+        }
+        written(Collections.singleton(key));
+        replay();
+        return previous;
+    }
+
+    /**
+     * Fails during an outage: a clear cannot be replayed key by key.
+     */
+    @Override
+    public void clear() throws CacheException {
+        fallback.clear();
+        synchronized (buffered) {
+            buffered.clear();
+        }
+        cache.clear();
+    }
+
+    @Override
+    public int size() {
+        try {
+            return cache.size();
+        } catch (CacheException e) {
+            failOver(e);
+            return fallback.size();
+        }
+    }
+
+    @Override
+    public Set<K> keys() {
+        try {
+            return cache.keys();
+        } catch (CacheException e) {
+            failOver(e);
+            return fallback.keys();
+        }
+    }
+
+    @Override
+    public Collection<V> values() {
+        try {
+            return cache.values();
+        } catch (CacheException e) {
+            failOver(e);
+            return fallback.values();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> found;
+        try {
+            found = cache.getAll(keys);
+        } catch (CacheException e) {
+            failOver(e);
+            fallbackReads.incrementAndGet();
+            return fallback.getAll(keys);
+        }
+        if (!found.isEmpty()) {
+            fallback.putAll(found);
+        }
+        replay();
+        return found;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        fallback.putAll(entries);
+        writing(entries.keySet());
+        try {
+            cache.putAll(entries);
+        } catch (CacheException e) {
+            failOver(e);
+            for (Map.Entry<K, V> entry : entries.entrySet()) {
+                buffer(entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        written(entries.keySet());
+        replay();
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        fallback.removeAll(keys);
+        writing(keys);
+        try {
+            cache.removeAll(keys);
+        } catch (CacheException e) {
+            failOver(e);
+            for (K key : keys) {
+                buffer(key, null);
+            }
+            return;
+        }
+        written(keys);
+        replay();
+    }
+
+    /**
+     * Replays the writes buffered during an outage, unless another thread is
+     * doing so; keys written again since the replay began are skipped, writes
+     * that fail again stay buffered unless overwritten meanwhile.
+     */
+    public void replay() {
+        if (!replayNeeded || !replayLock.tryLock()) {
+            return;
+        }
+        try {
+            Map<K, V> writes;
+            synchronized (buffered) {
+                writes = new LinkedHashMap<K, V>(buffered);
+                buffered.clear();
+                replaying.addAll(writes.keySet());
+                replayNeeded = false;
+            }
+            try {
+                Map<K, V> puts = new LinkedHashMap<K, V>();
+                synchronized (buffered) {
+                    for (Map.Entry<K, V> write : writes.entrySet()) {
+                        if (write.getValue() != null && replaying.contains(write.getKey())) {
+                            puts.put(write.getKey(), write.getValue());
+                        }
+                    }
+                }
+                if (!puts.isEmpty()) {
+                    cache.putAll(puts);
+                }
+                List<K> removes = new ArrayList<K>();
+                synchronized (buffered) {
+                    for (Map.Entry<K, V> write : writes.entrySet()) {
+                        if (write.getValue() == null && replaying.contains(write.getKey())) {
+                            removes.add(write.getKey());
+                        }
+                    }
+                }
+                if (!removes.isEmpty()) {
+                    cache.removeAll(removes);
+                }
+                replayedWrites.addAndGet(puts.size() + removes.size());
+                log.info("Replayed " + (puts.size() + removes.size())
+                        + " writes buffered while Redis was unavailable");
+            } catch (CacheException e) {
+                failOver(e);
+                synchronized (buffered) {
+                    for (Map.Entry<K, V> write : writes.entrySet()) {
+                        if (replaying.contains(write.getKey()) && !buffered.containsKey(write.getKey())) {
+                            buffered.put(write.getKey(), write.getValue());
+                        }
+                    }
+                    replayNeeded = true;
+                }
+            } finally {
+                synchronized (buffered) {
+                    replaying.clear();
+                }
+            }
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Called before a write to Redis: the replay in progress leaves
+     * {@code keys} alone.
+     */
+    private void writing(Collection<K> keys) {
+        synchronized (buffered) {
+            if (!replaying.isEmpty()) {
+                replaying.removeAll(keys);
+            }
+        }
+    }
+
+    /**
+     * Called once a write reached Redis: the buffered writes of {@code keys}
+     * are superseded.
+     */
+    private void written(Collection<K> keys) {
+        synchronized (buffered) {
+            if (!buffered.isEmpty()) {
+                for (K key : keys) {
+                    buffered.remove(key);
+                }
+            }
+        }
+    }
+
+    private void copy(K key, V value) {
+        if (key != null && value != null) {
+            fallback.put(key, value);
+        }
+    }
+
+    /**
+     * Buffers the write of {@code key}; a remove, {@code value} being
+     * {@code null}, is buffered past {@code maxBufferedWrites}.
+     */
+    private void buffer(K key, V value) {
+        if (key == null) {
+            return;
+        }
+        synchronized (buffered) {
+            if (value == null || buffered.containsKey(key) || buffered.size() < maxBufferedWrites) {
+                buffered.remove(key);
+                buffered.put(key, value);
+                replayNeeded = true;
+                return;
+            }
+        }
+        skippedWrites.incrementAndGet();
+    }
+
+    /**
+     * Rethrows anything but the unavailability of Redis.
+     */
+    private static void failOver(CacheException e) throws CacheException {
+        if (e instanceof CircuitOpenException) {
+            return;
+        }
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof JedisConnectionException) {
+                return;
+            }
+        }
+        throw e;
+    }
+
+    public Cache<K, V> getCache() {
+        return cache;
+    }
+
+    public Cache<K, V> getFallback() {
+        return fallback;
+    }
+
+    /**
+     * @return reads served by the fallback
+     */
+    public long getFallbackReadCount() {
+        return fallbackReads.get();
+    }
+
+    /**
+     * @return puts made during an outage and never sent to Redis
+     */
+    public long getSkippedWriteCount() {
+        return skippedWrites.get();
+    }
+
+    public long getReplayedWriteCount() {
+        return replayedWrites.get();
+    }
+
+    public int getBufferedWriteCount() {
+        synchronized (buffered) {
+            return buffered.size();
+        }
+    }
+}
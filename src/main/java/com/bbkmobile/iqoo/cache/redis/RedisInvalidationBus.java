@@ -0,0 +1,272 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Broadcasts cache invalidations between JVMs over a single Redis pub/sub
+ * channel.
+ *
+ * <p>Each message carries the cache name and the serialized key (or a clear
+ * marker) plus a random id of the publishing bus, so a JVM ignores its own
+ * messages. One background thread holds a pooled connection for the
+ * subscription and re-subscribes after connection failures; since messages
+ * may have been lost meanwhile, every listener is told to drop all local
+ * entries whenever the subscription is (re)established.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisInvalidationBus {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisInvalidationBus.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final String DEFAULT_CHANNEL = "cache:invalidation";
+    private static final byte TYPE_KEY = 1;
+    private static final byte TYPE_CLEAR = 2;
+    private static final int ORIGIN_LENGTH = 16;
+
+    private final RedisExecutor executor;
+    private final byte[] channel;
+    private final byte[] origin = new byte[ORIGIN_LENGTH];
+    private final ConcurrentMap<String, InvalidationListener> listeners = new ConcurrentHashMap<String, InvalidationListener>();
+    private final Subscriber pubSub = new Subscriber();
+    private long reconnectMillis = 1000L;
+    private volatile boolean running;
+    private Thread subscriber;
+
+    public RedisInvalidationBus(RedisExecutor executor) {
+        this(executor, DEFAULT_CHANNEL);
+    }
+
+    public RedisInvalidationBus(RedisExecutor executor, String channel) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor argument cannot be null.");
+        }
+        this.executor = executor;
+        this.channel = channel.getBytes(UTF8);
+        ThreadLocalRandom.current().nextBytes(origin);
+    }
+
+    public void register(String cacheName, InvalidationListener listener) {
+        listeners.put(cacheName, listener);
+    }
+
+    public void unregister(String cacheName) {
+        listeners.remove(cacheName);
+    }
+
+    /**
+     * Tells the other JVMs to drop their copy of one entry.
+     */
+    public void publish(String cacheName, byte[] key) throws CacheException {
+        send(encode(TYPE_KEY, cacheName, key));
+    }
+
+    /**
+     * Tells the other JVMs to drop their copy of several entries; the
+     * messages are pipelined in one round trip.
+     */
+    public void publish(String cacheName, Collection<byte[]> keys) throws CacheException {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        final List<byte[]> messages = new ArrayList<byte[]>(keys.size());
+        for (byte[] key : keys) {
+            messages.add(encode(TYPE_KEY, cacheName, key));
+        }
+        executor.execute(new RedisCallback<Void>() {
+            @Override
+            public Void doInRedis(RedisConnection connection) {
+                Pipeline pipeline = connection.getNode(channel).pipelined();
+                for (byte[] message : messages) {
+                    pipeline.publish(channel, message);
+                }
+                pipeline.sync();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Tells the other JVMs to drop every entry of a cache.
+     */
+    public void publishClear(String cacheName) throws CacheException {
+        send(encode(TYPE_CLEAR, cacheName, null));
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        subscriber = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscribeLoop();
+            }
+        }, "redis-invalidation-bus");
+        subscriber.setDaemon(true);
+        subscriber.start();
+    }
+
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            if (pubSub.isSubscribed()) {
+                pubSub.unsubscribe();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to unsubscribe from invalidation channel", e);
+        }
+        subscriber.interrupt();
+        try {
+            subscriber.join(reconnectMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        subscriber = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getReconnectMillis() {
+        return reconnectMillis;
+    }
+
+    public void setReconnectMillis(long reconnectMillis) {
+        this.reconnectMillis = reconnectMillis;
+    }
+
+    private void send(final byte[] message) {
+        executor.execute(new RedisCallback<Long>() {
+            @Override
+            public Long doInRedis(RedisConnection connection) {
+                return connection.getNode(channel).publish(channel, message);
+            }
+        });
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            try {
+                executor.execute(new RedisCallback<Void>() {
+                    @Override
+                    public Void doInRedis(RedisConnection connection) {
+                        Jedis node = connection.getNode(channel);
+                        node.subscribe(pubSub, channel);
+                        return null;
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (running) {
+                    log.warn("Invalidation subscription lost, retrying in " + reconnectMillis + " ms", e);
+                }
+            }
+            if (running) {
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private byte[] encode(byte type, String cacheName, byte[] key) {
+        byte[] name = cacheName.getBytes(UTF8);
+        int keyLength = key == null ? 0 : key.length;
+        byte[] message = new byte[1 + ORIGIN_LENGTH + 2 + name.length + keyLength];
+        int pos = 0;
+        message[pos++] = type;
+        System.arraycopy(origin, 0, message, pos, ORIGIN_LENGTH);
+        pos += ORIGIN_LENGTH;
+        message[pos++] = (byte) (name.length >>> 8);
+        message[pos++] = (byte) name.length;
+        System.arraycopy(name, 0, message, pos, name.length);
+        pos += name.length;
+        if (key != null) {
+            System.arraycopy(key, 0, message, pos, keyLength);
+        }
+        return message;
+    }
+
+    private void dispatch(byte[] message) {
+        if (message.length < 1 + ORIGIN_LENGTH + 2) {
+            return;
+        }
+        if (Arrays.equals(origin, Arrays.copyOfRange(message, 1, 1 + ORIGIN_LENGTH))) {
+            return;
+        }
+        int pos = 1 + ORIGIN_LENGTH;
+        int nameLength = ((message[pos] & 0xff) << 8) | (message[pos + 1] & 0xff);
+        pos += 2;
+        if (pos + nameLength > message.length) {
+            return;
+        }
+        InvalidationListener listener = listeners.get(new String(message, pos, nameLength, UTF8));
+        if (listener == null) {
+            return;
+        }
+        pos += nameLength;
+        if (message[0] == TYPE_CLEAR) {
+            listener.invalidateAll();
+        } else {
+            listener.invalidate(Arrays.copyOfRange(message, pos, message.length));
+        }
+    }
+
+    private class Subscriber extends BinaryJedisPubSub {
+
+        @Override
+        public void onMessage(byte[] channel, byte[] message) {
+            try {
+                dispatch(message);
+            } catch (RuntimeException e) {
+                log.warn("Failed to apply invalidation", e);
+            }
+        }
+
+        @Override
+        public void onSubscribe(byte[] channel, int subscribedChannels) {
+            for (InvalidationListener listener : listeners.values()) {
+                listener.invalidateAll();
+            }
+        }
+
+        @Override
+        public void onPMessage(byte[] pattern, byte[] channel, byte[] message) {
+        }
+
+        @Override
+        public void onUnsubscribe(byte[] channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPUnsubscribe(byte[] pattern, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPSubscribe(byte[] pattern, int subscribedChannels) {
+        }
+    }
+}
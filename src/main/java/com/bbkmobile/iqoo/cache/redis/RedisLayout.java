@@ -0,0 +1,32 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+/**
+ * How the entries of a Redis backed cache are laid out in Redis.
+ *
+ * @author lqzhai
+ */
+public enum RedisLayout {
+
+    /**
+     * One hash named after the cache, one field per entry. Entries cannot
+     * expire individually; a time to live applies to the whole hash and is
+     * renewed on every write.
+     */
+    HASH,
+
+    /**
+     * A fixed number of hashes {@code <cacheName>:<bucket>}, an entry's bucket
+     * being chosen by a stable hash of its serialized key. Spreads a large
+     * cache over the shards of a sharded pool and, with enough buckets to keep
+     * each under {@code hash-max-ziplist-entries}, keeps Redis's compact hash
+     * encoding. Expiry behaves as with {@link #HASH}, per bucket.
+     */
+    BUCKETED,
+
+    /**
+     * One string key per entry, named {@code <cacheName>:e:<key>}. Supports
+     * per-entry time to live and time to idle; {@code size}, {@code keys},
+     * {@code values} and {@code clear} have to scan the key space.
+     */
+    ENTRY_KEY
+}
@@ -0,0 +1,358 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Client side {@link BloomFilter} of the keys of a Redis cache, letting
+ * lookups of keys that were never put skip the round trip to Redis.
+ *
+ * <p>The filter is shared by all JVMs of the cache as a Redis bitmap. Every
+ * put sets its bits locally at once and queues them; every
+ * {@code syncSeconds} the queued bits are sent with {@code SETBIT} and the
+ * bitmap is read back, so the puts of the other JVMs reach this one within a
+ * sync. Until then a key they put may be reported absent here, which costs a
+ * miss, and a reload for loading caches, but never a wrong value.</p>
+ *
+ * <p>Removed and expired keys keep their bits, raising the false positive
+ * rate over time, until the bitmap is rebuilt from a scan of the cache every
+ * {@code rebuildSeconds}, by one JVM at a time. A missing or damaged bitmap,
+ * e.g. after a Redis restart, is rebuilt on the next sync. Until the first
+ * bitmap is loaded or built every lookup goes to Redis.</p>
+ *
+ * <p>Only writes through {@link AbstractRedisCache} are seen; entries written
+ * to Redis by other means are missed until the next rebuild.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisMembershipFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisMembershipFilter.class);
+    private static final byte[] BIT = "1".getBytes();
+    private static final byte[] NX = "NX".getBytes();
+    private static final byte[] PX = "PX".getBytes();
+
+    private final AbstractRedisCache<?, ?> cache;
+    private final byte[] bitmapKey;
+    private final byte[] stagingKey;
+    private final byte[] leaseKey;
+    private final int rebuildSeconds;
+    private volatile BloomFilter filter;
+    private volatile boolean ready;
+    private final ConcurrentLinkedQueue<long[]> pending = new ConcurrentLinkedQueue<long[]>();
+    private final ScheduledExecutorService scheduler;
+    private final Object syncLock = new Object();
+
+    private final AtomicLong filtered = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param cache the cache whose keys are tracked
+     * @param expectedEntries the cache size the false positive rate holds for
+     * @param falsePositiveRate the wanted share of absent keys still looked up
+     * @param maxBytes the most memory the filter, and its bitmap, may take
+     * @param syncSeconds how often the bits are exchanged with Redis
+     * @param rebuildSeconds how often the bitmap is rebuilt to forget removed
+     * keys
+     */
+    public RedisMembershipFilter(AbstractRedisCache<?, ?> cache, long expectedEntries, double falsePositiveRate,
+            long maxBytes, int syncSeconds, int rebuildSeconds) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache argument cannot be null.");
+        }
+        if (syncSeconds <= 0 || rebuildSeconds <= 0) {
+            throw new IllegalArgumentException("syncSeconds and rebuildSeconds must be positive.");
+        }
+        this.cache = cache;
+        this.filter = new BloomFilter(expectedEntries, falsePositiveRate, maxBytes);
+        this.rebuildSeconds = rebuildSeconds;
+        // the size is part of the name so JVMs configured differently do not mix bits
+        String prefix = cache.getName() + ":bloom:" + filter.getBitCount() + ":" + filter.getHashCount();
+        this.bitmapKey = prefix.getBytes();
+        this.stagingKey = (prefix + ":next").getBytes();
+        this.leaseKey = (prefix + ":lease").getBytes();
+        final String name = "redis-bloom-" + cache.getName();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    log.warn("Syncing the Bloom filter of cache [" + name + "] failed", e);
+                }
+            }
+        }, 0, syncSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    log.warn("Rebuilding the Bloom filter of cache [" + name + "] failed", e);
+                }
+            }
+        }, rebuildSeconds, rebuildSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param field the serialized key
+     * @return {@code false} only if the key is certainly not in the cache
+     */
+    public boolean mightContain(byte[] field) {
+        return mightContain(field, null);
+    }
+
+    /**
+     * @param field the serialized key
+     * @param alternative another encoding the key may be stored under, or
+     * {@code null}
+     * @return {@code false} only if the key is certainly not in the cache
+     * under either encoding
+     */
+    public boolean mightContain(byte[] field, byte[] alternative) {
+        BloomFilter current = filter;
+        if (!ready || current.mightContain(field) || alternative != null && current.mightContain(alternative)) {
+            return true;
+        }
+        filtered.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records a key written to the cache.
+     */
+    public void add(byte[] field) {
+        pending.add(filter.add(field));
+    }
+
+    /**
+     * Forgets every key, the cache having been cleared.
+     */
+    public void reset() {
+        synchronized (syncLock) {
+            final BloomFilter empty = filter.emptyCopy();
+            pending.clear();
+            filter = empty;
+            cache.getExecutor().execute(new RedisCallback<Void>() {
+                @Override
+                public Void doInRedis(RedisConnection connection) {
+                    connection.getNode(bitmapKey).set(bitmapKey, empty.toBytes());
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends the bits of the puts made since the last sync and takes over the
+     * bits of the other JVMs; rebuilds a missing bitmap.
+     */
+    public void sync() {
+        synchronized (syncLock) {
+            final List<long[]> drained = new ArrayList<long[]>();
+            for (long[] positions = pending.poll(); positions != null; positions = pending.poll()) {
+                drained.add(positions);
+            }
+            final int bytes = (int) (filter.getBitCount() / 8);
+            byte[] shared = cache.getExecutor().execute(new RedisCallback<byte[]>() {
+                @Override
+                public byte[] doInRedis(RedisConnection connection) {
+                    Jedis node = connection.getNode(bitmapKey);
+                    byte[] current = node.get(bitmapKey);
+                    if (current == null || current.length != bytes || drained.isEmpty()) {
+                        return current;
+                    }
+                    // a rebuild in progress must not lose them either
+                    Jedis staging = connection.getNode(stagingKey);
+                    boolean rebuilding = staging.exists(stagingKey);
+                    Pipeline pipeline = node.pipelined();
+                    for (long[] positions : drained) {
+                        for (long position : positions) {
+                            pipeline.setbit(bitmapKey, position, BIT);
+                        }
+                    }
+                    Response<byte[]> reply = pipeline.get(bitmapKey);
+                    pipeline.sync();
+                    if (rebuilding) {
+                        pipeline = staging.pipelined();
+                        for (long[] positions : drained) {
+                            for (long position : positions) {
+                                pipeline.setbit(stagingKey, position, BIT);
+                            }
+                        }
+                        pipeline.sync();
+                    }
+                    return reply.get();
+                }
+            });
+            if (shared == null || shared.length != bytes) {
+                // the puts drained are in Redis already, the rebuild finds them
+                if (!rebuild()) {
+                    for (long[] positions : drained) {
+                        pending.add(positions);
+                    }
+                }
+                return;
+            }
+            BloomFilter fresh = filter.emptyCopy();
+            fresh.merge(shared);
+            for (long[] positions : drained) {
+                fresh.set(positions);
+            }
+            filter = fresh;
+            // puts made while the bitmap was read
+            for (long[] positions : pending) {
+                fresh.set(positions);
+            }
+            ready = true;
+            syncs.incrementAndGet();
+        }
+    }
+
+    /**
+     * Rebuilds the shared bitmap from a scan of the cache, unless another
+     * JVM is doing so.
+     *
+     * @return whether this JVM rebuilt it
+     */
+    public boolean rebuild() {
+        final byte[] token = UUID.randomUUID().toString().getBytes();
+        final long lease = rebuildSeconds * 1000L;
+        final RedisExecutor executor = cache.getExecutor();
+        final BloomFilter fresh = filter.emptyCopy();
+        boolean acquired = executor.execute(new RedisCallback<Boolean>() {
+            @Override
+            public Boolean doInRedis(RedisConnection connection) {
+                Jedis node = connection.getNode(leaseKey);
+                if (node.set(leaseKey, token, NX, PX, lease) == null) {
+                    return false;
+                }
+                // collects the bits the other JVMs sync during the scan
+                Jedis staging = connection.getNode(stagingKey);
+                staging.set(stagingKey, fresh.toBytes());
+                staging.pexpire(stagingKey, (int) lease);
+                return true;
+            }
+        });
+        if (!acquired) {
+            return false;
+        }
+        final RedisStorage storage = cache.getStorage();
+        final int count = cache.getScanCount();
+        RedisStorage.ScanPosition position = null;
+        do {
+            final RedisStorage.ScanPosition from = position;
+            RedisStorage.ScanPage page = executor.execute(new RedisCallback<RedisStorage.ScanPage>() {
+                @Override
+                public RedisStorage.ScanPage doInRedis(RedisConnection connection) {
+                    return storage.scan(connection, from, count, false);
+                }
+            });
+            for (byte[] field : page.fields) {
+                fresh.add(field);
+            }
+            position = page.next;
+        } while (position != null);
+        executor.execute(new RedisCallback<Void>() {
+            @Override
+            public Void doInRedis(RedisConnection connection) {
+                byte[] staged = connection.getNode(stagingKey).get(stagingKey);
+                if (staged != null) {
+                    fresh.merge(staged);
+                }
+                connection.getNode(bitmapKey).set(bitmapKey, fresh.toBytes());
+                connection.getNode(stagingKey).del(stagingKey);
+                Jedis node = connection.getNode(leaseKey);
+                if (Arrays.equals(token, node.get(leaseKey))) {
+                    node.del(leaseKey);
+                }
+                return null;
+            }
+        });
+        synchronized (syncLock) {
+            filter = fresh;
+            for (long[] positions : pending) {
+                fresh.set(positions);
+            }
+            ready = true;
+        }
+        rebuilds.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stops syncing; the bitmap stays in Redis for the other JVMs.
+     */
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * @return whether the filter has been loaded and answers lookups
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return lookups answered without asking Redis
+     */
+    public long getFilteredCount() {
+        return filtered.get();
+    }
+
+    public long getSyncCount() {
+        return syncs.get();
+    }
+
+    public long getRebuildCount() {
+        return rebuilds.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * @return the share of bits set; the false positive rate is about this to
+     * the power of {@link #getHashCount()}
+     */
+    public double getFillRatio() {
+        return filter.getFillRatio();
+    }
+
+    public long getBitCount() {
+        return filter.getBitCount();
+    }
+
+    public int getHashCount() {
+        return filter.getHashCount();
+    }
+}
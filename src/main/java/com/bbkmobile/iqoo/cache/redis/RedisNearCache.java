@@ -0,0 +1,520 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bbkmobile.iqoo.cache.AsyncCache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * Two-level cache: a bounded in-process LRU map of deserialized values in
+ * front of a Redis backed cache.
+ *
+ * <p>Local entries are served without touching Redis for
+ * {@link #setRevalidateMillis(long) revalidateMillis} after they were loaded or
+ * last validated. After that they are revalidated by comparing their version
+ * stamp with the one stored in Redis, which costs a round trip but no value
+ * transfer or deserialization; only a changed stamp reloads the value.</p>
+ *
+ * <p>Writes go through to Redis and are broadcast on a
+ * {@link RedisInvalidationBus}, so other JVMs drop their copy right away
+ * instead of waiting for revalidation. Values are handed out as stored, so
+ * callers must not modify them.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisNearCache<K, V> implements AsyncCache<K, V>, InvalidationListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisNearCache.class);
+
+    private final AbstractRedisCache<K, V> cache;
+    private final RedisInvalidationBus bus;
+    private final Map<K, NearEntry<V>> local;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long revalidateMillis = 1000L;
+
+    public RedisNearCache(RedisCache<K, V> cache, RedisInvalidationBus bus, int maxSize) {
+        this(cache.getNativeCache(), bus, maxSize);
+    }
+
+    /**
+     * @param cache the Redis cache to front; it is switched to versioned
+     * writes
+     * @param bus the bus used to exchange invalidations, or {@code null} to
+     * rely on revalidation only
+     * @param maxSize the maximum number of entries kept locally
+     */
+    public RedisNearCache(AbstractRedisCache<K, V> cache, RedisInvalidationBus bus, final int maxSize) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache argument cannot be null.");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive.");
+        }
+        this.cache = cache;
+        this.bus = bus;
+        this.local = Collections.synchronizedMap(new LinkedHashMap<K, NearEntry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, NearEntry<V>> eldest) {
+                return size() > maxSize;
+            }
+        });
+        cache.setVersioned(true);
+        if (bus != null) {
+            bus.register(cache.getName(), this);
+        }
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        NearEntry<V> entry = local.get(key);
+        if (entry != null && now >= entry.expiresAt) {
+            local.remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            if (now - entry.validatedAt < revalidateMillis) {
+                return entry.value;
+            }
+            long version = cache.getVersion(key);
+            if (version != 0L && version == entry.version) {
+                entry.validatedAt = now;
+                return entry.value;
+            }
+        }
+        long observed = generation.get();
+        VersionedValue<V> loaded = cache.getVersioned(key);
+        if (loaded.getValue() == null) {
+            if (loaded.isAbsent()) {
+                storeAbsent(key, loaded.getVersion(), now, observed);
+            } else {
+                local.remove(key);
+            }
+            return null;
+        }
+        store(key, loaded.getValue(), loaded.getVersion(), now, observed);
+        return loaded.getValue();
+    }
+
+    /**
+     * A local copy that Redis no longer has is served as a stale value while
+     * another JVM holds the load lease of the key, see
+     * {@link AbstractRedisCache#setLoadLeaseMillis(long)}. Negative entries
+     * are remembered locally like values, so a key known to be absent costs
+     * no round trip until revalidated. The loaded value is put like any other,
+     * locally and with an invalidation.
+     */
+    @Override
+    public V get(K key, CacheLoader<K, V> loader) throws CacheException {
+        if (key == null) {
+            return null;
+        }
+        NearEntry<V> previous = local.get(key);
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        NearEntry<V> current = local.get(key);
+        if (current != null && current.value == null) {
+            return null;
+        }
+        return cache.load(key, loader, previous == null ? null : previous.value, this);
+    }
+
+    /**
+     * Caches the absence of a value, in Redis and locally, see
+     * {@link AbstractRedisCache#putAbsent(Object)}.
+     */
+    public void putAbsent(K key) throws CacheException {
+        long observed = generation.get();
+        long version = cache.putVersioned(key, null);
+        storeAbsent(key, version, System.currentTimeMillis(), observed);
+        publish(key);
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        if (value == null) {
+            putAbsent(key);
+            return null;
+        }
+        long observed = generation.get();
+        long version = cache.putVersioned(key, value);
+        store(key, value, version, System.currentTimeMillis(), observed);
+        publish(key);
+        return value;
+    }
+
+    /**
+     * Puts an entry with its own expiry; the local copy is dropped once the
+     * time to live has passed, idle expiry is left to Redis and noticed on
+     * the next revalidation.
+     */
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        if (value == null) {
+            putAbsent(key);
+            return null;
+        }
+        long observed = generation.get();
+        long version = cache.putVersioned(key, value, timeToLiveSeconds, timeToIdleSeconds);
+        long now = System.currentTimeMillis();
+        store(key, value, version, now, observed);
+        if (timeToLiveSeconds > 0) {
+            NearEntry<V> entry = local.get(key);
+            if (entry != null && entry.value == value) {
+                entry.expiresAt = now + timeToLiveSeconds * 1000L;
+            }
+        }
+        publish(key);
+        return value;
+    }
+
+    @Override
+    public V remove(K key) throws CacheException {
+        V previous = cache.remove(key);
+        local.remove(key);
+        publish(key);
+        return previous;
+    }
+
+    @Override
+    public void clear() throws CacheException {
+        cache.clear();
+        invalidateAll();
+        if (bus != null) {
+            try {
+                bus.publishClear(cache.getName());
+            } catch (CacheException e) {
+                log.warn("Failed to publish clear of cache [" + cache.getName() + "]", e);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public Set<K> keys() {
+        return cache.keys();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return cache.values();
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    /**
+     * Walks the entries in Redis page by page; the local copies are neither
+     * used nor filled.
+     */
+    public void forEach(EntryVisitor<K, V> visitor) throws CacheException {
+        cache.forEach(visitor);
+    }
+
+    /**
+     * Serves fresh local entries directly, revalidates stale ones with one
+     * {@code HMGET} of their stamps and loads the rest with one more round
+     * trip.
+     */
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> result = new LinkedHashMap<K, V>();
+        if (keys == null || keys.isEmpty()) {
+            return result;
+        }
+        long now = System.currentTimeMillis();
+        Map<K, NearEntry<V>> stale = new LinkedHashMap<K, NearEntry<V>>();
+        List<K> missing = new ArrayList<K>();
+        for (K key : keys) {
+            if (key == null) {
+                continue;
+            }
+            NearEntry<V> entry = local.get(key);
+            if (entry == null) {
+                missing.add(key);
+            } else if (now >= entry.expiresAt) {
+                local.remove(key);
+                missing.add(key);
+            } else if (now - entry.validatedAt < revalidateMillis) {
+                if (entry.value != null) {
+                    result.put(key, entry.value);
+                }
+            } else {
+                stale.put(key, entry);
+            }
+        }
+        if (!stale.isEmpty()) {
+            Map<K, Long> versions = cache.getVersions(stale.keySet());
+            for (Map.Entry<K, NearEntry<V>> e : stale.entrySet()) {
+                Long version = versions.get(e.getKey());
+                if (version != null && version.longValue() != 0L && version.longValue() == e.getValue().version) {
+                    e.getValue().validatedAt = now;
+                    if (e.getValue().value != null) {
+                        result.put(e.getKey(), e.getValue().value);
+                    }
+                } else {
+                    missing.add(e.getKey());
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            long observed = generation.get();
+            Map<K, VersionedValue<V>> loaded = cache.getAllVersioned(missing);
+            for (K key : missing) {
+                VersionedValue<V> value = loaded.get(key);
+                if (value == null) {
+                    local.remove(key);
+                } else {
+                    store(key, value.getValue(), value.getVersion(), now, observed);
+                    result.put(key, value.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Completes at once from the local entry when it needs no revalidation,
+     * otherwise runs {@link #get(Object)} on the executor of the remote
+     * cache.
+     */
+    @Override
+    public CompletableFuture<V> getAsync(final K key) {
+        V value = fresh(key, System.currentTimeMillis());
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        return RedisAsyncExecutor.supply(new Supplier<V>() {
+            @Override
+            public V get() {
+                return RedisNearCache.this.get(key);
+            }
+        }, cache.getAsyncExecutor());
+    }
+
+    @Override
+    public CompletableFuture<V> putAsync(final K key, final V value) {
+        return RedisAsyncExecutor.supply(new Supplier<V>() {
+            @Override
+            public V get() {
+                return put(key, value);
+            }
+        }, cache.getAsyncExecutor());
+    }
+
+    @Override
+    public CompletableFuture<V> removeAsync(final K key) {
+        return RedisAsyncExecutor.supply(new Supplier<V>() {
+            @Override
+            public V get() {
+                return remove(key);
+            }
+        }, cache.getAsyncExecutor());
+    }
+
+    /**
+     * Completes at once when every key has a local entry needing no
+     * revalidation.
+     */
+    @Override
+    public CompletableFuture<Map<K, V>> getAllAsync(final Collection<K> keys) {
+        long now = System.currentTimeMillis();
+        Map<K, V> result = new LinkedHashMap<K, V>();
+        for (K key : keys) {
+            V value = key == null ? null : fresh(key, now);
+            if (value == null && key != null) {
+                return RedisAsyncExecutor.supply(new Supplier<Map<K, V>>() {
+                    @Override
+                    public Map<K, V> get() {
+                        return getAll(keys);
+                    }
+                }, cache.getAsyncExecutor());
+            }
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return CompletableFuture.completedFuture(result);
+    }
+
+    /**
+     * @return the local value of {@code key} if it can be used without
+     * asking Redis, {@code null} otherwise
+     */
+    private V fresh(K key, long now) {
+        NearEntry<V> entry = key == null ? null : local.get(key);
+        if (entry == null || now >= entry.expiresAt || now - entry.validatedAt >= revalidateMillis) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        if (entries == null || entries.isEmpty()) {
+            return;
+        }
+        long observed = generation.get();
+        Map<K, Long> versions = cache.putAllVersioned(entries);
+        long now = System.currentTimeMillis();
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            Long version = versions.get(entry.getKey());
+            store(entry.getKey(), entry.getValue(), version == null ? 0L : version.longValue(), now, observed);
+        }
+        publish(entries.keySet());
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        if (keys == null || keys.isEmpty()) {
+            return;
+        }
+        cache.removeAll(keys);
+        for (K key : keys) {
+            local.remove(key);
+        }
+        publish(keys);
+    }
+
+    @Override
+    public void invalidate(byte[] key) {
+        try {
+            K k = cache.keySerializer.deserialize(key);
+            generation.incrementAndGet();
+            local.remove(k);
+        } catch (SerializationException e) {
+            log.warn("Dropping all local entries of cache [" + cache.getName() + "], undecodable invalidation", e);
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        local.clear();
+    }
+
+    /**
+     * @return the number of entries currently held in process
+     */
+    public int getLocalSize() {
+        return local.size();
+    }
+
+    public AbstractRedisCache<K, V> getCache() {
+        return cache;
+    }
+
+    public long getRevalidateMillis() {
+        return revalidateMillis;
+    }
+
+    /**
+     * Sets how long a local entry is served without checking its version in
+     * Redis; 0 checks on every read.
+     */
+    public void setRevalidateMillis(long revalidateMillis) {
+        this.revalidateMillis = revalidateMillis;
+    }
+
+    /**
+     * Stores a local copy unless an invalidation arrived since
+     * {@code observed} was read, in which case the copy may already be stale.
+     */
+    private void store(K key, V value, long version, long now, long observed) {
+        synchronized (local) {
+            if (generation.get() == observed) {
+                local.put(key, new NearEntry<V>(value, version, now));
+            } else {
+                local.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Keeps a negative entry for at most the negative time to live of the
+     * cache.
+     */
+    private void storeAbsent(K key, long version, long now, long observed) {
+        synchronized (local) {
+            if (generation.get() == observed) {
+                NearEntry<V> entry = new NearEntry<V>(null, version, now);
+                entry.expiresAt = now + cache.getNegativeTimeToLiveSeconds() * 1000L;
+                local.put(key, entry);
+            } else {
+                local.remove(key);
+            }
+        }
+    }
+
+    private void publish(K key) {
+        if (bus == null) {
+            return;
+        }
+        try {
+            bus.publish(cache.getName(), cache.keySerializer.serialize(key));
+        } catch (SerializationException e) {
+            throw new CacheException(e);
+        } catch (CacheException e) {
+            log.warn("Failed to publish invalidation for cache [" + cache.getName() + "]", e);
+        }
+    }
+
+    private void publish(Collection<K> keys) {
+        if (bus == null) {
+            return;
+        }
+        try {
+            List<byte[]> fields = new ArrayList<byte[]>(keys.size());
+            for (K key : keys) {
+                fields.add(cache.keySerializer.serialize(key));
+            }
+            bus.publish(cache.getName(), fields);
+        } catch (SerializationException e) {
+            throw new CacheException(e);
+        } catch (CacheException e) {
+            log.warn("Failed to publish invalidations for cache [" + cache.getName() + "]", e);
+        }
+    }
+
+    private static class NearEntry<V> {
+
+        final V value;
+        final long version;
+        volatile long validatedAt;
+        volatile long expiresAt = Long.MAX_VALUE;
+
+        NearEntry(V value, long version, long validatedAt) {
+            this.value = value;
+            this.version = version;
+            this.validatedAt = validatedAt;
+        }
+    }
+}
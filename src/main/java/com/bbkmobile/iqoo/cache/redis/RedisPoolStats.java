@@ -0,0 +1,145 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.lang.reflect.Field;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+
+import redis.clients.util.Pool;
+
+/**
+ * Point in time view of a Jedis connection pool, to size pools from data:
+ * connections in use and idle, threads waiting, and how long borrowing
+ * waited. The same figures are published over JMX by the pool itself under
+ * {@code org.apache.commons.pool2:type=GenericObjectPool,name=redis-pool-<name>}.
+ *
+ * @author lqzhai
+ */
+public class RedisPoolStats {
+
+    private static final Field INTERNAL_POOL;
+
+    static {
+        Field field = null;
+        try {
+            field = Pool.class.getDeclaredField("internalPool");
+            field.setAccessible(true);
+        } catch (Exception e) {
+            // another Jedis version; the stats are then left at zero
+        }
+        INTERNAL_POOL = field;
+    }
+
+    private final String name;
+    private int active;
+    private int idle;
+    private int waiters;
+    private int maxTotal;
+    private long borrowed;
+    private long created;
+    private long destroyed;
+    private long destroyedByValidation;
+    private long meanBorrowWaitMillis;
+    private long maxBorrowWaitMillis;
+
+    RedisPoolStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the current figures of {@code pool}
+     */
+    public static RedisPoolStats of(String name, Pool<?> pool) {
+        RedisPoolStats stats = new RedisPoolStats(name);
+        GenericObjectPool<?> internal = internalPool(pool);
+        if (internal != null) {
+            stats.active = internal.getNumActive();
+            stats.idle = internal.getNumIdle();
+            stats.waiters = internal.getNumWaiters();
+            stats.maxTotal = internal.getMaxTotal();
+            stats.borrowed = internal.getBorrowedCount();
+            stats.created = internal.getCreatedCount();
+            stats.destroyed = internal.getDestroyedCount();
+            stats.destroyedByValidation = internal.getDestroyedByEvictorCount()
+                    + internal.getDestroyedByBorrowValidationCount();
+            stats.meanBorrowWaitMillis = internal.getMeanBorrowWaitTimeMillis();
+            stats.maxBorrowWaitMillis = internal.getMaxBorrowWaitTimeMillis();
+        }
+        return stats;
+    }
+
+    static GenericObjectPool<?> internalPool(Pool<?> pool) {
+        if (INTERNAL_POOL == null || pool == null) {
+            return null;
+        }
+        try {
+            return (GenericObjectPool<?>) INTERNAL_POOL.get(pool);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return connections borrowed and not yet returned
+     */
+    public int getActive() {
+        return active;
+    }
+
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return threads waiting for a connection
+     */
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public long getBorrowedCount() {
+        return borrowed;
+    }
+
+    public long getCreatedCount() {
+        return created;
+    }
+
+    public long getDestroyedCount() {
+        return destroyed;
+    }
+
+    /**
+     * @return connections dropped by the idle validation, or failing
+     * validation on borrow
+     */
+    public long getDestroyedByValidationCount() {
+        return destroyedByValidation;
+    }
+
+    /**
+     * @return the mean wait of the recent borrows
+     */
+    public long getMeanBorrowWaitMillis() {
+        return meanBorrowWaitMillis;
+    }
+
+    public long getMaxBorrowWaitMillis() {
+        return maxBorrowWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[active=" + active + ", idle=" + idle + ", waiters=" + waiters + ", maxTotal=" + maxTotal
+                + ", borrowed=" + borrowed + ", created=" + created + ", destroyed=" + destroyed
+                + ", destroyedByValidation=" + destroyedByValidation + ", meanBorrowWaitMillis="
+                + meanBorrowWaitMillis + ", maxBorrowWaitMillis=" + maxBorrowWaitMillis + "]";
+    }
+}
@@ -0,0 +1,110 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import redis.clients.jedis.Client;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * Lua script run on a Redis node with {@code EVALSHA}, so only its SHA-1
+ * digest travels with every call. A node that does not know the script, e.g.
+ * after a restart or {@code SCRIPT FLUSH}, answers {@code NOSCRIPT}; the
+ * script is then loaded on that node and the call repeated.
+ *
+ * <p>The script must only touch the keys it is given, and those must live on
+ * the node it runs on, which is how {@link RedisConnection#getNode(byte[])}
+ * routes on the plain and on the sharded pools alike.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisScript {
+
+    private final byte[] source;
+    private final byte[] sha;
+    private final AtomicLong loads = new AtomicLong();
+
+    public RedisScript(String source) {
+        this.source = source.getBytes();
+        this.sha = sha1(this.source).getBytes();
+    }
+
+    /**
+     * Runs the script on {@code node}.
+     *
+     * @return the reply: {@code byte[]}, {@code Long}, a {@code List} of them,
+     * or {@code null}
+     */
+    public Object execute(Jedis node, List<byte[]> keys, List<byte[]> args) {
+        byte[][] params = new byte[keys.size() + args.size()][];
+        int i = 0;
+        for (byte[] key : keys) {
+            params[i++] = key;
+        }
+        for (byte[] arg : args) {
+            params[i++] = arg;
+        }
+        try {
+            return evalsha(node, keys.size(), params);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            load(node);
+            return evalsha(node, keys.size(), params);
+        }
+    }
+
+    /**
+     * Loads the script on every node up front, sparing the first calls a
+     * {@code NOSCRIPT} round trip.
+     */
+    public void load(Collection<Jedis> nodes) {
+        for (Jedis node : nodes) {
+            load(node);
+        }
+    }
+
+    private void load(Jedis node) {
+        node.scriptLoad(source);
+        loads.incrementAndGet();
+    }
+
+    /**
+     * Goes through the client: {@code Jedis.evalsha} leaves the connection
+     * without read timeout once it returns.
+     */
+    private Object evalsha(Jedis node, int keyCount, byte[][] params) {
+        Client client = node.getClient();
+        client.evalsha(sha, keyCount, params);
+        return client.getOne();
+    }
+
+    public String getSha() {
+        return new String(sha);
+    }
+
+    /**
+     * @return how many times the script was loaded on a node
+     */
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    private static String sha1(byte[] source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source);
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+
+/**
+ * Maps cache operations on already serialized keys and values onto Redis
+ * commands for one {@link RedisLayout}.
+ *
+ * <p>Every command is sent to the node owning the entry's Redis key, and
+ * multi-key operations are pipelined per node, so a storage works the same on
+ * a plain and on a sharded pool. Version stamps, when enabled, are kept next to
+ * the entry on the same node and expire with it.</p>
+ *
+ * <p>With hash tags, for Redis Cluster, the keys read or written together
+ * share a {@code {tag}} so they fall in one slot, and no command spans keys
+ * of different slots.</p>
+ *
+ * @author lqzhai
+ */
+abstract class RedisStorage {
+
+    static final int SCAN_COUNT = 1000;
+    static final byte[] SCAN_START = ScanParams.SCAN_POINTER_START.getBytes();
+    static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The compound writes of {@link #update}. A negative entry, the bytes
+     * {@code \0nil-} optionally followed by its 8 byte expiry, or the
+     * {@code nil} of earlier versions, counts as absent.
+     */
+    enum Update {
+
+        /** removes the entry */
+        REMOVE,
+        /** writes the entry */
+        PUT,
+        /** writes the entry unless a value is there */
+        PUT_IF_ABSENT,
+        /** writes the entry if the value there is the one expected */
+        REPLACE;
+
+        final byte[] arg = name().toLowerCase().getBytes();
+    }
+
+    /**
+     * KEYS: the hash, its version hash, the hash and version hash of the
+     * obsolete field. ARGV: field, update, value, expected value, stamp or
+     * empty if unversioned, time to live of the hash, obsolete field or empty.
+     */
+    static final RedisScript HASH_UPDATE = new RedisScript(
+            "local prev = redis.call('HGET', KEYS[1], ARGV[1])\n"
+            + "local absent = not prev or prev == 'nil'\n"
+            + "  or ((#prev == 5 or #prev == 13) and string.sub(prev, 1, 5) == '\\0nil-')\n"
+            + "if (ARGV[2] == 'put_if_absent' and not absent) or (ARGV[2] == 'replace' and prev ~= ARGV[4]) then\n"
+            + "  return {0, prev}\n"
+            + "end\n"
+            + "if ARGV[7] ~= '' then\n"
+            + "  redis.call('HDEL', KEYS[3], ARGV[7])\n"
+            + "  if ARGV[5] ~= '' then redis.call('HDEL', KEYS[4], ARGV[7]) end\n"
+            + "end\n"
+            + "if ARGV[2] == 'remove' then\n"
+            + "  redis.call('HDEL', KEYS[1], ARGV[1])\n"
+            + "  if ARGV[5] ~= '' then redis.call('HDEL', KEYS[2], ARGV[1]) end\n"
+            + "  return {1, prev}\n"
+            + "end\n"
+            + "redis.call('HSET', KEYS[1], ARGV[1], ARGV[3])\n"
+            + "if ARGV[5] ~= '' then redis.call('HSET', KEYS[2], ARGV[1], ARGV[5]) end\n"
+            + "local ttl = tonumber(ARGV[6])\n"
+            + "if ttl > 0 then\n"
+            + "  redis.call('EXPIRE', KEYS[1], ttl)\n"
+            + "  if ARGV[5] ~= '' then redis.call('EXPIRE', KEYS[2], ttl) end\n"
+            + "end\n"
+            + "return {1, prev}\n");
+
+    protected final byte[] cacheName;
+    protected final boolean hashTags;
+    private volatile boolean versioned;
+
+    RedisStorage(byte[] cacheName, boolean hashTags) {
+        this.cacheName = cacheName;
+        this.hashTags = hashTags;
+    }
+
+    boolean isVersioned() {
+        return versioned;
+    }
+
+    void setVersioned(boolean versioned) {
+        this.versioned = versioned;
+    }
+
+    /**
+     * @return whether entries can expire individually
+     */
+    boolean supportsEntryExpiry() {
+        return false;
+    }
+
+    abstract byte[] get(RedisConnection connection, byte[] field);
+
+    abstract VersionedValue<byte[]> getVersioned(RedisConnection connection, byte[] field);
+
+    abstract long getVersion(RedisConnection connection, byte[] field);
+
+    abstract List<byte[]> getAll(RedisConnection connection, List<byte[]> fields);
+
+    abstract List<VersionedValue<byte[]>> getAllVersioned(RedisConnection connection, List<byte[]> fields);
+
+    abstract List<Long> getVersions(RedisConnection connection, List<byte[]> fields);
+
+    /**
+     * @param stamp the version stamp to store, ignored unless versioned
+     * @param timeToLive seconds until the entry expires, 0 for never
+     * @param timeToIdle seconds without reads until the entry expires, 0 for
+     * never
+     * @param obsolete fields to remove along with the write, in the same
+     * pipeline when they live on the same node
+     */
+    abstract void put(RedisConnection connection, byte[] field, byte[] value, long stamp, int timeToLive,
+            int timeToIdle, List<byte[]> obsolete);
+
+    abstract void putAll(RedisConnection connection, List<byte[]> fields, List<byte[]> values, long[] stamps,
+            int timeToLive, int timeToIdle, List<byte[]> obsolete);
+
+    /**
+     * @return the previous raw value, or {@code null}
+     */
+    abstract byte[] remove(RedisConnection connection, byte[] field);
+
+    abstract void removeAll(RedisConnection connection, List<byte[]> fields);
+
+    /**
+     * Reads and, depending on {@code update}, writes or removes an entry in a
+     * single atomic script call.
+     *
+     * @param value the raw value written, ignored by {@link Update#REMOVE}
+     * @param expected the raw value {@link Update#REPLACE} expects
+     * @param stamp the version stamp written, ignored unless versioned
+     * @param obsolete a field to remove if the write happens, by the script
+     * itself when the node allows, or {@code null}
+     * @return the previous raw value, and whether the write happened
+     */
+    abstract UpdateResult update(RedisConnection connection, Update update, byte[] field, byte[] value,
+            byte[] expected, long stamp, int timeToLive, int timeToIdle, byte[] obsolete);
+
+    /**
+     * @return the key holding the entry of {@code field}, the one routing it
+     * to a node
+     */
+    abstract byte[] keyOf(byte[] field);
+
+    /**
+     * Queues the removal of the entry of {@code field} on a pipeline opened
+     * on its node.
+     */
+    abstract void remove(Pipeline pipeline, byte[] field);
+
+    abstract void clear(RedisConnection connection);
+
+    abstract int size(RedisConnection connection);
+
+    /**
+     * Reads one page of a cursor based walk over the cache. Every page is
+     * fetched with a connection of its own, so a walk holds no connection
+     * between pages.
+     *
+     * @param position where to continue, {@code null} to start
+     * @param count the {@code COUNT} hint passed to the scan command
+     * @param withValues whether the page must carry the values too
+     */
+    abstract ScanPage scan(RedisConnection connection, ScanPosition position, int count, boolean withValues);
+
+    /**
+     * {@link #update} of the layouts keeping entries as fields of a hash. The
+     * script drops the obsolete field itself when its hashes are on the same
+     * node and, with hash tags, in the same slot.
+     */
+    UpdateResult updateHash(RedisConnection connection, byte[] hash, byte[] versionHash, Update update,
+            byte[] field, byte[] value, byte[] expected, long stamp, int timeToLive, byte[] obsoleteHash,
+            byte[] obsoleteVersionHash, byte[] obsolete) {
+        Jedis node = connection.getNode(hash);
+        boolean inScript = obsolete != null && (Arrays.equals(obsoleteHash, hash)
+                || !hashTags && connection.getNode(obsoleteHash) == node);
+        List<byte[]> keys = inScript ? Arrays.asList(hash, versionHash, obsoleteHash, obsoleteVersionHash)
+                : Arrays.asList(hash, versionHash, hash, versionHash);
+        List<byte[]> args = Arrays.asList(field, update.arg, value == null ? EMPTY : value,
+                expected == null ? EMPTY : expected, isVersioned() ? encodeStamp(stamp) : EMPTY,
+                String.valueOf(timeToLive).getBytes(), inScript ? obsolete : EMPTY);
+        UpdateResult result = UpdateResult.of(HASH_UPDATE.execute(node, keys, args));
+        if (obsolete != null && !inScript && result.written) {
+            removeAll(connection, Collections.singletonList(obsolete));
+        }
+        return result;
+    }
+
+    /**
+     * Groups {@code obsolete} fields by the node of their entry, for the
+     * pipelines of a write to {@link #removeObsolete(Map, Jedis, Pipeline)
+     * take} theirs.
+     */
+    Map<Jedis, List<byte[]>> groupObsolete(RedisConnection connection, List<byte[]> obsolete) {
+        Map<Jedis, List<byte[]>> groups = new ConcurrentHashMap<Jedis, List<byte[]>>();
+        for (byte[] field : obsolete) {
+            Jedis node = connection.getNode(keyOf(field));
+            List<byte[]> group = groups.get(node);
+            if (group == null) {
+                group = new ArrayList<byte[]>();
+                groups.put(node, group);
+            }
+            group.add(field);
+        }
+        return groups;
+    }
+
+    /**
+     * Queues on {@code pipeline}, opened on {@code node}, the removal of the
+     * obsolete fields of that node and takes them out of {@code groups}.
+     */
+    void removeObsolete(Map<Jedis, List<byte[]>> groups, Jedis node, Pipeline pipeline) {
+        List<byte[]> fields = groups.isEmpty() ? null : groups.remove(node);
+        if (fields != null) {
+            for (byte[] field : fields) {
+                remove(pipeline, field);
+            }
+        }
+    }
+
+    /**
+     * Removes the obsolete fields left in {@code groups}, those of nodes the
+     * write did not go to.
+     */
+    void removeObsolete(RedisConnection connection, Map<Jedis, List<byte[]>> groups) {
+        for (List<byte[]> fields : groups.values()) {
+            removeAll(connection, fields);
+        }
+    }
+
+    /**
+     * Groups the indexes of {@code keys} by the node owning each key.
+     */
+    static Map<Jedis, List<Integer>> groupByNode(RedisConnection connection, List<byte[]> keys) {
+        Map<Jedis, List<Integer>> groups = new LinkedHashMap<Jedis, List<Integer>>();
+        for (int i = 0; i < keys.size(); i++) {
+            Jedis node = connection.getNode(keys.get(i));
+            List<Integer> group = groups.get(node);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(node, group);
+            }
+            group.add(i);
+        }
+        return groups;
+    }
+
+    /**
+     * Work of a multi-key operation on one node.
+     */
+    interface NodeTask {
+
+        /**
+         * @param indexes the indexes of the keys, or buckets, of the node
+         */
+        void run(Jedis node, List<Integer> indexes);
+    }
+
+    /**
+     * A connection able to run the work of several nodes at once.
+     */
+    interface ParallelConnection extends RedisConnection {
+
+        void forEachNode(Map<Jedis, List<Integer>> groups, NodeTask task);
+    }
+
+    /**
+     * Runs {@code task} for every node of {@code groups}, at once if the
+     * connection can; the tasks must only write state of their own indexes.
+     */
+    static void forEachNode(RedisConnection connection, Map<Jedis, List<Integer>> groups, NodeTask task) {
+        if (groups.size() > 1 && connection instanceof ParallelConnection) {
+            ((ParallelConnection) connection).forEachNode(groups, task);
+            return;
+        }
+        for (Map.Entry<Jedis, List<Integer>> group : groups.entrySet()) {
+            task.run(group.getKey(), group.getValue());
+        }
+    }
+
+    /**
+     * @return every node of the connection, without indexes, for
+     * {@link #forEachNode}
+     */
+    static Map<Jedis, List<Integer>> allNodes(RedisConnection connection) {
+        Map<Jedis, List<Integer>> nodes = new LinkedHashMap<Jedis, List<Integer>>();
+        for (Jedis node : connection.getNodes()) {
+            nodes.put(node, Collections.<Integer>emptyList());
+        }
+        return nodes;
+    }
+
+    /**
+     * Collects every key of one node matching {@code pattern} with
+     * {@code SCAN}, never blocking the server for more than one page.
+     */
+    @SuppressWarnings("unchecked")
+    static List<byte[]> scanKeys(Jedis node, String pattern) {
+        ScanParams params = new ScanParams();
+        params.match(pattern);
+        params.count(SCAN_COUNT);
+        List<byte[]> keys = new ArrayList<byte[]>();
+        byte[] cursor = SCAN_START;
+        do {
+            node.getClient().scan(cursor, params);
+            List<Object> reply = node.getClient().getObjectMultiBulkReply();
+            cursor = (byte[]) reply.get(0);
+            keys.addAll((List<byte[]>) reply.get(1));
+        } while (!Arrays.equals(SCAN_START, cursor));
+        return keys;
+    }
+
+    /**
+     * Reads one {@code HSCAN} page of {@code hashes[position.index]}, moving
+     * on to the next hash once a hash is exhausted.
+     */
+    @SuppressWarnings("unchecked")
+    static ScanPage scanHashes(RedisConnection connection, byte[][] hashes, ScanPosition position, int count) {
+        int index = position == null ? 0 : position.index;
+        byte[] cursor = position == null ? SCAN_START : position.cursor;
+        Jedis node = connection.getNode(hashes[index]);
+        ScanParams params = new ScanParams();
+        params.count(count);
+        node.getClient().hscan(hashes[index], cursor, params);
+        List<Object> reply = node.getClient().getObjectMultiBulkReply();
+        byte[] next = (byte[]) reply.get(0);
+        List<byte[]> flat = (List<byte[]>) reply.get(1);
+        List<byte[]> fields = new ArrayList<byte[]>(flat.size() / 2);
+        List<byte[]> values = new ArrayList<byte[]>(flat.size() / 2);
+        for (int i = 0; i + 1 < flat.size(); i += 2) {
+            fields.add(flat.get(i));
+            values.add(flat.get(i + 1));
+        }
+        return new ScanPage(fields, values, nextPosition(index, next, hashes.length));
+    }
+
+    /**
+     * Returns the position after a page of source {@code index} answered with
+     * cursor {@code next}, or {@code null} once the last source is exhausted.
+     */
+    static ScanPosition nextPosition(int index, byte[] next, int sources) {
+        if (!Arrays.equals(SCAN_START, next)) {
+            return new ScanPosition(index, next);
+        }
+        return index + 1 < sources ? new ScanPosition(index + 1, SCAN_START) : null;
+    }
+
+    /**
+     * Escapes the glob special characters of a literal key prefix.
+     */
+    static String globPrefix(byte[] prefix) {
+        String literal = new String(prefix);
+        StringBuilder sb = new StringBuilder(literal.length() + 2);
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.append('*').toString();
+    }
+
+    /**
+     * Where a walk stands: the hash, bucket or node being scanned and the
+     * scan cursor within it.
+     */
+    static final class ScanPosition {
+
+        final int index;
+        final byte[] cursor;
+
+        ScanPosition(int index, byte[] cursor) {
+            this.index = index;
+            this.cursor = cursor;
+        }
+    }
+
+    static final class ScanPage {
+
+        final List<byte[]> fields;
+        final List<byte[]> values;
+        final ScanPosition next;
+
+        /**
+         * @param values the values matching {@code fields}, or {@code null}
+         * if they were not requested
+         * @param next where to continue, {@code null} if the walk is complete
+         */
+        ScanPage(List<byte[]> fields, List<byte[]> values, ScanPosition next) {
+            this.fields = fields;
+            this.values = values;
+            this.next = next;
+        }
+    }
+
+    static final class UpdateResult {
+
+        final byte[] previous;
+        final boolean written;
+
+        UpdateResult(byte[] previous, boolean written) {
+            this.previous = previous;
+            this.written = written;
+        }
+
+        /**
+         * Reads the {@code {written, previous}} reply of an update script; a
+         * missing previous value ends the reply early.
+         */
+        @SuppressWarnings("unchecked")
+        static UpdateResult of(Object reply) {
+            List<Object> list = (List<Object>) reply;
+            return new UpdateResult(list.size() > 1 ? (byte[]) list.get(1) : null,
+                    ((Long) list.get(0)).longValue() == 1L);
+        }
+    }
+
+    /**
+     * @return {@code name} as the hash tag of a key, {@code {name}}
+     */
+    static byte[] hashTag(byte[] name) {
+        byte[] tag = new byte[name.length + 2];
+        tag[0] = '{';
+        System.arraycopy(name, 0, tag, 1, name.length);
+        tag[tag.length - 1] = '}';
+        return tag;
+    }
+
+    static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    static byte[] encodeStamp(long stamp) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) stamp;
+            stamp >>>= 8;
+        }
+        return bytes;
+    }
+
+    static long decodeStamp(byte[] bytes) {
+        if (bytes == null || bytes.length != 8) {
+            return 0L;
+        }
+        long stamp = 0L;
+        for (int i = 0; i < 8; i++) {
+            stamp = (stamp << 8) | (bytes[i] & 0xff);
+        }
+        return stamp;
+    }
+}
@@ -0,0 +1,419 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.bbkmobile.iqoo.cache.Cache;
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.SingleFlight;
+
+/**
+ * Write-behind front of a Redis cache: puts and removes return at once and
+ * are written by a background flusher, every {@code flushIntervalMillis} or
+ * as soon as {@code batchSize} keys are pending.
+ *
+ * <p>Pending writes are kept per key, a later write replacing an earlier
+ * one, and flushed as one {@code putAll} and one {@code removeAll}, i.e. one
+ * pipeline per node. Reads see the pending writes of this instance; other
+ * JVMs see them once flushed. A write finding {@code maxPending} keys queued
+ * is written through on the calling thread, which bounds memory and slows
+ * writers down when Redis falls behind. A failed flush is retried on the
+ * next one, unless the key was written again meanwhile.</p>
+ *
+ * <p>{@link #close()} flushes what is left; {@link RedisCacheManager#destroy()}
+ * calls it before closing the pools. Writes still pending when the JVM dies
+ * are lost, so this mode suits data that can be rebuilt: counters,
+ * recently viewed lists and the like.</p>
+ *
+ * @author lqzhai
+ */
+public class RedisWriteBehindCache<K, V> implements Cache<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisWriteBehindCache.class);
+
+    private final AbstractRedisCache<K, V> cache;
+    private final int maxPending;
+    private final int batchSize;
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private final SingleFlight<K, V> loads = new SingleFlight<K, V>();
+    private LinkedHashMap<K, Write<V>> pending = new LinkedHashMap<K, Write<V>>();
+    /**
+     * The batch being written, still visible to reads until it is in Redis.
+     */
+    private volatile Map<K, Write<V>> flushing = Collections.emptyMap();
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean closed;
+
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private volatile long lastFlushNanos;
+
+    /**
+     * @param cache the cache written to
+     * @param flushIntervalMillis the longest a write waits to be flushed
+     * @param maxPending the most keys pending at once
+     */
+    public RedisWriteBehindCache(AbstractRedisCache<K, V> cache, long flushIntervalMillis, int maxPending) {
+        if (cache == null) {
+            throw new IllegalArgumentException("Cache argument cannot be null.");
+        }
+        if (flushIntervalMillis <= 0 || maxPending <= 0) {
+            throw new IllegalArgumentException("flushIntervalMillis and maxPending must be positive.");
+        }
+        this.cache = cache;
+        this.maxPending = maxPending;
+        this.batchSize = Math.max(1, Math.min(maxPending / 2, 1000));
+        final String name = "redis-write-behind-" + cache.getName();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushQuietly();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public V get(K key) throws CacheException {
+        Write<V> write = pendingWrite(key);
+        return write != null ? write.value : cache.get(key);
+    }
+
+    /**
+     * Loads once per key in this JVM and queues the loaded value like any
+     * other put; the load lease of the Redis cache is not used.
+     */
+    @Override
+    public V get(final K key, final CacheLoader<K, V> loader) throws CacheException {
+        V value = get(key);
+        if (value != null || key == null) {
+            return value;
+        }
+        return loads.load(key, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                V value = get(key);
+                if (value == null) {
+                    value = loader.load(key);
+                    if (value != null) {
+                        put(key, value);
+                    }
+                }
+                return value;
+            }
+        });
+    }
+
+    @Override
+    public V put(K key, V value) throws CacheException {
+        enqueue(key, new Write<V>(value, 0, 0));
+        return value;
+    }
+
+    @Override
+    public V put(K key, V value, int timeToLiveSeconds, int timeToIdleSeconds) throws CacheException {
+        if ((timeToLiveSeconds > 0 || timeToIdleSeconds > 0) && !cache.getStorage().supportsEntryExpiry()) {
+            throw new UnsupportedOperationException("The " + cache.getLayout() + " layout cannot expire single entries.");
+        }
+        enqueue(key, new Write<V>(value, timeToLiveSeconds, timeToIdleSeconds));
+        return value;
+    }
+
+    /**
+     * Queues the removal.
+     *
+     * @return the pending value of the key, {@code null} if none; Redis is
+     * not asked
+     */
+    @Override
+    public V remove(K key) throws CacheException {
+        Write<V> previous = pendingWrite(key);
+        enqueue(key, new Write<V>(null, 0, 0));
+        return previous == null ? null : previous.value;
+    }
+
+    /**
+     * Drops the pending writes and clears the cache.
+     */
+    @Override
+    public void clear() throws CacheException {
+        synchronized (flushLock) {
+            synchronized (lock) {
+                pending.clear();
+            }
+            cache.clear();
+        }
+    }
+
+    /**
+     * Flushes first, then counts.
+     */
+    @Override
+    public int size() {
+        flush();
+        return cache.size();
+    }
+
+    /**
+     * Flushes first, then returns the keys in Redis.
+     */
+    @Override
+    public Set<K> keys() {
+        flush();
+        return cache.keys();
+    }
+
+    /**
+     * Flushes first, then returns the values in Redis.
+     */
+    @Override
+    public Collection<V> values() {
+        flush();
+        return cache.values();
+    }
+
+    @Override
+    public void removeAll() {
+        clear();
+    }
+
+    @Override
+    public Map<K, V> getAll(Collection<K> keys) throws CacheException {
+        Map<K, V> result = new LinkedHashMap<K, V>();
+        List<K> missing = new ArrayList<K>();
+        for (K key : keys) {
+            Write<V> write = key == null ? null : pendingWrite(key);
+            if (write == null) {
+                missing.add(key);
+            } else if (write.value != null) {
+                result.put(key, write.value);
+            }
+        }
+        if (!missing.isEmpty()) {
+            result.putAll(cache.getAll(missing));
+        }
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<K, V> entries) throws CacheException {
+        for (Map.Entry<K, V> entry : entries.entrySet()) {
+            enqueue(entry.getKey(), new Write<V>(entry.getValue(), 0, 0));
+        }
+    }
+
+    @Override
+    public void removeAll(Collection<K> keys) throws CacheException {
+        for (K key : keys) {
+            enqueue(key, new Write<V>(null, 0, 0));
+        }
+    }
+
+    /**
+     * Writes every pending write now, on the calling thread.
+     */
+    public void flush() throws CacheException {
+        synchronized (flushLock) {
+            Map<K, Write<V>> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<K, Write<V>>();
+                flushing = batch;
+            }
+            long start = System.nanoTime();
+            try {
+                write(batch);
+                flushed.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                failedFlushes.incrementAndGet();
+                synchronized (lock) {
+                    LinkedHashMap<K, Write<V>> retry = new LinkedHashMap<K, Write<V>>(batch);
+                    retry.putAll(pending);
+                    pending = retry;
+                }
+                throw e;
+            } finally {
+                flushing = Collections.emptyMap();
+                lastFlushNanos = System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Stops the flusher and flushes what is left; later writes are written
+     * through.
+     */
+    public void close() {
+        closed = true;
+        flusher.shutdown();
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Lost " + getPendingCount() + " pending writes of cache [" + cache.getName() + "]", e);
+        }
+    }
+
+    private void write(Map<K, Write<V>> batch) {
+        Map<K, V> puts = new LinkedHashMap<K, V>();
+        List<K> removes = new ArrayList<K>();
+        for (Map.Entry<K, Write<V>> entry : batch.entrySet()) {
+            Write<V> write = entry.getValue();
+            if (write.value == null) {
+                removes.add(entry.getKey());
+            } else if (write.timeToLive > 0 || write.timeToIdle > 0) {
+                cache.put(entry.getKey(), write.value, write.timeToLive, write.timeToIdle);
+            } else {
+                puts.put(entry.getKey(), write.value);
+            }
+        }
+        if (!puts.isEmpty()) {
+            cache.putAll(puts);
+        }
+        if (!removes.isEmpty()) {
+            cache.removeAll(removes);
+        }
+    }
+
+    private void enqueue(K key, Write<V> write) {
+        if (key == null) {
+            return;
+        }
+        boolean through = closed;
+        int size = 0;
+        if (!through) {
+            synchronized (lock) {
+                if (pending.put(key, write) != null) {
+                    coalesced.incrementAndGet();
+                } else if (pending.size() > maxPending) {
+                    pending.remove(key);
+                    through = true;
+                }
+                size = pending.size();
+            }
+        }
+        if (through) {
+            overflows.incrementAndGet();
+            // after any batch holding an older write of the key
+            synchronized (flushLock) {
+                write(Collections.singletonMap(key, write));
+            }
+        } else if (size >= batchSize && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flushRequested.set(false);
+                    flushQuietly();
+                }
+            });
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.warn("Write-behind flush of cache [" + cache.getName() + "] failed, retrying later", e);
+        }
+    }
+
+    private Write<V> pendingWrite(K key) {
+        Write<V> write;
+        synchronized (lock) {
+            write = pending.get(key);
+        }
+        return write != null ? write : flushing.get(key);
+    }
+
+    /**
+     * @return keys waiting to be flushed, the queue depth
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @return writes that replaced a pending write of the same key
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return keys written by flushes
+     */
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    /**
+     * @return writes done on the calling thread, the queue being full or
+     * closed
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushes.get();
+    }
+
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    public AbstractRedisCache<K, V> getCache() {
+        return cache;
+    }
+
+    private static class Write<V> {
+
+        /**
+         * {@code null} for a removal.
+         */
+        final V value;
+        final int timeToLive;
+        final int timeToIdle;
+
+        Write(V value, int timeToLive, int timeToIdle) {
+            this.value = value;
+            this.timeToLive = timeToLive;
+            this.timeToIdle = timeToIdle;
+        }
+    }
+}
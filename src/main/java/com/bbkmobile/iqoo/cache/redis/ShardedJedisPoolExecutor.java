@@ -0,0 +1,91 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Collection;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ShardedJedis;
+import redis.clients.jedis.ShardedJedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.metrics.Operation;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * {@link RedisExecutor} on top of a client-side {@link ShardedJedisPool}.
+ * Keys are routed with the pool's own hashing, so data written through this
+ * executor is laid out exactly as if written through {@link ShardedJedis}.
+ *
+ * @author lqzhai
+ */
+public class ShardedJedisPoolExecutor extends RedisExecutor {
+
+    private final ShardedJedisPool pool;
+
+    public ShardedJedisPoolExecutor(ShardedJedisPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool argument cannot be null.");
+        }
+        this.pool = pool;
+    }
+
+    @Override
+    public <T> T execute(RedisCallback<T> action) throws CacheException {
+        CircuitBreaker breaker = acquireCircuit();
+        long started = breaker == null ? 0L : System.nanoTime();
+        boolean failed = false;
+        ShardedJedis cache = null;
+        boolean isGetResource = true;
+        try {
+            Operation op = Operation.current();
+            if (op.isActive()) {
+                long start = System.nanoTime();
+                cache = pool.getResource();
+                op.recordBorrow(System.nanoTime() - start);
+            } else {
+                cache = pool.getResource();
+            }
+            return action.doInRedis(new ShardedConnection(cache));
+        } catch (JedisConnectionException t) {
+            failed = true;
+            isGetResource = false;
+            if (null != cache) {
+                pool.returnBrokenResource(cache);
+            }
+            throw new CacheException(t);
+        } catch (SerializationException ex) {
+            throw new CacheException(ex);
+        } finally {
+            if (null != cache && isGetResource) {
+                this.pool.returnResource(cache);
+                cache = null;
+            }
+            if (breaker != null) {
+                breaker.record(failed, System.nanoTime() - started);
+            }
+        }
+    }
+
+    public ShardedJedisPool getPool() {
+        return pool;
+    }
+
+    private static class ShardedConnection implements RedisConnection {
+
+        private final ShardedJedis jedis;
+
+        ShardedConnection(ShardedJedis jedis) {
+            this.jedis = jedis;
+        }
+
+        @Override
+        public Jedis getNode(byte[] key) {
+            return jedis.getShard(key);
+        }
+
+        @Override
+        public Collection<Jedis> getNodes() {
+            return jedis.getAllShards();
+        }
+    }
+}
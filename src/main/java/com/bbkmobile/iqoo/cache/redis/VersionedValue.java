@@ -0,0 +1,49 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+/**
+ * A cached value together with the version stamp it was stored with.
+ *
+ * @author lqzhai
+ */
+public class VersionedValue<V> {
+
+    private final V value;
+    private final long version;
+    private final boolean absent;
+
+    public VersionedValue(V value, long version) {
+        this(value, version, false);
+    }
+
+    /**
+     * @param absent whether the entry is a negative one
+     */
+    public VersionedValue(V value, long version, boolean absent) {
+        this.value = value;
+        this.version = version;
+        this.absent = absent;
+    }
+
+    /**
+     * @return the value, or {@code null} if there was no entry
+     */
+    public V getValue() {
+        return value;
+    }
+
+    /**
+     * @return whether the value is known not to exist, i.e. the entry was
+     * stored by {@link AbstractRedisCache#putAbsent(Object)}; the value is
+     * then {@code null}
+     */
+    public boolean isAbsent() {
+        return absent;
+    }
+
+    /**
+     * @return the version stamp, or 0 if the entry is not versioned
+     */
+    public long getVersion() {
+        return version;
+    }
+}
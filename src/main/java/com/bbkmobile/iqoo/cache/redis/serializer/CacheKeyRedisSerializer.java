@@ -0,0 +1,36 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+import java.nio.charset.Charset;
+
+import com.bbkmobile.iqoo.cache.CacheKey;
+
+/**
+ * Writes a {@link CacheKey} as the UTF-8 bytes it already holds, the same
+ * bytes {@link StringRedisSerializer} writes for its string.
+ *
+ * @author lqzhai
+ */
+public class CacheKeyRedisSerializer implements RedisSerializer<CacheKey> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Override
+    public byte[] serialize(CacheKey t) throws SerializationException {
+        return t == null ? null : t.getBytes();
+    }
+
+    @Override
+    public CacheKey deserialize(byte[] bytes) throws SerializationException {
+        return bytes == null ? null : new CacheKey(new String(bytes, UTF8), bytes);
+    }
+
+    @Override
+    public String serializeToSting(CacheKey t) throws SerializationException {
+        return t == null ? null : t.getValue();
+    }
+
+    @Override
+    public CacheKey deserializeFromString(String str) throws SerializationException {
+        return str == null ? null : new CacheKey(str);
+    }
+}
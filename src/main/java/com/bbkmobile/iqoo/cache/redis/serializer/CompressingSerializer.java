@@ -0,0 +1,410 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link RedisSerializer} decorator that deflates the payloads of another
+ * serializer once they reach a size threshold.
+ *
+ * <p>Payloads below the threshold, or that do not shrink, are stored exactly
+ * as the delegate wrote them. Compressed payloads start with the marker byte
+ * {@code 0xCF} followed by a mode byte and the uncompressed length; the rare
+ * uncompressed payload that itself starts with the marker is escaped with a
+ * two byte header. Values written before compression was enabled are
+ * therefore still read.</p>
+ *
+ * <p>A preset dictionary, {@link #train(Collection, int) trained} from sample
+ * values of the cache, lets small similar payloads such as JSON documents of
+ * one type compress well. Every dictionary ever set stays known for reading,
+ * keyed by its Adler-32 checksum which zlib records in the stream, so it can
+ * be retrained without rewriting the cache; all JVMs reading the cache need
+ * every dictionary in use.</p>
+ *
+ * <p>Counters of bytes in and out and of the time spent compressing and
+ * decompressing are kept per instance, i.e. per cache.</p>
+ *
+ * @author lqzhai
+ */
+public class CompressingSerializer<T> implements RedisSerializer<T> {
+
+    private static final byte MARKER = (byte) 0xCF;
+    private static final byte MODE_RAW = 0;
+    private static final byte MODE_DEFLATE = 1;
+
+    private final RedisSerializer<T> delegate;
+    private final int threshold;
+    private final int level;
+    private final ConcurrentMap<Integer, byte[]> dictionaries = new ConcurrentHashMap<Integer, byte[]>();
+    private volatile byte[] dictionary;
+    private final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(level);
+        }
+    };
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong uncompressed = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    /**
+     * Compresses at {@link Deflater#BEST_SPEED}.
+     *
+     * @param delegate the serializer producing the payloads
+     * @param threshold the payload size in bytes from which compression is
+     * tried
+     */
+    public CompressingSerializer(RedisSerializer<T> delegate, int threshold) {
+        this(delegate, threshold, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param level the {@link Deflater} compression level
+     */
+    public CompressingSerializer(RedisSerializer<T> delegate, int threshold, int level) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null.");
+        }
+        this.delegate = delegate;
+        this.threshold = Math.max(1, threshold);
+        this.level = level;
+    }
+
+    @Override
+    public byte[] serialize(T t) throws SerializationException {
+        byte[] raw = delegate.serialize(t);
+        if (raw == null || raw.length < threshold) {
+            uncompressed.incrementAndGet();
+            return escape(raw);
+        }
+        long start = System.nanoTime();
+        byte[] dict = dictionary;
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dict != null) {
+            deflater.setDictionary(dict);
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+        Output out = new Output(raw.length / 2 + 16);
+        out.write(MARKER);
+        out.write(MODE_DEFLATE);
+        out.writeVarint(raw.length);
+        while (!deflater.finished()) {
+            out.ensure(Math.max(64, out.size / 2));
+            out.size += deflater.deflate(out.buf, out.size, out.buf.length - out.size);
+            if (out.size >= raw.length) {
+                break;
+            }
+        }
+        compressNanos.addAndGet(System.nanoTime() - start);
+        if (out.size >= raw.length) {
+            uncompressed.incrementAndGet();
+            return escape(raw);
+        }
+        compressed.incrementAndGet();
+        bytesIn.addAndGet(raw.length);
+        bytesOut.addAndGet(out.size);
+        return Arrays.copyOf(out.buf, out.size);
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length < 2 || bytes[0] != MARKER) {
+            return delegate.deserialize(bytes);
+        }
+        if (bytes[1] == MODE_RAW) {
+            return delegate.deserialize(Arrays.copyOfRange(bytes, 2, bytes.length));
+        }
+        if (bytes[1] != MODE_DEFLATE) {
+            return delegate.deserialize(bytes);
+        }
+        long start = System.nanoTime();
+        int pos = 2;
+        int length = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = bytes[pos++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        byte[] raw = new byte[length];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(bytes, pos, bytes.length - pos);
+        try {
+            int done = 0;
+            while (done < length) {
+                int n = inflater.inflate(raw, done, length - done);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] dict = dictionaries.get(inflater.getAdler());
+                        if (dict == null) {
+                            throw new SerializationException("Unknown compression dictionary " + inflater.getAdler());
+                        }
+                        inflater.setDictionary(dict);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new SerializationException("Truncated compressed value");
+                    }
+                }
+                done += n;
+            }
+        } catch (DataFormatException e) {
+            throw new SerializationException("Corrupt compressed value", e);
+        }
+        decompressNanos.addAndGet(System.nanoTime() - start);
+        return delegate.deserialize(raw);
+    }
+
+    @Override
+    public String serializeToSting(T t) throws SerializationException {
+        return delegate.serializeToSting(t);
+    }
+
+    @Override
+    public T deserializeFromString(String str) throws SerializationException {
+        return delegate.deserializeFromString(str);
+    }
+
+    /**
+     * Sets the dictionary used from now on to compress; it also stays known
+     * for reading.
+     *
+     * @param dictionary the preset dictionary, {@code null} to compress
+     * without one
+     */
+    public void setDictionary(byte[] dictionary) {
+        if (dictionary != null) {
+            addDictionary(dictionary);
+        }
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Registers a dictionary that values in the cache may have been written
+     * with, without compressing with it.
+     */
+    public void addDictionary(byte[] dictionary) {
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+        dictionaries.put((int) adler.getValue(), dictionary);
+    }
+
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Builds a preset dictionary from sample values, e.g. collected with
+     * {@code AbstractRedisCache.forEach}, and starts compressing with it.
+     *
+     * @param samples values typical of the cache
+     * @param maxSize the dictionary size limit; zlib uses at most 32 KB
+     * @return the dictionary, to be set on every other serializer of the
+     * cache
+     */
+    public byte[] train(Collection<? extends T> samples, int maxSize) throws SerializationException {
+        List<byte[]> raw = new ArrayList<byte[]>(samples.size());
+        for (T sample : samples) {
+            raw.add(delegate.serialize(sample));
+        }
+        byte[] dict = buildDictionary(raw, maxSize);
+        setDictionary(dict);
+        return dict;
+    }
+
+    /**
+     * Picks the byte sequences shared by the most samples. zlib finds matches
+     * near the end of the dictionary cheapest, so the most common sequences
+     * are placed last.
+     */
+    static byte[] buildDictionary(List<byte[]> samples, int maxSize) {
+        final int gram = 12;
+        final Map<Gram, Integer> frequency = new HashMap<Gram, Integer>();
+        for (byte[] sample : samples) {
+            Set<Gram> seen = new HashSet<Gram>();
+            for (int i = 0; i + gram <= sample.length; i++) {
+                Gram g = new Gram(sample, i, gram);
+                if (seen.add(g)) {
+                    Integer count = frequency.get(g);
+                    frequency.put(g, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        List<Gram> common = new ArrayList<Gram>();
+        for (Map.Entry<Gram, Integer> entry : frequency.entrySet()) {
+            if (entry.getValue() > 1 || samples.size() == 1) {
+                common.add(entry.getKey());
+            }
+        }
+        Collections.sort(common, new Comparator<Gram>() {
+            @Override
+            public int compare(Gram a, Gram b) {
+                return frequency.get(b).compareTo(frequency.get(a));
+            }
+        });
+        Output out = new Output(Math.min(maxSize, 32 * 1024));
+        for (Gram g : common) {
+            if (out.size + gram > maxSize) {
+                break;
+            }
+            out.ensure(gram);
+            System.arraycopy(g.bytes, g.offset, out.buf, out.size, gram);
+            out.size += gram;
+        }
+        byte[] dict = new byte[out.size];
+        for (int i = 0; i < out.size; i += gram) {
+            System.arraycopy(out.buf, i, dict, out.size - i - gram, gram);
+        }
+        return dict;
+    }
+
+    /**
+     * @return compressed bytes divided by their uncompressed size, over all
+     * compressed values; 1 if nothing was compressed yet
+     */
+    public double getCompressionRatio() {
+        long in = bytesIn.get();
+        return in == 0 ? 1.0 : (double) bytesOut.get() / in;
+    }
+
+    public long getCompressedCount() {
+        return compressed.get();
+    }
+
+    /**
+     * @return values stored uncompressed, being under the threshold or not
+     * shrinking
+     */
+    public long getUncompressedCount() {
+        return uncompressed.get();
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getCompressNanos() {
+        return compressNanos.get();
+    }
+
+    public long getDecompressNanos() {
+        return decompressNanos.get();
+    }
+
+    public RedisSerializer<T> getDelegate() {
+        return delegate;
+    }
+
+    private static byte[] escape(byte[] raw) {
+        if (raw == null || raw.length == 0 || raw[0] != MARKER) {
+            return raw;
+        }
+        byte[] escaped = new byte[raw.length + 2];
+        escaped[0] = MARKER;
+        escaped[1] = MODE_RAW;
+        System.arraycopy(raw, 0, escaped, 2, raw.length);
+        return escaped;
+    }
+
+    private static class Gram {
+
+        final byte[] bytes;
+        final int offset;
+        final int length;
+        final int hash;
+
+        Gram(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            int h = 1;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Gram)) {
+                return false;
+            }
+            Gram other = (Gram) o;
+            if (other.hash != hash || other.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[offset + i] != other.bytes[other.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static class Output {
+
+        byte[] buf;
+        int size;
+
+        Output(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        void write(byte b) {
+            ensure(1);
+            buf[size++] = b;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+        }
+
+        void ensure(int more) {
+            if (size + more > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + more));
+            }
+        }
+    }
+}
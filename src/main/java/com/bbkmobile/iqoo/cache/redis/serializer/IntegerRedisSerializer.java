@@ -0,0 +1,40 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+/**
+ * Writes {@link Integer} keys as 4 big-endian bytes.
+ *
+ * @author lqzhai
+ */
+public class IntegerRedisSerializer implements RedisSerializer<Integer> {
+
+    @Override
+    public byte[] serialize(Integer t) throws SerializationException {
+        if (t == null) {
+            return null;
+        }
+        int value = t.intValue();
+        return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+
+    @Override
+    public Integer deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length != 4) {
+            throw new SerializationException("Expected 4 bytes for an Integer key but got " + bytes.length);
+        }
+        return Integer.valueOf(((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16)
+                | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff));
+    }
+
+    @Override
+    public String serializeToSting(Integer t) throws SerializationException {
+        return t == null ? null : t.toString();
+    }
+
+    @Override
+    public Integer deserializeFromString(String str) throws SerializationException {
+        return str == null ? null : Integer.valueOf(str);
+    }
+}
@@ -21,7 +21,13 @@ public class JacksonJsonRedisSerializer<T> implements RedisSerializer<T> {
 
     public static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
     private final JavaType javaType;
-    private ObjectMapper objectMapper = new ObjectMapper();
+    /**
+     * Shared by every instance left with the default mapper, an
+     * {@code ObjectMapper} being thread safe once configured and costly to
+     * build.
+     */
+    private static final ObjectMapper DEFAULT_OBJECT_MAPPER = new ObjectMapper();
+    private ObjectMapper objectMapper = DEFAULT_OBJECT_MAPPER;
 
     public JacksonJsonRedisSerializer(Class<T> type) {
         this.javaType = TypeFactory.defaultInstance().constructType(type);
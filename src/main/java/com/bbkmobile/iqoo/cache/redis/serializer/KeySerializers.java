@@ -0,0 +1,37 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+import com.bbkmobile.iqoo.cache.CacheKey;
+
+/**
+ * Picks the most compact key serializer for a key type.
+ *
+ * @author lqzhai
+ */
+public abstract class KeySerializers {
+
+    /**
+     * @param keyType the key type, {@code null} if unknown
+     * @return raw UTF-8 for {@code String} and {@link CacheKey}, fixed width big-endian bytes for
+     * {@code Long} and {@code Integer}, {@link RawKeySerializer} for unknown
+     * types and JSON otherwise
+     */
+    @SuppressWarnings("unchecked")
+    public static <K> RedisSerializer<K> forType(Class<K> keyType) {
+        if (keyType == null || keyType == Object.class) {
+            return new RawKeySerializer<K>();
+        }
+        if (keyType == String.class) {
+            return (RedisSerializer<K>) new StringRedisSerializer();
+        }
+        if (keyType == CacheKey.class) {
+            return (RedisSerializer<K>) new CacheKeyRedisSerializer();
+        }
+        if (keyType == Long.class) {
+            return (RedisSerializer<K>) new LongRedisSerializer();
+        }
+        if (keyType == Integer.class) {
+            return (RedisSerializer<K>) new IntegerRedisSerializer();
+        }
+        return new JacksonJsonRedisSerializer<K>(keyType);
+    }
+}
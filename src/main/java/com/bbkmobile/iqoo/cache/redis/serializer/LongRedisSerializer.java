@@ -0,0 +1,48 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+/**
+ * Writes {@link Long} keys as 8 big-endian bytes.
+ *
+ * @author lqzhai
+ */
+public class LongRedisSerializer implements RedisSerializer<Long> {
+
+    @Override
+    public byte[] serialize(Long t) throws SerializationException {
+        if (t == null) {
+            return null;
+        }
+        long value = t.longValue();
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    @Override
+    public Long deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length != 8) {
+            throw new SerializationException("Expected 8 bytes for a Long key but got " + bytes.length);
+        }
+        long value = 0L;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xff);
+        }
+        return Long.valueOf(value);
+    }
+
+    @Override
+    public String serializeToSting(Long t) throws SerializationException {
+        return t == null ? null : t.toString();
+    }
+
+    @Override
+    public Long deserializeFromString(String str) throws SerializationException {
+        return str == null ? null : Long.valueOf(str);
+    }
+}
@@ -0,0 +1,60 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+import com.bbkmobile.iqoo.cache.metrics.Operation;
+
+/**
+ * {@link RedisSerializer} decorator adding the time and bytes of every call
+ * to the current instrumented {@link Operation}; outside one it only costs a
+ * thread local lookup.
+ *
+ * @author lqzhai
+ */
+public class MeteredSerializer<T> implements RedisSerializer<T> {
+
+    private final RedisSerializer<T> delegate;
+
+    public MeteredSerializer(RedisSerializer<T> delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null.");
+        }
+        this.delegate = delegate;
+    }
+
+    @Override
+    public byte[] serialize(T t) throws SerializationException {
+        Operation op = Operation.current();
+        if (!op.isActive()) {
+            return delegate.serialize(t);
+        }
+        long start = System.nanoTime();
+        byte[] bytes = delegate.serialize(t);
+        op.recordSerde(System.nanoTime() - start, 0, bytes == null ? 0 : bytes.length);
+        return bytes;
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        Operation op = Operation.current();
+        if (!op.isActive() || bytes == null) {
+            return delegate.deserialize(bytes);
+        }
+        long start = System.nanoTime();
+        T t = delegate.deserialize(bytes);
+        op.recordSerde(System.nanoTime() - start, bytes.length, 0);
+        return t;
+    }
+
+    @Override
+    public String serializeToSting(T t) throws SerializationException {
+        return delegate.serializeToSting(t);
+    }
+
+    @Override
+    public T deserializeFromString(String str) throws SerializationException {
+        return delegate.deserializeFromString(str);
+    }
+
+    public RedisSerializer<T> getDelegate() {
+        return delegate;
+    }
+}
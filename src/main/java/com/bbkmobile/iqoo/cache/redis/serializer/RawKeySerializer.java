@@ -0,0 +1,57 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+import java.nio.charset.Charset;
+
+import com.bbkmobile.iqoo.cache.CacheKey;
+
+/**
+ * Key serializer for caches whose key type is not known up front: a
+ * {@code String} key is written as its raw UTF-8 bytes, any other key with
+ * Java serialization. A {@link CacheKey} is written as the bytes it holds and
+ * read back as a {@code String}.
+ *
+ * <p>Java serialization output starts with {@code 0xAC 0xED}, a byte that
+ * never starts UTF-8 text, so both forms are told apart on read. Keys written
+ * by {@link SimpleSerializer} are read back as well.</p>
+ *
+ * @author lqzhai
+ */
+public class RawKeySerializer<T> implements RedisSerializer<T> {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SimpleSerializer<Object> java = new SimpleSerializer<Object>();
+
+    @Override
+    public byte[] serialize(T t) throws SerializationException {
+        if (t instanceof String) {
+            return ((String) t).getBytes(UTF8);
+        }
+        if (t instanceof CacheKey) {
+            return ((CacheKey) t).getBytes();
+        }
+        return java.serialize(t);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED) {
+            return (T) java.deserialize(bytes);
+        }
+        return (T) new String(bytes, UTF8);
+    }
+
+    @Override
+    public String serializeToSting(T t) throws SerializationException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public T deserializeFromString(String str) throws SerializationException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
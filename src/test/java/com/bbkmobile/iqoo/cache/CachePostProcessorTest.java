@@ -0,0 +1,114 @@
+package com.bbkmobile.iqoo.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * 并行预加载的依赖：依赖先完成，成环的依赖在设置时拒绝，不会创建的依赖不阻塞预加载。
+ */
+public class CachePostProcessorTest extends TestCase {
+
+	private static final List<String> preloaded = Collections.synchronizedList(new ArrayList<String>());
+
+	private DefaultListableBeanFactory factory;
+	private CachePostProcessor processor;
+
+	@Override
+	protected void setUp() throws Exception {
+		preloaded.clear();
+		factory = new DefaultListableBeanFactory();
+		processor = new CachePostProcessor();
+		processor.setPreloadThreads(2);
+		processor.setBeanFactory(factory);
+		factory.addBeanPostProcessor(processor);
+	}
+
+	public void testDependenciesPreloadFirst() throws Exception {
+		processor.setPreloadDependencies(dependencies("first", "second"));
+		factory.registerBeanDefinition("first", new RootBeanDefinition(Preloading.class));
+		factory.registerBeanDefinition("second", new RootBeanDefinition(Preloading.class));
+		factory.preInstantiateSingletons();
+		processor.awaitPreloads();
+		assertEquals(Arrays.asList("second", "first"), preloaded);
+	}
+
+	public void testCycleIsRejected() {
+		Map<String, Collection<String>> dependencies = dependencies("a", "b");
+		dependencies.put("b", Arrays.asList("c"));
+		dependencies.put("c", Arrays.asList("a"));
+		try {
+			processor.setPreloadDependencies(dependencies);
+			fail("a cycle would never preload");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("a -> b -> c -> a"));
+		}
+		try {
+			processor.setPreloadDependencies(dependencies("self", "self"));
+			fail("a cycle would never preload");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("self -> self"));
+		}
+	}
+
+	public void testDependencyNeverPreloadedDoesNotBlock() throws Exception {
+		Map<String, Collection<String>> dependencies = new HashMap<String, Collection<String>>();
+		dependencies.put("cache", Arrays.asList("missing", "plain", "lazy"));
+		processor.setPreloadDependencies(dependencies);
+		factory.registerBeanDefinition("plain", new RootBeanDefinition(Object.class));
+		RootBeanDefinition lazy = new RootBeanDefinition(Preloading.class);
+		lazy.setLazyInit(true);
+		factory.registerBeanDefinition("lazy", lazy);
+		factory.registerBeanDefinition("cache", new RootBeanDefinition(Preloading.class));
+		factory.preInstantiateSingletons();
+
+		// 不经过 awaitPreloads 也能完成
+		long deadline = System.currentTimeMillis() + 5000L;
+		while (!processor.getPreloadMillis().containsKey("cache")) {
+			if (System.currentTimeMillis() > deadline) {
+				fail("preload blocked, pending " + processor.getPendingPreloads());
+			}
+			Thread.sleep(10L);
+		}
+		assertEquals(Arrays.asList("cache"), preloaded);
+	}
+
+	private static Map<String, Collection<String>> dependencies(String name, String dependency) {
+		Map<String, Collection<String>> dependencies = new HashMap<String, Collection<String>>();
+		dependencies.put(name, Arrays.asList(dependency));
+		return dependencies;
+	}
+
+	public static class Preloading implements CacheManagerAware, BeanNameAware {
+
+		private String name;
+
+		@Override
+		public void setBeanName(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void setCacheManager(CacheManager cacheManager) {
+		}
+
+		@Override
+		public void preLoad() {
+			preloaded.add(name);
+		}
+
+		@Override
+		public void refresh() {
+		}
+	}
+}
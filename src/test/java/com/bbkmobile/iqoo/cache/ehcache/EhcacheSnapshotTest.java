@@ -0,0 +1,86 @@
+package com.bbkmobile.iqoo.cache.ehcache;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.sf.ehcache.Element;
+
+import com.bbkmobile.iqoo.cache.Cache;
+
+/**
+ * 快照：停机写入、启动恢复，过期条目不恢复，版本不符时整个快照作废。
+ */
+public class EhcacheSnapshotTest extends TestCase {
+
+	private File dir;
+	private File config;
+	private EhcachCacheManager manager;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = new File("target/snapshot-" + System.nanoTime());
+		assertTrue(dir.mkdirs());
+		config = new File(dir, "ehcache.xml");
+		FileWriter writer = new FileWriter(config);
+		writer.write("<ehcache updateCheck=\"false\">"
+				+ "<defaultCache maxElementsInMemory=\"100\" eternal=\"false\" timeToLiveSeconds=\"600\"/>"
+				+ "<cache name=\"snap\" maxElementsInMemory=\"1000\" eternal=\"false\" timeToLiveSeconds=\"600\"/>"
+				+ "</ehcache>");
+		writer.close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if (manager != null) {
+			manager.getInstance().shutdown();
+		}
+	}
+
+	public void testRoundTrip() throws Exception {
+		Cache<String, Object> cache = start("v1").getCache("snap");
+		for (int i = 0; i < 100; i++) {
+			cache.put("k" + i, Arrays.asList(i, "x" + i));
+		}
+		cache.put("unserializable", new Object());
+		manager.destory();
+		assertTrue(new File(dir, "snap.snapshot").length() > 0);
+
+		assertEquals(100, start("v1").restore());
+		Cache<String, Object> restored = manager.getCache("snap");
+		assertEquals(100, restored.size());
+		assertEquals(Arrays.asList(7, "x7"), restored.get("k7"));
+		assertNull(restored.get("unserializable"));
+		Element element = manager.getInstance().getCache("snap").get("k7");
+		assertTrue("entries keep their expiry", element.getExpirationTime() - System.currentTimeMillis() <= 600000L);
+	}
+
+	public void testExpiredEntriesAreNotRestored() throws Exception {
+		Cache<String, Object> cache = start("v1").getCache("snap");
+		cache.put("short", "s", 1, 0);
+		cache.put("long", "l");
+		Thread.sleep(1100L);
+		manager.destory();
+
+		assertEquals(1, start("v1").restore());
+		Cache<String, Object> restored = manager.getCache("snap");
+		assertNull(restored.get("short"));
+		assertEquals("l", restored.get("long"));
+	}
+
+	public void testOtherVersionIsIgnored() throws Exception {
+		start("v1").getCache("snap").put("k", "v");
+		manager.destory();
+
+		assertEquals(0, start("v2").restore());
+		assertNull(manager.getCache("snap").get("k"));
+	}
+
+	private EhcachCacheManager start(String version) {
+		manager = new EhcachCacheManager(config.getPath());
+		manager.setSnapshotDirectory(dir.getPath());
+		manager.setSnapshotVersion(version);
+		return manager;
+	}
+}
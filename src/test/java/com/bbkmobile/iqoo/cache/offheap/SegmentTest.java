@@ -0,0 +1,140 @@
+package com.bbkmobile.iqoo.cache.offheap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * The ring log and the index of a {@link Segment}: colliding hashes survive
+ * deletes and resizes, the oldest entries are evicted first, dead entries
+ * are reclaimed by the tail, and entries skip the end of the ring.
+ */
+public class SegmentTest extends TestCase {
+
+    /** header, 4 byte key and 12 byte value */
+    private static final int ENTRY = Segment.HEADER + 16;
+
+    public void testIndexAgainstMap() {
+        Segment segment = new Segment(1 << 20);
+        Map<String, String> expected = new HashMap<String, String>();
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + random.nextInt(500);
+            // few distinct hashes: long probe runs that wrap around the index
+            int hash = key.hashCode() % 7 - 1;
+            if (random.nextInt(3) == 0) {
+                int offset = segment.remove(hash, key.getBytes());
+                assertEquals(expected.remove(key) != null, offset >= 0);
+            } else {
+                String value = "v" + i;
+                assertTrue(segment.put(hash, key.getBytes(), value.getBytes(), 0L));
+                expected.put(key, value);
+            }
+        }
+        assertEquals(expected.size(), segment.count());
+        for (int k = 0; k < 500; k++) {
+            String key = "k" + k;
+            int offset = segment.find(key.hashCode() % 7 - 1, key.getBytes());
+            if (expected.containsKey(key)) {
+                assertTrue(key, offset >= 0);
+                assertEquals(expected.get(key), new String(segment.value(offset)));
+            } else {
+                assertEquals(key, -1, offset);
+            }
+        }
+        assertEquals(0, segment.evictions());
+    }
+
+    public void testOldestEntriesAreEvictedFirst() {
+        Segment segment = new Segment(ENTRY * 10);
+        for (int i = 0; i < 12; i++) {
+            put(segment, i);
+        }
+        assertEquals(10, segment.count());
+        assertEquals(2, segment.evictions());
+        assertEquals(ENTRY * 10, segment.used());
+        assertEquals(-1, find(segment, 0));
+        assertEquals(-1, find(segment, 1));
+        for (int i = 2; i < 12; i++) {
+            assertEquals(value(i), new String(segment.value(find(segment, i))));
+        }
+    }
+
+    public void testDeadEntriesAreReclaimedByTheTail() {
+        Segment segment = new Segment(ENTRY * 4);
+        put(segment, 0);
+        put(segment, 1);
+        put(segment, 0);
+        assertEquals(2, segment.count());
+        assertEquals("the replaced entry still takes room", ENTRY * 3, segment.used());
+
+        put(segment, 2);
+        put(segment, 3);
+        assertEquals(4, segment.count());
+        assertEquals("reclaiming the dead entry evicts nothing", 0, segment.evictions());
+        assertEquals(ENTRY * 4, segment.used());
+
+        put(segment, 4);
+        assertEquals(1, segment.evictions());
+        assertEquals(-1, find(segment, 1));
+        assertEquals(value(0), new String(segment.value(find(segment, 0))));
+    }
+
+    public void testEntriesSkipTheEndOfTheRing() {
+        // room for a skip marker at the end, then for none
+        for (int tail : new int[] { Segment.HEADER, Segment.HEADER - 4 }) {
+            Segment segment = new Segment(ENTRY * 3 + tail);
+            for (int i = 0; i < 5; i++) {
+                put(segment, i);
+            }
+            assertEquals(3, segment.count());
+            assertEquals(2, segment.evictions());
+            List<byte[]> keys = new ArrayList<byte[]>();
+            segment.collect(keys, true, System.currentTimeMillis());
+            assertEquals(3, keys.size());
+            assertEquals(key(2), new String(keys.get(0)));
+            assertEquals(key(3), new String(keys.get(1)));
+            assertEquals(key(4), new String(keys.get(2)));
+        }
+    }
+
+    public void testExpiredEntriesAreNotCollected() {
+        Segment segment = new Segment(ENTRY * 4);
+        long now = System.currentTimeMillis();
+        segment.put(1, key(1).getBytes(), value(1).getBytes(), now - 1);
+        segment.put(2, key(2).getBytes(), value(2).getBytes(), now + 60000L);
+        assertTrue(segment.isExpired(find(segment, 1), now));
+        assertFalse(segment.isExpired(find(segment, 2), now));
+        List<byte[]> values = new ArrayList<byte[]>();
+        segment.collect(values, false, now);
+        assertEquals(1, values.size());
+        assertEquals(value(2), new String(values.get(0)));
+    }
+
+    public void testOversizedEntryIsRejected() {
+        Segment segment = new Segment(ENTRY);
+        assertFalse(segment.put(1, "key".getBytes(), new byte[ENTRY], 0L));
+        assertEquals(0, segment.used());
+        assertTrue(segment.put(1, key(1).getBytes(), value(1).getBytes(), 0L));
+    }
+
+    private static void put(Segment segment, int i) {
+        assertTrue(segment.put(i, key(i).getBytes(), value(i).getBytes(), 0L));
+    }
+
+    private static int find(Segment segment, int i) {
+        return segment.find(i, key(i).getBytes());
+    }
+
+    private static String key(int i) {
+        return String.format("k%03d", i);
+    }
+
+    private static String value(int i) {
+        return String.format("value-%06d", i);
+    }
+}
@@ -0,0 +1,155 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * State machine of a {@link CircuitBreaker}: it opens on the failure or slow
+ * call rate of a window once it holds enough calls, rejects calls while open,
+ * and closes after its probes succeed or opens again when one fails.
+ */
+public class CircuitBreakerTest extends TestCase {
+
+    private static final long FAST = 1000000L;
+
+    private CircuitBreaker breaker;
+
+    @Override
+    protected void setUp() throws Exception {
+        breaker = new CircuitBreaker("test");
+        breaker.setMinimumCalls(10);
+        breaker.setFailureRateThreshold(0.5);
+        breaker.setSlowCallMillis(100L);
+        breaker.setSlowCallRateThreshold(0.8);
+        breaker.setOpenMillis(100L);
+        breaker.setHalfOpenProbes(2);
+    }
+
+    public void testOpensOnceEnoughCallsFail() {
+        for (int i = 0; i < 9; i++) {
+            call(true, FAST);
+        }
+        assertEquals("fewer calls than the minimum", CircuitBreaker.State.CLOSED, breaker.getState());
+        call(false, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    public void testStaysClosedBelowTheFailureRate() {
+        for (int i = 0; i < 100; i++) {
+            call(i % 3 == 0, FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.getOpenedCount());
+    }
+
+    public void testOpensOnTheSlowCallRate() {
+        for (int i = 0; i < 10; i++) {
+            call(false, i < 2 ? FAST : 200L * FAST);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testRejectsWhileOpen() {
+        trip();
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        assertEquals(2, breaker.getRejectedCount());
+    }
+
+    public void testProbesClose() throws Exception {
+        trip();
+        Thread.sleep(150L);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        assertFalse("no more probes than configured", breaker.tryAcquire());
+        breaker.record(false, FAST);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.record(false, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        for (int i = 0; i < 9; i++) {
+            call(true, FAST);
+        }
+        assertEquals("the failures before opening are forgotten", CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testFailedProbeOpensAgain() throws Exception {
+        trip();
+        Thread.sleep(150L);
+        assertTrue(breaker.tryAcquire());
+        breaker.record(true, FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenedCount());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    public void testSlowProbeOpensAgain() throws Exception {
+        trip();
+        Thread.sleep(150L);
+        assertTrue(breaker.tryAcquire());
+        breaker.record(false, 200L * FAST);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    public void testNewWindowForgetsFailures() throws Exception {
+        breaker.setWindowMillis(100L);
+        for (int i = 0; i < 9; i++) {
+            call(true, FAST);
+        }
+        Thread.sleep(150L);
+        call(true, FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    public void testReset() {
+        trip();
+        breaker.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    public void testConcurrentFailuresOpenOnce() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 1000; i++) {
+                        if (breaker.tryAcquire()) {
+                            breaker.record(true, FAST);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000L);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenedCount());
+    }
+
+    private void trip() {
+        for (int i = 0; i < 10; i++) {
+            call(true, FAST);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void call(boolean failed, long nanos) {
+        assertTrue(breaker.tryAcquire());
+        breaker.record(failed, nanos);
+    }
+}
@@ -0,0 +1,161 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import redis.clients.jedis.HostAndPort;
+
+/**
+ * In-JVM stand-in for a Redis Cluster: {@link LocalRedisServer} nodes sharing
+ * the slots evenly, answering {@code CLUSTER NODES} and redirecting commands
+ * on keys they do not own with {@code MOVED}, or with {@code ASK} while a slot
+ * is {@link #migrate(int, int) migrating}.
+ *
+ * <p>Slots are reassigned without moving their keys, so tests move or migrate
+ * slots of an empty cache.</p>
+ *
+ * @author time
+ */
+public class LocalRedisCluster {
+
+    private static final Set<String> KEYLESS = new HashSet<String>(Arrays.asList("PING", "SELECT", "AUTH",
+            "QUIT", "ASKING", "CLUSTER", "FLUSHALL", "FLUSHDB", "DBSIZE", "SCAN", "PUBLISH", "SUBSCRIBE",
+            "UNSUBSCRIBE", "SCRIPT"));
+
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final int[] owners = new int[JedisClusterExecutor.SLOTS];
+    private final Map<Integer, Integer> migrating = new HashMap<Integer, Integer>();
+
+    /**
+     * Starts {@code size} nodes on free ports.
+     */
+    public LocalRedisCluster start(int size) throws IOException {
+        for (int i = 0; i < size; i++) {
+            Node node = new Node(i);
+            node.start(0);
+            nodes.add(node);
+        }
+        for (int slot = 0; slot < owners.length; slot++) {
+            owners[slot] = slot * size / owners.length;
+        }
+        return this;
+    }
+
+    public List<HostAndPort> getSeeds() {
+        return Arrays.asList(address(0));
+    }
+
+    public LocalRedisServer getNode(int index) {
+        return nodes.get(index);
+    }
+
+    public int keyCount() {
+        int count = 0;
+        for (Node node : nodes) {
+            count += node.keyCount();
+        }
+        return count;
+    }
+
+    /**
+     * Hands {@code slot} over to node {@code to} at once.
+     */
+    public synchronized void move(int slot, int to) {
+        migrating.remove(slot);
+        owners[slot] = to;
+    }
+
+    /**
+     * Starts migrating {@code slot} to node {@code to}: its owner answers
+     * {@code ASK} until the slot is {@link #move(int, int) moved}.
+     */
+    public synchronized void migrate(int slot, int to) {
+        migrating.put(slot, to);
+    }
+
+    public synchronized int ownerOf(int slot) {
+        return owners[slot];
+    }
+
+    public void stop() {
+        for (Node node : nodes) {
+            node.stop();
+        }
+    }
+
+    private HostAndPort address(int index) {
+        return new HostAndPort("127.0.0.1", nodes.get(index).getPort());
+    }
+
+    private synchronized String redirect(int index, String command, List<byte[]> args) {
+        if (KEYLESS.contains(command) || args.size() < 2) {
+            return null;
+        }
+        int last = "MGET".equals(command) || "DEL".equals(command) ? args.size() : 2;
+        int slot = -1;
+        for (int i = 1; i < last; i++) {
+            int keySlot = JedisClusterExecutor.slotOf(args.get(i));
+            if (slot >= 0 && keySlot != slot) {
+                return "CROSSSLOT Keys in request don't hash to the same slot";
+            }
+            slot = keySlot;
+        }
+        Integer importing = migrating.get(slot);
+        if (importing != null && importing.intValue() == index) {
+            return null;
+        }
+        if (owners[slot] != index) {
+            return "MOVED " + slot + " " + address(owners[slot]);
+        }
+        if (importing != null) {
+            return "ASK " + slot + " " + address(importing);
+        }
+        return null;
+    }
+
+    private synchronized String clusterNodes(int self) {
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < nodes.size(); i++) {
+            reply.append("node").append(i).append(' ').append(address(i)).append('@')
+                    .append(nodes.get(i).getPort() + 10000).append(i == self ? " myself,master" : " master")
+                    .append(" - 0 0 ").append(i + 1).append(" connected");
+            int from = -1;
+            for (int slot = 0; slot <= owners.length; slot++) {
+                boolean owned = slot < owners.length && owners[slot] == i;
+                if (owned && from < 0) {
+                    from = slot;
+                } else if (!owned && from >= 0) {
+                    reply.append(' ').append(from).append('-').append(slot - 1);
+                    from = -1;
+                }
+            }
+            reply.append('\n');
+        }
+        return reply.toString();
+    }
+
+    private class Node extends LocalRedisServer {
+
+        private final int index;
+
+        Node(int index) {
+            this.index = index;
+        }
+
+        @Override
+        protected String redirect(String command, List<byte[]> args) {
+            return LocalRedisCluster.this.redirect(index, command, args);
+        }
+
+        @Override
+        protected String clusterNodes() {
+            return LocalRedisCluster.this.clusterNodes(index);
+        }
+    }
+}
@@ -0,0 +1,755 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Minimal in-JVM stand-in for a Redis server, speaking enough of the RESP
+ * protocol for the caches in this project to be exercised in tests and
+ * benchmarks without an external process.
+ *
+ * <p>All commands run under one lock, so the stand-in is only meant for
+ * functional checks and relative measurements, not for absolute numbers.</p>
+ *
+ * @author time
+ */
+public class LocalRedisServer {
+
+    private static final java.nio.charset.Charset LATIN1 = java.nio.charset.Charset.forName("ISO-8859-1");
+
+    private static final byte[] OK = "+OK\r\n".getBytes();
+
+    private final Map<Key, Object> data = new HashMap<Key, Object>();
+    private final Map<Key, Long> expires = new HashMap<Key, Long>();
+    private final Map<Key, Set<Connection>> subscribers = new HashMap<Key, Set<Connection>>();
+    private final Set<Connection> connections = new CopyOnWriteArraySet<Connection>();
+    private final Map<String, byte[]> scripts = new HashMap<String, byte[]>();
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    /**
+     * Starts the server on the given port, or on a free port when
+     * {@code port} is 0.
+     */
+    public synchronized LocalRedisServer start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 128, InetAddress.getByName("127.0.0.1"));
+        running = true;
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        Connection connection = new Connection(socket);
+                        connections.add(connection);
+                        Thread t = new Thread(connection, "local-redis-connection");
+                        t.setDaemon(true);
+                        t.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }
+        }, "local-redis-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    public synchronized void flushAll() {
+        data.clear();
+        expires.clear();
+    }
+
+    /**
+     * Returns the number of live keys, for assertions on storage layout.
+     */
+    public synchronized int keyCount() {
+        purgeExpired();
+        return data.size();
+    }
+
+    /**
+     * Returns the remaining time to live of {@code key} in milliseconds,
+     * -1 when it has no expiry and -2 when it does not exist.
+     */
+    public synchronized long ttlMillis(byte[] key) {
+        Key k = new Key(key);
+        if (lookup(k) == null) {
+            return -2;
+        }
+        Long at = expires.get(k);
+        return at == null ? -1 : at.longValue() - System.currentTimeMillis();
+    }
+
+    /**
+     * Hook for subclasses that emulate cluster redirects. Returns an error
+     * reply to send instead of executing the command, or {@code null}.
+     */
+    protected String redirect(String command, List<byte[]> args) {
+        return null;
+    }
+
+    /**
+     * Hook for subclasses that emulate a cluster node: the reply to
+     * {@code CLUSTER NODES}, or {@code null} for a server without cluster
+     * support.
+     */
+    protected String clusterNodes() {
+        return null;
+    }
+
+    /**
+     * Hook for subclasses that emulate a script, as there is no Lua here: the
+     * bulk reply of {@code EVALSHA} of a loaded {@code source}. Throwing an
+     * {@link IllegalStateException} replies its message as an error.
+     */
+    protected byte[] evalScript(String source, List<byte[]> keys, List<byte[]> args) {
+        throw new IllegalStateException("ERR scripting is not supported");
+    }
+
+    private static String sha1(byte[] source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(source);
+            StringBuilder hex = new StringBuilder(40);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<Key, Long>> it = expires.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Key, Long> e = it.next();
+            if (e.getValue().longValue() <= now) {
+                data.remove(e.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    private Object lookup(Key key) {
+        Long at = expires.get(key);
+        if (at != null && at.longValue() <= System.currentTimeMillis()) {
+            expires.remove(key);
+            data.remove(key);
+            return null;
+        }
+        return data.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Key, byte[]> hash(Key key, boolean create) {
+        Object o = lookup(key);
+        if (o == null) {
+            if (!create) {
+                return null;
+            }
+            Map<Key, byte[]> h = new LinkedHashMap<Key, byte[]>();
+            data.put(key, h);
+            return h;
+        }
+        if (!(o instanceof Map)) {
+            throw new WrongTypeException();
+        }
+        return (Map<Key, byte[]>) o;
+    }
+
+    private byte[] string(Key key) {
+        Object o = lookup(key);
+        if (o != null && !(o instanceof byte[])) {
+            throw new WrongTypeException();
+        }
+        return (byte[]) o;
+    }
+
+    private void removeKey(Key key) {
+        data.remove(key);
+        expires.remove(key);
+    }
+
+    private synchronized void execute(Connection c, List<byte[]> args) throws IOException {
+        String cmd = new String(args.get(0)).toUpperCase();
+        String redirect = redirect(cmd, args);
+        if (redirect != null) {
+            c.error(redirect);
+            return;
+        }
+        try {
+            dispatch(c, cmd, args);
+        } catch (WrongTypeException e) {
+            c.error("WRONGTYPE Operation against a key holding the wrong kind of value");
+        } catch (NumberFormatException e) {
+            c.error("ERR value is not an integer or out of range");
+        }
+    }
+
+    private void dispatch(Connection c, String cmd, List<byte[]> args) throws IOException {
+        if ("PING".equals(cmd)) {
+            c.status("PONG");
+        } else if ("SELECT".equals(cmd) || "AUTH".equals(cmd) || "QUIT".equals(cmd) || "ASKING".equals(cmd)) {
+            c.ok();
+        } else if ("CLUSTER".equals(cmd)) {
+            String nodes = clusterNodes();
+            if (nodes == null || !"NODES".equalsIgnoreCase(new String(args.get(1)))) {
+                c.error("ERR This instance has cluster support disabled");
+            } else {
+                c.bulk(nodes.getBytes());
+            }
+        } else if ("SCRIPT".equals(cmd)) {
+            String sub = new String(args.get(1)).toUpperCase();
+            if ("LOAD".equals(sub)) {
+                String sha = sha1(args.get(2));
+                scripts.put(sha, args.get(2));
+                c.bulk(sha.getBytes());
+            } else if ("FLUSH".equals(sub)) {
+                scripts.clear();
+                c.ok();
+            } else {
+                c.error("ERR unknown SCRIPT subcommand '" + sub + "'");
+            }
+        } else if ("EVALSHA".equals(cmd)) {
+            byte[] source = scripts.get(new String(args.get(1)).toLowerCase());
+            if (source == null) {
+                c.error("NOSCRIPT No matching script. Please use EVAL.");
+                return;
+            }
+            int keyCount = Integer.parseInt(new String(args.get(2)));
+            try {
+                c.bulk(evalScript(new String(source), args.subList(3, 3 + keyCount),
+                        args.subList(3 + keyCount, args.size())));
+            } catch (IllegalStateException e) {
+                c.error(e.getMessage());
+            }
+        } else if ("FLUSHALL".equals(cmd) || "FLUSHDB".equals(cmd)) {
+            flushAll();
+            c.ok();
+        } else if ("DBSIZE".equals(cmd)) {
+            purgeExpired();
+            c.integer(data.size());
+        } else if ("GET".equals(cmd)) {
+            c.bulk(string(new Key(args.get(1))));
+        } else if ("SET".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            boolean nx = false;
+            long ttl = -1;
+            for (int i = 3; i < args.size(); i++) {
+                String opt = new String(args.get(i)).toUpperCase();
+                if ("NX".equals(opt)) {
+                    nx = true;
+                } else if ("EX".equals(opt)) {
+                    ttl = Long.parseLong(new String(args.get(++i))) * 1000L;
+                } else if ("PX".equals(opt)) {
+                    ttl = Long.parseLong(new String(args.get(++i)));
+                }
+            }
+            if (nx && lookup(k) != null) {
+                c.bulk(null);
+                return;
+            }
+            data.put(k, args.get(2));
+            expires.remove(k);
+            if (ttl > 0) {
+                expires.put(k, System.currentTimeMillis() + ttl);
+            }
+            c.ok();
+        } else if ("SETEX".equals(cmd) || "PSETEX".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            long ttl = Long.parseLong(new String(args.get(2)));
+            data.put(k, args.get(3));
+            expires.put(k, System.currentTimeMillis() + ("SETEX".equals(cmd) ? ttl * 1000L : ttl));
+            c.ok();
+        } else if ("SETNX".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            if (lookup(k) != null) {
+                c.integer(0);
+            } else {
+                data.put(k, args.get(2));
+                c.integer(1);
+            }
+        } else if ("GETSET".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            byte[] old = string(k);
+            data.put(k, args.get(2));
+            expires.remove(k);
+            c.bulk(old);
+        } else if ("MGET".equals(cmd)) {
+            List<byte[]> values = new ArrayList<byte[]>();
+            for (int i = 1; i < args.size(); i++) {
+                Object o = lookup(new Key(args.get(i)));
+                values.add(o instanceof byte[] ? (byte[]) o : null);
+            }
+            c.array(values);
+        } else if ("INCR".equals(cmd) || "INCRBY".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            byte[] old = string(k);
+            long v = old == null ? 0 : Long.parseLong(new String(old));
+            v += "INCR".equals(cmd) ? 1 : Long.parseLong(new String(args.get(2)));
+            data.put(k, String.valueOf(v).getBytes());
+            c.integer(v);
+        } else if ("DEL".equals(cmd)) {
+            int n = 0;
+            for (int i = 1; i < args.size(); i++) {
+                Key k = new Key(args.get(i));
+                if (lookup(k) != null) {
+                    n++;
+                }
+                removeKey(k);
+            }
+            c.integer(n);
+        } else if ("EXISTS".equals(cmd)) {
+            c.integer(lookup(new Key(args.get(1))) == null ? 0 : 1);
+        } else if ("EXPIRE".equals(cmd) || "PEXPIRE".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            long ttl = Long.parseLong(new String(args.get(2)));
+            if (lookup(k) == null) {
+                c.integer(0);
+                return;
+            }
+            expires.put(k, System.currentTimeMillis() + ("EXPIRE".equals(cmd) ? ttl * 1000L : ttl));
+            c.integer(1);
+        } else if ("TTL".equals(cmd) || "PTTL".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            if (lookup(k) == null) {
+                c.integer(-2);
+                return;
+            }
+            Long at = expires.get(k);
+            if (at == null) {
+                c.integer(-1);
+                return;
+            }
+            long left = at.longValue() - System.currentTimeMillis();
+            c.integer("TTL".equals(cmd) ? (left + 999) / 1000 : left);
+        } else if ("HGET".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), false);
+            c.bulk(h == null ? null : h.get(new Key(args.get(2))));
+        } else if ("HSET".equals(cmd) || "HSETNX".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), true);
+            Key f = new Key(args.get(2));
+            boolean exists = h.containsKey(f);
+            if (!exists || "HSET".equals(cmd)) {
+                h.put(f, args.get(3));
+            }
+            c.integer(exists ? 0 : 1);
+        } else if ("HMSET".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), true);
+            for (int i = 2; i + 1 < args.size(); i += 2) {
+                h.put(new Key(args.get(i)), args.get(i + 1));
+            }
+            c.ok();
+        } else if ("HMGET".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), false);
+            List<byte[]> values = new ArrayList<byte[]>();
+            for (int i = 2; i < args.size(); i++) {
+                values.add(h == null ? null : h.get(new Key(args.get(i))));
+            }
+            c.array(values);
+        } else if ("HDEL".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            Map<Key, byte[]> h = hash(k, false);
+            int n = 0;
+            if (h != null) {
+                for (int i = 2; i < args.size(); i++) {
+                    if (h.remove(new Key(args.get(i))) != null) {
+                        n++;
+                    }
+                }
+                if (h.isEmpty()) {
+                    removeKey(k);
+                }
+            }
+            c.integer(n);
+        } else if ("HLEN".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), false);
+            c.integer(h == null ? 0 : h.size());
+        } else if ("HEXISTS".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), false);
+            c.integer(h != null && h.containsKey(new Key(args.get(2))) ? 1 : 0);
+        } else if ("HINCRBY".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), true);
+            Key f = new Key(args.get(2));
+            byte[] old = h.get(f);
+            long v = (old == null ? 0 : Long.parseLong(new String(old))) + Long.parseLong(new String(args.get(3)));
+            h.put(f, String.valueOf(v).getBytes());
+            c.integer(v);
+        } else if ("HKEYS".equals(cmd) || "HVALS".equals(cmd) || "HGETALL".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), false);
+            List<byte[]> out = new ArrayList<byte[]>();
+            if (h != null) {
+                for (Map.Entry<Key, byte[]> e : h.entrySet()) {
+                    if (!"HVALS".equals(cmd)) {
+                        out.add(e.getKey().bytes);
+                    }
+                    if (!"HKEYS".equals(cmd)) {
+                        out.add(e.getValue());
+                    }
+                }
+            }
+            c.array(out);
+        } else if ("HSCAN".equals(cmd)) {
+            Map<Key, byte[]> h = hash(new Key(args.get(1)), false);
+            int cursor = Integer.parseInt(new String(args.get(2)));
+            int count = 10;
+            for (int i = 3; i + 1 < args.size(); i += 2) {
+                if ("COUNT".equalsIgnoreCase(new String(args.get(i)))) {
+                    count = Integer.parseInt(new String(args.get(i + 1)));
+                }
+            }
+            List<byte[]> page = new ArrayList<byte[]>();
+            int next = 0;
+            if (h != null) {
+                List<Map.Entry<Key, byte[]>> entries = new ArrayList<Map.Entry<Key, byte[]>>(h.entrySet());
+                int end = Math.min(entries.size(), cursor + count);
+                for (int i = cursor; i < end; i++) {
+                    page.add(entries.get(i).getKey().bytes);
+                    page.add(entries.get(i).getValue());
+                }
+                next = end >= entries.size() ? 0 : end;
+            }
+            c.scanReply(next, page);
+        } else if ("SCAN".equals(cmd)) {
+            int cursor = Integer.parseInt(new String(args.get(1)));
+            int count = 10;
+            String match = null;
+            for (int i = 2; i + 1 < args.size(); i += 2) {
+                String opt = new String(args.get(i));
+                if ("COUNT".equalsIgnoreCase(opt)) {
+                    count = Integer.parseInt(new String(args.get(i + 1)));
+                } else if ("MATCH".equalsIgnoreCase(opt)) {
+                    match = new String(args.get(i + 1), LATIN1);
+                }
+            }
+            purgeExpired();
+            List<Key> keys = new ArrayList<Key>(data.keySet());
+            List<byte[]> page = new ArrayList<byte[]>();
+            int end = Math.min(keys.size(), cursor + count);
+            for (int i = cursor; i < end; i++) {
+                if (match == null || globMatches(match, new String(keys.get(i).bytes, LATIN1))) {
+                    page.add(keys.get(i).bytes);
+                }
+            }
+            c.scanReply(end >= keys.size() ? 0 : end, page);
+        } else if ("SETBIT".equals(cmd)) {
+            Key k = new Key(args.get(1));
+            long offset = Long.parseLong(new String(args.get(2)));
+            boolean bit = "1".equals(new String(args.get(3)));
+            byte[] old = string(k);
+            int need = (int) (offset >> 3) + 1;
+            byte[] v = old == null ? new byte[need] : (old.length < need ? Arrays.copyOf(old, need) : old);
+            int mask = 0x80 >> (int) (offset & 7);
+            boolean was = (v[(int) (offset >> 3)] & mask) != 0;
+            if (bit) {
+                v[(int) (offset >> 3)] |= mask;
+            } else {
+                v[(int) (offset >> 3)] &= ~mask;
+            }
+            data.put(k, v);
+            c.integer(was ? 1 : 0);
+        } else if ("PUBLISH".equals(cmd)) {
+            Set<Connection> subs = subscribers.get(new Key(args.get(1)));
+            int n = 0;
+            if (subs != null) {
+                for (Connection s : subs) {
+                    s.message(args.get(1), args.get(2));
+                    n++;
+                }
+            }
+            c.integer(n);
+        } else if ("SUBSCRIBE".equals(cmd)) {
+            for (int i = 1; i < args.size(); i++) {
+                Key channel = new Key(args.get(i));
+                Set<Connection> subs = subscribers.get(channel);
+                if (subs == null) {
+                    subs = new CopyOnWriteArraySet<Connection>();
+                    subscribers.put(channel, subs);
+                }
+                subs.add(c);
+                c.channels.add(channel);
+                c.subscription("subscribe", channel.bytes, c.channels.size());
+            }
+        } else if ("UNSUBSCRIBE".equals(cmd)) {
+            List<Key> channels = new ArrayList<Key>();
+            if (args.size() > 1) {
+                for (int i = 1; i < args.size(); i++) {
+                    channels.add(new Key(args.get(i)));
+                }
+            } else {
+                channels.addAll(c.channels);
+            }
+            for (Key channel : channels) {
+                Set<Connection> subs = subscribers.get(channel);
+                if (subs != null) {
+                    subs.remove(c);
+                }
+                c.channels.remove(channel);
+                c.subscription("unsubscribe", channel.bytes, c.channels.size());
+            }
+        } else {
+            c.error("ERR unknown command '" + cmd + "'");
+        }
+    }
+
+    /**
+     * Matches {@code *}, {@code ?} and backslash escapes; character classes
+     * are not supported.
+     */
+    private static boolean globMatches(String pattern, String s) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < pattern.length()) {
+                regex.append(java.util.regex.Pattern.quote(String.valueOf(pattern.charAt(++i))));
+            } else if (c == '*') {
+                regex.append(".*");
+            } else if (c == '?') {
+                regex.append('.');
+            } else {
+                regex.append(java.util.regex.Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return java.util.regex.Pattern.compile(regex.toString(), java.util.regex.Pattern.DOTALL).matcher(s).matches();
+    }
+
+    private static class WrongTypeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    static final class Key {
+        final byte[] bytes;
+        private final int hash;
+
+        Key(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(bytes, ((Key) o).bytes);
+        }
+    }
+
+    private class Connection implements Runnable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final Set<Key> channels = new CopyOnWriteArraySet<Key>();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    List<byte[]> args = readCommand();
+                    if (args == null) {
+                        break;
+                    }
+                    execute(this, args);
+                    if (in.available() == 0) {
+                        flush();
+                    }
+                }
+            } catch (IOException e) {
+                // client went away
+            } finally {
+                synchronized (LocalRedisServer.this) {
+                    for (Key channel : channels) {
+                        Set<Connection> subs = subscribers.get(channel);
+                        if (subs != null) {
+                            subs.remove(this);
+                        }
+                    }
+                }
+                connections.remove(this);
+                close();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        private List<byte[]> readCommand() throws IOException {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            if (b != '*') {
+                throw new IOException("inline commands are not supported");
+            }
+            int n = (int) readLong();
+            List<byte[]> args = new ArrayList<byte[]>(n);
+            for (int i = 0; i < n; i++) {
+                if (in.read() != '$') {
+                    throw new IOException("bulk string expected");
+                }
+                int len = (int) readLong();
+                byte[] arg = new byte[len];
+                int off = 0;
+                while (off < len) {
+                    int r = in.read(arg, off, len - off);
+                    if (r == -1) {
+                        throw new IOException("unexpected end of stream");
+                    }
+                    off += r;
+                }
+                in.read();
+                in.read();
+                args.add(arg);
+            }
+            return args;
+        }
+
+        private long readLong() throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b == -1) {
+                    throw new IOException("unexpected end of stream");
+                }
+                sb.append((char) b);
+            }
+            in.read();
+            return Long.parseLong(sb.toString());
+        }
+
+        private void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+
+        void ok() throws IOException {
+            synchronized (out) {
+                out.write(OK);
+            }
+        }
+
+        void status(String s) throws IOException {
+            synchronized (out) {
+                out.write(("+" + s + "\r\n").getBytes());
+            }
+        }
+
+        void error(String s) throws IOException {
+            synchronized (out) {
+                out.write(("-" + s + "\r\n").getBytes());
+            }
+        }
+
+        void integer(long v) throws IOException {
+            synchronized (out) {
+                out.write((":" + v + "\r\n").getBytes());
+            }
+        }
+
+        void bulk(byte[] v) throws IOException {
+            synchronized (out) {
+                writeBulk(v);
+            }
+        }
+
+        private void writeBulk(byte[] v) throws IOException {
+            if (v == null) {
+                out.write("$-1\r\n".getBytes());
+            } else {
+                out.write(("$" + v.length + "\r\n").getBytes());
+                out.write(v);
+                out.write("\r\n".getBytes());
+            }
+        }
+
+        void array(List<byte[]> values) throws IOException {
+            synchronized (out) {
+                out.write(("*" + values.size() + "\r\n").getBytes());
+                for (byte[] v : values) {
+                    writeBulk(v);
+                }
+            }
+        }
+
+        void scanReply(int cursor, List<byte[]> page) throws IOException {
+            synchronized (out) {
+                out.write("*2\r\n".getBytes());
+                writeBulk(String.valueOf(cursor).getBytes());
+                out.write(("*" + page.size() + "\r\n").getBytes());
+                for (byte[] v : page) {
+                    writeBulk(v);
+                }
+            }
+        }
+
+        void subscription(String kind, byte[] channel, int count) throws IOException {
+            synchronized (out) {
+                out.write("*3\r\n".getBytes());
+                writeBulk(kind.getBytes());
+                writeBulk(channel);
+                out.write((":" + count + "\r\n").getBytes());
+            }
+        }
+
+        void message(byte[] channel, byte[] message) throws IOException {
+            synchronized (out) {
+                out.write("*3\r\n".getBytes());
+                writeBulk("message".getBytes());
+                writeBulk(channel);
+                writeBulk(message);
+                out.flush();
+            }
+        }
+    }
+}
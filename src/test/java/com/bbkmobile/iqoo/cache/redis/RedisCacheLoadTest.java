@@ -0,0 +1,162 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+
+/**
+ * Loader-aware get against a {@link LocalRedisServer}: concurrent misses of
+ * one JVM share a load, the load lease lets one of several caches load, a
+ * failed load is shared and not cached, and an expired lease is taken over.
+ */
+public class RedisCacheLoadTest extends TestCase {
+
+    private LocalRedisServer server;
+    private JedisPool pool;
+    private ExecutorService threads;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer().start(0);
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+        threads = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        threads.shutdownNow();
+        pool.destroy();
+        server.stop();
+    }
+
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final RedisNativeCache<String, String> cache = new RedisNativeCache<String, String>("load", pool);
+        BlockingLoader loader = new BlockingLoader("v");
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 10; i++) {
+            results.add(get(cache, "k", loader));
+        }
+        loader.awaitStarted();
+        Thread.sleep(50L);
+        loader.release();
+        for (Future<String> result : results) {
+            assertEquals("v", result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loader.loads.get());
+        assertEquals(0, cache.getLoadingCount());
+        assertEquals("v", cache.get("k"));
+    }
+
+    public void testLeaseLetsOneCacheLoad() throws Exception {
+        RedisNativeCache<String, String> a = new RedisNativeCache<String, String>("load", pool);
+        RedisNativeCache<String, String> b = new RedisNativeCache<String, String>("load", pool);
+        a.setLoadLeaseMillis(5000L);
+        b.setLoadLeaseMillis(5000L);
+        BlockingLoader loader = new BlockingLoader("v");
+
+        Future<String> holder = get(a, "k", loader);
+        loader.awaitStarted();
+        Future<String> waiter = get(b, "k", loader);
+        Thread.sleep(100L);
+        assertFalse("the other cache waits for the lease holder", waiter.isDone());
+        loader.release();
+
+        assertEquals("v", holder.get(5, TimeUnit.SECONDS));
+        assertEquals("v", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loader.loads.get());
+        assertEquals("the lease is released", 1, server.keyCount());
+    }
+
+    public void testExpiredLeaseIsTakenOver() throws Exception {
+        RedisNativeCache<String, String> a = new RedisNativeCache<String, String>("load", pool);
+        RedisNativeCache<String, String> b = new RedisNativeCache<String, String>("load", pool);
+        a.setLoadLeaseMillis(100L);
+        b.setLoadLeaseMillis(100L);
+        BlockingLoader stuck = new BlockingLoader("late");
+
+        Future<String> holder = get(a, "k", stuck);
+        stuck.awaitStarted();
+        assertEquals("v", b.get("k", new BlockingLoader("v").released()));
+        stuck.release();
+        assertEquals("late", holder.get(5, TimeUnit.SECONDS));
+    }
+
+    public void testFailedLoadIsSharedAndNotCached() throws Exception {
+        RedisNativeCache<String, String> cache = new RedisNativeCache<String, String>("load", pool);
+        cache.setLoadLeaseMillis(5000L);
+        try {
+            cache.get("k", new CacheLoader<String, String>() {
+                @Override
+                public String load(String key) throws Exception {
+                    throw new IOException("database down");
+                }
+            });
+            fail("the load failure should reach the caller");
+        } catch (CacheException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertNull(cache.get("k"));
+        assertEquals("neither a value nor the lease is left", 0, server.keyCount());
+        assertEquals("v", cache.get("k", new BlockingLoader("v").released()));
+    }
+
+    private Future<String> get(final RedisNativeCache<String, String> cache, final String key,
+            final CacheLoader<String, String> loader) {
+        return threads.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return cache.get(key, loader);
+            }
+        });
+    }
+
+    /**
+     * Counts its loads and holds them until released.
+     */
+    private static class BlockingLoader implements CacheLoader<String, String> {
+
+        final AtomicInteger loads = new AtomicInteger();
+        private final String value;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        BlockingLoader(String value) {
+            this.value = value;
+        }
+
+        BlockingLoader released() {
+            release();
+            return this;
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue("no load started", started.await(5, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public String load(String key) throws Exception {
+            loads.incrementAndGet();
+            started.countDown();
+            released.await(5, TimeUnit.SECONDS);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Cluster cache against a {@link LocalRedisCluster}, on every layout: a
+ * {@code MOVED} slot is followed and remembered, an {@code ASK} is followed
+ * for the call only, and a call redirected too often fails.
+ */
+public class RedisClusterCacheTest extends TestCase {
+
+    private LocalRedisCluster cluster;
+    private JedisClusterExecutor executor;
+
+    @Override
+    protected void setUp() throws Exception {
+        cluster = new LocalRedisCluster().start(3);
+        executor = new JedisClusterExecutor(cluster.getSeeds(), new GenericObjectPoolConfig(), 2000, null, 4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        executor.close();
+        cluster.stop();
+    }
+
+    public void testMovedSlotsAreFollowedAndRemembered() {
+        Map<String, String> entries = entries(300);
+        for (RedisLayout layout : RedisLayout.values()) {
+            RedisClusterCache<String, String> cache = cache("moved" + layout, layout);
+            awaitRefreshDue();
+            for (int slot = 0; slot < JedisClusterExecutor.SLOTS; slot++) {
+                if (cluster.ownerOf(slot) == 0) {
+                    cluster.move(slot, 2);
+                }
+            }
+            long redirections = executor.getRedirectionCount();
+            cache.putAll(entries);
+            assertTrue(layout + " was redirected", executor.getRedirectionCount() > redirections);
+            assertEquals(0, cluster.getNode(0).keyCount());
+            assertEquals(entries, cache.getAll(entries.keySet()));
+
+            redirections = executor.getRedirectionCount();
+            cache.put("k1", "w");
+            assertEquals("w", cache.get("k1"));
+            assertEquals(entries.size(), cache.size());
+            assertEquals("the new owners are remembered", redirections, executor.getRedirectionCount());
+
+            cache.clear();
+            assertEquals(0, cluster.keyCount());
+            restore();
+        }
+    }
+
+    public void testAskIsFollowedForTheCallOnly() {
+        for (RedisLayout layout : RedisLayout.values()) {
+            RedisClusterCache<String, String> cache = cache("ask" + layout, layout);
+            cache.put("k", "v");
+            int owner = 0;
+            while (cluster.getNode(owner).keyCount() == 0) {
+                owner++;
+            }
+            cache.remove("k");
+            // the stand-in asks even for keys it holds, so the slots are
+            // migrated while the cache is empty
+            for (int slot = 0; slot < JedisClusterExecutor.SLOTS; slot++) {
+                if (cluster.ownerOf(slot) == owner) {
+                    cluster.migrate(slot, (owner + 1) % 3);
+                }
+            }
+            long redirections = executor.getRedirectionCount();
+            cache.put("k", "v");
+            assertTrue(layout + " was redirected", executor.getRedirectionCount() > redirections);
+            assertEquals(0, cluster.getNode(owner).keyCount());
+            redirections = executor.getRedirectionCount();
+            assertEquals("v", cache.get("k"));
+            assertEquals("v", cache.get("k"));
+            assertEquals(layout + " asked on every call", redirections + 2, executor.getRedirectionCount());
+
+            cache.remove("k");
+            assertEquals(0, cluster.keyCount());
+            restore();
+        }
+    }
+
+    public void testTooManyRedirectionsFail() {
+        RedisClusterCache<String, String> cache = cache("redirected", RedisLayout.values()[0]);
+        executor.setMaxRedirections(0);
+        for (int slot = 0; slot < JedisClusterExecutor.SLOTS; slot++) {
+            cluster.move(slot, (cluster.ownerOf(slot) + 1) % 3);
+        }
+        try {
+            cache.put("k", "v");
+            fail("a call may not be redirected");
+        } catch (CacheException e) {
+            assertTrue(e.getMessage().startsWith("Too many redirects"));
+        }
+        assertEquals(0, cluster.keyCount());
+    }
+
+    /**
+     * The slots are read again after a {@code MOVED} at most every 100 ms;
+     * before that a multi-key call spends a redirection on each moved slot.
+     */
+    private static void awaitRefreshDue() {
+        try {
+            Thread.sleep(150L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private RedisClusterCache<String, String> cache(String name, RedisLayout layout) {
+        RedisClusterCache<String, String> cache = new RedisClusterCache<String, String>(name, executor);
+        cache.setLayout(layout);
+        return cache;
+    }
+
+    /**
+     * Shares the slots out evenly again, and reads them back.
+     */
+    private void restore() {
+        for (int slot = 0; slot < JedisClusterExecutor.SLOTS; slot++) {
+            cluster.move(slot, slot * 3 / JedisClusterExecutor.SLOTS);
+        }
+        executor.refresh();
+    }
+
+    private static Map<String, String> entries(int count) {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            entries.put("k" + i, "v" + i);
+        }
+        return entries;
+    }
+}
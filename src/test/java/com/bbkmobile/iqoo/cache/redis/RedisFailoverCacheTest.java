@@ -0,0 +1,162 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.offheap.OffHeapCache;
+import com.bbkmobile.iqoo.cache.redis.serializer.StringRedisSerializer;
+
+/**
+ * Failover to a local cache against a {@link LocalRedisServer}, an outage
+ * being an open {@link CircuitBreaker}: reads fall back, writes are buffered
+ * and replayed on recovery, and a write reaching Redis after the outage is
+ * never overwritten by the replay of an older one.
+ */
+public class RedisFailoverCacheTest extends TestCase {
+
+    private LocalRedisServer server;
+    private JedisPool pool;
+    private CircuitBreaker breaker;
+    private HookedCache redis;
+    private RedisFailoverCache<String, String> cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer().start(0);
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+        breaker = new CircuitBreaker("test");
+        breaker.setMinimumCalls(1);
+        breaker.setOpenMillis(60000L);
+        redis = new HookedCache(pool);
+        redis.getExecutor().setCircuitBreaker(breaker);
+        OffHeapCache<String, String> local = new OffHeapCache<String, String>("failover", 1 << 20,
+                new StringRedisSerializer(), new StringRedisSerializer());
+        cache = new RedisFailoverCache<String, String>(redis, local, 10);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.destroy();
+        server.stop();
+    }
+
+    public void testReadsFallBackAndWritesAreReplayed() {
+        cache.put("k", "v");
+        cache.put("gone", "v");
+        outage();
+
+        assertEquals("v", cache.get("k"));
+        assertEquals(1, cache.getFallbackReadCount());
+        cache.put("k", "v2");
+        cache.remove("gone");
+        assertEquals(2, cache.getBufferedWriteCount());
+
+        breaker.reset();
+        cache.get("k");
+        assertEquals("replayed after the first call", "v2", cache.get("k"));
+        assertEquals(0, cache.getBufferedWriteCount());
+        assertEquals(2, cache.getReplayedWriteCount());
+        assertNull(redis.get("gone"));
+    }
+
+    public void testRemovesAreReplayedWithoutBuffer() {
+        cache = new RedisFailoverCache<String, String>(redis, cache.getFallback(), 0);
+        cache.put("k", "v");
+        outage();
+        cache.put("other", "v");
+        cache.remove("k");
+        assertEquals(1, cache.getSkippedWriteCount());
+
+        breaker.reset();
+        assertNull(cache.get("other"));
+        assertNull(redis.get("k"));
+    }
+
+    public void testWriteAfterRecoverySupersedesBufferedWrite() {
+        outage();
+        cache.put("put", "stale");
+        cache.put("other", "v");
+        breaker.reset();
+        cache.put("put", "fresh");
+        assertEquals("only the other key is replayed", 1, cache.getReplayedWriteCount());
+        assertEquals("fresh", redis.get("put"));
+
+        outage();
+        cache.put("removed", "stale");
+        breaker.reset();
+        cache.remove("removed");
+        assertEquals(0, cache.getBufferedWriteCount());
+        assertEquals(1, cache.getReplayedWriteCount());
+        assertNull("the removed value does not come back", redis.get("removed"));
+
+        outage();
+        cache.remove("put");
+        breaker.reset();
+        Map<String, String> entries = new HashMap<String, String>();
+        entries.put("put", "again");
+        cache.putAll(entries);
+        assertEquals(1, cache.getReplayedWriteCount());
+        assertEquals("again", redis.get("put"));
+    }
+
+    public void testWriteDuringReplayIsNotOverwritten() {
+        outage();
+        cache.put("a", "stale");
+        cache.remove("b");
+        breaker.reset();
+
+        // the puts of the replay are sent before its removes
+        redis.hook = new Runnable() {
+            @Override
+            public void run() {
+                cache.put("b", "fresh");
+            }
+        };
+        cache.replay();
+        assertEquals("stale", redis.get("a"));
+        assertEquals("fresh", redis.get("b"));
+        assertEquals(1, cache.getReplayedWriteCount());
+    }
+
+    private void outage() {
+        while (breaker.tryAcquire()) {
+            breaker.record(true, 0L);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            redis.get("k");
+            fail("Redis should be unavailable");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Runs a hook once before its next {@link #putAll(Map)}.
+     */
+    private static class HookedCache extends RedisNativeCache<String, String> {
+
+        Runnable hook;
+
+        HookedCache(JedisPool pool) {
+            super("failover", pool);
+            setKeySerializer(new StringRedisSerializer());
+            setValueSerializer(new StringRedisSerializer());
+        }
+
+        @Override
+        public void putAll(Map<String, String> entries) throws CacheException {
+            Runnable run = hook;
+            hook = null;
+            if (run != null) {
+                run.run();
+            }
+            super.putAll(entries);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.bbkmobile.iqoo.cache.redis.serializer.KeySerializers;
+
+/**
+ * Membership filter against a {@link LocalRedisServer}: lookups of keys
+ * never put skip Redis, also while entries are still stored under a legacy
+ * key encoding, which the filter must not lose.
+ */
+public class RedisMembershipFilterTest extends TestCase {
+
+    private LocalRedisServer server;
+    private JedisPool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer().start(0);
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.destroy();
+        server.stop();
+    }
+
+    public void testAbsentKeysSkipRedis() throws Exception {
+        RedisNativeCache<String, String> cache = new RedisNativeCache<String, String>("bloom", pool);
+        cache.put("stored", "v");
+        RedisMembershipFilter filter = awaitReady(cache);
+
+        assertEquals("v", cache.get("stored"));
+        assertNull(cache.get("never"));
+        assertEquals(1, filter.getFilteredCount());
+        cache.put("later", "v");
+        assertEquals("v", cache.get("later"));
+        cache.disableMembershipFilter();
+    }
+
+    public void testLegacyEncodingIsConsulted() throws Exception {
+        RedisNativeCache<String, String> old = new RedisNativeCache<String, String>("bloom", pool);
+        old.put("stored", "v1");
+        old.put("other", "v2");
+
+        RedisNativeCache<String, String> cache = new RedisNativeCache<String, String>("bloom", pool);
+        cache.setLegacyKeySerializer(cache.getKeySerializer());
+        cache.setKeySerializer(KeySerializers.forType(String.class));
+        RedisMembershipFilter filter = awaitReady(cache);
+
+        assertEquals("found under the legacy encoding", "v1", cache.get("stored"));
+        assertEquals("v2", cache.getAll(Arrays.asList("other", "never")).get("other"));
+        assertNull(cache.get("never"));
+        assertEquals("the filter is not bypassed", 2, filter.getFilteredCount());
+        cache.disableMembershipFilter();
+    }
+
+    private static RedisMembershipFilter awaitReady(RedisNativeCache<String, String> cache)
+            throws InterruptedException {
+        RedisMembershipFilter filter = cache.enableMembershipFilter(1000, 0.01, 1 << 16, 3600, 3600);
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!filter.isReady()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("membership filter not ready");
+            }
+            Thread.sleep(10L);
+        }
+        return filter;
+    }
+}
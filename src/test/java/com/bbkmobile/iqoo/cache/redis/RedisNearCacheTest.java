@@ -0,0 +1,207 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.redis.serializer.SerializationException;
+
+/**
+ * Near cache against a {@link LocalRedisServer}: invalidations between two
+ * near caches over the bus, revalidation by version, the generation check
+ * dropping a copy loaded while an invalidation arrived, and loaded values and
+ * negative entries put like any other write.
+ */
+public class RedisNearCacheTest extends TestCase {
+
+    private LocalRedisServer server;
+    private JedisPool pool;
+    private RedisInvalidationBus bus1;
+    private RedisInvalidationBus bus2;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer().start(0);
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+        bus1 = new RedisInvalidationBus(new JedisPoolExecutor(pool));
+        bus2 = new RedisInvalidationBus(new JedisPoolExecutor(pool));
+        bus1.setReconnectMillis(50L);
+        bus2.setReconnectMillis(50L);
+        bus1.start();
+        bus2.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        bus1.shutdown();
+        bus2.shutdown();
+        pool.destroy();
+        server.stop();
+    }
+
+    public void testWriteInvalidatesOtherNearCache() throws Exception {
+        RedisNearCache<String, String> a = near(bus1);
+        RedisNearCache<String, String> b = near(bus2);
+        awaitSubscribed(a, b);
+
+        a.put("k", "v1");
+        awaitCached(b, "k", "v1");
+
+        a.put("k", "v2");
+        awaitLocalSize(b, 0);
+        assertEquals("v2", b.get("k"));
+
+        assertEquals("v2", a.remove("k"));
+        awaitLocalSize(b, 0);
+        assertNull(b.get("k"));
+
+        a.put("x", "1");
+        awaitCached(b, "x", "1");
+        a.clear();
+        awaitLocalSize(b, 0);
+        assertNull(b.get("x"));
+    }
+
+    public void testStaleCopyIsRevalidatedByVersion() throws Exception {
+        RedisNearCache<String, String> near = near(null);
+        RedisNativeCache<String, String> other = new RedisNativeCache<String, String>("near", pool);
+        other.setVersioned(true);
+
+        near.put("k", "v1");
+        other.put("k", "v2");
+        assertEquals("fresh local copy is served without asking Redis", "v1", near.get("k"));
+
+        near.setRevalidateMillis(0L);
+        assertEquals("v2", near.get("k"));
+        assertEquals("v2", near.get("k"));
+    }
+
+    public void testInvalidationDuringLoadDropsTheCopy() throws Exception {
+        final RedisNearCache<?, ?>[] holder = new RedisNearCache<?, ?>[1];
+        RedisNativeCache<String, String> racing = new RedisNativeCache<String, String>("near", pool) {
+            @Override
+            public VersionedValue<String> getVersioned(String key) throws CacheException {
+                VersionedValue<String> loaded = super.getVersioned(key);
+                // another JVM rewrites the entry while this one is loading
+                try {
+                    holder[0].invalidate(keySerializer.serialize(key));
+                } catch (SerializationException e) {
+                    throw new CacheException(e);
+                }
+                return loaded;
+            }
+        };
+        RedisNearCache<String, String> near = new RedisNearCache<String, String>(racing, null, 100);
+        holder[0] = near;
+        near.setRevalidateMillis(100000L);
+
+        racing.putVersioned("k", "v1");
+        assertEquals("v1", near.get("k"));
+        assertEquals("loaded value must not be kept after a concurrent invalidation", 0, near.getLocalSize());
+    }
+
+    public void testLoadedValueIsPutLikeAnyOther() throws Exception {
+        RedisNearCache<String, String> a = near(bus1);
+        RedisNearCache<String, String> b = near(bus2);
+        awaitSubscribed(a, b);
+
+        b.putAbsent("k");
+        assertNull(b.get("k"));
+        assertEquals(1, b.getLocalSize());
+        // the negative entry is dropped behind the back of the near caches
+        new RedisNativeCache<String, String>("near", pool).remove("k");
+
+        assertEquals("v", a.get("k", new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                return "v";
+            }
+        }));
+        assertEquals("the loaded value is kept locally", 1, a.getLocalSize());
+        awaitLocalSize(b, 0);
+        assertEquals("v", b.get("k"));
+    }
+
+    public void testNullPutWithExpiryIsNegativeEntry() throws Exception {
+        RedisNativeCache<String, String> remote = new RedisNativeCache<String, String>("near", pool);
+        remote.setNegativeTimeToLiveSeconds(1);
+        RedisNearCache<String, String> near = new RedisNearCache<String, String>(remote, null, 100);
+        near.setRevalidateMillis(100000L);
+        final AtomicInteger loads = new AtomicInteger();
+        CacheLoader<String, String> loader = new CacheLoader<String, String>() {
+            @Override
+            public String load(String key) {
+                loads.incrementAndGet();
+                return "v";
+            }
+        };
+
+        near.put("k", null, 60, 0);
+        assertNull(near.get("k", loader));
+        assertEquals(0, loads.get());
+        Thread.sleep(1100L);
+        assertEquals("the negative time to live applies, not the one given", "v", near.get("k", loader));
+        assertEquals(1, loads.get());
+    }
+
+    private RedisNearCache<String, String> near(RedisInvalidationBus bus) {
+        RedisNearCache<String, String> near = new RedisNearCache<String, String>(
+                new RedisNativeCache<String, String>("near", pool), bus, 100);
+        near.setRevalidateMillis(100000L);
+        return near;
+    }
+
+    /**
+     * Subscriptions are made by the bus threads; waits until a write of
+     * {@code a} reaches {@code b}.
+     */
+    private static void awaitSubscribed(RedisNearCache<String, String> a, RedisNearCache<String, String> b)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (System.currentTimeMillis() < deadline) {
+            a.put("probe", "1");
+            b.get("probe");
+            a.put("probe", "2");
+            Thread.sleep(20L);
+            if (b.getLocalSize() == 0) {
+                a.remove("probe");
+                awaitLocalSize(b, 0);
+                return;
+            }
+        }
+        fail("invalidation bus did not subscribe");
+    }
+
+    /**
+     * Reads {@code key} until {@code near} keeps a copy, the invalidation of
+     * the write having landed meanwhile.
+     */
+    private static void awaitCached(RedisNearCache<String, String> near, String key, String value)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (true) {
+            assertEquals(value, near.get(key));
+            Thread.sleep(20L);
+            if (near.getLocalSize() == 1) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail("no local copy of " + key);
+            }
+        }
+    }
+
+    private static void awaitLocalSize(RedisNearCache<?, ?> near, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (near.getLocalSize() != size) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("expected " + size + " local entries, found " + near.getLocalSize());
+            }
+            Thread.sleep(10L);
+        }
+    }
+}
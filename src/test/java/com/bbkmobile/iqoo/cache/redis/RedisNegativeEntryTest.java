@@ -0,0 +1,134 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.bbkmobile.iqoo.cache.CacheLoader;
+import com.bbkmobile.iqoo.cache.redis.serializer.StringRedisSerializer;
+
+/**
+ * Negative entries against a {@link LocalRedisServer}, on every layout:
+ * values that look like one round-trip, a negative entry spares the loader
+ * until it expires, and the {@code nil} of earlier versions still reads as
+ * one.
+ */
+public class RedisNegativeEntryTest extends TestCase {
+
+    private static final String[] LOOKALIKES = { "nil", "nil12345678", "\0nil-", "\0nil-12345678",
+            "\0nil=", "\0nil=nil", "\0ni" };
+
+    private LocalRedisServer server;
+    private JedisPool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer().start(0);
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.destroy();
+        server.stop();
+    }
+
+    public void testValuesLookingLikeNegativeEntriesRoundTrip() throws Exception {
+        for (RedisLayout layout : RedisLayout.values()) {
+            RedisNativeCache<String, String> cache = cache("lookalike" + layout, layout);
+            CountingLoader loader = new CountingLoader();
+            for (int i = 0; i < LOOKALIKES.length; i++) {
+                String key = "k" + i;
+                cache.put(key, LOOKALIKES[i]);
+                assertEquals(layout + " " + i, LOOKALIKES[i], cache.get(key));
+                assertEquals(LOOKALIKES[i], cache.get(key, loader));
+                assertFalse(cache.getVersioned(key).isAbsent());
+            }
+            Map<String, String> entries = new HashMap<String, String>();
+            entries.put("all", "nil12345678");
+            cache.putAll(entries);
+            assertEquals("nil12345678", cache.getAll(Arrays.asList("all")).get("all"));
+            assertEquals(0, loader.loads.get());
+        }
+    }
+
+    public void testNegativeEntrySparesTheLoaderUntilItExpires() throws Exception {
+        for (RedisLayout layout : RedisLayout.values()) {
+            RedisNativeCache<String, String> cache = cache("negative" + layout, layout);
+            cache.setNegativeTimeToLiveSeconds(1);
+            CountingLoader loader = new CountingLoader();
+
+            cache.putAbsent("k");
+            assertNull(cache.get("k"));
+            assertTrue(cache.getVersioned("k").isAbsent());
+            assertNull(cache.get("k", loader));
+            assertEquals(layout.toString(), 0, loader.loads.get());
+
+            Map<String, String> entries = new HashMap<String, String>();
+            entries.put("all", null);
+            cache.putAll(entries);
+            assertNull(cache.get("all", loader));
+            assertEquals(0, loader.loads.get());
+
+            Thread.sleep(1100L);
+            assertNull(cache.get("k", loader));
+            assertEquals(layout.toString(), 1, loader.loads.get());
+        }
+    }
+
+    public void testStoredForms() throws Exception {
+        RedisNativeCache<String, String> cache = cache("stored", RedisLayout.HASH);
+        cache.putAbsent("absent");
+        cache.put("escaped", "nil");
+        cache.put("plain", "value");
+        Jedis jedis = pool.getResource();
+        try {
+            byte[] absent = jedis.hget("stored".getBytes(), "absent".getBytes());
+            assertEquals(13, absent.length);
+            assertEquals("\0nil-", new String(absent, 0, 5));
+            assertEquals("\0nil=nil", jedis.hget("stored", "escaped"));
+            assertEquals("value", jedis.hget("stored", "plain"));
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    public void testEarlierNilReadsAsNegative() throws Exception {
+        RedisNativeCache<String, String> cache = cache("legacy", RedisLayout.HASH);
+        Jedis jedis = pool.getResource();
+        try {
+            jedis.hset("legacy", "k", "nil");
+        } finally {
+            pool.returnResource(jedis);
+        }
+        CountingLoader loader = new CountingLoader();
+        assertNull(cache.get("k"));
+        assertNull(cache.get("k", loader));
+        assertEquals(0, loader.loads.get());
+    }
+
+    private RedisNativeCache<String, String> cache(String name, RedisLayout layout) {
+        RedisNativeCache<String, String> cache = new RedisNativeCache<String, String>(name, pool);
+        cache.setKeySerializer(new StringRedisSerializer());
+        cache.setValueSerializer(new StringRedisSerializer());
+        cache.setLayout(layout);
+        return cache;
+    }
+
+    private static class CountingLoader implements CacheLoader<String, String> {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public String load(String key) {
+            loads.incrementAndGet();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * {@link RedisScript} against a {@link LocalRedisServer} emulating its
+ * scripts: a node answering {@code NOSCRIPT}, at first or after
+ * {@code SCRIPT FLUSH}, gets the script loaded and the call repeated once,
+ * other errors reach the caller.
+ */
+public class RedisScriptTest extends TestCase {
+
+    private static final String ECHO = "return ARGV[1]";
+    private static final String FAIL = "return redis.error_reply('boom')";
+
+    private LocalRedisServer server;
+    private Jedis jedis;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer() {
+            @Override
+            protected byte[] evalScript(String source, List<byte[]> keys, List<byte[]> args) {
+                if (FAIL.equals(source)) {
+                    throw new IllegalStateException("ERR boom");
+                }
+                return args.get(0);
+            }
+        }.start(0);
+        jedis = new Jedis("127.0.0.1", server.getPort());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        jedis.disconnect();
+        server.stop();
+    }
+
+    public void testLoadedOnFirstNoscript() {
+        RedisScript script = new RedisScript(ECHO);
+        assertEquals("v1", echo(script, "v1"));
+        assertEquals(1, script.getLoadCount());
+        assertEquals("v2", echo(script, "v2"));
+        assertEquals("no further load once known", 1, script.getLoadCount());
+    }
+
+    public void testReloadedAfterFlush() {
+        RedisScript script = new RedisScript(ECHO);
+        assertEquals("v1", echo(script, "v1"));
+        assertEquals("OK", jedis.scriptFlush());
+        assertEquals("v2", echo(script, "v2"));
+        assertEquals(2, script.getLoadCount());
+    }
+
+    public void testPreloadSparesTheNoscript() {
+        RedisScript script = new RedisScript(ECHO);
+        script.load(Arrays.asList(jedis));
+        assertEquals(1, script.getLoadCount());
+        assertEquals("v", echo(script, "v"));
+        assertEquals(1, script.getLoadCount());
+    }
+
+    public void testOtherErrorsAreNotRetried() {
+        RedisScript script = new RedisScript(FAIL);
+        for (int i = 0; i < 2; i++) {
+            try {
+                echo(script, "v");
+                fail("the script error should reach the caller");
+            } catch (JedisDataException e) {
+                assertEquals("ERR boom", e.getMessage());
+            }
+        }
+        assertEquals(1, script.getLoadCount());
+    }
+
+    private String echo(RedisScript script, String value) {
+        Object reply = script.execute(jedis, Collections.<byte[]> emptyList(), Arrays.asList(value.getBytes()));
+        return new String((byte[]) reply);
+    }
+}
@@ -0,0 +1,104 @@
+package com.bbkmobile.iqoo.cache.redis;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import com.bbkmobile.iqoo.cache.CacheException;
+
+/**
+ * Write-behind against a {@link LocalRedisServer}: writes of a key coalesce
+ * until flushed, a failed flush is retried without overwriting newer writes,
+ * and closing flushes what is left.
+ */
+public class RedisWriteBehindCacheTest extends TestCase {
+
+    private LocalRedisServer server;
+    private JedisPool pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        server = new LocalRedisServer().start(0);
+        pool = new JedisPool(new JedisPoolConfig(), "127.0.0.1", server.getPort());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.destroy();
+        server.stop();
+    }
+
+    public void testWritesCoalesceUntilFlushed() throws Exception {
+        RedisNativeCache<String, String> remote = new RedisNativeCache<String, String>("wb", pool);
+        RedisWriteBehindCache<String, String> cache = new RedisWriteBehindCache<String, String>(remote, 60000L, 100);
+        remote.put("b", "old");
+
+        cache.put("a", "1");
+        cache.put("a", "2");
+        cache.put("b", "x");
+        cache.remove("b");
+
+        assertEquals("2", cache.get("a"));
+        assertNull("a pending remove hides the stored value", cache.get("b"));
+        assertNull(remote.get("a"));
+        assertEquals("old", remote.get("b"));
+        assertEquals(2, cache.getCoalescedCount());
+        assertEquals(2, cache.getPendingCount());
+
+        cache.flush();
+        assertEquals(0, cache.getPendingCount());
+        assertEquals(2, cache.getFlushedCount());
+        assertEquals("2", remote.get("a"));
+        assertNull(remote.get("b"));
+        cache.close();
+    }
+
+    public void testFailedFlushIsRetried() throws Exception {
+        final int[] failures = { 1 };
+        RedisNativeCache<String, String> remote = new RedisNativeCache<String, String>("wb", pool) {
+            @Override
+            public Map<String, Long> putAllVersioned(Map<String, String> entries) throws CacheException {
+                if (failures[0]-- > 0) {
+                    throw new CacheException("Redis is down");
+                }
+                return super.putAllVersioned(entries);
+            }
+        };
+        RedisWriteBehindCache<String, String> cache = new RedisWriteBehindCache<String, String>(remote, 60000L, 100);
+
+        cache.put("a", "1");
+        cache.put("b", "1");
+        try {
+            cache.flush();
+            fail("flush should fail");
+        } catch (CacheException e) {
+            // expected
+        }
+        assertEquals(1, cache.getFailedFlushCount());
+        assertEquals("failed writes are queued again", 2, cache.getPendingCount());
+        assertEquals("1", cache.get("a"));
+
+        cache.put("a", "2");
+        cache.flush();
+        assertEquals(0, cache.getPendingCount());
+        assertEquals("the retry must not overwrite the newer write", "2", remote.get("a"));
+        assertEquals("1", remote.get("b"));
+        cache.close();
+    }
+
+    public void testCloseFlushesAndWritesThrough() throws Exception {
+        RedisNativeCache<String, String> remote = new RedisNativeCache<String, String>("wb", pool);
+        RedisWriteBehindCache<String, String> cache = new RedisWriteBehindCache<String, String>(remote, 60000L, 100);
+
+        cache.put("a", "1");
+        cache.close();
+        assertEquals("1", remote.get("a"));
+
+        long overflows = cache.getOverflowCount();
+        cache.put("b", "1");
+        assertEquals("1", remote.get("b"));
+        assertEquals(overflows + 1, cache.getOverflowCount());
+    }
+}
@@ -0,0 +1,218 @@
+package com.bbkmobile.iqoo.cache.redis.serializer;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * {@link CompactSerializer} round trips, and payloads exchanged between
+ * readers and writers of an old and a new schema: appended fields, removed
+ * field slots and appended enum constants, plus the payloads of
+ * {@link SimpleSerializer} and the Java fallback.
+ */
+public class CompactSerializerTest extends TestCase {
+
+    private static final int ID = CompactSerializer.FIRST_USER_ID;
+
+    public void testRoundTrip() throws Exception {
+        CompactSerializer<Object> serializer = new CompactSerializer<Object>()
+                .register(Everything.class, ID)
+                .register(Nested.class, ID + 1)
+                .register(Color.class, ID + 2);
+        Everything value = new Everything();
+        value.i = Integer.MIN_VALUE;
+        value.l = -1L;
+        value.d = 0.5;
+        value.f = -2.5f;
+        value.s = Short.MAX_VALUE;
+        value.b = Byte.MIN_VALUE;
+        value.c = 'é';
+        value.flag = true;
+        value.text = "café";
+        value.bytes = new byte[] { 0, -1, 127 };
+        value.date = new Date(1400000000000L);
+        value.list = new ArrayList<Object>(Arrays.<Object> asList(1, "two", null, 3L));
+        value.set = new HashSet<Object>(Arrays.<Object> asList("a", "b"));
+        value.map = new LinkedHashMap<Object, Object>();
+        value.map.put("k", Color.BLUE);
+        value.map.put(7, null);
+        value.nested = new Nested();
+        value.nested.name = "inner";
+        value.color = Color.GREEN;
+
+        Everything read = (Everything) serializer.deserialize(serializer.serialize(value));
+        assertEquals(value.i, read.i);
+        assertEquals(value.l, read.l);
+        assertEquals(value.d, read.d);
+        assertEquals(value.f, read.f);
+        assertEquals(value.s, read.s);
+        assertEquals(value.b, read.b);
+        assertEquals(value.c, read.c);
+        assertTrue(read.flag);
+        assertEquals(value.text, read.text);
+        assertTrue(Arrays.equals(value.bytes, read.bytes));
+        assertEquals(value.date, read.date);
+        assertEquals(value.list, read.list);
+        assertEquals(value.set, read.set);
+        assertEquals(value.map, read.map);
+        assertEquals("inner", read.nested.name);
+        assertSame(Color.GREEN, read.color);
+        assertNull(read.missing);
+
+        assertNull(serializer.deserialize(serializer.serialize(null)));
+        assertEquals(Long.MAX_VALUE, serializer.deserialize(serializer.serialize(Long.MAX_VALUE)));
+        assertEquals("", serializer.deserialize(serializer.serialize("")));
+    }
+
+    public void testAppendedFieldsBetweenSchemas() throws Exception {
+        CompactSerializer<Object> old = new CompactSerializer<Object>().register(OldUser.class, ID, "id", "name");
+        CompactSerializer<Object> current = new CompactSerializer<Object>().register(NewUser.class, ID, "id",
+                "name", "email", "score");
+        NewUser written = new NewUser();
+        written.id = 1L;
+        written.name = "n";
+        written.email = "e";
+        written.score = 5;
+
+        // the value after the object shows the unknown fields were skipped
+        List<Object> payload = Arrays.<Object> asList(written, "after");
+        List<?> byOld = (List<?>) old.deserialize(current.serialize(payload));
+        OldUser oldUser = (OldUser) byOld.get(0);
+        assertEquals(1L, oldUser.id);
+        assertEquals("n", oldUser.name);
+        assertEquals("after", byOld.get(1));
+
+        OldUser legacy = new OldUser();
+        legacy.id = 2L;
+        legacy.name = "m";
+        NewUser byNew = (NewUser) current.deserialize(old.serialize(legacy));
+        assertEquals(2L, byNew.id);
+        assertEquals("m", byNew.name);
+        assertNull(byNew.email);
+        assertEquals("missing fields keep their default", -1, byNew.score);
+    }
+
+    public void testRemovedFieldKeepsItsSlot() throws Exception {
+        CompactSerializer<Object> before = new CompactSerializer<Object>().register(NewUser.class, ID, "id",
+                "name", "email", "score");
+        CompactSerializer<Object> after = new CompactSerializer<Object>().register(NewUser.class, ID, "id", null,
+                "email", "score");
+        NewUser user = new NewUser();
+        user.id = 3L;
+        user.name = "dropped";
+        user.email = "e";
+        user.score = 9;
+
+        NewUser read = (NewUser) after.deserialize(before.serialize(user));
+        assertEquals(3L, read.id);
+        assertNull("the removed field is skipped", read.name);
+        assertEquals("e", read.email);
+        assertEquals(9, read.score);
+
+        read = (NewUser) before.deserialize(after.serialize(user));
+        assertNull("the removed slot is written as null", read.name);
+        assertEquals("e", read.email);
+        assertEquals(9, read.score);
+    }
+
+    public void testAppendedEnumConstant() throws Exception {
+        CompactSerializer<Object> old = new CompactSerializer<Object>().register(OldColor.class, ID);
+        CompactSerializer<Object> current = new CompactSerializer<Object>().register(Color.class, ID);
+        assertSame(OldColor.GREEN, old.deserialize(current.serialize(Color.GREEN)));
+        assertSame(Color.GREEN, current.deserialize(old.serialize(OldColor.GREEN)));
+    }
+
+    public void testReadsSimpleSerializerPayloads() throws Exception {
+        List<String> value = new ArrayList<String>(Arrays.asList("a", "b"));
+        byte[] bytes = new SimpleSerializer<Object>().serialize(value);
+        assertEquals(value, new CompactSerializer<Object>().deserialize(bytes));
+    }
+
+    public void testJavaFallback() throws Exception {
+        CompactSerializer<Object> serializer = new CompactSerializer<Object>();
+        BigDecimal value = new BigDecimal("12.345");
+        assertEquals(value, serializer.deserialize(serializer.serialize(value)));
+
+        serializer.setJavaFallback(false);
+        try {
+            serializer.serialize(value);
+            fail("unregistered class without the fallback");
+        } catch (SerializationException e) {
+            assertTrue(e.getMessage().contains(BigDecimal.class.getName()));
+        }
+        try {
+            new CompactSerializer<Object>().serialize(new Object());
+            fail("not serializable");
+        } catch (SerializationException e) {
+            // expected
+        }
+    }
+
+    public void testIdsAreChecked() {
+        CompactSerializer<Object> serializer = new CompactSerializer<Object>().register(Nested.class, ID);
+        try {
+            serializer.register(OldUser.class, ID);
+            fail("id reused");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            serializer.register(OldUser.class, ID - 1);
+            fail("reserved id");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    enum OldColor {
+        RED, GREEN
+    }
+
+    enum Color {
+        RED, GREEN, BLUE
+    }
+
+    static class Nested {
+        String name;
+    }
+
+    static class Everything {
+        int i;
+        long l;
+        double d;
+        float f;
+        short s;
+        byte b;
+        char c;
+        boolean flag;
+        String text;
+        byte[] bytes;
+        Date date;
+        List<Object> list;
+        Set<Object> set;
+        Map<Object, Object> map;
+        Nested nested;
+        Color color;
+        String missing;
+    }
+
+    static class OldUser {
+        long id;
+        String name;
+    }
+
+    static class NewUser {
+        long id;
+        String name;
+        String email;
+        int score = -1;
+    }
+}